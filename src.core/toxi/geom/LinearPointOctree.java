@@ -0,0 +1,676 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * <p>
+ * A static, bulk loaded alternative to {@link PointOctree} for very large
+ * point clouds. All points are stored as packed XYZ triplets in a single float
+ * array, sorted by their Morton (Z-order) code. The octree structure is
+ * implicit: each tree node corresponds to a contiguous range of the sorted
+ * point array, which is located via binary search during queries. Apart from
+ * the coordinates, only a Morton code and the original point index are stored
+ * per point (20 bytes in total), no node objects are created at all.
+ * </p>
+ * 
+ * <p>
+ * Points are quantized to a grid of 1024^3 cells to compute their Morton codes.
+ * Cells are not subdivided any further, so points within the same cell are
+ * tested linearly. Once built, the tree cannot be modified. Building can be
+ * split across multiple threads via a {@link ParallelExecutor}.
+ * </p>
+ */
+public class LinearPointOctree {
+
+    /**
+     * Max. tree depth/number of bits per axis used for Morton codes
+     */
+    public static final int MAX_DEPTH = 10;
+
+    /**
+     * Default max. number of points in a node before it is traversed further
+     */
+    public static final int DEFAULT_LEAF_SIZE = 16;
+
+    protected final float[] coords;
+    protected final int[] codes;
+    protected final int[] ids;
+    protected final int numPoints;
+
+    protected final Vec3D origin;
+    protected final float size;
+
+    protected int leafSize = DEFAULT_LEAF_SIZE;
+
+    /**
+     * Builds a new tree for the given points.
+     * 
+     * @param points
+     */
+    public LinearPointOctree(Collection<? extends ReadonlyVec3D> points) {
+        this(toArray(points), points.size(), null);
+    }
+
+    /**
+     * Builds a new tree for the given packed XYZ coordinates. The array is not
+     * modified and can be discarded after the tree has been built.
+     * 
+     * @param xyz
+     *            point coordinates as XYZ triplets
+     * @param num
+     *            number of points
+     * @param executor
+     *            executor used to build the tree in parallel (or null)
+     */
+    public LinearPointOctree(final float[] xyz, int num,
+            ParallelExecutor executor) {
+        this.numPoints = num;
+        Vec3D min = Vec3D.MAX_VALUE.copy();
+        Vec3D max = Vec3D.MAX_VALUE.getInverted();
+        for (int i = 0, n = num * 3; i < n; i += 3) {
+            float x = xyz[i], y = xyz[i + 1], z = xyz[i + 2];
+            if (x < min.x) {
+                min.x = x;
+            }
+            if (x > max.x) {
+                max.x = x;
+            }
+            if (y < min.y) {
+                min.y = y;
+            }
+            if (y > max.y) {
+                max.y = y;
+            }
+            if (z < min.z) {
+                min.z = z;
+            }
+            if (z > max.z) {
+                max.z = z;
+            }
+        }
+        if (num == 0) {
+            min.clear();
+            max.clear();
+        }
+        Vec3D ext = max.sub(min);
+        this.origin = min;
+        this.size = Math.max(Math.max(Math.max(ext.x, ext.y), ext.z), 1e-6f) * 1.0001f;
+        // compute sort keys: morton code in upper, point index in lower half
+        final long[] keys = new long[num];
+        final float scale = (1 << MAX_DEPTH) / size;
+        RangeTask encode = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int j = i * 3;
+                    long code = mortonCode(cellCoord(xyz[j], origin.x, scale),
+                            cellCoord(xyz[j + 1], origin.y, scale),
+                            cellCoord(xyz[j + 2], origin.z, scale));
+                    keys[i] = (code << 32) | i;
+                }
+            }
+        };
+        if (executor != null) {
+            executor.forRange(0, num, encode);
+            parallelSort(keys, executor);
+        } else {
+            encode.process(0, num);
+            Arrays.sort(keys);
+        }
+        // unpack keys & reorder coordinates
+        this.codes = new int[num];
+        this.ids = new int[num];
+        this.coords = new float[num * 3];
+        RangeTask gather = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    long k = keys[i];
+                    int id = (int) k;
+                    codes[i] = (int) (k >>> 32);
+                    ids[i] = id;
+                    System.arraycopy(xyz, id * 3, coords, i * 3, 3);
+                }
+            }
+        };
+        if (executor != null) {
+            executor.forRange(0, num, gather);
+        } else {
+            gather.process(0, num);
+        }
+    }
+
+    private static final int cellCoord(float x, float offset, float scale) {
+        int c = (int) ((x - offset) * scale);
+        return c < 0 ? 0 : (c >= (1 << MAX_DEPTH) ? (1 << MAX_DEPTH) - 1 : c);
+    }
+
+    /**
+     * Spreads the lower 10 bits of the given value to every 3rd bit.
+     * 
+     * @param v
+     * @return spread bits
+     */
+    private static final int expandBits(int v) {
+        v &= 0x3ff;
+        v = (v | (v << 16)) & 0x30000ff;
+        v = (v | (v << 8)) & 0x300f00f;
+        v = (v | (v << 4)) & 0x30c30c3;
+        v = (v | (v << 2)) & 0x9249249;
+        return v;
+    }
+
+    /**
+     * Computes the 30 bit Morton code for the given cell coordinates. The
+     * octant bit order matches the one used by {@link PointOctree}: x = bit 0,
+     * y = bit 1, z = bit 2.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return morton code
+     */
+    public static final int mortonCode(int x, int y, int z) {
+        return expandBits(x) | (expandBits(y) << 1) | (expandBits(z) << 2);
+    }
+
+    private static void parallelSort(final long[] keys,
+            ParallelExecutor executor) {
+        final int num = keys.length;
+        int numChunks = Math.max(1,
+                Math.min(executor.getNumThreads(), num / 4096));
+        final int[] bounds = new int[numChunks + 1];
+        for (int i = 0; i <= numChunks; i++) {
+            bounds[i] = (int) ((long) num * i / numChunks);
+        }
+        executor.forRange(0, numChunks, numChunks, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    Arrays.sort(keys, bounds[i], bounds[i + 1]);
+                }
+            }
+        });
+        if (numChunks == 1) {
+            return;
+        }
+        // merge sorted runs pairwise
+        long[] src = keys;
+        long[] dest = new long[num];
+        for (int width = 1; width < numChunks; width <<= 1) {
+            final long[] s = src;
+            final long[] d = dest;
+            final int w = width;
+            final int numMerges = (numChunks + 2 * width - 1) / (2 * width);
+            final int chunks = numChunks;
+            executor.forRange(0, numMerges, numMerges, new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int m = from; m < to; m++) {
+                        int lo = bounds[m * 2 * w];
+                        int mid = bounds[Math.min(m * 2 * w + w, chunks)];
+                        int hi = bounds[Math.min(m * 2 * w + 2 * w, chunks)];
+                        merge(s, lo, mid, hi, d);
+                    }
+                }
+            });
+            src = d;
+            dest = s;
+        }
+        if (src != keys) {
+            System.arraycopy(src, 0, keys, 0, num);
+        }
+    }
+
+    private static void merge(long[] src, int lo, int mid, int hi, long[] dest) {
+        int i = lo, j = mid, k = lo;
+        while (i < mid && j < hi) {
+            dest[k++] = src[i] <= src[j] ? src[i++] : src[j++];
+        }
+        while (i < mid) {
+            dest[k++] = src[i++];
+        }
+        while (j < hi) {
+            dest[k++] = src[j++];
+        }
+    }
+
+    private static float[] toArray(Collection<? extends ReadonlyVec3D> points) {
+        float[] xyz = new float[points.size() * 3];
+        int i = 0;
+        for (ReadonlyVec3D p : points) {
+            xyz[i++] = p.x();
+            xyz[i++] = p.y();
+            xyz[i++] = p.z();
+        }
+        return xyz;
+    }
+
+    private final float distanceToNodeSquared(Vec3D p, float minX, float minY,
+            float minZ, float s) {
+        float d = 0, t;
+        if (p.x < minX) {
+            t = minX - p.x;
+            d += t * t;
+        } else if (p.x > minX + s) {
+            t = p.x - minX - s;
+            d += t * t;
+        }
+        if (p.y < minY) {
+            t = minY - p.y;
+            d += t * t;
+        } else if (p.y > minY + s) {
+            t = p.y - minY - s;
+            d += t * t;
+        }
+        if (p.z < minZ) {
+            t = minZ - p.z;
+            d += t * t;
+        } else if (p.z > minZ + s) {
+            t = p.z - minZ - s;
+            d += t * t;
+        }
+        return d;
+    }
+
+    private final float distanceToSquared(int i, Vec3D p) {
+        int j = i * 3;
+        float dx = coords[j] - p.x;
+        float dy = coords[j + 1] - p.y;
+        float dz = coords[j + 2] - p.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the tree's cubic bounding box
+     */
+    public AABB getBounds() {
+        float h = size * 0.5f;
+        return new AABB(origin.add(h, h, h), new Vec3D(h, h, h));
+    }
+
+    /**
+     * Returns the index of the closest point to the given position, as given
+     * in the original input order.
+     * 
+     * @param p
+     *            query point
+     * @return point index or -1, if the tree is empty
+     */
+    public int getNearest(Vec3D p) {
+        int[] result = new int[1];
+        return getKNearest(p, 1, result) > 0 ? result[0] : -1;
+    }
+
+    /**
+     * Selects the k nearest points and stores their positions in the sorted
+     * point array in the given result array, closest first.
+     */
+    private int getKNearestSorted(Vec3D p, int k, int[] result) {
+        if (k < 1 || numPoints == 0) {
+            return 0;
+        }
+        // max-heap of best candidates
+        int[] heap = new int[k];
+        float[] dists = new float[k];
+        int num = nearestInNode(p, k, heap, dists, 0, 0, 0, 0, 0, 0,
+                numPoints, 0);
+        for (int i = num - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            siftDown(heap, dists, i, heap[i], dists[i]);
+        }
+        return num;
+    }
+
+    /**
+     * Selects the k nearest points to the given position.
+     * 
+     * @param p
+     *            query point
+     * @param k
+     *            max. number of points to select
+     * @return list of up to k points, sorted by distance (closest first)
+     */
+    public List<Vec3D> getKNearest(Vec3D p, int k) {
+        int[] indices = new int[Math.max(k, 0)];
+        int num = getKNearestSorted(p, k, indices);
+        List<Vec3D> results = new ArrayList<Vec3D>(num);
+        for (int i = 0; i < num; i++) {
+            results.add(getSortedPoint(indices[i], null));
+        }
+        return results;
+    }
+
+    /**
+     * Selects the k nearest points to the given position and writes their
+     * original indices into the given result array, sorted by distance
+     * (closest first).
+     * 
+     * @param p
+     *            query point
+     * @param k
+     *            max. number of points to select
+     * @param result
+     *            result array with at least k elements
+     * @return number of points found
+     */
+    public int getKNearest(Vec3D p, int k, int[] result) {
+        int num = getKNearestSorted(p, k, result);
+        for (int i = 0; i < num; i++) {
+            result[i] = ids[result[i]];
+        }
+        return num;
+    }
+
+    /**
+     * @return the max. number of points in a node before it is traversed
+     *         further
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int getNumPoints() {
+        return numPoints;
+    }
+
+    /**
+     * Selects all points within the given axis-aligned bounding box.
+     * 
+     * @param b
+     *            AABB
+     * @return selected points or null, if none were found
+     */
+    public List<Vec3D> getPointsWithinBox(AABB b) {
+        final List<Vec3D> results = new ArrayList<Vec3D>();
+        visitPointsWithinBox(b, new OctreePointVisitor() {
+
+            public void visitPoint(Vec3D p) {
+                results.add(p.copy());
+            }
+        });
+        return results.size() > 0 ? results : null;
+    }
+
+    /**
+     * Selects all points within the given sphere.
+     * 
+     * @param c
+     *            sphere origin
+     * @param radius
+     *            sphere radius
+     * @return selected points or null, if none were found
+     */
+    public List<Vec3D> getPointsWithinSphere(Vec3D c, float radius) {
+        final List<Vec3D> results = new ArrayList<Vec3D>();
+        visitPointsWithinSphere(c, radius, new OctreePointVisitor() {
+
+            public void visitPoint(Vec3D p) {
+                results.add(p.copy());
+            }
+        });
+        return results.size() > 0 ? results : null;
+    }
+
+    private Vec3D getSortedPoint(int i, Vec3D result) {
+        if (result == null) {
+            result = new Vec3D();
+        }
+        int j = i * 3;
+        return result.set(coords[j], coords[j + 1], coords[j + 2]);
+    }
+
+    /**
+     * Finds the first index in the given range with a code >= the given one.
+     */
+    private int lowerBound(int lo, int hi, int code) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (codes[mid] < code) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int nearestInNode(Vec3D p, int k, int[] heap, float[] dists,
+            int num, int level, int cx, int cy, int cz, int lo, int hi,
+            int prefix) {
+        if (hi - lo <= leafSize || level == MAX_DEPTH) {
+            for (int i = lo; i < hi; i++) {
+                float d = distanceToSquared(i, p);
+                if (num < k) {
+                    int j = num++;
+                    while (j > 0) {
+                        int parent = (j - 1) >> 1;
+                        if (dists[parent] >= d) {
+                            break;
+                        }
+                        dists[j] = dists[parent];
+                        heap[j] = heap[parent];
+                        j = parent;
+                    }
+                    dists[j] = d;
+                    heap[j] = i;
+                } else if (d < dists[0]) {
+                    siftDown(heap, dists, num, i, d);
+                }
+            }
+            return num;
+        }
+        // compute child ranges & distances, then visit closest children first
+        int childLevel = level + 1;
+        int shift = 3 * (MAX_DEPTH - childLevel);
+        float cs = size / (1 << childLevel);
+        int[] order = new int[8];
+        float[] childDist = new float[8];
+        int[] start = new int[8];
+        int numChildren = 0;
+        for (int o = 0, i = lo; o < 8; o++) {
+            i = lowerBound(i, hi, (prefix * 8 + o) << shift);
+            start[o] = i;
+        }
+        for (int o = 0; o < 8; o++) {
+            int end = o < 7 ? start[o + 1] : hi;
+            if (end > start[o]) {
+                float d = distanceToNodeSquared(p, origin.x
+                        + ((cx << 1) | (o & 1)) * cs, origin.y
+                        + ((cy << 1) | ((o >> 1) & 1)) * cs, origin.z
+                        + ((cz << 1) | (o >> 2)) * cs, cs);
+                int j = numChildren++;
+                while (j > 0 && childDist[j - 1] > d) {
+                    childDist[j] = childDist[j - 1];
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                childDist[j] = d;
+                order[j] = o;
+            }
+        }
+        for (int j = 0; j < numChildren; j++) {
+            if (num == k && childDist[j] > dists[0]) {
+                break;
+            }
+            int o = order[j];
+            int end = o < 7 ? start[o + 1] : hi;
+            num = nearestInNode(p, k, heap, dists, num, childLevel,
+                    (cx << 1) | (o & 1), (cy << 1) | ((o >> 1) & 1),
+                    (cz << 1) | (o >> 2), start[o], end, prefix * 8 + o);
+        }
+        return num;
+    }
+
+    /**
+     * Sets the max. number of points in a node before it is traversed
+     * further during queries.
+     * 
+     * @param leafSize
+     * @return itself
+     */
+    public LinearPointOctree setLeafSize(int leafSize) {
+        this.leafSize = Math.max(leafSize, 1);
+        return this;
+    }
+
+    private static void siftDown(int[] heap, float[] dists, int num, int q,
+            float d) {
+        int i = 0;
+        int half = num >> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            if (child + 1 < num && dists[child + 1] > dists[child]) {
+                child++;
+            }
+            if (d >= dists[child]) {
+                break;
+            }
+            dists[i] = dists[child];
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (num > 0) {
+            dists[i] = d;
+            heap[i] = q;
+        }
+    }
+
+    /**
+     * Applies the given visitor to all points within the given axis-aligned
+     * bounding box. NOTE: The vector passed to the visitor is reused for all
+     * points and needs to be copied if it is to be stored.
+     * 
+     * @param b
+     *            AABB
+     * @param visitor
+     */
+    public void visitPointsWithinBox(AABB b, OctreePointVisitor visitor) {
+        if (numPoints > 0) {
+            visitBox(b.min, b.max, visitor, new Vec3D(), 0, 0, 0, 0, 0,
+                    numPoints, 0);
+        }
+    }
+
+    /**
+     * Applies the given visitor to all points within the given sphere. NOTE:
+     * The vector passed to the visitor is reused for all points and needs to
+     * be copied if it is to be stored.
+     * 
+     * @param c
+     *            sphere origin
+     * @param radius
+     *            sphere radius
+     * @param visitor
+     */
+    public void visitPointsWithinSphere(Vec3D c, float radius,
+            OctreePointVisitor visitor) {
+        if (numPoints > 0) {
+            visitSphere(c, radius * radius, visitor, new Vec3D(), 0, 0, 0, 0,
+                    0, numPoints, 0);
+        }
+    }
+
+    private void visitBox(Vec3D bmin, Vec3D bmax, OctreePointVisitor visitor,
+            Vec3D tmp, int level, int cx, int cy, int cz, int lo, int hi,
+            int prefix) {
+        float cs = size / (1 << level);
+        float minX = origin.x + cx * cs;
+        float minY = origin.y + cy * cs;
+        float minZ = origin.z + cz * cs;
+        if (minX > bmax.x || minX + cs < bmin.x || minY > bmax.y
+                || minY + cs < bmin.y || minZ > bmax.z || minZ + cs < bmin.z) {
+            return;
+        }
+        if (hi - lo <= leafSize || level == MAX_DEPTH) {
+            for (int i = lo, j = lo * 3; i < hi; i++, j += 3) {
+                float x = coords[j], y = coords[j + 1], z = coords[j + 2];
+                if (x >= bmin.x && x <= bmax.x && y >= bmin.y && y <= bmax.y
+                        && z >= bmin.z && z <= bmax.z) {
+                    visitor.visitPoint(tmp.set(x, y, z));
+                }
+            }
+            return;
+        }
+        int childLevel = level + 1;
+        int shift = 3 * (MAX_DEPTH - childLevel);
+        for (int o = 0, i = lo; o < 8; o++) {
+            int end = o < 7 ? lowerBound(i, hi, (prefix * 8 + o + 1) << shift)
+                    : hi;
+            if (end > i) {
+                visitBox(bmin, bmax, visitor, tmp, childLevel, (cx << 1)
+                        | (o & 1), (cy << 1) | ((o >> 1) & 1), (cz << 1)
+                        | (o >> 2), i, end, prefix * 8 + o);
+            }
+            i = end;
+        }
+    }
+
+    private void visitSphere(Vec3D c, float radSquared,
+            OctreePointVisitor visitor, Vec3D tmp, int level, int cx, int cy,
+            int cz, int lo, int hi, int prefix) {
+        float cs = size / (1 << level);
+        if (distanceToNodeSquared(c, origin.x + cx * cs, origin.y + cy * cs,
+                origin.z + cz * cs, cs) > radSquared) {
+            return;
+        }
+        if (hi - lo <= leafSize || level == MAX_DEPTH) {
+            for (int i = lo; i < hi; i++) {
+                if (distanceToSquared(i, c) <= radSquared) {
+                    getSortedPoint(i, tmp);
+                    visitor.visitPoint(tmp);
+                }
+            }
+            return;
+        }
+        int childLevel = level + 1;
+        int shift = 3 * (MAX_DEPTH - childLevel);
+        for (int o = 0, i = lo; o < 8; o++) {
+            int end = o < 7 ? lowerBound(i, hi, (prefix * 8 + o + 1) << shift)
+                    : hi;
+            if (end > i) {
+                visitSphere(c, radSquared, visitor, tmp, childLevel, (cx << 1)
+                        | (o & 1), (cy << 1) | ((o >> 1) & 1), (cz << 1)
+                        | (o >> 2), i, end, prefix * 8 + o);
+            }
+            i = end;
+        }
+    }
+}
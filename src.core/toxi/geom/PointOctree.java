@@ -30,6 +30,7 @@ package toxi.geom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.PriorityQueue;
 
 /**
  * Implements a spatial subdivision tree to work efficiently with large numbers
@@ -41,6 +42,24 @@ import java.util.List;
  */
 public class PointOctree extends AABB implements Shape3D {
 
+    /**
+     * Queue entry used for best-first nearest neighbour searches.
+     */
+    private static final class NodeDistance implements Comparable<NodeDistance> {
+
+        final PointOctree node;
+        final float distSquared;
+
+        NodeDistance(PointOctree node, float distSquared) {
+            this.node = node;
+            this.distSquared = distSquared;
+        }
+
+        public int compareTo(NodeDistance nd) {
+            return Float.compare(distSquared, nd.distSquared);
+        }
+    }
+
     /**
      * alternative tree recursion limit, number of world units when cells are
      * not subdivided any further
@@ -296,6 +315,130 @@ public class PointOctree extends AABB implements Shape3D {
         return results;
     }
 
+    /**
+     * Computes the squared distance between the given point and the closest
+     * point of this node's volume.
+     * 
+     * @param p
+     * @return squared distance (0.0 if the point is inside the node)
+     */
+    protected final float distanceToNodeSquared(Vec3D p) {
+        float d = 0, s;
+        if (p.x < min.x) {
+            s = p.x - min.x;
+            d += s * s;
+        } else if (p.x > max.x) {
+            s = p.x - max.x;
+            d += s * s;
+        }
+        if (p.y < min.y) {
+            s = p.y - min.y;
+            d += s * s;
+        } else if (p.y > max.y) {
+            s = p.y - max.y;
+            d += s * s;
+        }
+        if (p.z < min.z) {
+            s = p.z - min.z;
+            d += s * s;
+        } else if (p.z > max.z) {
+            s = p.z - max.z;
+            d += s * s;
+        }
+        return d;
+    }
+
+    /**
+     * Selects the k nearest points to the given point, using a best-first
+     * traversal of the tree.
+     * 
+     * @param p
+     *            query point
+     * @param k
+     *            max. number of points to select
+     * @return list of up to k points, sorted by distance (closest first)
+     */
+    public List<Vec3D> getKNearest(Vec3D p, int k) {
+        return getKNearest(p, k, null);
+    }
+
+    /**
+     * Selects the k nearest points to the given point, using a best-first
+     * traversal of the tree, and adds them to the given result list.
+     * 
+     * @param p
+     *            query point
+     * @param k
+     *            max. number of points to select
+     * @param results
+     *            existing result list or null, if a new one should be created
+     * @return result list with up to k points appended, sorted by distance
+     *         (closest first)
+     */
+    public List<Vec3D> getKNearest(Vec3D p, int k, List<Vec3D> results) {
+        if (results == null) {
+            results = new ArrayList<Vec3D>(k);
+        }
+        if (k < 1) {
+            return results;
+        }
+        // max-heap of the best candidates found so far
+        Vec3D[] nearest = new Vec3D[k];
+        float[] dists = new float[k];
+        int num = 0;
+        PriorityQueue<NodeDistance> queue = new PriorityQueue<NodeDistance>();
+        queue.add(new NodeDistance(this, distanceToNodeSquared(p)));
+        while (!queue.isEmpty()) {
+            NodeDistance nd = queue.poll();
+            if (num == k && nd.distSquared > dists[0]) {
+                break;
+            }
+            PointOctree node = nd.node;
+            if (node.points != null) {
+                for (Vec3D q : node.points) {
+                    float d = q.distanceToSquared(p);
+                    if (num < k) {
+                        // sift up
+                        int i = num++;
+                        while (i > 0) {
+                            int parent = (i - 1) >> 1;
+                            if (dists[parent] >= d) {
+                                break;
+                            }
+                            dists[i] = dists[parent];
+                            nearest[i] = nearest[parent];
+                            i = parent;
+                        }
+                        dists[i] = d;
+                        nearest[i] = q;
+                    } else if (d < dists[0]) {
+                        siftDown(nearest, dists, num, q, d);
+                    }
+                }
+            } else if (node.numChildren > 0) {
+                for (int i = 0; i < 8; i++) {
+                    PointOctree c = node.children[i];
+                    if (c != null) {
+                        float d = c.distanceToNodeSquared(p);
+                        if (num < k || d <= dists[0]) {
+                            queue.add(new NodeDistance(c, d));
+                        }
+                    }
+                }
+            }
+        }
+        // drain heap into sorted order
+        int offset = results.size();
+        for (int i = 0; i < num; i++) {
+            results.add(null);
+        }
+        for (int i = num - 1; i >= 0; i--) {
+            results.set(offset + i, nearest[0]);
+            siftDown(nearest, dists, i, nearest[i], dists[i]);
+        }
+        return results;
+    }
+
     /**
      * Selects all stored points within the given axis-aligned bounding box.
      * 
@@ -304,11 +447,25 @@ public class PointOctree extends AABB implements Shape3D {
      * @return all points with the box volume
      */
     public List<Vec3D> getPointsWithinBox(AABB b) {
-        ArrayList<Vec3D> results = null;
-        if (this.intersectsBox(b)) {
+        return getPointsWithinBox(b, null);
+    }
+
+    /**
+     * Adds all stored points within the given axis-aligned bounding box to
+     * the given result list. No intermediate lists are created during the tree
+     * traversal.
+     * 
+     * @param b
+     *            AABB
+     * @param results
+     *            existing result list or null, if a new one should be created
+     * @return result list or null, if no points were found and no list given
+     */
+    public List<Vec3D> getPointsWithinBox(AABB b, List<Vec3D> results) {
+        if (intersectsNode(b)) {
             if (points != null) {
                 for (Vec3D q : points) {
-                    if (q.isInAABB(b)) {
+                    if (isInBox(q, b)) {
                         if (results == null) {
                             results = new ArrayList<Vec3D>();
                         }
@@ -318,13 +475,7 @@ public class PointOctree extends AABB implements Shape3D {
             } else if (numChildren > 0) {
                 for (int i = 0; i < 8; i++) {
                     if (children[i] != null) {
-                        List<Vec3D> points = children[i].getPointsWithinBox(b);
-                        if (points != null) {
-                            if (results == null) {
-                                results = new ArrayList<Vec3D>();
-                            }
-                            results.addAll(points);
-                        }
+                        results = children[i].getPointsWithinBox(b, results);
                     }
                 }
             }
@@ -340,11 +491,39 @@ public class PointOctree extends AABB implements Shape3D {
      * @return selected points
      */
     public List<Vec3D> getPointsWithinSphere(Sphere s) {
-        ArrayList<Vec3D> results = null;
-        if (this.intersectsSphere(s)) {
+        return getPointsWithinSphere(s, s.radius, null);
+    }
+
+    /**
+     * Selects all stored points within the given sphere volume
+     * 
+     * @param sphereOrigin
+     * @param clipRadius
+     * @return selected points
+     */
+    public List<Vec3D> getPointsWithinSphere(Vec3D sphereOrigin,
+            float clipRadius) {
+        return getPointsWithinSphere(sphereOrigin, clipRadius, null);
+    }
+
+    /**
+     * Adds all stored points within the given sphere volume to the given
+     * result list. No intermediate lists are created during the tree
+     * traversal.
+     * 
+     * @param sphereOrigin
+     * @param clipRadius
+     * @param results
+     *            existing result list or null, if a new one should be created
+     * @return result list or null, if no points were found and no list given
+     */
+    public List<Vec3D> getPointsWithinSphere(Vec3D sphereOrigin,
+            float clipRadius, List<Vec3D> results) {
+        if (intersectsSphere(sphereOrigin, clipRadius)) {
             if (points != null) {
+                float radSquared = clipRadius * clipRadius;
                 for (Vec3D q : points) {
-                    if (s.containsPoint(q)) {
+                    if (q.distanceToSquared(sphereOrigin) <= radSquared) {
                         if (results == null) {
                             results = new ArrayList<Vec3D>();
                         }
@@ -354,14 +533,8 @@ public class PointOctree extends AABB implements Shape3D {
             } else if (numChildren > 0) {
                 for (int i = 0; i < 8; i++) {
                     if (children[i] != null) {
-                        List<Vec3D> points = children[i]
-                                .getPointsWithinSphere(s);
-                        if (points != null) {
-                            if (results == null) {
-                                results = new ArrayList<Vec3D>();
-                            }
-                            results.addAll(points);
-                        }
+                        results = children[i].getPointsWithinSphere(
+                                sphereOrigin, clipRadius, results);
                     }
                 }
             }
@@ -369,18 +542,6 @@ public class PointOctree extends AABB implements Shape3D {
         return results;
     }
 
-    /**
-     * Selects all stored points within the given sphere volume
-     * 
-     * @param sphereOrigin
-     * @param clipRadius
-     * @return selected points
-     */
-    public List<Vec3D> getPointsWithinSphere(Vec3D sphereOrigin,
-            float clipRadius) {
-        return getPointsWithinSphere(new Sphere(sphereOrigin, clipRadius));
-    }
-
     /**
      * @return the size
      */
@@ -388,6 +549,16 @@ public class PointOctree extends AABB implements Shape3D {
         return size;
     }
 
+    private final boolean intersectsNode(AABB b) {
+        return min.x <= b.max.x && max.x >= b.min.x && min.y <= b.max.y
+                && max.y >= b.min.y && min.z <= b.max.z && max.z >= b.min.z;
+    }
+
+    private static final boolean isInBox(Vec3D q, AABB b) {
+        return q.x >= b.min.x && q.x <= b.max.x && q.y >= b.min.y
+                && q.y <= b.max.y && q.z >= b.min.z && q.z <= b.max.z;
+    }
+
     private void reduceBranch() {
         if (points != null && points.size() == 0) {
             points = null;
@@ -432,6 +603,28 @@ public class PointOctree extends AABB implements Shape3D {
         }
     }
 
+    private static void siftDown(Vec3D[] nearest, float[] dists, int num,
+            Vec3D q, float d) {
+        int i = 0;
+        int half = num >> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            if (child + 1 < num && dists[child + 1] > dists[child]) {
+                child++;
+            }
+            if (d >= dists[child]) {
+                break;
+            }
+            dists[i] = dists[child];
+            nearest[i] = nearest[child];
+            i = child;
+        }
+        if (num > 0) {
+            dists[i] = d;
+            nearest[i] = q;
+        }
+    }
+
     /**
      * @param minNodeSize
      */
@@ -458,4 +651,61 @@ public class PointOctree extends AABB implements Shape3D {
     public String toString() {
         return "<octree> offset: " + super.toString() + " size: " + size;
     }
+
+    /**
+     * Applies the given visitor to all stored points within the given
+     * axis-aligned bounding box, without creating any result lists.
+     * 
+     * @param b
+     *            AABB
+     * @param visitor
+     */
+    public void visitPointsWithinBox(AABB b, OctreePointVisitor visitor) {
+        if (intersectsNode(b)) {
+            if (points != null) {
+                for (int i = 0, num = points.size(); i < num; i++) {
+                    Vec3D q = points.get(i);
+                    if (isInBox(q, b)) {
+                        visitor.visitPoint(q);
+                    }
+                }
+            } else if (numChildren > 0) {
+                for (int i = 0; i < 8; i++) {
+                    if (children[i] != null) {
+                        children[i].visitPointsWithinBox(b, visitor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the given visitor to all stored points within the given sphere
+     * volume, without creating any result lists.
+     * 
+     * @param sphereOrigin
+     * @param clipRadius
+     * @param visitor
+     */
+    public void visitPointsWithinSphere(Vec3D sphereOrigin, float clipRadius,
+            OctreePointVisitor visitor) {
+        if (intersectsSphere(sphereOrigin, clipRadius)) {
+            if (points != null) {
+                float radSquared = clipRadius * clipRadius;
+                for (int i = 0, num = points.size(); i < num; i++) {
+                    Vec3D q = points.get(i);
+                    if (q.distanceToSquared(sphereOrigin) <= radSquared) {
+                        visitor.visitPoint(q);
+                    }
+                }
+            } else if (numChildren > 0) {
+                for (int i = 0; i < 8; i++) {
+                    if (children[i] != null) {
+                        children[i].visitPointsWithinSphere(sphereOrigin,
+                                clipRadius, visitor);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import toxi.math.MathUtils;
+
+/**
+ * A uniform grid based {@link SpatialIndex} for 3D points. The indexed volume
+ * is defined by an axis-aligned bounding box which is subdivided into cubic
+ * cells of the given size. Points outside the box are assigned to the nearest
+ * border cell. Cell lists are allocated lazily and kept between calls to
+ * {@link #clear()}, so that re-indexing a similar set of points each frame
+ * (e.g. for {@link toxi.physics3d.VerletPhysics3D}) does not produce garbage.
+ * 
+ * Unlike {@link SpatialBins} this index does not check for duplicates when
+ * adding points.
+ */
+public class SpatialGrid3D implements SpatialIndex<Vec3D> {
+
+    private final Vec3D min;
+    private final float invCellSize;
+    private final int resX, resY, resZ, sliceSize;
+
+    private final List<Vec3D>[] cells;
+    private int[] usedCells;
+    private int numUsedCells;
+    private int numItems;
+
+    /**
+     * Creates a new grid covering the given bounding box.
+     * 
+     * @param bounds
+     *            indexed volume
+     * @param cellSize
+     *            edge length of a single grid cell. For best performance this
+     *            should be similar to the typical query radius.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public SpatialGrid3D(AABB bounds, float cellSize) {
+        this.min = bounds.getMin();
+        Vec3D size = bounds.getExtent().scale(2);
+        this.invCellSize = 1f / cellSize;
+        this.resX = Math.max((int) Math.ceil(size.x * invCellSize), 1);
+        this.resY = Math.max((int) Math.ceil(size.y * invCellSize), 1);
+        this.resZ = Math.max((int) Math.ceil(size.z * invCellSize), 1);
+        this.sliceSize = resX * resY;
+        this.cells = new List[sliceSize * resZ];
+        this.usedCells = new int[16];
+    }
+
+    private final int cellCoord(float x, float offset, int res) {
+        return MathUtils.clip(MathUtils.floor((x - offset) * invCellSize), 0,
+                res - 1);
+    }
+
+    private final int cellIndexFor(Vec3D p) {
+        return cellCoord(p.x, min.x, resX) + cellCoord(p.y, min.y, resY)
+                * resX + cellCoord(p.z, min.z, resZ) * sliceSize;
+    }
+
+    public void clear() {
+        for (int i = 0; i < numUsedCells; i++) {
+            cells[usedCells[i]].clear();
+        }
+        numUsedCells = 0;
+        numItems = 0;
+    }
+
+    public boolean index(Vec3D p) {
+        int id = cellIndexFor(p);
+        List<Vec3D> cell = cells[id];
+        if (cell == null) {
+            cell = cells[id] = new ArrayList<Vec3D>(4);
+        }
+        if (cell.size() == 0) {
+            if (numUsedCells == usedCells.length) {
+                int[] tmp = new int[usedCells.length * 2];
+                System.arraycopy(usedCells, 0, tmp, 0, numUsedCells);
+                usedCells = tmp;
+            }
+            usedCells[numUsedCells++] = id;
+        }
+        cell.add(p);
+        numItems++;
+        return true;
+    }
+
+    public boolean isIndexed(Vec3D p) {
+        List<Vec3D> cell = cells[cellIndexFor(p)];
+        return cell != null && cell.contains(p);
+    }
+
+    public List<Vec3D> itemsWithinRadius(Vec3D p, float radius,
+            List<Vec3D> results) {
+        int x1 = cellCoord(p.x - radius, min.x, resX);
+        int x2 = cellCoord(p.x + radius, min.x, resX);
+        int y1 = cellCoord(p.y - radius, min.y, resY);
+        int y2 = cellCoord(p.y + radius, min.y, resY);
+        int z1 = cellCoord(p.z - radius, min.z, resZ);
+        int z2 = cellCoord(p.z + radius, min.z, resZ);
+        float radSquared = radius * radius;
+        for (int z = z1; z <= z2; z++) {
+            for (int y = y1; y <= y2; y++) {
+                int offset = y * resX + z * sliceSize;
+                for (int x = x1; x <= x2; x++) {
+                    List<Vec3D> cell = cells[offset + x];
+                    if (cell != null) {
+                        for (int i = 0, num = cell.size(); i < num; i++) {
+                            Vec3D q = cell.get(i);
+                            if (q.distanceToSquared(p) < radSquared) {
+                                if (results == null) {
+                                    results = new ArrayList<Vec3D>();
+                                }
+                                results.add(q);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    public boolean reindex(Vec3D p, Vec3D q) {
+        if (cellIndexFor(p) != cellIndexFor(q)) {
+            unindex(p);
+            return index(q);
+        }
+        return false;
+    }
+
+    public int size() {
+        return numItems;
+    }
+
+    public boolean unindex(Vec3D p) {
+        List<Vec3D> cell = cells[cellIndexFor(p)];
+        if (cell != null && cell.remove(p)) {
+            numItems--;
+            return true;
+        }
+        return false;
+    }
+}
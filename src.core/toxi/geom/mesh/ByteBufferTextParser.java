@@ -0,0 +1,252 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Minimal parser for ASCII mesh formats, reading tokens directly from a (memory
+ * mapped) byte buffer without creating intermediate strings. Number parsing
+ * falls back to {@link Float#parseFloat(String)} only for values which can't
+ * be converted exactly via the fast path (e.g. more than 15 significant
+ * digits, large exponents, NaN, infinity).
+ */
+final class ByteBufferTextParser {
+
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private int pos;
+
+    /**
+     * Set if the last parsed number was invalid
+     */
+    boolean hasError;
+
+    ByteBufferTextParser(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /**
+     * @return current character or 0, if at the end of the buffer
+     */
+    int current() {
+        return pos < limit ? buf.get(pos) : 0;
+    }
+
+    /**
+     * @return true, if the end of the buffer has been reached
+     */
+    boolean isEOF() {
+        return pos >= limit;
+    }
+
+    /**
+     * @return true, if at the end of the current line (or buffer)
+     */
+    boolean isEOL() {
+        if (pos >= limit) {
+            return true;
+        }
+        byte c = buf.get(pos);
+        return c == '\n' || c == '\r';
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * @return the character after the current one (or 0)
+     */
+    int next() {
+        return pos + 1 < limit ? buf.get(pos + 1) : 0;
+    }
+
+    /**
+     * Skips whitespace and parses a floating point number.
+     * 
+     * @return number or 0, if there was no valid number ({@link #hasError} is
+     *         set in this case)
+     */
+    float parseFloat() {
+        skipWhitespace();
+        int start = pos;
+        boolean isNegative = false;
+        int c = current();
+        if (c == '-' || c == '+') {
+            isNegative = c == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int numDigits = 0;
+        int numSignificant = 0;
+        int exp = 0;
+        boolean isFraction = false;
+        while (pos < limit) {
+            c = buf.get(pos);
+            if (c >= '0' && c <= '9') {
+                numDigits++;
+                if (mantissa > 0 || c != '0') {
+                    numSignificant++;
+                }
+                if (numSignificant <= 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (isFraction) {
+                        exp--;
+                    }
+                } else if (!isFraction) {
+                    exp++;
+                }
+            } else if (c == '.' && !isFraction) {
+                isFraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (numDigits > 0 && (c == 'e' || c == 'E')) {
+            pos++;
+            exp += parseIntToken();
+        }
+        if (numDigits == 0 || numSignificant > 18
+                || mantissa >= MAX_EXACT_MANTISSA || exp < -22 || exp > 22) {
+            return parseFloatSlow(start);
+        }
+        double x = mantissa;
+        if (exp < 0) {
+            x /= POW10[-exp];
+        } else if (exp > 0) {
+            x *= POW10[exp];
+        }
+        return (float) (isNegative ? -x : x);
+    }
+
+    private float parseFloatSlow(int start) {
+        while (pos < limit && !isWhitespace(buf.get(pos)) && !isEOL()) {
+            pos++;
+        }
+        try {
+            return Float.parseFloat(substring(start, pos));
+        } catch (NumberFormatException e) {
+            hasError = true;
+            return 0;
+        }
+    }
+
+    /**
+     * Skips whitespace and parses an integer.
+     * 
+     * @return number or 0, if there was no valid number ({@link #hasError} is
+     *         set in this case)
+     */
+    int parseInt() {
+        skipWhitespace();
+        return parseIntToken();
+    }
+
+    private int parseIntToken() {
+        boolean isNegative = false;
+        int c = current();
+        if (c == '-' || c == '+') {
+            isNegative = c == '-';
+            pos++;
+        }
+        long x = 0;
+        int start = pos;
+        while (pos < limit) {
+            c = buf.get(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            if (x <= Integer.MAX_VALUE) {
+                x = x * 10 + (c - '0');
+            }
+            pos++;
+        }
+        if (pos == start || x > Integer.MAX_VALUE) {
+            hasError = true;
+            return 0;
+        }
+        return (int) (isNegative ? -x : x);
+    }
+
+    /**
+     * Moves to the beginning of the next line.
+     */
+    void skipLine() {
+        while (pos < limit && buf.get(pos) != '\n') {
+            pos++;
+        }
+        pos++;
+    }
+
+    /**
+     * Skips all characters up to the next whitespace or line end.
+     */
+    void skipToken() {
+        while (pos < limit && !isWhitespace(buf.get(pos)) && !isEOL()) {
+            pos++;
+        }
+    }
+
+    /**
+     * Skips spaces and tabs (but not line breaks).
+     */
+    void skipWhitespace() {
+        while (pos < limit && isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+    }
+
+    private String substring(int start, int end) {
+        byte[] b = new byte[end - start];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = buf.get(start + i);
+        }
+        try {
+            return new String(b, "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import toxi.geom.ReadonlyVec3D;
+
+/**
+ * Vertex weld strategy only merging vertices with identical coordinates (same
+ * semantics as the default lookup via {@link TriangleMesh#vertices}), but
+ * using a flat open addressing hash table without any per entry objects.
+ */
+public class ExactWeldStrategy implements VertexWeldStrategy {
+
+    protected Vertex[] table;
+    protected int size;
+
+    public ExactWeldStrategy() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity
+     *            expected number of vertices
+     */
+    public ExactWeldStrategy(int capacity) {
+        table = new Vertex[Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1];
+    }
+
+    public void addVertex(Vertex v) {
+        if (size * 2 >= table.length) {
+            rehash(table.length * 2);
+        }
+        insert(table, v);
+        size++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = null;
+        }
+        size = 0;
+    }
+
+    public Vertex getVertexFor(ReadonlyVec3D v) {
+        float x = v.x();
+        float y = v.y();
+        float z = v.z();
+        int mask = table.length - 1;
+        int slot = hash(x, y, z) & mask;
+        Vertex t;
+        while ((t = table[slot]) != null) {
+            if (t.x == x && t.y == y && t.z == z) {
+                return t;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    static final int hash(float x, float y, float z) {
+        // consistent with Vec3D.hashCode() & equals(), i.e. -0 == 0
+        int h = Float.floatToIntBits(x + 0f);
+        h = h * 31 + Float.floatToIntBits(y + 0f);
+        h = h * 31 + Float.floatToIntBits(z + 0f);
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void insert(Vertex[] table, Vertex v) {
+        int mask = table.length - 1;
+        int slot = hash(v.x, v.y, v.z) & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = v;
+    }
+
+    private void rehash(int capacity) {
+        Vertex[] newTable = new Vertex[capacity];
+        for (Vertex v : table) {
+            if (v != null) {
+                insert(newTable, v);
+            }
+        }
+        table = newTable;
+    }
+
+    public void removeVertex(Vertex v) {
+        int mask = table.length - 1;
+        int slot = hash(v.x, v.y, v.z) & mask;
+        while (table[slot] != null) {
+            if (table[slot] == v) {
+                // backward shift deletion
+                int gap = slot;
+                slot = (slot + 1) & mask;
+                while (table[slot] != null) {
+                    Vertex t = table[slot];
+                    int home = hash(t.x, t.y, t.z) & mask;
+                    if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                        table[gap] = t;
+                        gap = slot;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                table[gap] = null;
+                size--;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return number of indexed vertices
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import toxi.geom.ReadonlyVec3D;
+
+/**
+ * Vertex weld strategy merging vertices within a given distance tolerance, for
+ * example to clean up numerical noise in generated or imported meshes. New
+ * positions are welded to the closest existing vertex within tolerance.
+ * Vertices are indexed in a spatial hash grid with a cell size equal to the
+ * tolerance, so each lookup only needs to check the 27 cells around a
+ * position. The grid is stored in flat primitive arrays.
+ */
+public class GridWeldStrategy implements VertexWeldStrategy {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    protected final float tolerance;
+    protected final float tolSquared;
+    protected final float invCellSize;
+
+    protected long[] cellKeys;
+    protected int[] cellHeads;
+    protected int numCells;
+
+    protected Vertex[] entries;
+    protected int[] next;
+    protected int numEntries;
+    protected int freeList = -1;
+    protected int size;
+
+    public GridWeldStrategy(float tolerance) {
+        this(tolerance, 1024);
+    }
+
+    /**
+     * @param tolerance
+     *            max. distance between vertices to be welded
+     * @param capacity
+     *            expected number of vertices
+     */
+    public GridWeldStrategy(float tolerance, int capacity) {
+        if (tolerance <= 0) {
+            throw new IllegalArgumentException("tolerance must be > 0");
+        }
+        this.tolerance = tolerance;
+        this.tolSquared = tolerance * tolerance;
+        this.invCellSize = 1f / tolerance;
+        capacity = Math.max(capacity, 8);
+        cellKeys = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        cellHeads = new int[cellKeys.length];
+        entries = new Vertex[capacity];
+        next = new int[capacity];
+        clear();
+    }
+
+    public void addVertex(Vertex v) {
+        int id;
+        if (freeList != -1) {
+            id = freeList;
+            freeList = next[id];
+        } else {
+            if (numEntries == entries.length) {
+                Vertex[] e = new Vertex[numEntries * 2];
+                System.arraycopy(entries, 0, e, 0, numEntries);
+                entries = e;
+                int[] n = new int[numEntries * 2];
+                System.arraycopy(next, 0, n, 0, numEntries);
+                next = n;
+            }
+            id = numEntries++;
+        }
+        int slot = getCellSlot(getCellKey(v.x, v.y, v.z), true);
+        entries[id] = v;
+        next[id] = cellHeads[slot];
+        cellHeads[slot] = id;
+        size++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < cellKeys.length; i++) {
+            cellKeys[i] = EMPTY;
+        }
+        for (int i = 0; i < numEntries; i++) {
+            entries[i] = null;
+        }
+        numCells = 0;
+        numEntries = 0;
+        freeList = -1;
+        size = 0;
+    }
+
+    private final int floor(float x) {
+        float c = x * invCellSize;
+        int i = (int) c;
+        return c < i ? i - 1 : i;
+    }
+
+    private static final long getCellKey(int x, int y, int z) {
+        return (x & 0x1fffffL) | (y & 0x1fffffL) << 21
+                | (z & 0x1fffffL) << 42;
+    }
+
+    private final long getCellKey(float x, float y, float z) {
+        return getCellKey(floor(x), floor(y), floor(z));
+    }
+
+    /**
+     * @return table slot for the given cell or -1, if the cell doesn't exist
+     *         (and create was false)
+     */
+    private int getCellSlot(long key, boolean create) {
+        int mask = cellKeys.length - 1;
+        int slot = hash(key) & mask;
+        long k;
+        while ((k = cellKeys[slot]) != EMPTY) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+        if ((numCells + 1) * 2 > cellKeys.length) {
+            rehash(cellKeys.length * 2);
+            return getCellSlot(key, true);
+        }
+        cellKeys[slot] = key;
+        cellHeads[slot] = -1;
+        numCells++;
+        return slot;
+    }
+
+    /**
+     * @return the tolerance
+     */
+    public float getTolerance() {
+        return tolerance;
+    }
+
+    public Vertex getVertexFor(ReadonlyVec3D v) {
+        float x = v.x();
+        float y = v.y();
+        float z = v.z();
+        int cx = floor(x);
+        int cy = floor(y);
+        int cz = floor(z);
+        Vertex closest = null;
+        float minDist = tolSquared;
+        for (int k = cz - 1; k <= cz + 1; k++) {
+            for (int j = cy - 1; j <= cy + 1; j++) {
+                for (int i = cx - 1; i <= cx + 1; i++) {
+                    int slot = getCellSlot(getCellKey(i, j, k), false);
+                    if (slot == -1) {
+                        continue;
+                    }
+                    for (int e = cellHeads[slot]; e != -1; e = next[e]) {
+                        Vertex t = entries[e];
+                        float dx = t.x - x;
+                        float dy = t.y - y;
+                        float dz = t.z - z;
+                        float d = dx * dx + dy * dy + dz * dz;
+                        if (d <= minDist) {
+                            if (d < minDist || closest == null
+                                    || t.id < closest.id) {
+                                closest = t;
+                                minDist = d;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    private static final int hash(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+        cellKeys = new long[capacity];
+        cellHeads = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            cellKeys[i] = EMPTY;
+        }
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (cellKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                cellKeys[slot] = oldKeys[i];
+                cellHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    public void removeVertex(Vertex v) {
+        int slot = getCellSlot(getCellKey(v.x, v.y, v.z), false);
+        if (slot != -1) {
+            for (int e = cellHeads[slot], prev = -1; e != -1; prev = e, e = next[e]) {
+                if (entries[e] == v) {
+                    if (prev == -1) {
+                        cellHeads[slot] = next[e];
+                    } else {
+                        next[prev] = next[e];
+                    }
+                    entries[e] = null;
+                    next[e] = freeList;
+                    freeList = e;
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of indexed vertices
+     */
+    public int size() {
+        return size;
+    }
+}
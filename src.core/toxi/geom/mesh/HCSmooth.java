@@ -0,0 +1,154 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import toxi.util.RangeTask;
+
+/**
+ * Humphrey's Classes (HC) smoothing filter. After each laplacian step the
+ * vertices are pushed back towards a blend of their original & previous
+ * positions, which largely avoids the shrinkage of plain
+ * {@link LaplacianSmooth}.
+ * 
+ * J. Vollmer, R. Mencl, H. Mueller, "Improved Laplacian Smoothing of Noisy
+ * Surface Meshes", Eurographics 1999.
+ */
+public class HCSmooth extends SmoothFilter {
+
+    protected float alpha;
+    protected float beta;
+
+    public HCSmooth() {
+        this(0, 0.5f);
+    }
+
+    /**
+     * @param alpha
+     *            influence of the original positions (0.0 .. 1.0)
+     * @param beta
+     *            influence of the previous positions (0.0 .. 1.0)
+     */
+    public HCSmooth(float alpha, float beta) {
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+
+    /**
+     * @return the alpha
+     */
+    public float getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * @return the beta
+     */
+    public float getBeta() {
+        return beta;
+    }
+
+    /**
+     * @param alpha
+     *            the alpha to set
+     * @return itself
+     */
+    public HCSmooth setAlpha(float alpha) {
+        this.alpha = alpha;
+        return this;
+    }
+
+    /**
+     * @param beta
+     *            the beta to set
+     * @return itself
+     */
+    public HCSmooth setBeta(float beta) {
+        this.beta = beta;
+        return this;
+    }
+
+    @Override
+    protected float[] smooth(final VertexAdjacency adj, float[] pos,
+            int numIterations) {
+        final float[] orig = pos;
+        final float[] q = pos.clone();
+        final float[] p = pos.clone();
+        final float[] b = new float[pos.length];
+        final int[] selected = adj.selected;
+        final int[] offsets = adj.offsets;
+        final int[] neighbours = adj.neighbours;
+        final float a = alpha;
+        final float a1 = 1 - alpha;
+        final float bt = beta;
+        final float bt1 = 1 - beta;
+        RangeTask correction = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int i = selected[k] * 3;
+                    b[i] = p[i] - (a * orig[i] + a1 * q[i]);
+                    b[i + 1] = p[i + 1] - (a * orig[i + 1] + a1 * q[i + 1]);
+                    b[i + 2] = p[i + 2] - (a * orig[i + 2] + a1 * q[i + 2]);
+                }
+            }
+        };
+        RangeTask pushBack = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int i = selected[k] * 3;
+                    int start = offsets[k];
+                    int end = offsets[k + 1];
+                    float x = 0, y = 0, z = 0;
+                    if (end > start) {
+                        for (int j = start; j < end; j++) {
+                            int n = neighbours[j] * 3;
+                            x += b[n];
+                            y += b[n + 1];
+                            z += b[n + 2];
+                        }
+                        float s = bt1 / (end - start);
+                        x *= s;
+                        y *= s;
+                        z *= s;
+                    }
+                    q[i] = p[i] - (bt * b[i] + x);
+                    q[i + 1] = p[i + 1] - (bt * b[i + 1] + y);
+                    q[i + 2] = p[i + 2] - (bt * b[i + 2] + z);
+                }
+            }
+        };
+        for (int i = 0; i < numIterations; i++) {
+            adj.laplacian(q, p, 1);
+            adj.run(correction);
+            adj.run(pushBack);
+        }
+        return q;
+    }
+}
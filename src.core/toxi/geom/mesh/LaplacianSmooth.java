@@ -27,48 +27,57 @@
 
 package toxi.geom.mesh;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-
-import toxi.geom.Vec3D;
-
 /**
- * Applies a laplacian smooth function to all vertices in the mesh
- * 
+ * Applies a laplacian smooth function to all selected vertices in the mesh.
+ * Each iteration moves vertices towards (or with the default weight of 1.0,
+ * straight to) the average position of their neighbours. Note that repeated
+ * laplacian smoothing shrinks the mesh, see {@link TaubinSmooth} and
+ * {@link HCSmooth} for volume preserving alternatives.
  */
-public class LaplacianSmooth implements WEMeshFilterStrategy {
+public class LaplacianSmooth extends SmoothFilter {
 
-    public void filter(VertexSelector selector, int numIterations) {
-        final Collection<Vertex> selection = selector.getSelection();
-        if (!(selector.getMesh() instanceof WETriangleMesh)) {
-            throw new IllegalArgumentException(
-                    "This filter requires a WETriangleMesh");
-        }
-        final WETriangleMesh mesh = (WETriangleMesh) selector.getMesh();
-        final HashMap<Vertex, Vec3D> filtered = new HashMap<Vertex, Vec3D>(
-                selection.size());
-        for (int i = 0; i < numIterations; i++) {
-            filtered.clear();
-            for (Vertex v : selection) {
-                final Vec3D laplacian = new Vec3D();
-                final List<WEVertex> neighbours = ((WEVertex) v).getNeighbors();
-                for (WEVertex n : neighbours) {
-                    laplacian.addSelf(n);
-                }
-                laplacian.scaleSelf(1f / neighbours.size());
-                filtered.put(v, laplacian);
-            }
-            for (Vertex v : filtered.keySet()) {
-                mesh.vertices.get(v).set(filtered.get(v));
-            }
-            mesh.rebuildIndex();
-        }
-        mesh.computeFaceNormals();
-        mesh.computeVertexNormals();
+    protected float weight;
+
+    public LaplacianSmooth() {
+        this(1);
     }
 
-    public void filter(WETriangleMesh mesh, int numIterations) {
-        filter(new DefaultSelector(mesh).selectVertices(), numIterations);
+    /**
+     * @param weight
+     *            interpolation weight between old position and neighbour
+     *            average
+     */
+    public LaplacianSmooth(float weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * @return the weight
+     */
+    public float getWeight() {
+        return weight;
+    }
+
+    /**
+     * @param weight
+     *            the weight to set
+     * @return itself
+     */
+    public LaplacianSmooth setWeight(float weight) {
+        this.weight = weight;
+        return this;
+    }
+
+    @Override
+    protected float[] smooth(VertexAdjacency adj, float[] pos,
+            int numIterations) {
+        float[] tmp = pos.clone();
+        for (int i = 0; i < numIterations; i++) {
+            adj.laplacian(pos, tmp, weight);
+            float[] t = pos;
+            pos = tmp;
+            tmp = t;
+        }
+        return pos;
     }
 }
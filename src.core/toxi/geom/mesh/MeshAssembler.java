@@ -0,0 +1,350 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import toxi.geom.Vec3D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Shared helpers for the mesh readers, turning packed (unwelded) face vertex
+ * coordinates into mesh instances. For plain {@link TriangleMesh} targets,
+ * vertices are welded and mesh elements created in bulk (and in parallel, if
+ * an executor is given). Other mesh types are populated via
+ * {@link Mesh3D#addFace(Vec3D, Vec3D, Vec3D)}. Either way, the resulting mesh
+ * is identical to adding all faces one by one.
+ */
+final class MeshAssembler {
+
+    /**
+     * Adds all faces given as packed vertex coordinates (9 floats per face) to
+     * the mesh and computes vertex normals.
+     * 
+     * @param mesh
+     *            initialized, empty mesh
+     * @param coords
+     *            face vertex coordinates
+     * @param executor
+     *            executor (or null)
+     */
+    static void assemble(Mesh3D mesh, float[] coords, ParallelExecutor executor) {
+        if (mesh.getClass() == TriangleMesh.class) {
+            int[] ids = new int[coords.length / 3];
+            int[] reps = weldVertices(coords, ids, executor);
+            buildTriangleMesh((TriangleMesh) mesh, coords, ids, reps, executor);
+        } else {
+            Vec3D a = new Vec3D();
+            Vec3D b = new Vec3D();
+            Vec3D c = new Vec3D();
+            for (int i = 0; i < coords.length; i += 9) {
+                a.set(coords[i], coords[i + 1], coords[i + 2]);
+                b.set(coords[i + 3], coords[i + 4], coords[i + 5]);
+                c.set(coords[i + 6], coords[i + 7], coords[i + 8]);
+                mesh.addFace(a, b, c);
+            }
+        }
+        mesh.computeVertexNormals();
+    }
+
+    /**
+     * Populates the given mesh directly with pre-welded vertices, bypassing
+     * the vertex lookup of {@link TriangleMesh#addFace(Vec3D, Vec3D, Vec3D)}.
+     * Vertex objects are created in parallel. Faces are created sequentially,
+     * since each face updates the normals of its (shared) vertices.
+     */
+    static void buildTriangleMesh(final TriangleMesh mesh,
+            final float[] coords, final int[] ids, final int[] reps,
+            ParallelExecutor executor) {
+        final Vertex[] verts = new Vertex[reps.length];
+        final int numFaces = ids.length / 3;
+        run(executor, reps.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int j = reps[i] * 3;
+                    verts[i] = new Vertex(new Vec3D(coords[j], coords[j + 1],
+                            coords[j + 2]), i);
+                }
+            }
+        });
+        for (Vertex v : verts) {
+            mesh.vertices.put(v, v);
+        }
+        mesh.numVertices = mesh.uniqueVertexID = reps.length;
+        for (int i = 0, j = 0; i < numFaces; i++, j += 3) {
+            int a = ids[j];
+            int b = ids[j + 1];
+            int c = ids[j + 2];
+            if (a != b && a != c && b != c) {
+                mesh.faces.add(new Face(verts[a], verts[b], verts[c]));
+            }
+        }
+        mesh.numFaces = mesh.faces.size();
+        mesh.updateWeldIndex();
+    }
+
+    /**
+     * Converts indexed triangles into packed face vertex coordinates, as
+     * required by {@link #assemble(Mesh3D, float[], ParallelExecutor)}.
+     * 
+     * @param verts
+     *            packed vertex coordinates
+     * @param numVerts
+     *            number of vertices
+     * @param tris
+     *            vertex indices of all triangles
+     * @param numTris
+     *            number of triangles
+     * @param flip
+     *            true, to swap the first two vertices of each triangle
+     * @param executor
+     *            executor (or null)
+     * @return face vertex coordinates
+     * @throws IOException
+     *             if any vertex index is out of range
+     */
+    static float[] expandFaces(final float[] verts, final int numVerts,
+            final int[] tris, int numTris, final boolean flip,
+            ParallelExecutor executor) throws IOException {
+        final float[] coords = new float[numTris * 9];
+        final boolean[] isInvalid = new boolean[1];
+        run(executor, numTris, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int a = tris[i * 3];
+                    int b = tris[i * 3 + 1];
+                    int c = tris[i * 3 + 2];
+                    if (flip) {
+                        int t = a;
+                        a = b;
+                        b = t;
+                    }
+                    if (a < 0 || a >= numVerts || b < 0 || b >= numVerts
+                            || c < 0 || c >= numVerts) {
+                        isInvalid[0] = true;
+                        return;
+                    }
+                    int j = i * 9;
+                    System.arraycopy(verts, a * 3, coords, j, 3);
+                    System.arraycopy(verts, b * 3, coords, j + 3, 3);
+                    System.arraycopy(verts, c * 3, coords, j + 6, 3);
+                }
+            }
+        });
+        if (isInvalid[0]) {
+            throw new IOException("invalid vertex index");
+        }
+        return coords;
+    }
+
+    /**
+     * Maps the high bits of a hash code to a partition, so that the low bits
+     * remain uniformly distributed for the hash table of each partition.
+     */
+    private static final int getPartition(int hash, int numParts) {
+        return (int) (((hash >>> 1) * (long) numParts) >>> 31);
+    }
+
+    static void run(ParallelExecutor executor, int num, RangeTask task) {
+        if (executor != null) {
+            executor.forRange(0, num, task);
+        } else {
+            task.process(0, num);
+        }
+    }
+
+    /**
+     * Runs the given task for each index in the range 0..num-1 as a separate
+     * job (unlike {@link ParallelExecutor#forRange(int, int, RangeTask)},
+     * which doesn't split small ranges).
+     */
+    static void runEach(ParallelExecutor executor, int num,
+            final RangeTask task) {
+        if (executor != null && num > 1) {
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(num);
+            for (int i = 0; i < num; i++) {
+                final int id = i;
+                jobs.add(new Callable<Object>() {
+
+                    public Object call() {
+                        task.process(id, id + 1);
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(jobs);
+        } else {
+            task.process(0, num);
+        }
+    }
+
+    /**
+     * Identifies unique vertex positions in the given packed coordinate array
+     * and assigns IDs in order of first occurrence (same as
+     * {@link TriangleMesh}). Vertices are distributed to partitions by hash
+     * code, each of which is welded independently (and concurrently if an
+     * executor is given).
+     * 
+     * @param coords
+     *            packed vertex coordinates
+     * @param ids
+     *            result array for the vertex IDs of all input vertices
+     * @param executor
+     *            executor (or null)
+     * @return indices of the first occurrences of all unique vertices
+     */
+    static int[] weldVertices(final float[] coords, final int[] ids,
+            ParallelExecutor executor) {
+        final int numVerts = ids.length;
+        final int numParts = executor != null ? executor.getNumThreads() * 2
+                : 1;
+        final int[] hashes = new int[numVerts];
+        run(executor, numVerts, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from, j = from * 3; i < to; i++, j += 3) {
+                    // consistent with Vec3D.hashCode() & equals()
+                    int h = Float.floatToIntBits(coords[j] + 0f);
+                    h = h * 31 + Float.floatToIntBits(coords[j + 1] + 0f);
+                    h = h * 31 + Float.floatToIntBits(coords[j + 2] + 0f);
+                    hashes[i] = h * 0x9e3779b9;
+                }
+            }
+        });
+        final boolean[] isFirst = new boolean[numVerts];
+        final int[][] partIDs = new int[numParts][];
+        if (executor != null) {
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(
+                    numParts);
+            for (int i = 0; i < numParts; i++) {
+                final int part = i;
+                jobs.add(new Callable<Object>() {
+
+                    public Object call() {
+                        partIDs[part] = weldPartition(coords, hashes, ids,
+                                isFirst, part, numParts);
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(jobs);
+        } else {
+            partIDs[0] = weldPartition(coords, hashes, ids, isFirst, 0, 1);
+        }
+        // assign global IDs in order of first occurrence
+        int numUnique = 0;
+        for (int i = 0; i < numVerts; i++) {
+            if (isFirst[i]) {
+                partIDs[getPartition(hashes[i], numParts)][ids[i]] = numUnique++;
+            }
+        }
+        final int[] reps = new int[numUnique];
+        run(executor, numVerts, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int id = partIDs[getPartition(hashes[i], numParts)][ids[i]];
+                    ids[i] = id;
+                    if (isFirst[i]) {
+                        reps[id] = i;
+                    }
+                }
+            }
+        });
+        return reps;
+    }
+
+    /**
+     * Welds all vertices of a single hash partition using open addressing.
+     * 
+     * @return array to store global IDs for the partition's local IDs
+     */
+    private static int[] weldPartition(float[] coords, int[] hashes,
+            int[] ids, boolean[] isFirst, int part, int numParts) {
+        int capacity = 1024;
+        int[] table = new int[capacity];
+        Arrays.fill(table, -1);
+        int numLocal = 0;
+        for (int i = 0, n = ids.length; i < n; i++) {
+            int h = hashes[i];
+            if (getPartition(h, numParts) != part) {
+                continue;
+            }
+            int mask = capacity - 1;
+            int slot = h & mask;
+            int j = i * 3;
+            float x = coords[j];
+            float y = coords[j + 1];
+            float z = coords[j + 2];
+            int id = -1;
+            while (table[slot] != -1) {
+                int k = table[slot] * 3;
+                if (coords[k] == x && coords[k + 1] == y && coords[k + 2] == z) {
+                    id = ids[table[slot]];
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (id == -1) {
+                id = numLocal++;
+                table[slot] = i;
+                isFirst[i] = true;
+                if (numLocal * 2 > capacity) {
+                    capacity <<= 1;
+                    table = rehash(table, hashes, capacity);
+                }
+            }
+            ids[i] = id;
+        }
+        return new int[numLocal];
+    }
+
+    private static int[] rehash(int[] table, int[] hashes, int capacity) {
+        int[] newTable = new int[capacity];
+        Arrays.fill(newTable, -1);
+        int mask = capacity - 1;
+        for (int v : table) {
+            if (v != -1) {
+                int slot = hashes[v] & mask;
+                while (newTable[slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = v;
+            }
+        }
+        return newTable;
+    }
+}
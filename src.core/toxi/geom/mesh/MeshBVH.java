@@ -0,0 +1,648 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.util.Collection;
+
+import toxi.geom.AABB;
+import toxi.geom.ReadonlyVec3D;
+import toxi.geom.Vec3D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Bounding volume hierarchy over the faces of a mesh for fast ray queries.
+ * The tree is built using the surface area heuristic (SAH) with binned
+ * centroid splits and is stored in flat arrays, along with a copy of all
+ * triangles (reordered to match the tree leaves). Ray/triangle tests use the
+ * Moeller-Trumbore algorithm and don't allocate any objects.
+ * 
+ * Like {@link MeshIntersector}, the hierarchy is a snapshot of the mesh at
+ * construction time and needs to be rebuilt if the mesh changes. Single ray
+ * queries reuse an internal traversal stack and are therefore not thread
+ * safe. The batch query methods can be executed in parallel using a
+ * {@link ParallelExecutor}.
+ */
+public class MeshBVH {
+
+    public static final int DEFAULT_MAX_LEAF_SIZE = 4;
+
+    private static final int NUM_BINS = 16;
+    private static final int MAX_SAH_LEAF_SIZE = 16;
+    private static final float TRAVERSAL_COST = 1f;
+    private static final float EPS = 0.00001f;
+
+    protected final Face[] faces;
+
+    /**
+     * Packed triangle data in leaf order (vertex A, edge AB, edge AC)
+     */
+    protected float[] triangles;
+    protected int[] triangleFaceIDs;
+
+    /**
+     * Packed node bounds (min XYZ, max XYZ)
+     */
+    protected float[] nodeBounds;
+
+    /**
+     * First triangle for leaves, index of left child for inner nodes (right
+     * child is always stored next to left)
+     */
+    protected int[] nodeOffsets;
+
+    /**
+     * Number of triangles in leaves, 0 for inner nodes
+     */
+    protected int[] nodeCounts;
+
+    protected int numNodes;
+    protected int maxDepth;
+    protected final int maxLeafSize;
+
+    private int[] stack;
+    private float[] stackDist;
+    private final float[] hit = new float[3];
+
+    // temp buffers used during construction only
+    private int[] binCounts;
+    private float[] binBounds;
+    private float[] rightAreas;
+    private int[] rightCounts;
+    private float[] sweepBounds;
+
+    public MeshBVH(Mesh3D mesh) {
+        this(mesh, DEFAULT_MAX_LEAF_SIZE);
+    }
+
+    /**
+     * Builds a new hierarchy for the faces of the given mesh.
+     * 
+     * @param mesh
+     * @param maxLeafSize
+     *            max. number of triangles in leaves which will always be
+     *            created regardless of SAH costs
+     */
+    public MeshBVH(Mesh3D mesh, int maxLeafSize) {
+        if (maxLeafSize < 1) {
+            throw new IllegalArgumentException("max leaf size must be >= 1");
+        }
+        this.maxLeafSize = maxLeafSize;
+        Collection<Face> meshFaces = mesh.getFaces();
+        faces = meshFaces.toArray(new Face[meshFaces.size()]);
+        build();
+    }
+
+    private void build() {
+        final int num = faces.length;
+        float[] triBounds = new float[num * 6];
+        float[] centroids = new float[num * 3];
+        int[] order = new int[num];
+        for (int i = 0; i < num; i++) {
+            Face f = faces[i];
+            int b = i * 6;
+            triBounds[b] = min(f.a.x, f.b.x, f.c.x);
+            triBounds[b + 1] = min(f.a.y, f.b.y, f.c.y);
+            triBounds[b + 2] = min(f.a.z, f.b.z, f.c.z);
+            triBounds[b + 3] = max(f.a.x, f.b.x, f.c.x);
+            triBounds[b + 4] = max(f.a.y, f.b.y, f.c.y);
+            triBounds[b + 5] = max(f.a.z, f.b.z, f.c.z);
+            centroids[i * 3] = (triBounds[b] + triBounds[b + 3]) * 0.5f;
+            centroids[i * 3 + 1] = (triBounds[b + 1] + triBounds[b + 4]) * 0.5f;
+            centroids[i * 3 + 2] = (triBounds[b + 2] + triBounds[b + 5]) * 0.5f;
+            order[i] = i;
+        }
+        int maxNodes = Math.max(2 * num - 1, 1);
+        nodeBounds = new float[maxNodes * 6];
+        nodeOffsets = new int[maxNodes];
+        nodeCounts = new int[maxNodes];
+        binCounts = new int[NUM_BINS];
+        binBounds = new float[NUM_BINS * 6];
+        rightAreas = new float[NUM_BINS];
+        rightCounts = new int[NUM_BINS];
+        sweepBounds = new float[6];
+        numNodes = 1;
+        maxDepth = 0;
+        buildNode(0, 0, num, 0, triBounds, centroids, order);
+        binCounts = null;
+        binBounds = rightAreas = sweepBounds = null;
+        rightCounts = null;
+        // copy triangles in leaf order
+        triangles = new float[num * 9];
+        triangleFaceIDs = new int[num];
+        for (int i = 0, t = 0; i < num; i++) {
+            Face f = faces[order[i]];
+            triangles[t++] = f.a.x;
+            triangles[t++] = f.a.y;
+            triangles[t++] = f.a.z;
+            triangles[t++] = f.b.x - f.a.x;
+            triangles[t++] = f.b.y - f.a.y;
+            triangles[t++] = f.b.z - f.a.z;
+            triangles[t++] = f.c.x - f.a.x;
+            triangles[t++] = f.c.y - f.a.y;
+            triangles[t++] = f.c.z - f.a.z;
+            triangleFaceIDs[i] = order[i];
+        }
+        stack = new int[maxDepth + 2];
+        stackDist = new float[maxDepth + 2];
+    }
+
+    private void buildNode(int node, int start, int end, int depth,
+            float[] triBounds, float[] centroids, int[] order) {
+        maxDepth = Math.max(maxDepth, depth);
+        int nb = node * 6;
+        float[] cmin = new float[] {
+                Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE
+        };
+        float[] cmax = new float[] {
+                -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE
+        };
+        resetBounds(nodeBounds, nb);
+        for (int i = start; i < end; i++) {
+            int t = order[i];
+            growBounds(nodeBounds, nb, triBounds, t * 6);
+            for (int k = 0; k < 3; k++) {
+                float c = centroids[t * 3 + k];
+                if (c < cmin[k]) {
+                    cmin[k] = c;
+                }
+                if (c > cmax[k]) {
+                    cmax[k] = c;
+                }
+            }
+        }
+        int count = end - start;
+        if (count <= maxLeafSize) {
+            makeLeaf(node, start, count);
+            return;
+        }
+        // find best binned SAH split
+        float bestCost = Float.MAX_VALUE;
+        int bestAxis = -1;
+        int bestBin = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            float extent = cmax[axis] - cmin[axis];
+            if (extent <= 0) {
+                continue;
+            }
+            float scale = NUM_BINS / extent;
+            for (int b = 0; b < NUM_BINS; b++) {
+                binCounts[b] = 0;
+                resetBounds(binBounds, b * 6);
+            }
+            for (int i = start; i < end; i++) {
+                int t = order[i];
+                int b = getBin(centroids[t * 3 + axis], cmin[axis], scale);
+                binCounts[b]++;
+                growBounds(binBounds, b * 6, triBounds, t * 6);
+            }
+            float[] acc = sweepBounds;
+            resetBounds(acc, 0);
+            int n = 0;
+            for (int b = NUM_BINS - 1; b > 0; b--) {
+                growBounds(acc, 0, binBounds, b * 6);
+                n += binCounts[b];
+                rightCounts[b] = n;
+                rightAreas[b] = n > 0 ? getArea(acc, 0) : 0;
+            }
+            resetBounds(acc, 0);
+            n = 0;
+            for (int b = 0; b < NUM_BINS - 1; b++) {
+                growBounds(acc, 0, binBounds, b * 6);
+                n += binCounts[b];
+                int nr = rightCounts[b + 1];
+                if (n > 0 && nr > 0) {
+                    float cost = getArea(acc, 0) * n + rightAreas[b + 1] * nr;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+        }
+        if (bestAxis == -1) {
+            // all centroids are identical, can't split
+            makeLeaf(node, start, count);
+            return;
+        }
+        float area = getArea(nodeBounds, nb);
+        float splitCost = TRAVERSAL_COST + (area > 0 ? bestCost / area : 0);
+        if (splitCost >= count && count <= MAX_SAH_LEAF_SIZE) {
+            makeLeaf(node, start, count);
+            return;
+        }
+        // partition triangles
+        float cminAxis = cmin[bestAxis];
+        float scale = NUM_BINS / (cmax[bestAxis] - cminAxis);
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (getBin(centroids[order[i] * 3 + bestAxis], cminAxis, scale) <= bestBin) {
+                i++;
+            } else {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j--] = tmp;
+            }
+        }
+        int left = numNodes;
+        numNodes += 2;
+        nodeOffsets[node] = left;
+        nodeCounts[node] = 0;
+        buildNode(left, start, i, depth + 1, triBounds, centroids, order);
+        buildNode(left + 1, i, end, depth + 1, triBounds, centroids, order);
+    }
+
+    /**
+     * Intersects all rays in the given buffer (packed as origin XYZ, direction
+     * XYZ) with the mesh and finds the closest hit for each.
+     * 
+     * @param rays
+     *            packed ray buffer
+     * @param numRays
+     *            number of rays
+     * @param maxDist
+     *            max. hit distance (in multiples of the direction vector
+     *            length)
+     * @param faceIDs
+     *            result array for hit face IDs (-1 if missed)
+     * @param dists
+     *            result array for hit distances (or null)
+     * @param executor
+     *            executor for parallel processing (or null)
+     */
+    public void computeClosestHits(final float[] rays, int numRays,
+            final float maxDist, final int[] faceIDs, final float[] dists,
+            ParallelExecutor executor) {
+        RangeTask task = new RangeTask() {
+
+            public void process(int from, int to) {
+                int[] st = new int[stack.length];
+                float[] sd = new float[stack.length];
+                float[] result = new float[3];
+                for (int i = from, r = from * 6; i < to; i++, r += 6) {
+                    int id = intersect(rays[r], rays[r + 1], rays[r + 2],
+                            rays[r + 3], rays[r + 4], rays[r + 5], maxDist,
+                            false, st, sd, result);
+                    faceIDs[i] = id;
+                    if (dists != null) {
+                        dists[i] = id != -1 ? result[0] : Float.NaN;
+                    }
+                }
+            }
+        };
+        if (executor != null) {
+            executor.forRange(0, numRays, task);
+        } else {
+            task.process(0, numRays);
+        }
+    }
+
+    /**
+     * Checks all rays in the given buffer (packed as origin XYZ, direction
+     * XYZ) for any intersection with the mesh within the given distance, e.g.
+     * for shadow or line-of-sight queries.
+     * 
+     * @param rays
+     *            packed ray buffer
+     * @param numRays
+     *            number of rays
+     * @param maxDist
+     *            max. hit distance (in multiples of the direction vector
+     *            length)
+     * @param occluded
+     *            result array
+     * @param executor
+     *            executor for parallel processing (or null)
+     */
+    public void computeOcclusion(final float[] rays, int numRays,
+            final float maxDist, final boolean[] occluded,
+            ParallelExecutor executor) {
+        RangeTask task = new RangeTask() {
+
+            public void process(int from, int to) {
+                int[] st = new int[stack.length];
+                float[] sd = new float[stack.length];
+                float[] result = new float[3];
+                for (int i = from, r = from * 6; i < to; i++, r += 6) {
+                    occluded[i] = intersect(rays[r], rays[r + 1], rays[r + 2],
+                            rays[r + 3], rays[r + 4], rays[r + 5], maxDist,
+                            true, st, sd, result) != -1;
+                }
+            }
+        };
+        if (executor != null) {
+            executor.forRange(0, numRays, task);
+        } else {
+            task.process(0, numRays);
+        }
+    }
+
+    private static final float getArea(float[] b, int i) {
+        float dx = b[i + 3] - b[i];
+        float dy = b[i + 4] - b[i + 1];
+        float dz = b[i + 5] - b[i + 2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+
+    private static final int getBin(float c, float min, float scale) {
+        return Math.min((int) ((c - min) * scale), NUM_BINS - 1);
+    }
+
+    /**
+     * @return bounding box of the entire mesh
+     */
+    public AABB getBounds() {
+        return AABB.fromMinMax(new Vec3D(nodeBounds[0], nodeBounds[1],
+                nodeBounds[2]), new Vec3D(nodeBounds[3], nodeBounds[4],
+                nodeBounds[5]));
+    }
+
+    /**
+     * @param id
+     *            face ID as returned by the query methods
+     * @return face instance
+     */
+    public Face getFace(int id) {
+        return faces[id];
+    }
+
+    /**
+     * @return max. depth of the tree
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getNumFaces() {
+        return faces.length;
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    private static final void growBounds(float[] b, int i, float[] src, int j) {
+        if (src[j] < b[i]) {
+            b[i] = src[j];
+        }
+        if (src[j + 1] < b[i + 1]) {
+            b[i + 1] = src[j + 1];
+        }
+        if (src[j + 2] < b[i + 2]) {
+            b[i + 2] = src[j + 2];
+        }
+        if (src[j + 3] > b[i + 3]) {
+            b[i + 3] = src[j + 3];
+        }
+        if (src[j + 4] > b[i + 4]) {
+            b[i + 4] = src[j + 4];
+        }
+        if (src[j + 5] > b[i + 5]) {
+            b[i + 5] = src[j + 5];
+        }
+    }
+
+    /**
+     * Core traversal routine.
+     * 
+     * @return ID of the hit face or -1
+     */
+    private int intersect(float ox, float oy, float oz, float dx, float dy,
+            float dz, float maxDist, boolean isAnyHit, int[] st, float[] sd,
+            float[] result) {
+        if (faces.length == 0) {
+            return -1;
+        }
+        final float idx = 1f / dx;
+        final float idy = 1f / dy;
+        final float idz = 1f / dz;
+        float closest = maxDist;
+        int hitID = -1;
+        int sp = 0;
+        int node = 0;
+        if (intersectNode(0, ox, oy, oz, idx, idy, idz, closest) == Float.POSITIVE_INFINITY) {
+            return -1;
+        }
+        while (true) {
+            int count = nodeCounts[node];
+            if (count > 0) {
+                int first = nodeOffsets[node];
+                for (int i = first, end = first + count; i < end; i++) {
+                    int t = i * 9;
+                    float e1x = triangles[t + 3];
+                    float e1y = triangles[t + 4];
+                    float e1z = triangles[t + 5];
+                    float e2x = triangles[t + 6];
+                    float e2y = triangles[t + 7];
+                    float e2z = triangles[t + 8];
+                    float px = dy * e2z - dz * e2y;
+                    float py = dz * e2x - dx * e2z;
+                    float pz = dx * e2y - dy * e2x;
+                    float det = e1x * px + e1y * py + e1z * pz;
+                    if (det > -EPS && det < EPS) {
+                        continue;
+                    }
+                    float invDet = 1f / det;
+                    float tx = ox - triangles[t];
+                    float ty = oy - triangles[t + 1];
+                    float tz = oz - triangles[t + 2];
+                    float u = (tx * px + ty * py + tz * pz) * invDet;
+                    if (u < 0 || u > 1) {
+                        continue;
+                    }
+                    float qx = ty * e1z - tz * e1y;
+                    float qy = tz * e1x - tx * e1z;
+                    float qz = tx * e1y - ty * e1x;
+                    float v = (dx * qx + dy * qy + dz * qz) * invDet;
+                    if (v < 0 || u + v > 1) {
+                        continue;
+                    }
+                    float d = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+                    if (d >= 0 && d < closest) {
+                        closest = d;
+                        hitID = triangleFaceIDs[i];
+                        result[0] = d;
+                        result[1] = u;
+                        result[2] = v;
+                        if (isAnyHit) {
+                            return hitID;
+                        }
+                    }
+                }
+            } else {
+                int left = nodeOffsets[node];
+                float dl = intersectNode(left, ox, oy, oz, idx, idy, idz,
+                        closest);
+                float dr = intersectNode(left + 1, ox, oy, oz, idx, idy, idz,
+                        closest);
+                if (dl != Float.POSITIVE_INFINITY) {
+                    if (dr != Float.POSITIVE_INFINITY) {
+                        // visit nearest child first
+                        if (dl <= dr) {
+                            st[sp] = left + 1;
+                            sd[sp++] = dr;
+                            node = left;
+                        } else {
+                            st[sp] = left;
+                            sd[sp++] = dl;
+                            node = left + 1;
+                        }
+                    } else {
+                        node = left;
+                    }
+                    continue;
+                } else if (dr != Float.POSITIVE_INFINITY) {
+                    node = left + 1;
+                    continue;
+                }
+            }
+            // pop next node which is still closer than current hit
+            do {
+                if (sp == 0) {
+                    return hitID;
+                }
+                node = st[--sp];
+            } while (sd[sp] > closest);
+        }
+    }
+
+    /**
+     * Slab test of the ray against the bounding box of the given node. Axes
+     * for which the ray direction is zero (inverse is infinite) are handled
+     * separately to avoid NaN results (0 * infinity) for rays starting
+     * exactly on a box boundary.
+     * 
+     * @return entry distance or positive infinity, if missed
+     */
+    private final float intersectNode(int node, float ox, float oy, float oz,
+            float idx, float idy, float idz, float maxDist) {
+        int b = node * 6;
+        float tmin = Float.NEGATIVE_INFINITY;
+        float tmax = Float.POSITIVE_INFINITY;
+        float t1, t2;
+        if (Float.isInfinite(idx)) {
+            if (ox < nodeBounds[b] || ox > nodeBounds[b + 3]) {
+                return Float.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (nodeBounds[b] - ox) * idx;
+            t2 = (nodeBounds[b + 3] - ox) * idx;
+            tmin = t1 < t2 ? t1 : t2;
+            tmax = t1 < t2 ? t2 : t1;
+        }
+        if (Float.isInfinite(idy)) {
+            if (oy < nodeBounds[b + 1] || oy > nodeBounds[b + 4]) {
+                return Float.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (nodeBounds[b + 1] - oy) * idy;
+            t2 = (nodeBounds[b + 4] - oy) * idy;
+            tmin = Math.max(tmin, t1 < t2 ? t1 : t2);
+            tmax = Math.min(tmax, t1 < t2 ? t2 : t1);
+        }
+        if (Float.isInfinite(idz)) {
+            if (oz < nodeBounds[b + 2] || oz > nodeBounds[b + 5]) {
+                return Float.POSITIVE_INFINITY;
+            }
+        } else {
+            t1 = (nodeBounds[b + 2] - oz) * idz;
+            t2 = (nodeBounds[b + 5] - oz) * idz;
+            tmin = Math.max(tmin, t1 < t2 ? t1 : t2);
+            tmax = Math.min(tmax, t1 < t2 ? t2 : t1);
+        }
+        if (tmax >= tmin && tmax >= 0 && tmin <= maxDist) {
+            return tmin;
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Finds the closest intersection of the given ray with the mesh. Only hits
+     * within the given max. distance are considered.
+     * 
+     * @param origin
+     *            ray origin
+     * @param dir
+     *            ray direction
+     * @param maxDist
+     *            max. hit distance (in multiples of the direction vector
+     *            length)
+     * @param result
+     *            array of at least 3 floats to store hit distance & the
+     *            barycentric u, v coordinates of the hit point (only updated
+     *            in case of a hit)
+     * @return ID of the hit face or -1 if the ray missed
+     */
+    public int intersectRay(ReadonlyVec3D origin, ReadonlyVec3D dir,
+            float maxDist, float[] result) {
+        return intersect(origin.x(), origin.y(), origin.z(), dir.x(), dir.y(),
+                dir.z(), maxDist, false, stack, stackDist, result);
+    }
+
+    /**
+     * Checks if the given ray intersects any face of the mesh within the
+     * given max. distance. This is faster than
+     * {@link #intersectRay(ReadonlyVec3D, ReadonlyVec3D, float, float[])},
+     * since traversal stops at the first hit found.
+     * 
+     * @param origin
+     *            ray origin
+     * @param dir
+     *            ray direction
+     * @param maxDist
+     *            max. hit distance (in multiples of the direction vector
+     *            length)
+     * @return true, if there's any hit
+     */
+    public boolean isOccluded(ReadonlyVec3D origin, ReadonlyVec3D dir,
+            float maxDist) {
+        return intersect(origin.x(), origin.y(), origin.z(), dir.x(), dir.y(),
+                dir.z(), maxDist, true, stack, stackDist, hit) != -1;
+    }
+
+    private final void makeLeaf(int node, int start, int count) {
+        nodeOffsets[node] = start;
+        nodeCounts[node] = count;
+    }
+
+    private static final float max(float a, float b, float c) {
+        return a > b ? (a > c ? a : c) : (b > c ? b : c);
+    }
+
+    private static final float min(float a, float b, float c) {
+        return a < b ? (a < c ? a : c) : (b < c ? b : c);
+    }
+
+    private static final void resetBounds(float[] b, int i) {
+        b[i] = b[i + 1] = b[i + 2] = Float.MAX_VALUE;
+        b[i + 3] = b[i + 4] = b[i + 5] = -Float.MAX_VALUE;
+    }
+}
@@ -0,0 +1,801 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Mesh simplification based on quadric error metrics (QEM) as described in
+ * M. Garland, P. Heckbert, "Surface Simplification Using Quadric Error
+ * Metrics", SIGGRAPH 1997.
+ * 
+ * Edges are collapsed in order of the smallest error (the sum of squared
+ * distances of the new vertex position to the planes of all original faces
+ * merged into it) until either the target face count is reached or the next
+ * collapse would exceed the max. error. Collapses which would create
+ * non-manifold geometry or fold over faces are rejected. Vertices on mesh
+ * boundaries (and non-manifold edges) can optionally be locked, so that
+ * boundaries remain unchanged.
+ * 
+ * All working data is held in primitive arrays and the setup steps (quadrics,
+ * initial edge costs) are computed in parallel if an executor is given, so
+ * that meshes with millions of faces can be processed. Meshes are simplified
+ * in place. Instances of this class can be re-used, but aren't thread safe.
+ */
+public class MeshDecimator {
+
+    /**
+     * Min. cosine of the angle between a face normal before & after a
+     * collapse. Collapses exceeding this angle for any face are rejected.
+     */
+    public static final double MIN_NORMAL_COS = 0.2;
+
+    protected int targetFaces;
+    protected float maxError = Float.MAX_VALUE;
+    protected boolean preserveBoundary = true;
+    protected ParallelExecutor executor;
+
+    private float[] verts;
+    private double[] quadrics;
+    private int[] stamps;
+    private int[] marks;
+    private int markID;
+    private boolean[] isLocked;
+
+    private int[] tris;
+    private int numFaces;
+
+    private int[] refStart;
+    private int[] refCount;
+    private int[] refs;
+    private int numRefs;
+
+    private float[] heapCost;
+    private int[] heapA;
+    private int[] heapB;
+    private int[] heapStampA;
+    private int[] heapStampB;
+    private int heapSize;
+
+    public MeshDecimator() {
+        this(0);
+    }
+
+    /**
+     * @param targetFaces
+     *            number of faces to reduce meshes to
+     */
+    public MeshDecimator(int targetFaces) {
+        this.targetFaces = targetFaces;
+    }
+
+    private void addQuadric(double[] q, int offset, int t) {
+        int i = tris[t * 3] * 3;
+        int j = tris[t * 3 + 1] * 3;
+        int k = tris[t * 3 + 2] * 3;
+        double ax = verts[i], ay = verts[i + 1], az = verts[i + 2];
+        double ux = verts[j] - ax, uy = verts[j + 1] - ay, uz = verts[j + 2]
+                - az;
+        double vx = verts[k] - ax, vy = verts[k + 1] - ay, vz = verts[k + 2]
+                - az;
+        double nx = uy * vz - uz * vy;
+        double ny = uz * vx - ux * vz;
+        double nz = ux * vy - uy * vx;
+        double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (len > 0) {
+            nx /= len;
+            ny /= len;
+            nz /= len;
+            double d = -(nx * ax + ny * ay + nz * az);
+            q[offset] += nx * nx;
+            q[offset + 1] += nx * ny;
+            q[offset + 2] += nx * nz;
+            q[offset + 3] += nx * d;
+            q[offset + 4] += ny * ny;
+            q[offset + 5] += ny * nz;
+            q[offset + 6] += ny * d;
+            q[offset + 7] += nz * nz;
+            q[offset + 8] += nz * d;
+            q[offset + 9] += d * d;
+        }
+    }
+
+    /**
+     * Builds the initial queue of collapse candidates for all unique edges and
+     * identifies vertices to be locked (boundaries & non-manifold edges).
+     */
+    private void buildEdgeQueue() {
+        final int numTris = tris.length / 3;
+        long[] keys = new long[numTris * 3];
+        int numKeys = 0;
+        for (int t = 0; t < numTris; t++) {
+            int i = t * 3;
+            if (tris[i] >= 0) {
+                keys[numKeys++] = getEdgeKey(tris[i], tris[i + 1]);
+                keys[numKeys++] = getEdgeKey(tris[i + 1], tris[i + 2]);
+                keys[numKeys++] = getEdgeKey(tris[i + 2], tris[i]);
+            }
+        }
+        Arrays.sort(keys, 0, numKeys);
+        int numEdges = 0;
+        for (int i = 0; i < numKeys;) {
+            long key = keys[i];
+            int j = i + 1;
+            while (j < numKeys && keys[j] == key) {
+                j++;
+            }
+            int count = j - i;
+            if (count > 2 || (count == 1 && preserveBoundary)) {
+                isLocked[(int) (key >>> 32)] = true;
+                isLocked[(int) key] = true;
+            }
+            keys[numEdges++] = key;
+            i = j;
+        }
+        final long[] edges = keys;
+        final int num = numEdges;
+        int capacity = Math.max(num + (num >> 1), 16);
+        heapCost = new float[capacity];
+        heapA = new int[capacity];
+        heapB = new int[capacity];
+        heapStampA = new int[capacity];
+        heapStampB = new int[capacity];
+        final float[] costs = heapCost;
+        MeshAssembler.run(executor, num, new RangeTask() {
+
+            public void process(int from, int to) {
+                double[] p = new double[3];
+                for (int i = from; i < to; i++) {
+                    costs[i] = (float) computeCollapse((int) (edges[i] >>> 32),
+                            (int) edges[i], p);
+                }
+            }
+        });
+        heapSize = 0;
+        for (int i = 0; i < num; i++) {
+            if (costs[i] < Float.POSITIVE_INFINITY) {
+                int k = heapSize++;
+                heapCost[k] = costs[i];
+                heapA[k] = (int) (edges[i] >>> 32);
+                heapB[k] = (int) edges[i];
+            }
+        }
+        heapify();
+    }
+
+    /**
+     * Builds the compressed lists of faces using each vertex.
+     */
+    private void buildReferences(int numVerts) {
+        refStart = new int[numVerts];
+        refCount = new int[numVerts];
+        for (int i = 0; i < tris.length; i += 3) {
+            if (tris[i] >= 0) {
+                refCount[tris[i]]++;
+                refCount[tris[i + 1]]++;
+                refCount[tris[i + 2]]++;
+            }
+        }
+        int offset = 0;
+        for (int i = 0; i < numVerts; i++) {
+            refStart[i] = offset;
+            offset += refCount[i];
+        }
+        numRefs = offset;
+        refs = new int[numRefs + (numRefs >> 1)];
+        int[] pos = new int[numVerts];
+        System.arraycopy(refStart, 0, pos, 0, numVerts);
+        for (int i = 0, t = 0; i < tris.length; i += 3, t++) {
+            if (tris[i] >= 0) {
+                refs[pos[tris[i]]++] = t;
+                refs[pos[tris[i + 1]]++] = t;
+                refs[pos[tris[i + 2]]++] = t;
+            }
+        }
+    }
+
+    /**
+     * Checks if collapsing vertex b into a (moved to p) is allowed: The edge
+     * needs to fulfill the link condition (number of shared neighbours equals
+     * the number of faces sharing the edge) and none of the remaining faces
+     * must be folded over or become degenerate.
+     */
+    private boolean canCollapse(int a, int b, double[] p) {
+        int id = nextMarkID();
+        for (int i = refStart[a], end = i + refCount[a]; i < end; i++) {
+            int t = refs[i] * 3;
+            if (tris[t] >= 0) {
+                marks[tris[t]] = id;
+                marks[tris[t + 1]] = id;
+                marks[tris[t + 2]] = id;
+            }
+        }
+        int counted = nextMarkID();
+        marks[a] = counted;
+        marks[b] = counted;
+        int numCommon = 0;
+        int numShared = 0;
+        for (int i = refStart[b], end = i + refCount[b]; i < end; i++) {
+            int t = refs[i] * 3;
+            if (tris[t] >= 0) {
+                if (tris[t] == a || tris[t + 1] == a || tris[t + 2] == a) {
+                    numShared++;
+                }
+                for (int j = 0; j < 3; j++) {
+                    int w = tris[t + j];
+                    if (marks[w] == id) {
+                        numCommon++;
+                        marks[w] = counted;
+                    }
+                }
+            }
+        }
+        if (numShared == 0 || numCommon != numShared) {
+            return false;
+        }
+        return !isFoldingOver(a, b, p) && !isFoldingOver(b, a, p);
+    }
+
+    /**
+     * Applies the collapse of vertex b into a (moved to p) and queues new
+     * collapse candidates for all edges of the merged vertex.
+     */
+    private void collapse(int a, int b, double[] p) {
+        int ia = a * 3;
+        verts[ia] = (float) p[0];
+        verts[ia + 1] = (float) p[1];
+        verts[ia + 2] = (float) p[2];
+        for (int i = 0, qa = a * 10, qb = b * 10; i < 10; i++) {
+            quadrics[qa + i] += quadrics[qb + i];
+        }
+        ensureRefCapacity(refCount[a] + refCount[b]);
+        int start = numRefs;
+        for (int i = refStart[a], end = i + refCount[a]; i < end; i++) {
+            int t = refs[i];
+            int k = t * 3;
+            if (tris[k] >= 0) {
+                if (tris[k] == b || tris[k + 1] == b || tris[k + 2] == b) {
+                    tris[k] = -1;
+                    numFaces--;
+                } else {
+                    refs[numRefs++] = t;
+                }
+            }
+        }
+        for (int i = refStart[b], end = i + refCount[b]; i < end; i++) {
+            int t = refs[i];
+            int k = t * 3;
+            if (tris[k] >= 0) {
+                for (int j = 0; j < 3; j++) {
+                    if (tris[k + j] == b) {
+                        tris[k + j] = a;
+                    }
+                }
+                refs[numRefs++] = t;
+            }
+        }
+        refStart[a] = start;
+        refCount[a] = numRefs - start;
+        refCount[b] = 0;
+        stamps[a]++;
+        stamps[b]++;
+        int id = nextMarkID();
+        marks[a] = id;
+        double[] q = new double[3];
+        for (int i = start; i < numRefs; i++) {
+            int k = refs[i] * 3;
+            for (int j = 0; j < 3; j++) {
+                int w = tris[k + j];
+                if (marks[w] != id) {
+                    marks[w] = id;
+                    double cost = computeCollapse(a, w, q);
+                    if (cost < Double.POSITIVE_INFINITY) {
+                        push((float) cost, a, w);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the optimal position for the merged vertex of edge a-b (stored
+     * in p) and returns the resulting error.
+     */
+    private double computeCollapse(int a, int b, double[] p) {
+        int v;
+        if (isLocked[a]) {
+            if (isLocked[b]) {
+                return Double.POSITIVE_INFINITY;
+            }
+            v = a;
+        } else if (isLocked[b]) {
+            v = b;
+        } else {
+            v = -1;
+        }
+        double[] q = quadrics;
+        int i = a * 10;
+        int j = b * 10;
+        double q0 = q[i] + q[j], q1 = q[i + 1] + q[j + 1], q2 = q[i + 2]
+                + q[j + 2], q3 = q[i + 3] + q[j + 3], q4 = q[i + 4] + q[j + 4], q5 = q[i + 5]
+                + q[j + 5], q6 = q[i + 6] + q[j + 6], q7 = q[i + 7] + q[j + 7], q8 = q[i + 8]
+                + q[j + 8], q9 = q[i + 9] + q[j + 9];
+        if (v == -1) {
+            double c0 = q4 * q7 - q5 * q5;
+            double c1 = q2 * q5 - q1 * q7;
+            double c2 = q1 * q5 - q2 * q4;
+            double det = q0 * c0 + q1 * c1 + q2 * c2;
+            double tr = q0 + q4 + q7;
+            if (Math.abs(det) > 1e-6 * tr * tr * tr) {
+                double inv = -1.0 / det;
+                p[0] = (c0 * q3 + c1 * q6 + c2 * q8) * inv;
+                p[1] = (c1 * q3 + (q0 * q7 - q2 * q2) * q6 + (q1 * q2 - q0
+                        * q5)
+                        * q8)
+                        * inv;
+                p[2] = (c2 * q3 + (q1 * q2 - q0 * q5) * q6 + (q0 * q4 - q1
+                        * q1)
+                        * q8)
+                        * inv;
+            } else {
+                // singular, pick best of end points & mid point
+                int ia = a * 3, ib = b * 3;
+                double ax = verts[ia], ay = verts[ia + 1], az = verts[ia + 2];
+                double bx = verts[ib], by = verts[ib + 1], bz = verts[ib + 2];
+                double mx = (ax + bx) * 0.5, my = (ay + by) * 0.5, mz = (az + bz) * 0.5;
+                double ea = getError(q0, q1, q2, q3, q4, q5, q6, q7, q8, q9,
+                        ax, ay, az);
+                double eb = getError(q0, q1, q2, q3, q4, q5, q6, q7, q8, q9,
+                        bx, by, bz);
+                double em = getError(q0, q1, q2, q3, q4, q5, q6, q7, q8, q9,
+                        mx, my, mz);
+                if (ea <= eb && ea <= em) {
+                    p[0] = ax;
+                    p[1] = ay;
+                    p[2] = az;
+                    return ea;
+                } else if (eb <= em) {
+                    p[0] = bx;
+                    p[1] = by;
+                    p[2] = bz;
+                    return eb;
+                }
+                p[0] = mx;
+                p[1] = my;
+                p[2] = mz;
+                return em;
+            }
+        } else {
+            int iv = v * 3;
+            p[0] = verts[iv];
+            p[1] = verts[iv + 1];
+            p[2] = verts[iv + 2];
+        }
+        return getError(q0, q1, q2, q3, q4, q5, q6, q7, q8, q9, p[0], p[1],
+                p[2]);
+    }
+
+    private void computeQuadrics(int numVerts) {
+        final double[] q = quadrics = new double[numVerts * 10];
+        MeshAssembler.run(executor, numVerts, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int v = from; v < to; v++) {
+                    for (int i = refStart[v], end = i + refCount[v]; i < end; i++) {
+                        addQuadric(q, v * 10, refs[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Simplifies the given mesh in place. The mesh is cleared and then rebuilt
+     * with the remaining faces, any UV coordinates are lost. Meshes already
+     * within the target face count are left untouched.
+     * 
+     * @param mesh
+     *            mesh to decimate
+     * @return mesh
+     */
+    public <T extends Mesh3D> T decimate(T mesh) {
+        int numVerts = readMesh(mesh);
+        if (numFaces <= targetFaces) {
+            verts = null;
+            tris = null;
+            return mesh;
+        }
+        stamps = new int[numVerts];
+        marks = new int[numVerts];
+        markID = 0;
+        isLocked = new boolean[numVerts];
+        buildReferences(numVerts);
+        computeQuadrics(numVerts);
+        buildEdgeQueue();
+        double[] p = new double[3];
+        while (numFaces > targetFaces && heapSize > 0) {
+            int a = heapA[0];
+            int b = heapB[0];
+            boolean isCurrent = stamps[a] == heapStampA[0]
+                    && stamps[b] == heapStampB[0];
+            if (isCurrent && heapCost[0] > maxError) {
+                break;
+            }
+            pop();
+            if (isCurrent) {
+                if (isLocked[b]) {
+                    int t = a;
+                    a = b;
+                    b = t;
+                }
+                computeCollapse(a, b, p);
+                if (canCollapse(a, b, p)) {
+                    collapse(a, b, p);
+                }
+            }
+        }
+        float[] coords = getFaceCoords();
+        verts = null;
+        quadrics = null;
+        stamps = marks = tris = refStart = refCount = refs = null;
+        isLocked = null;
+        heapCost = null;
+        heapA = heapB = heapStampA = heapStampB = null;
+        mesh.clear();
+        MeshAssembler.assemble(mesh, coords, executor);
+        return mesh;
+    }
+
+    private void ensureRefCapacity(int num) {
+        if (numRefs + num > refs.length) {
+            // compact lists by dropping refs to deleted faces
+            int[] compacted = new int[Math.max(numFaces * 6, numRefs) + num];
+            int pos = 0;
+            for (int v = 0; v < refStart.length; v++) {
+                int start = pos;
+                for (int i = refStart[v], end = i + refCount[v]; i < end; i++) {
+                    if (tris[refs[i] * 3] >= 0) {
+                        compacted[pos++] = refs[i];
+                    }
+                }
+                refStart[v] = start;
+                refCount[v] = pos - start;
+            }
+            refs = compacted;
+            numRefs = pos;
+        }
+    }
+
+    /**
+     * @return the executor
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    private static long getEdgeKey(int a, int b) {
+        return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    private static double getError(double q0, double q1, double q2,
+            double q3, double q4, double q5, double q6, double q7, double q8,
+            double q9, double x, double y, double z) {
+        double err = x * (q0 * x + 2 * (q1 * y + q2 * z + q3)) + y
+                * (q4 * y + 2 * (q5 * z + q6)) + z * (q7 * z + 2 * q8) + q9;
+        return err > 0 ? err : 0;
+    }
+
+    private float[] getFaceCoords() {
+        float[] coords = new float[numFaces * 9];
+        for (int i = 0, j = 0; i < tris.length; i += 3) {
+            if (tris[i] >= 0) {
+                for (int k = 0; k < 3; k++) {
+                    int v = tris[i + k] * 3;
+                    coords[j++] = verts[v];
+                    coords[j++] = verts[v + 1];
+                    coords[j++] = verts[v + 2];
+                }
+            }
+        }
+        return coords;
+    }
+
+    /**
+     * @return the max. error
+     */
+    public float getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return the target face count
+     */
+    public int getTargetFaces() {
+        return targetFaces;
+    }
+
+    private void heapify() {
+        for (int i = (heapSize >> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Checks if any face of v (except those shared with w) would be folded
+     * over or become degenerate if v is moved to p.
+     */
+    private boolean isFoldingOver(int v, int w, double[] p) {
+        for (int i = refStart[v], end = i + refCount[v]; i < end; i++) {
+            int t = refs[i] * 3;
+            if (tris[t] < 0 || tris[t] == w || tris[t + 1] == w
+                    || tris[t + 2] == w) {
+                continue;
+            }
+            int j = tris[t] == v ? 0 : (tris[t + 1] == v ? 1 : 2);
+            int i1 = tris[t + (j + 1) % 3] * 3;
+            int i2 = tris[t + (j + 2) % 3] * 3;
+            int i0 = v * 3;
+            double x1 = verts[i1], y1 = verts[i1 + 1], z1 = verts[i1 + 2];
+            double ux = verts[i2] - x1, uy = verts[i2 + 1] - y1, uz = verts[i2 + 2]
+                    - z1;
+            // old normal
+            double vx = verts[i0] - x1, vy = verts[i0 + 1] - y1, vz = verts[i0 + 2]
+                    - z1;
+            double ax = uy * vz - uz * vy;
+            double ay = uz * vx - ux * vz;
+            double az = ux * vy - uy * vx;
+            // new normal
+            vx = p[0] - x1;
+            vy = p[1] - y1;
+            vz = p[2] - z1;
+            double bx = uy * vz - uz * vy;
+            double by = uz * vx - ux * vz;
+            double bz = ux * vy - uy * vx;
+            double lb = bx * bx + by * by + bz * bz;
+            if (lb == 0) {
+                return true;
+            }
+            double la = ax * ax + ay * ay + az * az;
+            if (la > 0
+                    && (ax * bx + ay * by + az * bz) < MIN_NORMAL_COS
+                            * Math.sqrt(la * lb)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true, if boundary vertices are locked
+     */
+    public boolean isPreservingBoundary() {
+        return preserveBoundary;
+    }
+
+    private int nextMarkID() {
+        if (markID == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            markID = 0;
+        }
+        return ++markID;
+    }
+
+    private void pop() {
+        heapSize--;
+        if (heapSize > 0) {
+            moveHeapEntry(heapSize, 0);
+            siftDown(0);
+        }
+    }
+
+    private void moveHeapEntry(int from, int to) {
+        heapCost[to] = heapCost[from];
+        heapA[to] = heapA[from];
+        heapB[to] = heapB[from];
+        heapStampA[to] = heapStampA[from];
+        heapStampB[to] = heapStampB[from];
+    }
+
+    private void push(float cost, int a, int b) {
+        if (heapSize == heapCost.length) {
+            growHeap();
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (heapCost[parent] <= cost) {
+                break;
+            }
+            moveHeapEntry(parent, i);
+            i = parent;
+        }
+        heapCost[i] = cost;
+        heapA[i] = a;
+        heapB[i] = b;
+        heapStampA[i] = stamps[a];
+        heapStampB[i] = stamps[b];
+    }
+
+    /**
+     * Drops outdated entries from the queue and only grows its capacity if
+     * that didn't free enough space.
+     */
+    private void growHeap() {
+        int num = 0;
+        for (int i = 0; i < heapSize; i++) {
+            if (stamps[heapA[i]] == heapStampA[i]
+                    && stamps[heapB[i]] == heapStampB[i]) {
+                moveHeapEntry(i, num++);
+            }
+        }
+        heapSize = num;
+        heapify();
+        if (num > heapCost.length * 3 / 4) {
+            int capacity = heapCost.length + (heapCost.length >> 1);
+            float[] cost = new float[capacity];
+            System.arraycopy(heapCost, 0, cost, 0, num);
+            heapCost = cost;
+            heapA = copyOf(heapA, capacity, num);
+            heapB = copyOf(heapB, capacity, num);
+            heapStampA = copyOf(heapStampA, capacity, num);
+            heapStampB = copyOf(heapStampB, capacity, num);
+        }
+    }
+
+    private static int[] copyOf(int[] src, int capacity, int num) {
+        int[] dest = new int[capacity];
+        System.arraycopy(src, 0, dest, 0, num);
+        return dest;
+    }
+
+    /**
+     * Extracts vertex positions & face indices from the mesh.
+     * 
+     * @return number of vertices
+     */
+    private int readMesh(Mesh3D mesh) {
+        int numVerts;
+        if (mesh instanceof PackedTriangleMesh) {
+            PackedTriangleMesh pm = (PackedTriangleMesh) mesh;
+            verts = pm.getUniqueVerticesAsArray();
+            tris = pm.getFacesAsArray();
+            numVerts = pm.getNumVertices();
+        } else {
+            Collection<Vertex> vertices = mesh.getVertices();
+            int maxID = -1;
+            for (Vertex v : vertices) {
+                if (v.id > maxID) {
+                    maxID = v.id;
+                }
+            }
+            int[] index = new int[maxID + 1];
+            verts = new float[vertices.size() * 3];
+            numVerts = 0;
+            for (Vertex v : vertices) {
+                index[v.id] = numVerts;
+                int i = numVerts++ * 3;
+                verts[i] = v.x;
+                verts[i + 1] = v.y;
+                verts[i + 2] = v.z;
+            }
+            Collection<Face> faces = mesh.getFaces();
+            tris = new int[faces.size() * 3];
+            int i = 0;
+            for (Face f : faces) {
+                tris[i++] = index[f.a.id];
+                tris[i++] = index[f.b.id];
+                tris[i++] = index[f.c.id];
+            }
+        }
+        numFaces = tris.length / 3;
+        for (int i = 0; i < tris.length; i += 3) {
+            if (tris[i] == tris[i + 1] || tris[i] == tris[i + 2]
+                    || tris[i + 1] == tris[i + 2]) {
+                tris[i] = -1;
+                numFaces--;
+            }
+        }
+        return numVerts;
+    }
+
+    /**
+     * Sets an optional executor used to compute quadrics and initial collapse
+     * costs in parallel.
+     * 
+     * @param executor
+     *            the executor to set (or null)
+     * @return itself
+     */
+    public MeshDecimator setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the max. error (sum of squared distances to the original face
+     * planes) a single collapse is allowed to introduce.
+     * 
+     * @param maxError
+     *            the max. error to set
+     * @return itself
+     */
+    public MeshDecimator setMaxError(float maxError) {
+        this.maxError = maxError;
+        return this;
+    }
+
+    /**
+     * @param preserveBoundary
+     *            true, to lock all boundary vertices
+     * @return itself
+     */
+    public MeshDecimator setPreserveBoundary(boolean preserveBoundary) {
+        this.preserveBoundary = preserveBoundary;
+        return this;
+    }
+
+    /**
+     * @param targetFaces
+     *            the target face count to set
+     * @return itself
+     */
+    public MeshDecimator setTargetFaces(int targetFaces) {
+        this.targetFaces = targetFaces;
+        return this;
+    }
+
+    private void siftDown(int i) {
+        float cost = heapCost[i];
+        int a = heapA[i];
+        int b = heapB[i];
+        int sa = heapStampA[i];
+        int sb = heapStampB[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) {
+                child++;
+            }
+            if (cost <= heapCost[child]) {
+                break;
+            }
+            moveHeapEntry(child, i);
+            i = child;
+        }
+        heapCost[i] = cost;
+        heapA[i] = a;
+        heapB[i] = b;
+        heapStampA[i] = sa;
+        heapStampB[i] = sb;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Wavefront OBJ mesh loader, complementing {@link OBJWriter}. Only vertex
+ * positions and faces are read, all other statements (normals, texture
+ * coordinates, groups, materials etc.) are ignored. Polygons with more than 3
+ * vertices are triangulated as fans. Vertex order is swapped to match the
+ * order used by {@link TriangleMesh#saveAsOBJ(OBJWriter)}, so that exported
+ * meshes are restored with their original orientation.
+ * 
+ * The file is memory mapped and split into chunks at line boundaries, which
+ * are parsed concurrently if a {@link ParallelExecutor} is given.
+ */
+public class OBJReader {
+
+    /**
+     * Max. size of a single file chunk (64MB)
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 26;
+
+    /**
+     * Per chunk parse state
+     */
+    private static class Chunk {
+
+        ByteBuffer buffer;
+        int numVertices;
+        int numTriangles;
+        int vertexOffset;
+        int triOffset;
+        boolean hasError;
+    }
+
+    private static long findLineStart(FileChannel channel, long pos)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long size = channel.size();
+        while (pos < size) {
+            buf.clear();
+            int num = channel.read(buf, pos);
+            for (int i = 0; i < num; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += num;
+        }
+        return size;
+    }
+
+    /**
+     * Loads the given OBJ file into a new mesh instance of the given type.
+     * 
+     * @param file
+     *            OBJ file
+     * @param meshClass
+     *            mesh type to create (e.g. {@link TriangleMesh},
+     *            {@link WETriangleMesh} or {@link PackedTriangleMesh})
+     * @param executor
+     *            executor for parallel parsing (or null)
+     * @return mesh instance
+     * @throws IOException
+     *             if the file can't be read or contains invalid data
+     */
+    public Mesh3D load(File file, Class<? extends Mesh3D> meshClass,
+            ParallelExecutor executor) throws IOException {
+        Mesh3D mesh = newMesh(meshClass);
+        float[] coords = loadFaces(file, executor);
+        int numVerts = coords.length / 3;
+        mesh.init(file.getName(), numVerts / 2, numVerts / 3);
+        MeshAssembler.assemble(mesh, coords, executor);
+        return mesh;
+    }
+
+    public Mesh3D load(String path, Class<? extends Mesh3D> meshClass)
+            throws IOException {
+        return load(new File(path), meshClass, null);
+    }
+
+    /**
+     * Loads all faces of the given OBJ file as packed vertex coordinates
+     * (9 floats per triangle), e.g. for populating mesh types not implementing
+     * {@link Mesh3D}.
+     * 
+     * @param file
+     *            OBJ file
+     * @param executor
+     *            executor for parallel parsing (or null)
+     * @return face vertex coordinates
+     * @throws IOException
+     *             if the file can't be read or contains invalid data
+     */
+    public float[] loadFaces(File file, ParallelExecutor executor)
+            throws IOException {
+        final Chunk[] chunks;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int numChunks = (int) ((size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            if (executor != null) {
+                numChunks = (int) Math.min(
+                        Math.max(numChunks, executor.getNumThreads() * 4),
+                        size / 0x10000 + 1);
+            }
+            numChunks = Math.max(numChunks, 1);
+            chunks = new Chunk[numChunks];
+            long start = 0;
+            for (int i = 0; i < numChunks; i++) {
+                long end = i < numChunks - 1 ? findLineStart(channel, size
+                        * (i + 1) / numChunks - 1) : size;
+                end = Math.max(end, start);
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("line too long in: " + file);
+                }
+                MappedByteBuffer buf = channel.map(
+                        FileChannel.MapMode.READ_ONLY, start, end - start);
+                chunks[i] = new Chunk();
+                chunks[i].buffer = buf;
+                start = end;
+            }
+        } finally {
+            raf.close();
+        }
+        // count elements per chunk
+        MeshAssembler.runEach(executor, chunks.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    parseChunk(chunks[i], null, null);
+                }
+            }
+        });
+        int numVerts = 0;
+        int numTris = 0;
+        for (Chunk c : chunks) {
+            if (c.hasError) {
+                throw new IOException("invalid OBJ data in: " + file);
+            }
+            c.vertexOffset = numVerts;
+            c.triOffset = numTris;
+            numVerts += c.numVertices;
+            numTris += c.numTriangles;
+            if (numVerts < 0 || numTris < 0 || numTris > Integer.MAX_VALUE / 9) {
+                throw new IOException("too many vertices or faces: " + file);
+            }
+        }
+        // parse data
+        final float[] verts = new float[numVerts * 3];
+        final int[] tris = new int[numTris * 3];
+        MeshAssembler.runEach(executor, chunks.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    parseChunk(chunks[i], verts, tris);
+                }
+            }
+        });
+        for (Chunk c : chunks) {
+            if (c.hasError) {
+                throw new IOException("invalid OBJ data in: " + file);
+            }
+        }
+        return MeshAssembler.expandFaces(verts, numVerts, tris, numTris, true,
+                executor);
+    }
+
+    static Mesh3D newMesh(Class<? extends Mesh3D> meshClass) {
+        try {
+            return meshClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("can't create mesh of type "
+                    + meshClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can't create mesh of type "
+                    + meshClass.getName(), e);
+        }
+    }
+
+    /**
+     * Parses a single chunk. If the given arrays are null, only the number of
+     * vertices and triangles is counted.
+     */
+    private static void parseChunk(Chunk chunk, float[] verts, int[] tris) {
+        ByteBufferTextParser p = new ByteBufferTextParser(chunk.buffer
+                .duplicate());
+        boolean isCounting = verts == null;
+        int numVerts = 0;
+        int numTris = 0;
+        while (!p.isEOF()) {
+            p.skipWhitespace();
+            int c = p.current();
+            int n = p.next();
+            if (c == 'v' && (n == ' ' || n == '\t')) {
+                if (!isCounting) {
+                    p.skipToken();
+                    int i = (chunk.vertexOffset + numVerts) * 3;
+                    verts[i] = p.parseFloat();
+                    verts[i + 1] = p.parseFloat();
+                    verts[i + 2] = p.parseFloat();
+                }
+                numVerts++;
+            } else if (c == 'f' && (n == ' ' || n == '\t')) {
+                p.skipToken();
+                int first = 0, prev = 0;
+                int num = 0;
+                while (true) {
+                    p.skipWhitespace();
+                    if (p.isEOL()) {
+                        break;
+                    }
+                    int id = 0;
+                    if (!isCounting) {
+                        id = p.parseInt();
+                        // resolve 1-based & relative indices
+                        if (id > 0) {
+                            id--;
+                        } else if (id < 0) {
+                            id += chunk.vertexOffset + numVerts;
+                        } else {
+                            id = -1;
+                        }
+                    }
+                    p.skipToken();
+                    if (num >= 2) {
+                        if (!isCounting) {
+                            int i = (chunk.triOffset + numTris) * 3;
+                            tris[i] = first;
+                            tris[i + 1] = prev;
+                            tris[i + 2] = id;
+                        }
+                        numTris++;
+                    } else if (num == 0) {
+                        first = id;
+                    }
+                    prev = id;
+                    num++;
+                }
+            }
+            p.skipLine();
+        }
+        if (isCounting) {
+            chunk.numVertices = numVerts;
+            chunk.numTriangles = numTris;
+        }
+        chunk.hasError = p.hasError;
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Standard Polygon Format (PLY) mesh loader for ASCII and binary (little &amp;
+ * big endian) files, complementing {@link PLYWriter}. Only vertex positions and
+ * face indices are read, all other elements and properties are skipped.
+ * Polygons with more than 3 vertices are triangulated as fans.
+ * 
+ * Files are memory mapped. For binary files, vertices are always decoded in
+ * parallel if a {@link ParallelExecutor} is given. Faces are decoded in
+ * parallel if the file only contains triangles (the most common case), else
+ * sequentially.
+ * 
+ * Since {@link PLYWriter} swaps the Y &amp; Z axes, use
+ * {@link #setSwapYZ(boolean)} to restore the original orientation of meshes
+ * exported with it.
+ */
+public class PLYReader {
+
+    private static final int CHAR = 0;
+    private static final int UCHAR = 1;
+    private static final int SHORT = 2;
+    private static final int USHORT = 3;
+    private static final int INT = 4;
+    private static final int UINT = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+
+    private static final String[][] TYPE_NAMES = new String[][] {
+            { "char", "int8" }, { "uchar", "uint8" }, { "short", "int16" },
+            { "ushort", "uint16" }, { "int", "int32" }, { "uint", "uint32" },
+            { "float", "float32" }, { "double", "float64" } };
+
+    private static final int[] TYPE_SIZES = new int[] { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+    private static final int MAX_HEADER_SIZE = 0x100000;
+
+    private static class Element {
+
+        String name;
+        int count;
+        List<Property> properties = new ArrayList<Property>();
+
+        /**
+         * @return record size in bytes or -1, if the element contains lists
+         */
+        int getSize() {
+            int size = 0;
+            for (Property p : properties) {
+                if (p.isList) {
+                    return -1;
+                }
+                size += TYPE_SIZES[p.type];
+            }
+            return size;
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < properties.size(); i++) {
+                if (properties.get(i).name.equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class Property {
+
+        String name;
+        int type;
+        int countType;
+        boolean isList;
+    }
+
+    /**
+     * Growable buffer of triangle vertex IDs, created for each load call so
+     * that a reader instance can be used by multiple threads.
+     */
+    private static class TriangleList {
+
+        int[] tris = new int[0];
+        int numTris;
+
+        void addPolygon(int[] ids, int num) {
+            for (int i = 2; i < num; i++) {
+                if (numTris * 3 + 3 > tris.length) {
+                    int[] t = new int[Math.max(tris.length * 2, 48)];
+                    System.arraycopy(tris, 0, t, 0, numTris * 3);
+                    tris = t;
+                }
+                int j = numTris * 3;
+                tris[j] = ids[0];
+                tris[j + 1] = ids[i - 1];
+                tris[j + 2] = ids[i];
+                numTris++;
+            }
+        }
+    }
+
+    protected boolean swapYZ;
+
+    private static int[] getCoordinateProperties(Element e) throws IOException {
+        int[] xyz = new int[] { e.indexOf("x"), e.indexOf("y"), e.indexOf("z") };
+        for (int i = 0; i < 3; i++) {
+            if (xyz[i] == -1 || e.properties.get(xyz[i]).isList) {
+                throw new IOException("missing vertex coordinates");
+            }
+        }
+        return xyz;
+    }
+
+    private static int getFaceProperty(Element e) throws IOException {
+        int id = e.indexOf("vertex_indices");
+        if (id == -1) {
+            id = e.indexOf("vertex_index");
+        }
+        if (id == -1 || !e.properties.get(id).isList) {
+            throw new IOException("missing face vertex indices");
+        }
+        return id;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long pos, long size,
+            ByteOrder order) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("PLY element too large");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, pos, size).order(
+                order);
+    }
+
+    /**
+     * @return true, if the Y &amp; Z coordinates of vertices are swapped
+     */
+    public boolean isSwapYZ() {
+        return swapYZ;
+    }
+
+    /**
+     * Loads the given PLY file into a new mesh instance of the given type.
+     * 
+     * @param file
+     *            PLY file
+     * @param meshClass
+     *            mesh type to create (e.g. {@link TriangleMesh},
+     *            {@link WETriangleMesh} or {@link PackedTriangleMesh})
+     * @param executor
+     *            executor for parallel decoding (or null)
+     * @return mesh instance
+     * @throws IOException
+     *             if the file can't be read or contains invalid data
+     */
+    public Mesh3D load(File file, Class<? extends Mesh3D> meshClass,
+            ParallelExecutor executor) throws IOException {
+        Mesh3D mesh = OBJReader.newMesh(meshClass);
+        float[] coords = loadFaces(file, executor);
+        int numVerts = coords.length / 3;
+        mesh.init(file.getName(), numVerts / 2, numVerts / 3);
+        MeshAssembler.assemble(mesh, coords, executor);
+        return mesh;
+    }
+
+    public Mesh3D load(String path, Class<? extends Mesh3D> meshClass)
+            throws IOException {
+        return load(new File(path), meshClass, null);
+    }
+
+    /**
+     * Loads all faces of the given PLY file as packed vertex coordinates
+     * (9 floats per triangle), e.g. for populating mesh types not implementing
+     * {@link Mesh3D}.
+     * 
+     * @param file
+     *            PLY file
+     * @param executor
+     *            executor for parallel decoding (or null)
+     * @return face vertex coordinates
+     * @throws IOException
+     *             if the file can't be read or contains invalid data
+     */
+    public float[] loadFaces(File file, ParallelExecutor executor)
+            throws IOException {
+        float[] verts = null;
+        TriangleList faces = new TriangleList();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            List<Element> elements = new ArrayList<Element>();
+            ByteBuffer header = map(channel, 0,
+                    Math.min(size, MAX_HEADER_SIZE), ByteOrder.BIG_ENDIAN);
+            String format = parseHeader(header, elements);
+            long pos = header.position();
+            if (format.equals("ascii")) {
+                verts = readASCII(map(channel, pos, size - pos,
+                        ByteOrder.BIG_ENDIAN), elements, faces);
+            } else {
+                ByteOrder order;
+                if (format.equals("binary_little_endian")) {
+                    order = ByteOrder.LITTLE_ENDIAN;
+                } else if (format.equals("binary_big_endian")) {
+                    order = ByteOrder.BIG_ENDIAN;
+                } else {
+                    throw new IOException("unsupported PLY format: " + format);
+                }
+                for (int i = 0; i < elements.size(); i++) {
+                    Element e = elements.get(i);
+                    int recSize = e.getSize();
+                    boolean isLast = i == elements.size() - 1;
+                    if (e.name.equals("vertex")) {
+                        if (recSize == -1) {
+                            throw new IOException("unsupported vertex format");
+                        }
+                        long len = (long) e.count * recSize;
+                        if (pos + len > size) {
+                            throw new IOException("PLY file is truncated: "
+                                    + file);
+                        }
+                        verts = readBinaryVertices(map(channel, pos, len,
+                                order), e, executor);
+                        pos += len;
+                    } else if (e.name.equals("face")) {
+                        ByteBuffer buf = map(channel, pos, isLast ? size - pos
+                                : Math.min(size - pos, Integer.MAX_VALUE),
+                                order);
+                        pos += readBinaryFaces(buf, e, faces, executor);
+                    } else if (recSize != -1) {
+                        pos += (long) e.count * recSize;
+                    } else {
+                        ByteBuffer buf = map(channel, pos, Math.min(size - pos,
+                                Integer.MAX_VALUE), order);
+                        pos += readRecords(buf, e, -1, null);
+                    }
+                }
+                if (pos > size) {
+                    throw new IOException("PLY file is truncated: " + file);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("PLY file is truncated: " + file);
+        } finally {
+            raf.close();
+        }
+        if (verts == null) {
+            throw new IOException("no vertex element found: " + file);
+        }
+        int numVerts = verts.length / 3;
+        if (swapYZ) {
+            for (int i = 0; i < verts.length; i += 3) {
+                float t = verts[i + 1];
+                verts[i + 1] = verts[i + 2];
+                verts[i + 2] = t;
+            }
+        }
+        return MeshAssembler.expandFaces(verts, numVerts, faces.tris,
+                faces.numTris, false, executor);
+    }
+
+    private static int parseType(String type) throws IOException {
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i][0].equals(type) || TYPE_NAMES[i][1].equals(type)) {
+                return i;
+            }
+        }
+        throw new IOException("unknown PLY property type: " + type);
+    }
+
+    /**
+     * Parses the header and leaves the buffer positioned at the start of the
+     * data section.
+     * 
+     * @return file format
+     */
+    private static String parseHeader(ByteBuffer buf, List<Element> elements)
+            throws IOException {
+        String format = null;
+        StringBuilder line = new StringBuilder();
+        boolean isFirst = true;
+        while (true) {
+            line.setLength(0);
+            while (true) {
+                if (!buf.hasRemaining()) {
+                    throw new IOException("invalid PLY header");
+                }
+                char c = (char) (buf.get() & 0xff);
+                if (c == '\n') {
+                    break;
+                }
+                if (c != '\r') {
+                    line.append(c);
+                }
+            }
+            String[] items = line.toString().trim().split("\\s+");
+            if (items[0].equals("end_header")) {
+                break;
+            }
+            try {
+                if (isFirst) {
+                    if (!items[0].equals("ply")) {
+                        throw new IOException("not a PLY file");
+                    }
+                    isFirst = false;
+                } else if (items[0].equals("format")) {
+                    format = items[1];
+                } else if (items[0].equals("element")) {
+                    Element e = new Element();
+                    e.name = items[1];
+                    e.count = Integer.parseInt(items[2]);
+                    elements.add(e);
+                } else if (items[0].equals("property")) {
+                    if (elements.size() == 0) {
+                        throw new IOException("invalid PLY header");
+                    }
+                    Property p = new Property();
+                    if (items[1].equals("list")) {
+                        p.isList = true;
+                        p.countType = parseType(items[2]);
+                        p.type = parseType(items[3]);
+                        p.name = items[4];
+                    } else {
+                        p.type = parseType(items[1]);
+                        p.name = items[2];
+                    }
+                    elements.get(elements.size() - 1).properties.add(p);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("invalid PLY header: " + line);
+            }
+        }
+        if (format == null) {
+            throw new IOException("invalid PLY header");
+        }
+        return format;
+    }
+
+    private float[] readASCII(ByteBuffer buf, List<Element> elements,
+            TriangleList faces) throws IOException {
+        ByteBufferTextParser p = new ByteBufferTextParser(buf);
+        float[] verts = null;
+        int[] ids = new int[16];
+        for (Element e : elements) {
+            int numProps = e.properties.size();
+            boolean isVertex = e.name.equals("vertex");
+            boolean isFace = e.name.equals("face");
+            int[] xyz = null;
+            int faceProp = -1;
+            if (isVertex) {
+                xyz = getCoordinateProperties(e);
+                verts = new float[e.count * 3];
+            } else if (isFace) {
+                faceProp = getFaceProperty(e);
+            }
+            for (int i = 0; i < e.count; i++) {
+                for (int j = 0; j < numProps; j++) {
+                    Property prop = e.properties.get(j);
+                    if (prop.isList) {
+                        int num = p.parseInt();
+                        if (ids.length < num) {
+                            ids = new int[num];
+                        }
+                        for (int k = 0; k < num; k++) {
+                            if (j == faceProp) {
+                                ids[k] = p.parseInt();
+                            } else {
+                                p.parseFloat();
+                            }
+                        }
+                        if (j == faceProp) {
+                            faces.addPolygon(ids, num);
+                        }
+                    } else {
+                        float x = p.parseFloat();
+                        if (isVertex) {
+                            for (int k = 0; k < 3; k++) {
+                                if (xyz[k] == j) {
+                                    verts[i * 3 + k] = x;
+                                }
+                            }
+                        }
+                    }
+                }
+                if (p.hasError) {
+                    throw new IOException("invalid PLY data");
+                }
+                p.skipLine();
+            }
+        }
+        return verts;
+    }
+
+    /**
+     * Decodes all faces of a binary face element.
+     * 
+     * @return number of bytes read
+     */
+    private long readBinaryFaces(final ByteBuffer buf, Element e,
+            TriangleList faces, ParallelExecutor executor) throws IOException {
+        final int faceProp = getFaceProperty(e);
+        final Property p = e.properties.get(faceProp);
+        final int countSize = TYPE_SIZES[p.countType];
+        final int itemSize = TYPE_SIZES[p.type];
+        final int recSize = countSize + 3 * itemSize;
+        final int num = e.count;
+        if (e.properties.size() == 1 && (long) num * recSize == buf.limit()) {
+            // all faces are (very likely) triangles, decode in parallel
+            final int[] t = new int[num * 3];
+            final boolean[] isInvalid = new boolean[1];
+            MeshAssembler.run(executor, num, new RangeTask() {
+
+                public void process(int from, int to) {
+                    ByteBuffer b = buf.duplicate().order(buf.order());
+                    for (int i = from; i < to; i++) {
+                        int pos = i * recSize;
+                        if (readInt(b, pos, p.countType) != 3) {
+                            isInvalid[0] = true;
+                            return;
+                        }
+                        pos += countSize;
+                        for (int j = 0; j < 3; j++, pos += itemSize) {
+                            t[i * 3 + j] = (int) readInt(b, pos, p.type);
+                        }
+                    }
+                }
+            });
+            if (!isInvalid[0]) {
+                faces.tris = t;
+                faces.numTris = num;
+                return buf.limit();
+            }
+        }
+        return readRecords(buf, e, faceProp, faces);
+    }
+
+    private float[] readBinaryVertices(final ByteBuffer buf, Element e,
+            ParallelExecutor executor) throws IOException {
+        final int[] xyz = getCoordinateProperties(e);
+        final int[] offsets = new int[3];
+        final int[] types = new int[3];
+        for (int k = 0; k < 3; k++) {
+            for (int j = 0; j < xyz[k]; j++) {
+                offsets[k] += TYPE_SIZES[e.properties.get(j).type];
+            }
+            types[k] = e.properties.get(xyz[k]).type;
+        }
+        final int recSize = e.getSize();
+        final float[] verts = new float[e.count * 3];
+        MeshAssembler.run(executor, e.count, new RangeTask() {
+
+            public void process(int from, int to) {
+                ByteBuffer b = buf.duplicate().order(buf.order());
+                for (int i = from; i < to; i++) {
+                    int pos = i * recSize;
+                    for (int k = 0; k < 3; k++) {
+                        verts[i * 3 + k] = (float) readDouble(b, pos
+                                + offsets[k], types[k]);
+                    }
+                }
+            }
+        });
+        return verts;
+    }
+
+    private static double readDouble(ByteBuffer buf, int pos, int type) {
+        switch (type) {
+            case FLOAT:
+                return buf.getFloat(pos);
+            case DOUBLE:
+                return buf.getDouble(pos);
+            default:
+                return readInt(buf, pos, type);
+        }
+    }
+
+    private static long readInt(ByteBuffer buf, int pos, int type) {
+        switch (type) {
+            case CHAR:
+                return buf.get(pos);
+            case UCHAR:
+                return buf.get(pos) & 0xff;
+            case SHORT:
+                return buf.getShort(pos);
+            case USHORT:
+                return buf.getShort(pos) & 0xffff;
+            case INT:
+                return buf.getInt(pos);
+            case UINT:
+                return buf.getInt(pos) & 0xffffffffL;
+            case FLOAT:
+                return (long) buf.getFloat(pos);
+            default:
+                return (long) buf.getDouble(pos);
+        }
+    }
+
+    /**
+     * Sequentially reads all records of a binary element, collecting the
+     * polygons of the given list property (if any).
+     * 
+     * @return number of bytes read
+     */
+    private long readRecords(ByteBuffer buf, Element e, int faceProp,
+            TriangleList faces) {
+        int pos = 0;
+        int[] ids = new int[16];
+        int numProps = e.properties.size();
+        for (int i = 0; i < e.count; i++) {
+            for (int j = 0; j < numProps; j++) {
+                Property p = e.properties.get(j);
+                if (p.isList) {
+                    int num = (int) readInt(buf, pos, p.countType);
+                    pos += TYPE_SIZES[p.countType];
+                    int itemSize = TYPE_SIZES[p.type];
+                    if (j == faceProp) {
+                        if (ids.length < num) {
+                            ids = new int[num];
+                        }
+                        for (int k = 0; k < num; k++) {
+                            ids[k] = (int) readInt(buf, pos + k * itemSize,
+                                    p.type);
+                        }
+                        faces.addPolygon(ids, num);
+                    }
+                    pos += num * itemSize;
+                } else {
+                    pos += TYPE_SIZES[p.type];
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @param swapYZ
+     *            true, to swap the Y &amp; Z coordinates of all vertices
+     */
+    public void setSwapYZ(boolean swapYZ) {
+        this.swapYZ = swapYZ;
+    }
+}
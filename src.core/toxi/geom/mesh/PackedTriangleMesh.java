@@ -0,0 +1,900 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+import toxi.geom.AABB;
+import toxi.geom.Matrix4x4;
+import toxi.geom.ReadonlyVec3D;
+import toxi.geom.Sphere;
+import toxi.geom.Vec2D;
+import toxi.geom.Vec3D;
+import toxi.math.MathUtils;
+
+/**
+ * Memory efficient {@link Mesh3D} implementation storing all mesh data in
+ * primitive arrays: vertex positions & normals as packed XYZ floats, faces as
+ * an index buffer (3 vertex IDs per face) plus packed face normals and
+ * (optional) per face UV coordinates. Vertices are welded in the same way as
+ * in {@link TriangleMesh} and assigned IDs in order of first use, so meshes
+ * of both types can be converted into each other without changes.
+ * 
+ * No {@link Vertex} or {@link Face} objects are kept. The methods of the
+ * {@link Mesh3D} interface returning such objects ({@link #getFaces()},
+ * {@link #getVertices()}, {@link #getClosestVertexToPoint(ReadonlyVec3D)})
+ * create temporary copies on demand and should be avoided for large meshes.
+ */
+public class PackedTriangleMesh implements Mesh3D {
+
+    protected static final Logger logger = Logger
+            .getLogger(PackedTriangleMesh.class.getName());
+
+    /**
+     * Mesh name
+     */
+    public String name;
+
+    protected float[] vertices;
+    protected float[] vertexNormals;
+    protected int numVertices;
+
+    protected int[] faces;
+    protected float[] faceNormals;
+    protected float[] uvs;
+    protected int numFaces;
+
+    /**
+     * Open addressing vertex lookup table, storing vertex IDs
+     */
+    protected int[] vertexIndex;
+
+    protected Matrix4x4 matrix = new Matrix4x4();
+
+    private final Vec3D tmpA = new Vec3D();
+    private final Vec3D tmpB = new Vec3D();
+    private final Vec3D tmpC = new Vec3D();
+
+    public PackedTriangleMesh() {
+        this("untitled");
+    }
+
+    public PackedTriangleMesh(String name) {
+        this(name, TriangleMesh.DEFAULT_NUM_VERTICES,
+                TriangleMesh.DEFAULT_NUM_FACES);
+    }
+
+    /**
+     * Creates a new mesh instance with the given initial buffer sizes. These
+     * numbers are no limits and the mesh can grow later on.
+     * 
+     * @param name
+     *            mesh name
+     * @param numV
+     *            initial vertex buffer size
+     * @param numF
+     *            initial face buffer size
+     */
+    public PackedTriangleMesh(String name, int numV, int numF) {
+        init(name, numV, numF);
+    }
+
+    public PackedTriangleMesh addFace(Vec3D a, Vec3D b, Vec3D c) {
+        return addFace(a, b, c, null, null, null, null);
+    }
+
+    public PackedTriangleMesh addFace(Vec3D a, Vec3D b, Vec3D c, Vec2D uvA,
+            Vec2D uvB, Vec2D uvC) {
+        return addFace(a, b, c, null, uvA, uvB, uvC);
+    }
+
+    public PackedTriangleMesh addFace(Vec3D a, Vec3D b, Vec3D c, Vec3D n) {
+        return addFace(a, b, c, n, null, null, null);
+    }
+
+    public PackedTriangleMesh addFace(Vec3D a, Vec3D b, Vec3D c, Vec3D n,
+            Vec2D uvA, Vec2D uvB, Vec2D uvC) {
+        int ia = checkVertex(a.x, a.y, a.z);
+        int ib = checkVertex(b.x, b.y, b.z);
+        int ic = checkVertex(c.x, c.y, c.z);
+        if (ia == ib || ia == ic || ib == ic) {
+            return this;
+        }
+        if (n != null) {
+            getVertex(ia, tmpA).subSelf(getVertex(ic, tmpC));
+            tmpA.crossSelf(getVertex(ia, tmpB).subSelf(getVertex(ib, tmpC)));
+            if (n.dot(tmpA) < 0) {
+                int t = ia;
+                ia = ib;
+                ib = t;
+            }
+        }
+        // partial UV sets are treated as missing
+        boolean hasUV = uvA != null && uvB != null && uvC != null;
+        ensureFaceCapacity(numFaces + 1, hasUV);
+        int i = numFaces * 3;
+        faces[i] = ia;
+        faces[i + 1] = ib;
+        faces[i + 2] = ic;
+        int j = numFaces * 6;
+        if (hasUV) {
+            uvs[j] = uvA.x;
+            uvs[j + 1] = uvA.y;
+            uvs[j + 2] = uvB.x;
+            uvs[j + 3] = uvB.y;
+            uvs[j + 4] = uvC.x;
+            uvs[j + 5] = uvC.y;
+        } else if (uvs != null) {
+            Arrays.fill(uvs, j, j + 6, Float.NaN);
+        }
+        computeFaceNormal(numFaces);
+        numFaces++;
+        return this;
+    }
+
+    /**
+     * Adds all faces from the given mesh to this one.
+     * 
+     * @param m
+     *            source mesh instance
+     */
+    public PackedTriangleMesh addMesh(Mesh3D m) {
+        if (m instanceof PackedTriangleMesh) {
+            PackedTriangleMesh pm = (PackedTriangleMesh) m;
+            Vec3D a = new Vec3D();
+            Vec3D b = new Vec3D();
+            Vec3D c = new Vec3D();
+            Vec2D[] uv = new Vec2D[3];
+            for (int i = 0; i < pm.numFaces; i++) {
+                pm.getFaceVertices(i, a, b, c);
+                for (int j = 0, k = i * 6; j < 3; j++, k += 2) {
+                    uv[j] = pm.hasUV(i) ? new Vec2D(pm.uvs[k], pm.uvs[k + 1])
+                            : null;
+                }
+                addFace(a, b, c, uv[0], uv[1], uv[2]);
+            }
+        } else {
+            for (Face f : m.getFaces()) {
+                addFace(f.a, f.b, f.c, f.uvA, f.uvB, f.uvC);
+            }
+        }
+        return this;
+    }
+
+    public AABB center(ReadonlyVec3D origin) {
+        Vec3D centroid = computeCentroid();
+        Vec3D delta = origin != null ? origin.sub(centroid) : centroid
+                .getInverted();
+        for (int i = 0, n = numVertices * 3; i < n; i += 3) {
+            vertices[i] += delta.x;
+            vertices[i + 1] += delta.y;
+            vertices[i + 2] += delta.z;
+        }
+        rebuildIndex();
+        return getBoundingBox();
+    }
+
+    private int checkVertex(float x, float y, float z) {
+        int mask = vertexIndex.length - 1;
+        int slot = ExactWeldStrategy.hash(x, y, z) & mask;
+        int id;
+        while ((id = vertexIndex[slot]) != -1) {
+            int i = id * 3;
+            if (vertices[i] == x && vertices[i + 1] == y
+                    && vertices[i + 2] == z) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        id = numVertices++;
+        if (id * 3 == vertices.length) {
+            vertices = copyOf(vertices, vertices.length * 2);
+            vertexNormals = copyOf(vertexNormals, vertexNormals.length * 2);
+        }
+        int i = id * 3;
+        vertices[i] = x;
+        vertices[i + 1] = y;
+        vertices[i + 2] = z;
+        vertexIndex[slot] = id;
+        if (numVertices * 2 > vertexIndex.length) {
+            vertexIndex = new int[vertexIndex.length * 2];
+            rebuildIndex();
+        }
+        return id;
+    }
+
+    /**
+     * Clears all counters, and vertex & face buffers. The allocated storage
+     * is kept.
+     */
+    public PackedTriangleMesh clear() {
+        Arrays.fill(vertexIndex, -1);
+        numVertices = 0;
+        numFaces = 0;
+        uvs = null;
+        return this;
+    }
+
+    public Vec3D computeCentroid() {
+        Vec3D centroid = new Vec3D();
+        for (int i = 0; i < numVertices; i++) {
+            centroid.addSelf(getVertex(i, tmpA));
+        }
+        return centroid.scaleSelf(1f / numVertices);
+    }
+
+    private void computeFaceNormal(int id) {
+        int i = id * 3;
+        getVertex(faces[i], tmpA).subSelf(getVertex(faces[i + 2], tmpC));
+        getVertex(faces[i], tmpB).subSelf(getVertex(faces[i + 1], tmpC));
+        tmpA.crossSelf(tmpB).normalize();
+        faceNormals[i] = tmpA.x;
+        faceNormals[i + 1] = tmpA.y;
+        faceNormals[i + 2] = tmpA.z;
+    }
+
+    /**
+     * Re-calculates all face normals.
+     */
+    public PackedTriangleMesh computeFaceNormals() {
+        for (int i = 0; i < numFaces; i++) {
+            computeFaceNormal(i);
+        }
+        return this;
+    }
+
+    /**
+     * Computes the smooth vertex normals for the entire mesh.
+     */
+    public PackedTriangleMesh computeVertexNormals() {
+        Arrays.fill(vertexNormals, 0, numVertices * 3, 0);
+        for (int i = 0, n = numFaces * 3; i < n; i += 3) {
+            float nx = faceNormals[i];
+            float ny = faceNormals[i + 1];
+            float nz = faceNormals[i + 2];
+            for (int j = 0; j < 3; j++) {
+                int k = faces[i + j] * 3;
+                vertexNormals[k] += nx;
+                vertexNormals[k + 1] += ny;
+                vertexNormals[k + 2] += nz;
+            }
+        }
+        for (int i = 0; i < numVertices; i++) {
+            int k = i * 3;
+            tmpA.set(vertexNormals[k], vertexNormals[k + 1],
+                    vertexNormals[k + 2]).normalize();
+            vertexNormals[k] = tmpA.x;
+            vertexNormals[k + 1] = tmpA.y;
+            vertexNormals[k + 2] = tmpA.z;
+        }
+        return this;
+    }
+
+    /**
+     * Creates a deep clone of the mesh. The new mesh name will have "-copy" as
+     * suffix.
+     * 
+     * @return new mesh instance
+     */
+    public PackedTriangleMesh copy() {
+        PackedTriangleMesh m = new PackedTriangleMesh(name + "-copy",
+                numVertices, numFaces);
+        m.vertices = copyOf(vertices, vertices.length);
+        m.vertexNormals = copyOf(vertexNormals, vertexNormals.length);
+        m.numVertices = numVertices;
+        m.faces = copyOf(faces, faces.length);
+        m.faceNormals = copyOf(faceNormals, faceNormals.length);
+        if (uvs != null) {
+            m.uvs = copyOf(uvs, uvs.length);
+        }
+        m.numFaces = numFaces;
+        m.vertexIndex = new int[vertexIndex.length];
+        m.rebuildIndex();
+        return m;
+    }
+
+    private static float[] copyOf(float[] src, int len) {
+        float[] dest = new float[len];
+        System.arraycopy(src, 0, dest, 0, Math.min(src.length, len));
+        return dest;
+    }
+
+    private static int[] copyOf(int[] src, int len) {
+        int[] dest = new int[len];
+        System.arraycopy(src, 0, dest, 0, Math.min(src.length, len));
+        return dest;
+    }
+
+    private void ensureFaceCapacity(int num, boolean needsUV) {
+        if (num * 3 > faces.length) {
+            int len = Math.max(faces.length * 2, num * 3);
+            faces = copyOf(faces, len);
+            faceNormals = copyOf(faceNormals, len);
+            if (uvs != null) {
+                int oldLen = uvs.length;
+                uvs = copyOf(uvs, len * 2);
+                Arrays.fill(uvs, oldLen, uvs.length, Float.NaN);
+            }
+        }
+        if (needsUV && uvs == null) {
+            // mark all existing faces as having no UVs
+            uvs = new float[faces.length * 2];
+            Arrays.fill(uvs, Float.NaN);
+        }
+    }
+
+    public PackedTriangleMesh faceOutwards() {
+        Vec3D centroid = computeCentroid();
+        for (int i = 0; i < numFaces; i++) {
+            int k = i * 3;
+            getVertex(faces[k], tmpA).addSelf(getVertex(faces[k + 1], tmpB))
+                    .addSelf(getVertex(faces[k + 2], tmpB)).scaleSelf(1f / 3)
+                    .subSelf(centroid);
+            float dot = tmpA.x * faceNormals[k] + tmpA.y * faceNormals[k + 1]
+                    + tmpA.z * faceNormals[k + 2];
+            if (dot < 0) {
+                flipFace(i);
+            }
+        }
+        return this;
+    }
+
+    private void flipFace(int id) {
+        int k = id * 3;
+        int t = faces[k];
+        faces[k] = faces[k + 1];
+        faces[k + 1] = t;
+        faceNormals[k] = -faceNormals[k];
+        faceNormals[k + 1] = -faceNormals[k + 1];
+        faceNormals[k + 2] = -faceNormals[k + 2];
+    }
+
+    public PackedTriangleMesh flipVertexOrder() {
+        for (int i = 0; i < numFaces; i++) {
+            flipFace(i);
+            if (uvs != null) {
+                int j = i * 6;
+                float t = uvs[j];
+                uvs[j] = uvs[j + 2];
+                uvs[j + 2] = t;
+                t = uvs[j + 1];
+                uvs[j + 1] = uvs[j + 3];
+                uvs[j + 3] = t;
+            }
+        }
+        return this;
+    }
+
+    public PackedTriangleMesh flipYAxis() {
+        transform(new Matrix4x4().scaleSelf(1, -1, 1));
+        flipVertexOrder();
+        return this;
+    }
+
+    public AABB getBoundingBox() {
+        final Vec3D minBounds = Vec3D.MAX_VALUE.copy();
+        final Vec3D maxBounds = Vec3D.NEG_MAX_VALUE.copy();
+        for (int i = 0; i < numVertices; i++) {
+            getVertex(i, tmpA);
+            minBounds.minSelf(tmpA);
+            maxBounds.maxSelf(tmpA);
+        }
+        return AABB.fromMinMax(minBounds, maxBounds);
+    }
+
+    public Sphere getBoundingSphere() {
+        float radius = 0;
+        Vec3D centroid = computeCentroid();
+        for (int i = 0; i < numVertices; i++) {
+            radius = MathUtils.max(radius, getVertex(i, tmpA)
+                    .distanceToSquared(centroid));
+        }
+        return new Sphere(centroid, (float) Math.sqrt(radius));
+    }
+
+    /**
+     * Returns a new {@link Vertex} instance (incl. normal) for the mesh
+     * vertex closest to the given point.
+     */
+    public Vertex getClosestVertexToPoint(ReadonlyVec3D p) {
+        int closest = -1;
+        float minDist = Float.MAX_VALUE;
+        for (int i = 0; i < numVertices; i++) {
+            float d = getVertex(i, tmpA).distanceToSquared(p);
+            if (d < minDist) {
+                closest = i;
+                minDist = d;
+            }
+        }
+        return closest != -1 ? createVertex(closest) : null;
+    }
+
+    private Vertex createVertex(int id) {
+        Vertex v = new Vertex(getVertex(id, new Vec3D()), id);
+        int i = id * 3;
+        v.normal.set(vertexNormals[i], vertexNormals[i + 1],
+                vertexNormals[i + 2]);
+        return v;
+    }
+
+    /**
+     * Creates a list of {@link Face} objects for all faces of this mesh. The
+     * faces refer to the vertex objects returned by {@link #getVertices()}.
+     * Changes to these objects are not reflected in the mesh.
+     * 
+     * @return list of face copies
+     */
+    public List<Face> getFaces() {
+        List<Vertex> verts = getVertices();
+        List<Face> list = new ArrayList<Face>(numFaces);
+        for (int i = 0; i < numFaces; i++) {
+            int k = i * 3;
+            Face f = new Face(verts.get(faces[k]), verts.get(faces[k + 1]),
+                    verts.get(faces[k + 2]));
+            f.normal.set(faceNormals[k], faceNormals[k + 1], faceNormals[k + 2]);
+            if (hasUV(i)) {
+                int j = i * 6;
+                f.uvA = new Vec2D(uvs[j], uvs[j + 1]);
+                f.uvB = new Vec2D(uvs[j + 2], uvs[j + 3]);
+                f.uvC = new Vec2D(uvs[j + 4], uvs[j + 5]);
+            }
+            list.add(f);
+        }
+        // face constructor has modified vertex normals
+        for (Vertex v : verts) {
+            int i = v.id * 3;
+            v.normal.set(vertexNormals[i], vertexNormals[i + 1],
+                    vertexNormals[i + 2]);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the face index buffer (3 vertex IDs per face). The array might
+     * be larger than needed, use {@link #getNumFaces()} to determine the
+     * number of valid entries.
+     * 
+     * @return direct reference to the index buffer
+     */
+    public int[] getFaceIndexBuffer() {
+        return faces;
+    }
+
+    /**
+     * Creates an array of the vertex IDs of all faces.
+     * 
+     * @return packed array of 3 vertex IDs per face
+     */
+    public int[] getFacesAsArray() {
+        return copyOf(faces, numFaces * 3);
+    }
+
+    private void getFaceVertices(int id, Vec3D a, Vec3D b, Vec3D c) {
+        int k = id * 3;
+        getVertex(faces[k], a);
+        getVertex(faces[k + 1], b);
+        getVertex(faces[k + 2], c);
+    }
+
+    /**
+     * Creates an array of unravelled vertex coordinates for all faces, in the
+     * same format as {@link TriangleMesh#getMeshAsVertexArray(float[], int, int)}.
+     * 
+     * @param verts
+     *            an existing target array or null to automatically create one
+     * @param offset
+     *            start index in array to place vertices
+     * @param stride
+     *            stride/alignment setting for individual coordinates
+     * @return array of xyz vertex coords
+     */
+    public float[] getMeshAsVertexArray(float[] verts, int offset, int stride) {
+        stride = MathUtils.max(stride, 3);
+        if (verts == null) {
+            verts = new float[numFaces * 3 * stride];
+        }
+        for (int i = 0, n = numFaces * 3, j = offset; i < n; i++, j += stride) {
+            int k = faces[i] * 3;
+            verts[j] = vertices[k];
+            verts[j + 1] = vertices[k + 1];
+            verts[j + 2] = vertices[k + 2];
+        }
+        return verts;
+    }
+
+    public int getNumFaces() {
+        return numFaces;
+    }
+
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    /**
+     * Creates an array of the vertex normals for all unique vertices.
+     * 
+     * @return packed XYZ normals
+     */
+    public float[] getNormalsForUniqueVerticesAsArray() {
+        return copyOf(vertexNormals, numVertices * 3);
+    }
+
+    /**
+     * Creates an array of the positions of all unique vertices.
+     * 
+     * @return packed XYZ coordinates
+     */
+    public float[] getUniqueVerticesAsArray() {
+        return copyOf(vertices, numVertices * 3);
+    }
+
+    /**
+     * Copies the position of the vertex with the given ID into the result
+     * vector.
+     * 
+     * @param id
+     *            vertex ID
+     * @param result
+     * @return result vector
+     */
+    public Vec3D getVertex(int id, Vec3D result) {
+        int i = id * 3;
+        return result.set(vertices[i], vertices[i + 1], vertices[i + 2]);
+    }
+
+    /**
+     * Returns the packed vertex position buffer. The array might be larger
+     * than needed, use {@link #getNumVertices()} to determine the number of
+     * valid entries. If vertices are modified directly,
+     * {@link #rebuildIndex()} needs to be called before adding new faces.
+     * 
+     * @return direct reference to the vertex buffer
+     */
+    public float[] getVertexBuffer() {
+        return vertices;
+    }
+
+    /**
+     * Creates a list of {@link Vertex} objects for all mesh vertices (in ID
+     * order). Changes to these objects are not reflected in the mesh.
+     * 
+     * @return list of vertex copies
+     */
+    public List<Vertex> getVertices() {
+        List<Vertex> list = new ArrayList<Vertex>(numVertices);
+        for (int i = 0; i < numVertices; i++) {
+            list.add(createVertex(i));
+        }
+        return list;
+    }
+
+    /**
+     * Checks if the face with the given ID has UV coordinates assigned. Once
+     * the first face with UVs has been added, faces without are marked with
+     * NaN entries in the UV buffer.
+     * 
+     * @param id
+     *            face ID
+     * @return true, if face has UVs
+     */
+    public boolean hasUV(int id) {
+        return uvs != null && !Float.isNaN(uvs[id * 6]);
+    }
+
+    public PackedTriangleMesh init(String name, int numV, int numF) {
+        setName(name);
+        numV = Math.max(numV, 4);
+        numF = Math.max(numF, 4);
+        vertices = new float[numV * 3];
+        vertexNormals = new float[numV * 3];
+        faces = new int[numF * 3];
+        faceNormals = new float[numF * 3];
+        uvs = null;
+        vertexIndex = new int[Integer.highestOneBit(numV * 2 - 1) << 1];
+        return clear();
+    }
+
+    /**
+     * Rebuilds the vertex lookup index. Only needs to be called manually after
+     * vertex positions have been modified via {@link #getVertexBuffer()}.
+     */
+    public void rebuildIndex() {
+        Arrays.fill(vertexIndex, -1);
+        int mask = vertexIndex.length - 1;
+        for (int id = 0; id < numVertices; id++) {
+            int i = id * 3;
+            int slot = ExactWeldStrategy.hash(vertices[i], vertices[i + 1],
+                    vertices[i + 2])
+                    & mask;
+            while (vertexIndex[slot] != -1) {
+                slot = (slot + 1) & mask;
+            }
+            vertexIndex[slot] = id;
+        }
+    }
+
+    public PackedTriangleMesh rotateAroundAxis(Vec3D axis, float theta) {
+        return transform(matrix.identity().rotateAroundAxis(axis, theta));
+    }
+
+    public PackedTriangleMesh rotateX(float theta) {
+        return transform(matrix.identity().rotateX(theta));
+    }
+
+    public PackedTriangleMesh rotateY(float theta) {
+        return transform(matrix.identity().rotateY(theta));
+    }
+
+    public PackedTriangleMesh rotateZ(float theta) {
+        return transform(matrix.identity().rotateZ(theta));
+    }
+
+    /**
+     * Saves the mesh as OBJ format by appending it to the given mesh
+     * {@link OBJWriter} instance. The output is identical to that of
+     * {@link TriangleMesh#saveAsOBJ(OBJWriter, boolean)}.
+     * 
+     * @param obj
+     * @param saveNormals
+     */
+    public void saveAsOBJ(OBJWriter obj, boolean saveNormals) {
+        int vOffset = obj.getCurrVertexOffset() + 1;
+        int nOffset = obj.getCurrNormalOffset() + 1;
+        logger.info("writing OBJMesh: " + this.toString());
+        obj.newObject(name);
+        for (int i = 0; i < numVertices; i++) {
+            obj.vertex(getVertex(i, tmpA));
+        }
+        if (saveNormals) {
+            for (int i = 0, n = numVertices * 3; i < n; i += 3) {
+                obj.normal(tmpA.set(vertexNormals[i], vertexNormals[i + 1],
+                        vertexNormals[i + 2]));
+            }
+        }
+        for (int i = 0, n = numFaces * 3; i < n; i += 3) {
+            int a = faces[i];
+            int b = faces[i + 1];
+            int c = faces[i + 2];
+            if (saveNormals) {
+                obj.faceWithNormals(b + vOffset, a + vOffset, c + vOffset, b
+                        + nOffset, a + nOffset, c + nOffset);
+            } else {
+                obj.face(b + vOffset, a + vOffset, c + vOffset);
+            }
+        }
+    }
+
+    /**
+     * Saves the mesh as OBJ format to the given {@link OutputStream}.
+     * 
+     * @param stream
+     */
+    public void saveAsOBJ(OutputStream stream) {
+        OBJWriter obj = new OBJWriter();
+        obj.beginSave(stream);
+        saveAsOBJ(obj, true);
+        obj.endSave();
+    }
+
+    /**
+     * Saves the mesh as OBJ format to the given file path. Existing files will
+     * be overwritten.
+     * 
+     * @param path
+     */
+    public void saveAsOBJ(String path) {
+        OBJWriter obj = new OBJWriter();
+        obj.beginSave(path);
+        saveAsOBJ(obj, true);
+        obj.endSave();
+    }
+
+    /**
+     * Saves the mesh as binary STL format to the given {@link OutputStream}.
+     * 
+     * @param stream
+     */
+    public void saveAsSTL(OutputStream stream) {
+        saveAsSTL(stream, new STLWriter(), false);
+    }
+
+    /**
+     * Saves the mesh as binary STL format to the given {@link OutputStream}
+     * using the supplied {@link STLWriter} instance. The output is identical
+     * to that of {@link TriangleMesh}.
+     * 
+     * @param stream
+     * @param stl
+     * @param useFlippedY
+     */
+    public void saveAsSTL(OutputStream stream, STLWriter stl,
+            boolean useFlippedY) {
+        stl.beginSave(stream, numFaces);
+        writeSTLFaces(stl, useFlippedY);
+    }
+
+    /**
+     * Saves the mesh as binary STL format to the given file path. Existing
+     * files will be overwritten.
+     * 
+     * @param fileName
+     */
+    public void saveAsSTL(String fileName) {
+        saveAsSTL(fileName, new STLWriter(), false);
+    }
+
+    public void saveAsSTL(String fileName, STLWriter stl, boolean useFlippedY) {
+        stl.beginSave(fileName, numFaces);
+        writeSTLFaces(stl, useFlippedY);
+    }
+
+    public PackedTriangleMesh scale(float scale) {
+        return transform(matrix.identity().scaleSelf(scale));
+    }
+
+    public PackedTriangleMesh scale(float x, float y, float z) {
+        return transform(matrix.identity().scaleSelf(x, y, z));
+    }
+
+    public PackedTriangleMesh scale(Vec3D scale) {
+        return transform(matrix.identity().scaleSelf(scale));
+    }
+
+    public PackedTriangleMesh setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * Creates a {@link TriangleMesh} with the same vertices (and vertex IDs)
+     * and faces. This includes vertices only used by rejected degenerate
+     * faces, which {@link TriangleMesh} keeps as well.
+     * 
+     * @return new mesh
+     */
+    public TriangleMesh toTriangleMesh() {
+        TriangleMesh m = new TriangleMesh(name, numVertices, numFaces);
+        Vec3D a = new Vec3D();
+        Vec3D b = new Vec3D();
+        Vec3D c = new Vec3D();
+        // register vertices in ID order first, so that IDs are preserved:
+        // degenerate faces are rejected, but still add their vertices
+        for (int i = 0; i < numVertices; i++) {
+            getVertex(i, a);
+            m.addFace(a, a, a);
+        }
+        for (int i = 0; i < numFaces; i++) {
+            getFaceVertices(i, a, b, c);
+            if (hasUV(i)) {
+                int j = i * 6;
+                m.addFace(a, b, c, new Vec2D(uvs[j], uvs[j + 1]), new Vec2D(
+                        uvs[j + 2], uvs[j + 3]), new Vec2D(uvs[j + 4],
+                        uvs[j + 5]));
+            } else {
+                m.addFace(a, b, c);
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedTriangleMesh: " + name + " vertices: " + numVertices
+                + " faces: " + numFaces;
+    }
+
+    /**
+     * Shrinks all buffers to the current number of vertices & faces, releasing
+     * any spare capacity.
+     * 
+     * @return itself
+     */
+    public PackedTriangleMesh trimToSize() {
+        int nv = Math.max(numVertices, 4) * 3;
+        vertices = copyOf(vertices, nv);
+        vertexNormals = copyOf(vertexNormals, nv);
+        int nf = Math.max(numFaces, 4) * 3;
+        faces = copyOf(faces, nf);
+        faceNormals = copyOf(faceNormals, nf);
+        if (uvs != null) {
+            uvs = copyOf(uvs, nf * 2);
+        }
+        return this;
+    }
+
+    /**
+     * Applies the given matrix transform to all mesh vertices and updates all
+     * face normals.
+     * 
+     * @param mat
+     * @return itself
+     */
+    public PackedTriangleMesh transform(Matrix4x4 mat) {
+        return transform(mat, true);
+    }
+
+    /**
+     * Applies the given matrix transform to all mesh vertices. If the
+     * updateNormals flag is true, all face normals are updated automatically,
+     * however vertex normals need a manual update.
+     * 
+     * @param mat
+     * @param updateNormals
+     * @return itself
+     */
+    public PackedTriangleMesh transform(Matrix4x4 mat, boolean updateNormals) {
+        for (int i = 0; i < numVertices; i++) {
+            mat.applyToSelf(getVertex(i, tmpA));
+            int k = i * 3;
+            vertices[k] = tmpA.x;
+            vertices[k + 1] = tmpA.y;
+            vertices[k + 2] = tmpA.z;
+        }
+        rebuildIndex();
+        if (updateNormals) {
+            computeFaceNormals();
+        }
+        return this;
+    }
+
+    public PackedTriangleMesh translate(float x, float y, float z) {
+        return transform(matrix.identity().translateSelf(x, y, z));
+    }
+
+    public PackedTriangleMesh translate(Vec3D trans) {
+        return transform(matrix.identity().translateSelf(trans));
+    }
+
+    private void writeSTLFaces(STLWriter stl, boolean useFlippedY) {
+        Vec3D a = new Vec3D();
+        Vec3D b = new Vec3D();
+        Vec3D c = new Vec3D();
+        Vec3D n = new Vec3D();
+        if (useFlippedY) {
+            stl.setScale(new Vec3D(1, -1, 1));
+        }
+        for (int i = 0; i < numFaces; i++) {
+            getFaceVertices(i, a, b, c);
+            int k = i * 3;
+            n.set(faceNormals[k], faceNormals[k + 1], faceNormals[k + 2]);
+            if (useFlippedY) {
+                stl.face(a, b, c, n, STLWriter.DEFAULT_RGB);
+            } else {
+                stl.face(b, a, c, n, STLWriter.DEFAULT_RGB);
+            }
+        }
+        stl.endSave();
+        logger.info(numFaces + " faces written");
+    }
+}
@@ -32,9 +32,15 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import toxi.geom.Vec3D;
 import toxi.util.FileUtils;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 
 /**
  * Utility class to read binary STL files and turn them into
@@ -47,6 +53,14 @@ public class STLReader {
 
     private static final int DEFAULT_BUFFER_SIZE = 0x8000;
 
+    private static final int HEADER_SIZE = 84;
+    private static final int FACE_SIZE = 50;
+
+    /**
+     * Max. number of faces per memory mapped file segment
+     */
+    private static final int SEGMENT_FACES = Integer.MAX_VALUE / FACE_SIZE;
+
     private byte[] buf = new byte[12];
 
     private final float bufferToFloat() {
@@ -127,6 +141,72 @@ public class STLReader {
         return mesh;
     }
 
+    /**
+     * Loads a binary STL file via a memory mapped, zero-copy view of the file
+     * contents. If an executor is given, face data is decoded and vertices are
+     * welded in parallel. The resulting mesh is identical to the one created
+     * by the stream based loaders. Unlike these, any errors are reported as
+     * exceptions.
+     * 
+     * @param file
+     *            STL file
+     * @param meshClass
+     *            mesh type to create
+     * @param executor
+     *            executor for parallel decoding (or null)
+     * @return mesh instance
+     * @throws IOException
+     *             if the file can't be read or is not a valid binary STL file
+     */
+    public Mesh3D loadBinaryMapped(File file,
+            Class<? extends Mesh3D> meshClass, ParallelExecutor executor)
+            throws IOException {
+        Mesh3D mesh;
+        try {
+            mesh = meshClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("can't create mesh of type "
+                    + meshClass.getName(), e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can't create mesh of type "
+                    + meshClass.getName(), e);
+        }
+        float[] coords;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("not a binary STL file: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long numFaces = header.getInt(80) & 0xffffffffL;
+            if (HEADER_SIZE + numFaces * FACE_SIZE > size) {
+                throw new IOException("STL file is truncated, expected "
+                        + numFaces + " faces: " + file);
+            }
+            if (numFaces * 9 > Integer.MAX_VALUE) {
+                throw new IOException("too many faces: " + numFaces);
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((numFaces
+                    + SEGMENT_FACES - 1) / SEGMENT_FACES)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i * SEGMENT_FACES;
+                long num = Math.min(numFaces - first, SEGMENT_FACES);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + first * FACE_SIZE, num * FACE_SIZE);
+            }
+            coords = decodeFaces(segments, (int) numFaces, executor);
+        } finally {
+            raf.close();
+        }
+        int numVerts = coords.length / 3;
+        mesh.init(file.getName(), numVerts / 2, numVerts / 3);
+        MeshAssembler.assemble(mesh, coords, executor);
+        return mesh;
+    }
+
     public Mesh3D loadBinary(String fileName, Class<? extends Mesh3D> meshClass) {
         return loadBinary(fileName, DEFAULT_BUFFER_SIZE, meshClass);
     }
@@ -153,6 +233,42 @@ public class STLReader {
         return mesh;
     }
 
+    /**
+     * Decodes the vertices of all faces into a packed float array. Vertex
+     * order is swapped (A, C, B) to match the stream based loaders.
+     */
+    private float[] decodeFaces(final ByteBuffer[] segments,
+            final int numFaces, ParallelExecutor executor) {
+        final float[] coords = new float[numFaces * 9];
+        MeshAssembler.run(executor, numFaces, new RangeTask() {
+
+            public void process(int from, int to) {
+                // absolute reads on private views, byte order isn't shared
+                ByteBuffer buf = null;
+                int segment = -1;
+                for (int i = from; i < to; i++) {
+                    if (i / SEGMENT_FACES != segment) {
+                        segment = i / SEGMENT_FACES;
+                        buf = segments[segment].duplicate().order(
+                                ByteOrder.LITTLE_ENDIAN);
+                    }
+                    // skip face normal
+                    int pos = (i - segment * SEGMENT_FACES) * FACE_SIZE + 12;
+                    int j = i * 9;
+                    for (int k = 0; k < 9; k++) {
+                        coords[j + k] = buf.getFloat(pos + k * 4);
+                    }
+                    for (int k = 3; k < 6; k++) {
+                        float t = coords[j + k];
+                        coords[j + k] = coords[j + k + 3];
+                        coords[j + k + 3] = t;
+                    }
+                }
+            }
+        });
+        return coords;
+    }
+
     private Vec3D readVector(DataInputStream ds, Vec3D result)
             throws IOException {
         // x
@@ -0,0 +1,110 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.util.Collection;
+
+/**
+ * Abstract parent class for vertex smoothing filters operating on a
+ * {@link VertexAdjacency} of the selected vertices. The adjacency is built
+ * once per call of {@link #filter(WETriangleMesh, Collection, int)}. For
+ * incremental smoothing, e.g. a few iterations per frame, the adjacency can
+ * instead be created by the caller and re-used via
+ * {@link #filter(VertexAdjacency, int)} for as long as the mesh topology
+ * remains unchanged, avoiding any further setup costs. Filters themselves
+ * don't keep any references to meshes.
+ * 
+ * All iterations are computed as Jacobi sweeps on flat position buffers and
+ * are executed in parallel if the mesh has an executor assigned (see
+ * {@link TriangleMesh#setExecutor(toxi.util.ParallelExecutor)}). Vertices are
+ * only updated once all iterations are complete.
+ * 
+ * Filter instances are not thread-safe: Their parameters must not be changed
+ * while a filter is running and a mesh must not be filtered by more than one
+ * thread at a time.
+ */
+public abstract class SmoothFilter implements WEMeshFilterStrategy {
+
+    public void filter(VertexSelector selector, int numIterations) {
+        if (!(selector.getMesh() instanceof WETriangleMesh)) {
+            throw new IllegalArgumentException(
+                    "This filter requires a WETriangleMesh");
+        }
+        filter((WETriangleMesh) selector.getMesh(), selector.getSelection(),
+                numIterations);
+    }
+
+    public void filter(WETriangleMesh mesh, int numIterations) {
+        filter(mesh, mesh.getVertices(), numIterations);
+    }
+
+    /**
+     * Applies the filter to the given selection of mesh vertices.
+     * 
+     * @param mesh
+     * @param selection
+     * @param numIterations
+     */
+    public void filter(WETriangleMesh mesh, Collection<Vertex> selection,
+            int numIterations) {
+        filter(new VertexAdjacency(mesh, selection), numIterations);
+    }
+
+    /**
+     * Applies the filter to the selected vertices of the given adjacency. The
+     * adjacency must still be valid for its mesh (see
+     * {@link VertexAdjacency#isValidFor(WETriangleMesh, Collection)}).
+     * 
+     * @param adj
+     *            vertex adjacency
+     * @param numIterations
+     */
+    public void filter(VertexAdjacency adj, int numIterations) {
+        WETriangleMesh mesh = adj.getMesh();
+        if (adj.getNumSelected() > 0 && numIterations > 0) {
+            adj.setPositions(smooth(adj, adj.getPositions(null), numIterations));
+            mesh.rebuildIndex();
+        }
+        mesh.computeFaceNormals();
+        mesh.computeVertexNormals();
+    }
+
+    /**
+     * Implements the actual smoothing algorithm.
+     * 
+     * @param adj
+     *            adjacency of selected vertices
+     * @param pos
+     *            initial vertex positions
+     * @param numIterations
+     * @return buffer with final vertex positions
+     */
+    protected abstract float[] smooth(VertexAdjacency adj, float[] pos,
+            int numIterations);
+}
@@ -0,0 +1,110 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.File;
+import java.io.IOException;
+
+import toxi.geom.Vec3D;
+
+/**
+ * Abstract base class for streaming exporters of formats using indexed
+ * vertices. A fixed size vertex cache is used to weld identical vertices of
+ * nearby faces, so memory usage remains bounded regardless of mesh size
+ * (vertices evicted from the cache are simply written again when encountered
+ * later).
+ */
+public abstract class StreamingIndexedMeshWriter extends StreamingMeshWriter {
+
+    protected float[] cacheCoords;
+    protected int[] cacheIDs;
+
+    /**
+     * @param bufferSize
+     *            size of the output buffer (in bytes)
+     * @param cacheSize
+     *            number of entries in the vertex cache (0 = no welding)
+     */
+    protected StreamingIndexedMeshWriter(int bufferSize, int cacheSize) {
+        super(bufferSize);
+        if (cacheSize > 0) {
+            cacheSize = Integer.highestOneBit(cacheSize * 2 - 1);
+            cacheCoords = new float[cacheSize * 3];
+            cacheIDs = new int[cacheSize];
+        }
+    }
+
+    @Override
+    public void beginSave(File file) throws IOException {
+        super.beginSave(file);
+        if (cacheIDs != null) {
+            for (int i = 0; i < cacheIDs.length; i++) {
+                cacheIDs[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of a previously written vertex with identical
+     * coordinates, if it's still in the vertex cache. Else the vertex is
+     * written via {@link #writeVertex(Vec3D)} and added to the cache.
+     * 
+     * @param v
+     * @return vertex index (0-based)
+     * @throws IOException
+     */
+    protected int getVertexIndex(Vec3D v) throws IOException {
+        if (cacheIDs != null) {
+            float x = v.x;
+            float y = v.y;
+            float z = v.z;
+            int slot = ExactWeldStrategy.hash(x, y, z) & (cacheIDs.length - 1);
+            int id = cacheIDs[slot];
+            int i = slot * 3;
+            if (id != -1 && cacheCoords[i] == x && cacheCoords[i + 1] == y
+                    && cacheCoords[i + 2] == z) {
+                return id;
+            }
+            cacheIDs[slot] = numVertices;
+            cacheCoords[i] = x;
+            cacheCoords[i + 1] = y;
+            cacheCoords[i + 2] = z;
+        }
+        writeVertex(v);
+        return numVertices++;
+    }
+
+    /**
+     * Writes a new vertex, called by {@link #getVertexIndex(Vec3D)}.
+     * 
+     * @param v
+     * @throws IOException
+     */
+    protected abstract void writeVertex(Vec3D v) throws IOException;
+}
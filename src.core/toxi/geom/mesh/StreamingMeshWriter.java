@@ -0,0 +1,372 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import toxi.geom.AABB;
+import toxi.geom.ReadonlyVec3D;
+import toxi.geom.Sphere;
+import toxi.geom.Vec2D;
+import toxi.geom.Vec3D;
+
+/**
+ * Abstract base class for mesh exporters which write faces to disk as soon as
+ * they're added, without keeping them in memory. Since these writers implement
+ * the {@link Mesh3D} interface, they can be passed directly to any mesh
+ * producer (e.g. {@link SurfaceMeshBuilder}, {@link Terrain#toMesh(Mesh3D)} or
+ * an IsoSurface implementation) in order to export meshes far larger than the
+ * available RAM.
+ * 
+ * Data is written via a {@link FileChannel} using a large direct buffer.
+ * Formats requiring indexed vertices extend
+ * {@link StreamingIndexedMeshWriter} instead.
+ * 
+ * Any I/O error is logged and causes all subsequent faces to be ignored. It is
+ * then rethrown by {@link #endSave()}.
+ * 
+ * Methods of the {@link Mesh3D} interface requiring access to already written
+ * faces or vertices are unsupported and throw an
+ * {@link UnsupportedOperationException}.
+ */
+public abstract class StreamingMeshWriter implements Mesh3D {
+
+    protected static final Logger logger = Logger
+            .getLogger(StreamingMeshWriter.class.getName());
+
+    public static final int DEFAULT_BUFFER_SIZE = 0x400000;
+
+    public static final int DEFAULT_CACHE_SIZE = 0x10000;
+
+    protected String name = "untitled";
+
+    protected File file;
+    protected FileChannel channel;
+    protected ByteBuffer buffer;
+    protected IOException error;
+
+    protected int numFaces;
+    protected int numVertices;
+
+    protected final Vec3D min = new Vec3D();
+    protected final Vec3D max = new Vec3D();
+
+    protected StreamingMeshWriter(int bufferSize) {
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public StreamingMeshWriter addFace(Vec3D a, Vec3D b, Vec3D c) {
+        return addFace(a, b, c, null, null, null, null);
+    }
+
+    public StreamingMeshWriter addFace(Vec3D a, Vec3D b, Vec3D c, Vec2D uvA,
+            Vec2D uvB, Vec2D uvC) {
+        return addFace(a, b, c, null, uvA, uvB, uvC);
+    }
+
+    public StreamingMeshWriter addFace(Vec3D a, Vec3D b, Vec3D c, Vec3D n) {
+        return addFace(a, b, c, n, null, null, null);
+    }
+
+    /**
+     * Writes the given face, using the same conventions as
+     * {@link TriangleMesh#addFace(Vec3D, Vec3D, Vec3D, Vec3D, Vec2D, Vec2D, Vec2D)}
+     * : Degenerate faces are ignored and if a normal is given, the vertex
+     * order is adjusted to match it. Texture coordinates are currently ignored.
+     */
+    public StreamingMeshWriter addFace(Vec3D a, Vec3D b, Vec3D c, Vec3D n,
+            Vec2D uvA, Vec2D uvB, Vec2D uvC) {
+        if (channel == null) {
+            throw new IllegalStateException("beginSave() hasn't been called");
+        }
+        if (error != null) {
+            return this;
+        }
+        if (a.equals(b) || a.equals(c) || b.equals(c)) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("ignorning invalid face: " + a + "," + b + "," + c);
+            }
+            return this;
+        }
+        if (n != null) {
+            Vec3D nc = a.sub(c).crossSelf(a.sub(b));
+            if (n.dot(nc) < 0) {
+                Vec3D t = a;
+                a = b;
+                b = t;
+            }
+        }
+        if (numFaces == 0) {
+            min.set(a);
+            max.set(a);
+        }
+        updateBounds(a);
+        updateBounds(b);
+        updateBounds(c);
+        try {
+            writeFace(a, b, c);
+            numFaces++;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "error writing face", e);
+            error = e;
+        }
+        return this;
+    }
+
+    /**
+     * Streams all faces of the given mesh.
+     */
+    public StreamingMeshWriter addMesh(Mesh3D mesh) {
+        for (Face f : mesh.getFaces()) {
+            addFace(f.a, f.b, f.c, f.uvA, f.uvB, f.uvC);
+        }
+        return this;
+    }
+
+    /**
+     * Opens the given file for writing and writes the file header.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void beginSave(File file) throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("export already in progress");
+        }
+        logger.info("saving mesh to: " + file);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.file = file;
+        channel = new FileOutputStream(file).getChannel();
+        buffer.clear();
+        error = null;
+        numFaces = 0;
+        numVertices = 0;
+        min.clear();
+        max.clear();
+        boolean isOk = false;
+        try {
+            writeHeader();
+            isOk = true;
+        } finally {
+            if (!isOk) {
+                closeChannel();
+            }
+        }
+    }
+
+    public void beginSave(String path) throws IOException {
+        beginSave(new File(path));
+    }
+
+    public AABB center(ReadonlyVec3D origin) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Only supported if no faces have been written yet, e.g. when the writer
+     * is passed to a mesh producer clearing the target mesh before use.
+     */
+    public StreamingMeshWriter clear() {
+        if (numFaces > 0) {
+            throw new UnsupportedOperationException(
+                    "can't clear already written faces");
+        }
+        return this;
+    }
+
+    private void closeChannel() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        ch.close();
+    }
+
+    public Vec3D computeCentroid() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Does nothing, since face normals are computed as faces are written.
+     */
+    public StreamingMeshWriter computeFaceNormals() {
+        return this;
+    }
+
+    /**
+     * Does nothing, vertex normals are not supported by streaming writers.
+     */
+    public StreamingMeshWriter computeVertexNormals() {
+        return this;
+    }
+
+    /**
+     * Writes any remaining data, completes the file header and closes the
+     * file.
+     * 
+     * @throws IOException
+     *             if any error occurred during the export
+     */
+    public void endSave() throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("beginSave() hasn't been called");
+        }
+        try {
+            if (error == null) {
+                flushBuffer(buffer, channel);
+                writeFooter();
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            closeChannel();
+        }
+        if (error != null) {
+            throw error;
+        }
+        logger.info(numFaces + " faces written");
+    }
+
+    public StreamingMeshWriter faceOutwards() {
+        throw new UnsupportedOperationException();
+    }
+
+    public StreamingMeshWriter flipVertexOrder() {
+        throw new UnsupportedOperationException();
+    }
+
+    public StreamingMeshWriter flipYAxis() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes the contents of the given buffer to the channel and clears the
+     * buffer.
+     * 
+     * @param buf
+     * @param ch
+     * @throws IOException
+     */
+    protected static void flushBuffer(ByteBuffer buf, FileChannel ch)
+            throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * @return bounding box of all faces written so far
+     */
+    public AABB getBoundingBox() {
+        return AABB.fromMinMax(min, max);
+    }
+
+    public Sphere getBoundingSphere() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Ensures the output buffer has space for at least the given number of
+     * bytes, flushing it if needed.
+     * 
+     * @param numBytes
+     * @return buffer
+     * @throws IOException
+     */
+    protected final ByteBuffer getBuffer(int numBytes) throws IOException {
+        if (buffer.remaining() < numBytes) {
+            flushBuffer(buffer, channel);
+        }
+        return buffer;
+    }
+
+    public Vertex getClosestVertexToPoint(ReadonlyVec3D p) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Collection<Face> getFaces() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return number of faces written so far
+     */
+    public int getNumFaces() {
+        return numFaces;
+    }
+
+    /**
+     * @return number of vertices written so far
+     */
+    public int getNumVertices() {
+        return numVertices;
+    }
+
+    public Collection<Vertex> getVertices() {
+        throw new UnsupportedOperationException();
+    }
+
+    public StreamingMeshWriter init(String name, int numV, int numF) {
+        return setName(name);
+    }
+
+    public StreamingMeshWriter setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    private final void updateBounds(Vec3D v) {
+        min.minSelf(v);
+        max.maxSelf(v);
+    }
+
+    protected abstract void writeFace(Vec3D a, Vec3D b, Vec3D c)
+            throws IOException;
+
+    /**
+     * Called by {@link #endSave()} after all buffered data has been written,
+     * e.g. to update the header with the final number of faces.
+     * 
+     * @throws IOException
+     */
+    protected void writeFooter() throws IOException {
+    }
+
+    protected abstract void writeHeader() throws IOException;
+}
@@ -0,0 +1,185 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import toxi.geom.Vec3D;
+
+/**
+ * Streaming Wavefront OBJ exporter. Vertices are written as they're first
+ * encountered, interleaved with the faces referring to them. Coordinates are
+ * formatted directly into the output buffer with a fixed (configurable) number
+ * of decimal places, avoiding the creation of temporary strings. Faces use
+ * the same (flipped) vertex order as {@link TriangleMesh#saveAsOBJ(OBJWriter)}.
+ */
+public class StreamingOBJWriter extends StreamingIndexedMeshWriter {
+
+    public static final int DEFAULT_PRECISION = 6;
+
+    /**
+     * Max. number of bytes needed for a single vertex or face line
+     */
+    private static final int MAX_LINE_LENGTH = 128;
+
+    private static final long[] POW10 = new long[10];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    protected int precision;
+
+    private final byte[] digits = new byte[20];
+
+    public StreamingOBJWriter() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            size of the output buffer (in bytes)
+     * @param cacheSize
+     *            number of entries in the vertex cache
+     */
+    public StreamingOBJWriter(int bufferSize, int cacheSize) {
+        super(bufferSize, cacheSize);
+        setPrecision(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @return the number of decimal places used for coordinates
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    private final void putFloat(ByteBuffer buf, float f) {
+        float abs = Math.abs(f);
+        if (!(abs < 1e9f)) {
+            // NaN, infinity or too large for fixed point formatting
+            putString(buf, Float.toString(f));
+            return;
+        }
+        long scaled = Math.round(abs * (double) POW10[precision]);
+        if (scaled == 0) {
+            buf.put((byte) '0');
+            return;
+        }
+        if (f < 0) {
+            buf.put((byte) '-');
+        }
+        long pow = POW10[precision];
+        putLong(buf, scaled / pow, 0);
+        long frac = scaled % pow;
+        if (frac != 0) {
+            int numDigits = precision;
+            while (frac % 10 == 0) {
+                frac /= 10;
+                numDigits--;
+            }
+            buf.put((byte) '.');
+            putLong(buf, frac, numDigits);
+        }
+    }
+
+    /**
+     * Writes the given non-negative number, padded with leading zeros to the
+     * given min. number of digits.
+     */
+    private final void putLong(ByteBuffer buf, long x, int minDigits) {
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + x % 10);
+            x /= 10;
+        } while (x > 0);
+        while (digits.length - i < minDigits) {
+            digits[--i] = '0';
+        }
+        buf.put(digits, i, digits.length - i);
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        for (int i = 0, num = s.length(); i < num; i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+
+    /**
+     * Sets the number of decimal places used for vertex coordinates.
+     * 
+     * @param precision
+     *            number of decimals (0..9)
+     */
+    public void setPrecision(int precision) {
+        if (precision < 0 || precision >= POW10.length) {
+            throw new IllegalArgumentException("invalid precision: "
+                    + precision);
+        }
+        this.precision = precision;
+    }
+
+    @Override
+    protected void writeFace(Vec3D a, Vec3D b, Vec3D c) throws IOException {
+        int ia = getVertexIndex(a) + 1;
+        int ib = getVertexIndex(b) + 1;
+        int ic = getVertexIndex(c) + 1;
+        ByteBuffer buf = getBuffer(MAX_LINE_LENGTH);
+        buf.put((byte) 'f').put((byte) ' ');
+        putLong(buf, ib, 0);
+        buf.put((byte) ' ');
+        putLong(buf, ia, 0);
+        buf.put((byte) ' ');
+        putLong(buf, ic, 0);
+        buf.put((byte) '\n');
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        ByteBuffer buf = getBuffer(MAX_LINE_LENGTH + name.length());
+        putString(buf, "# generated by StreamingOBJWriter\n");
+        putString(buf, "o " + name + "\n");
+    }
+
+    @Override
+    protected void writeVertex(Vec3D v) throws IOException {
+        ByteBuffer buf = getBuffer(MAX_LINE_LENGTH);
+        buf.put((byte) 'v').put((byte) ' ');
+        putFloat(buf, v.x);
+        buf.put((byte) ' ');
+        putFloat(buf, v.y);
+        buf.put((byte) ' ');
+        putFloat(buf, v.z);
+        buf.put((byte) '\n');
+    }
+}
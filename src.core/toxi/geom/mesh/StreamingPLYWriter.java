@@ -0,0 +1,188 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import toxi.geom.Vec3D;
+
+/**
+ * Streaming version of {@link PLYWriter}, producing binary little endian PLY
+ * files with the same vertex layout (Y &amp; Z axes swapped). Since PLY
+ * requires all vertices to be stored before the faces, faces are spooled to a
+ * temporary file and appended once the export is finished. The element counts
+ * in the header are written as fixed width, zero padded numbers, so they can
+ * be updated in place at the end. Vertex normals are not supported.
+ */
+public class StreamingPLYWriter extends StreamingIndexedMeshWriter {
+
+    public static final int FACE_SIZE = 13;
+
+    private static final int COUNT_DIGITS = 10;
+
+    private static final String VERTEX_ELEMENT = "element vertex ";
+    private static final String FACE_ELEMENT = "element face ";
+
+    protected File faceFile;
+    protected FileChannel faceChannel;
+    protected ByteBuffer faceBuffer;
+
+    private int vertexCountPos;
+    private int faceCountPos;
+    private long headerLength;
+
+    public StreamingPLYWriter() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            size of the vertex &amp; face output buffers (in bytes)
+     * @param cacheSize
+     *            number of entries in the vertex cache
+     */
+    public StreamingPLYWriter(int bufferSize, int cacheSize) {
+        super(bufferSize, cacheSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        faceBuffer = ByteBuffer.allocateDirect(bufferSize).order(
+                ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Closes and deletes the temporary face file (if any).
+     */
+    private void closeFaceFile() throws IOException {
+        FileChannel ch = faceChannel;
+        File f = faceFile;
+        faceChannel = null;
+        faceFile = null;
+        try {
+            if (ch != null) {
+                ch.close();
+            }
+        } finally {
+            if (f != null) {
+                f.delete();
+            }
+        }
+    }
+
+    @Override
+    public void endSave() throws IOException {
+        try {
+            super.endSave();
+        } finally {
+            closeFaceFile();
+        }
+    }
+
+    private static String formatCount(int count) {
+        String s = Integer.toString(count);
+        while (s.length() < COUNT_DIGITS) {
+            s = "0" + s;
+        }
+        return s;
+    }
+
+    @Override
+    protected void writeFace(Vec3D a, Vec3D b, Vec3D c) throws IOException {
+        int ia = getVertexIndex(a);
+        int ib = getVertexIndex(b);
+        int ic = getVertexIndex(c);
+        if (faceBuffer.remaining() < FACE_SIZE) {
+            flushBuffer(faceBuffer, faceChannel);
+        }
+        faceBuffer.put((byte) 3).putInt(ia).putInt(ib).putInt(ic);
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        flushBuffer(faceBuffer, faceChannel);
+        long pos = headerLength + (long) numVertices * 12;
+        long size = faceChannel.size();
+        for (long offset = 0; offset < size;) {
+            offset += faceChannel.transferTo(offset, size - offset, channel);
+        }
+        writeString(formatCount(numVertices), vertexCountPos);
+        writeString(formatCount(numFaces), faceCountPos);
+        if (channel.size() != pos + size) {
+            throw new IOException("PLY export incomplete");
+        }
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        boolean isOk = false;
+        try {
+            faceFile = File.createTempFile("plyfaces", ".tmp");
+            faceChannel = new RandomAccessFile(faceFile, "rw").getChannel();
+            faceBuffer.clear();
+            StringBuilder header = new StringBuilder();
+            header.append("ply\n");
+            header.append("format binary_little_endian 1.0\n");
+            header.append(VERTEX_ELEMENT);
+            vertexCountPos = header.length();
+            header.append(formatCount(0)).append("\n");
+            header.append("property float x\n");
+            header.append("property float y\n");
+            header.append("property float z\n");
+            header.append(FACE_ELEMENT);
+            faceCountPos = header.length();
+            header.append(formatCount(0)).append("\n");
+            header.append("property list uchar uint vertex_indices\n");
+            header.append("end_header\n");
+            byte[] bytes = header.toString().getBytes("US-ASCII");
+            headerLength = bytes.length;
+            getBuffer(bytes.length).put(bytes);
+            isOk = true;
+        } finally {
+            if (!isOk) {
+                // beginSave() fails, so endSave() won't be called
+                closeFaceFile();
+            }
+        }
+    }
+
+    private void writeString(String s, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(s.getBytes("US-ASCII"));
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    @Override
+    protected void writeVertex(Vec3D v) throws IOException {
+        getBuffer(12).putFloat(v.x).putFloat(v.z).putFloat(v.y);
+    }
+}
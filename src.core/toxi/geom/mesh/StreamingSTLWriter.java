@@ -0,0 +1,102 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import toxi.geom.Vec3D;
+
+/**
+ * Streaming version of {@link STLWriter}, writing binary STL files face by
+ * face. The face count in the file header is updated when the export is
+ * finished. The output is identical to exporting the same faces via
+ * {@link TriangleMesh#saveAsSTL(String)}.
+ */
+public class StreamingSTLWriter extends StreamingMeshWriter {
+
+    public static final int FACE_SIZE = 50;
+
+    protected STLColorModel colorModel;
+
+    public StreamingSTLWriter() {
+        this(STLWriter.DEFAULT, DEFAULT_BUFFER_SIZE);
+    }
+
+    public StreamingSTLWriter(STLColorModel cm, int bufferSize) {
+        super(bufferSize);
+        this.colorModel = cm;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    protected void writeFace(Vec3D a, Vec3D b, Vec3D c) throws IOException {
+        // same normal as Face.computeNormal()
+        float ux = a.x - c.x;
+        float uy = a.y - c.y;
+        float uz = a.z - c.z;
+        float vx = a.x - b.x;
+        float vy = a.y - b.y;
+        float vz = a.z - b.z;
+        float nx = uy * vz - vy * uz;
+        float ny = uz * vx - vz * ux;
+        float nz = ux * vy - vx * uy;
+        float mag = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (mag > 0) {
+            mag = 1f / mag;
+            nx *= mag;
+            ny *= mag;
+            nz *= mag;
+        }
+        ByteBuffer buf = getBuffer(FACE_SIZE);
+        buf.putFloat(nx).putFloat(ny).putFloat(nz);
+        // flipped vertex order, as used by TriangleMesh.saveAsSTL()
+        buf.putFloat(b.x).putFloat(b.y).putFloat(b.z);
+        buf.putFloat(a.x).putFloat(a.y).putFloat(a.z);
+        buf.putFloat(c.x).putFloat(c.y).putFloat(c.z);
+        buf.putShort((short) colorModel.getDefaultRGB());
+    }
+
+    @Override
+    protected void writeFooter() throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        count.putInt(numFaces).flip();
+        while (count.hasRemaining()) {
+            channel.write(count, 80 + count.position());
+        }
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+        byte[] header = new byte[80];
+        colorModel.formatHeader(header);
+        getBuffer(84).put(header).putInt(0);
+    }
+}
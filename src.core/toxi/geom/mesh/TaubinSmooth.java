@@ -0,0 +1,98 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+/**
+ * Taubin's lambda|mu smoothing filter. Each iteration consists of a shrinking
+ * laplacian step (weight lambda > 0) followed by an inflating step (weight mu
+ * < -lambda), which smoothes the mesh without the shrinkage caused by plain
+ * {@link LaplacianSmooth}.
+ * 
+ * G. Taubin, "A signal processing approach to fair surface design", SIGGRAPH
+ * 1995.
+ */
+public class TaubinSmooth extends SmoothFilter {
+
+    protected float lambda;
+    protected float mu;
+
+    public TaubinSmooth() {
+        this(0.5f, -0.53f);
+    }
+
+    public TaubinSmooth(float lambda, float mu) {
+        this.lambda = lambda;
+        this.mu = mu;
+    }
+
+    /**
+     * @return the lambda
+     */
+    public float getLambda() {
+        return lambda;
+    }
+
+    /**
+     * @return the mu
+     */
+    public float getMu() {
+        return mu;
+    }
+
+    /**
+     * @param lambda
+     *            the lambda to set
+     * @return itself
+     */
+    public TaubinSmooth setLambda(float lambda) {
+        this.lambda = lambda;
+        return this;
+    }
+
+    /**
+     * @param mu
+     *            the mu to set
+     * @return itself
+     */
+    public TaubinSmooth setMu(float mu) {
+        this.mu = mu;
+        return this;
+    }
+
+    @Override
+    protected float[] smooth(VertexAdjacency adj, float[] pos,
+            int numIterations) {
+        float[] tmp = pos.clone();
+        for (int i = 0; i < numIterations; i++) {
+            adj.laplacian(pos, tmp, lambda);
+            adj.laplacian(tmp, pos, mu);
+        }
+        return pos;
+    }
+}
@@ -48,6 +48,8 @@ import toxi.geom.TriangleIntersector;
 import toxi.geom.Vec2D;
 import toxi.geom.Vec3D;
 import toxi.math.MathUtils;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 
 /**
  * An extensible class to dynamically build, manipulate & export triangle
@@ -100,6 +102,19 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
 
     protected int uniqueVertexID;
 
+    /**
+     * Optional index used to find existing vertices for new faces. If null,
+     * only vertices with identical coordinates are welded (via
+     * {@link #vertices}).
+     */
+    protected VertexWeldStrategy weldStrategy;
+
+    /**
+     * Optional executor used to compute normals and apply transformations in
+     * parallel
+     */
+    protected ParallelExecutor executor;
+
     public TriangleMesh() {
         this("untitled");
     }
@@ -193,10 +208,14 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
     }
 
     private final Vertex checkVertex(Vec3D v) {
-        Vertex vertex = vertices.get(v);
+        Vertex vertex = weldStrategy != null ? weldStrategy.getVertexFor(v)
+                : vertices.get(v);
         if (vertex == null) {
             vertex = createVertex(v, uniqueVertexID++);
             vertices.put(vertex, vertex);
+            if (weldStrategy != null) {
+                weldStrategy.addVertex(vertex);
+            }
             numVertices++;
         }
         return vertex;
@@ -207,6 +226,9 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
      */
     public TriangleMesh clear() {
         vertices.clear();
+        if (weldStrategy != null) {
+            weldStrategy.clear();
+        }
         faces.clear();
         bounds = null;
         numVertices = 0;
@@ -227,30 +249,120 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
      * Re-calculates all face normals.
      */
     public TriangleMesh computeFaceNormals() {
-        for (Face f : faces) {
-            f.computeNormal();
-        }
+        final Face[] f = faces.toArray(new Face[faces.size()]);
+        run(f.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    computeFaceNormal(f[i]);
+                }
+            }
+        });
         return this;
     }
 
     /**
-     * Computes the smooth vertex normals for the entire mesh.
+     * Computes the smooth vertex normals for the entire mesh. Instead of
+     * scattering face normals to their vertices, the faces of each vertex are
+     * first collected in a compact adjacency table, so that each vertex normal
+     * can be gathered independently (and in parallel, if an executor is set).
      */
     public TriangleMesh computeVertexNormals() {
-        for (Vertex v : vertices.values()) {
-            v.clearNormal();
+        final Vertex[] verts = vertices.values().toArray(
+                new Vertex[vertices.size()]);
+        final Face[] f = faces.toArray(new Face[faces.size()]);
+        int maxID = -1;
+        for (Vertex v : verts) {
+            if (v.id > maxID) {
+                maxID = v.id;
+            }
         }
-        for (Face f : faces) {
-            f.a.addFaceNormal(f.normal);
-            f.b.addFaceNormal(f.normal);
-            f.c.addFaceNormal(f.normal);
+        int[] index = new int[maxID + 1];
+        for (int i = 0; i < verts.length; i++) {
+            index[verts[i].id] = i;
         }
-        for (Vertex v : vertices.values()) {
-            v.computeNormal();
+        // count faces per vertex & convert into offsets
+        final int[] offsets = new int[verts.length + 1];
+        int[] faceVerts = new int[f.length * 3];
+        for (int i = 0, j = 0; i < f.length; i++) {
+            Face face = f[i];
+            faceVerts[j++] = getVertexIndex(face.a, verts, index);
+            faceVerts[j++] = getVertexIndex(face.b, verts, index);
+            faceVerts[j++] = getVertexIndex(face.c, verts, index);
+        }
+        for (int id : faceVerts) {
+            if (id != -1) {
+                offsets[id + 1]++;
+            }
+        }
+        for (int i = 0; i < verts.length; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        final int[] adjacency = new int[offsets[verts.length]];
+        int[] pos = index;
+        System.arraycopy(offsets, 0, pos, 0, verts.length);
+        for (int i = 0; i < faceVerts.length; i++) {
+            int id = faceVerts[i];
+            if (id != -1) {
+                adjacency[pos[id]++] = i / 3;
+            }
         }
+        run(verts.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    float x = 0, y = 0, z = 0;
+                    for (int j = offsets[i], end = offsets[i + 1]; j < end; j++) {
+                        Vec3D n = f[adjacency[j]].normal;
+                        x += n.x;
+                        y += n.y;
+                        z += n.z;
+                    }
+                    float mag = (float) Math.sqrt(x * x + y * y + z * z);
+                    if (mag > 0) {
+                        mag = 1f / mag;
+                        x *= mag;
+                        y *= mag;
+                        z *= mag;
+                    }
+                    verts[i].normal.set(x, y, z);
+                }
+            }
+        });
         return this;
     }
 
+    /**
+     * Allocation free version of {@link Face#computeNormal()}, updating the
+     * existing normal vector of the face.
+     */
+    private static final void computeFaceNormal(Face f) {
+        Vertex a = f.a;
+        Vertex b = f.b;
+        Vertex c = f.c;
+        float ux = a.x - c.x;
+        float uy = a.y - c.y;
+        float uz = a.z - c.z;
+        float vx = a.x - b.x;
+        float vy = a.y - b.y;
+        float vz = a.z - b.z;
+        float nx = uy * vz - vy * uz;
+        float ny = uz * vx - vz * ux;
+        float nz = ux * vy - vx * uy;
+        float mag = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (mag > 0) {
+            mag = 1f / mag;
+            nx *= mag;
+            ny *= mag;
+            nz *= mag;
+        }
+        if (f.normal != null) {
+            f.normal.set(nx, ny, nz);
+        } else {
+            f.normal = new Vec3D(nx, ny, nz);
+        }
+    }
+
     /**
      * Creates a deep clone of the mesh. The new mesh name will have "-copy" as
      * suffix.
@@ -622,6 +734,31 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
         return normals;
     }
 
+    /**
+     * @return the executor
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the current vertex weld strategy (or null, if none is used)
+     */
+    public VertexWeldStrategy getWeldStrategy() {
+        return weldStrategy;
+    }
+
+    private static final int getVertexIndex(Vertex v, Vertex[] verts,
+            int[] index) {
+        if (v.id >= 0 && v.id < index.length) {
+            int i = index[v.id];
+            if (verts[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public Collection<Vertex> getVertices() {
         return vertices.values();
     }
@@ -645,6 +782,9 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
         setName(name);
         vertices = new LinkedHashMap<Vec3D, Vertex>(numV, 1.5f, false);
         faces = new ArrayList<Face>(numF);
+        if (weldStrategy != null) {
+            weldStrategy.clear();
+        }
         return this;
     }
 
@@ -710,6 +850,22 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
         faces.remove(f);
     }
 
+    /**
+     * Processes the index range [0, num) with the given task, using the
+     * mesh's executor (if any).
+     * 
+     * @param num
+     *            number of items
+     * @param task
+     */
+    protected final void run(int num, RangeTask task) {
+        if (executor != null) {
+            executor.forRange(0, num, task);
+        } else {
+            task.process(0, num);
+        }
+    }
+
     public TriangleMesh rotateAroundAxis(Vec3D axis, float theta) {
         return transform(matrix.identity().rotateAroundAxis(axis, theta));
     }
@@ -873,11 +1029,42 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
         return transform(matrix.identity().scaleSelf(scale));
     }
 
+    /**
+     * Sets an optional executor used to compute face & vertex normals and to
+     * apply matrix transformations in parallel. For small meshes all work is
+     * still done in the calling thread (see
+     * {@link ParallelExecutor#setMinChunkSize(int)}).
+     * 
+     * @param executor
+     *            the executor to set (or null for single threaded updates)
+     * @return itself
+     */
+    public TriangleMesh setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     public TriangleMesh setName(String name) {
         this.name = name;
         return this;
     }
 
+    /**
+     * Sets the strategy used to weld vertices of newly added faces to existing
+     * ones. All current mesh vertices are added to the strategy's index, but
+     * are not welded themselves (use {@link #weldVertices(VertexWeldStrategy)}
+     * for this purpose).
+     * 
+     * @param strategy
+     *            new strategy or null to only weld identical vertices
+     * @return itself
+     */
+    public TriangleMesh setWeldStrategy(VertexWeldStrategy strategy) {
+        this.weldStrategy = strategy;
+        updateWeldIndex();
+        return this;
+    }
+
     @Override
     public String toString() {
         return "TriangleMesh: " + name + " vertices: " + getNumVertices()
@@ -910,9 +1097,8 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
      * @return itself
      */
     public TriangleMesh transform(Matrix4x4 mat, boolean updateNormals) {
-        for (Vertex v : vertices.values()) {
-            v.set(mat.applyTo(v));
-        }
+        transformVertices(mat);
+        updateWeldIndex();
         if (updateNormals) {
             computeFaceNormals();
         }
@@ -931,8 +1117,83 @@ public class TriangleMesh implements Mesh3D, Intersector3D {
         Vertex v = vertices.get(orig);
         if (v != null) {
             vertices.remove(v);
+            if (weldStrategy != null) {
+                weldStrategy.removeVertex(v);
+            }
             v.set(newPos);
             vertices.put(v, v);
+            if (weldStrategy != null) {
+                weldStrategy.addVertex(v);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Applies the given matrix to all vertex positions (using the same
+     * arithmetic as {@link Matrix4x4#applyToSelf(Vec3D)}), without updating
+     * any indices or normals.
+     * 
+     * @param mat
+     */
+    protected void transformVertices(Matrix4x4 mat) {
+        final Vertex[] verts = vertices.values().toArray(
+                new Vertex[vertices.size()]);
+        final double[] m = new double[16];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(mat.matrix[i], 0, m, i * 4, 4);
+        }
+        run(verts.length, new RangeTask() {
+
+            public void process(int from, int to) {
+                final double m00 = m[0], m01 = m[1], m02 = m[2], m03 = m[3];
+                final double m10 = m[4], m11 = m[5], m12 = m[6], m13 = m[7];
+                final double m20 = m[8], m21 = m[9], m22 = m[10], m23 = m[11];
+                final double m30 = m[12], m31 = m[13], m32 = m[14], m33 = m[15];
+                for (int i = from; i < to; i++) {
+                    Vertex v = verts[i];
+                    float x = v.x, y = v.y, z = v.z;
+                    double tx = x * m00 + y * m01 + z * m02 + m03;
+                    double ty = x * m10 + y * m11 + z * m12 + m13;
+                    double tz = x * m20 + y * m21 + z * m22 + m23;
+                    float w = (float) (1.0 / (x * m30 + y * m31 + z * m32 + m33));
+                    v.x = (float) tx * w;
+                    v.y = (float) ty * w;
+                    v.z = (float) tz * w;
+                }
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the index of the current weld strategy (if any) after vertices
+     * have been moved.
+     */
+    protected void updateWeldIndex() {
+        if (weldStrategy != null) {
+            weldStrategy.clear();
+            for (Vertex v : vertices.values()) {
+                weldStrategy.addVertex(v);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the mesh using the given weld strategy, merging all existing
+     * vertices the strategy considers equal (e.g. all vertices within a
+     * tolerance for a {@link GridWeldStrategy}). Faces which become degenerate
+     * are dropped. The strategy remains in use for subsequently added faces.
+     * Vertex normals need a manual update afterwards.
+     * 
+     * @param strategy
+     * @return itself
+     */
+    public TriangleMesh weldVertices(VertexWeldStrategy strategy) {
+        List<Face> oldFaces = new ArrayList<Face>(faces);
+        weldStrategy = strategy;
+        clear();
+        for (Face f : oldFaces) {
+            addFace(f.a, f.b, f.c, f.uvA, f.uvB, f.uvC);
         }
         return this;
     }
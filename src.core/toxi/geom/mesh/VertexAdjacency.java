@@ -0,0 +1,289 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import java.util.Collection;
+
+import toxi.util.RangeTask;
+
+/**
+ * Compact, array based vertex neighbourhood of a selection of vertices in a
+ * {@link WETriangleMesh}. The neighbour lists of all selected vertices are
+ * stored in compressed sparse row (CSR) format, i.e. as a single flat index
+ * array with offsets per vertex. Vertex positions are exchanged via flat float
+ * buffers (x,y,z triplets, in the order of {@link #getVertices()}), which
+ * allows filters to run allocation free sweeps (in parallel, if the mesh has
+ * an executor assigned).
+ * 
+ * Instances are only valid as long as the topology of the mesh is unchanged,
+ * which can be checked with {@link #isValidFor(WETriangleMesh, Collection)}.
+ * 
+ * @see SmoothFilter
+ */
+public final class VertexAdjacency {
+
+    final WETriangleMesh mesh;
+    final Vertex[] verts;
+
+    /**
+     * Buffer indices of selected vertices
+     */
+    final int[] selected;
+
+    /**
+     * Neighbour offsets for each selected vertex (length = selected.length +
+     * 1)
+     */
+    final int[] offsets;
+
+    /**
+     * Buffer indices of all neighbours
+     */
+    final int[] neighbours;
+
+    private final int[] index;
+    private final boolean[] isSelected;
+    private final int selectionSize;
+    private final int numFaces;
+    private final int numEdges;
+    private final int edgeIDs;
+
+    /**
+     * Builds the adjacency table for the given selection of mesh vertices.
+     * Selected vertices not belonging to the mesh are ignored.
+     * 
+     * @param mesh
+     * @param selection
+     */
+    public VertexAdjacency(WETriangleMesh mesh, Collection<Vertex> selection) {
+        this.mesh = mesh;
+        verts = mesh.vertices.values().toArray(
+                new Vertex[mesh.vertices.size()]);
+        int maxID = -1;
+        for (Vertex v : verts) {
+            if (v.id > maxID) {
+                maxID = v.id;
+            }
+        }
+        index = new int[maxID + 1];
+        for (int i = 0; i < verts.length; i++) {
+            index[verts[i].id] = i;
+        }
+        isSelected = new boolean[verts.length];
+        int[] sel = new int[selection.size()];
+        int numSel = 0;
+        int numNeighbours = 0;
+        for (Vertex v : selection) {
+            int i = getIndex(v);
+            if (i != -1 && !isSelected[i]) {
+                isSelected[i] = true;
+                sel[numSel++] = i;
+                numNeighbours += ((WEVertex) v).edges.size();
+            }
+        }
+        if (numSel < sel.length) {
+            int[] tmp = new int[numSel];
+            System.arraycopy(sel, 0, tmp, 0, numSel);
+            sel = tmp;
+        }
+        selected = sel;
+        offsets = new int[numSel + 1];
+        neighbours = new int[numNeighbours];
+        int num = 0;
+        for (int k = 0; k < numSel; k++) {
+            WEVertex v = (WEVertex) verts[sel[k]];
+            for (WingedEdge e : v.edges) {
+                int n = getIndex(e.getOtherEndFor(v));
+                if (n != -1) {
+                    neighbours[num++] = n;
+                }
+            }
+            offsets[k + 1] = num;
+        }
+        selectionSize = selection.size();
+        numFaces = mesh.faces.size();
+        numEdges = mesh.edges.size();
+        edgeIDs = mesh.getNumEdgeIDs();
+    }
+
+    private int getIndex(Vertex v) {
+        if (v != null && v.id >= 0 && v.id < index.length) {
+            int i = index[v.id];
+            if (verts[i] == v) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the mesh this adjacency has been built for
+     */
+    public WETriangleMesh getMesh() {
+        return mesh;
+    }
+
+    /**
+     * @return number of selected vertices
+     */
+    public int getNumSelected() {
+        return selected.length;
+    }
+
+    /**
+     * Copies the current positions of all mesh vertices into the given buffer.
+     * If the buffer is null or too small, a new one is allocated.
+     * 
+     * @param buf
+     *            target buffer
+     * @return buffer
+     */
+    public float[] getPositions(float[] buf) {
+        if (buf == null || buf.length < verts.length * 3) {
+            buf = new float[verts.length * 3];
+        }
+        for (int i = 0, j = 0; i < verts.length; i++) {
+            Vertex v = verts[i];
+            buf[j++] = v.x;
+            buf[j++] = v.y;
+            buf[j++] = v.z;
+        }
+        return buf;
+    }
+
+    /**
+     * @return all mesh vertices in buffer order
+     */
+    public Vertex[] getVertices() {
+        return verts;
+    }
+
+    /**
+     * Checks if this adjacency can still be used for the given mesh &
+     * selection. This is the case if the mesh is the same instance, has not
+     * gained or lost any faces, edges or vertices and the selection contains
+     * the same vertices. Vertices are identified by their IDs, since their
+     * positions (and therefore hash codes) are changed by smoothing.
+     * 
+     * @param mesh
+     * @param selection
+     * @return true, if still valid
+     */
+    public boolean isValidFor(WETriangleMesh mesh, Collection<Vertex> selection) {
+        if (mesh != this.mesh || mesh.vertices.size() != verts.length
+                || mesh.faces.size() != numFaces
+                || mesh.edges.size() != numEdges
+                || mesh.getNumEdgeIDs() != edgeIDs
+                || selection.size() != selectionSize) {
+            return false;
+        }
+        int num = 0;
+        for (Vertex v : selection) {
+            int i = getIndex(v);
+            if (i != -1) {
+                if (!isSelected[i]) {
+                    return false;
+                }
+                num++;
+            }
+        }
+        return num == selected.length;
+    }
+
+    /**
+     * Performs a single Jacobi sweep of the umbrella operator for all selected
+     * vertices: Each selected vertex in dest is set to the weighted
+     * interpolation between its position in src and the average position of
+     * its neighbours in src. Unselected vertices are not touched. A weight of
+     * 1.0 replaces positions with the neighbour average, negative weights
+     * inflate the mesh (as used by {@link TaubinSmooth}).
+     * 
+     * @param src
+     *            source positions
+     * @param dest
+     *            destination positions (must not be the same as src)
+     * @param weight
+     *            interpolation weight
+     */
+    public void laplacian(final float[] src, final float[] dest,
+            final float weight) {
+        final float w1 = 1 - weight;
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int k = from; k < to; k++) {
+                    int start = offsets[k];
+                    int end = offsets[k + 1];
+                    int i = selected[k] * 3;
+                    if (start == end) {
+                        dest[i] = src[i];
+                        dest[i + 1] = src[i + 1];
+                        dest[i + 2] = src[i + 2];
+                        continue;
+                    }
+                    float x = 0, y = 0, z = 0;
+                    for (int j = start; j < end; j++) {
+                        int n = neighbours[j] * 3;
+                        x += src[n];
+                        y += src[n + 1];
+                        z += src[n + 2];
+                    }
+                    float s = 1f / (end - start);
+                    dest[i] = src[i] * w1 + x * s * weight;
+                    dest[i + 1] = src[i + 1] * w1 + y * s * weight;
+                    dest[i + 2] = src[i + 2] * w1 + z * s * weight;
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes all selected vertices with the given task, using the mesh's
+     * executor (if any). The task is given indices into {@link #selected}.
+     * 
+     * @param task
+     */
+    void run(RangeTask task) {
+        mesh.run(selected.length, task);
+    }
+
+    /**
+     * Updates the selected mesh vertices with the positions in the given
+     * buffer. The mesh index needs to be rebuilt afterwards.
+     * 
+     * @param buf
+     *            vertex positions
+     */
+    public void setPositions(float[] buf) {
+        for (int i : selected) {
+            int j = i * 3;
+            verts[i].set(buf[j], buf[j + 1], buf[j + 2]);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.geom.mesh;
+
+import toxi.geom.ReadonlyVec3D;
+
+/**
+ * Pluggable vertex lookup used by {@link TriangleMesh} and
+ * {@link WETriangleMesh} to decide if a new face vertex can reuse (be welded
+ * to) an existing vertex. If no strategy is set, meshes only weld vertices
+ * with identical coordinates.
+ * 
+ * @see TriangleMesh#setWeldStrategy(VertexWeldStrategy)
+ */
+public interface VertexWeldStrategy {
+
+    /**
+     * Adds the given (new) mesh vertex to the index.
+     * 
+     * @param v
+     */
+    public void addVertex(Vertex v);
+
+    /**
+     * Removes all vertices from the index.
+     */
+    public void clear();
+
+    /**
+     * Looks up an existing vertex to be used for the given position.
+     * 
+     * @param v
+     *            position
+     * @return vertex or null, if a new vertex needs to be created
+     */
+    public Vertex getVertexFor(ReadonlyVec3D v);
+
+    /**
+     * Removes the given vertex from the index.
+     * 
+     * @param v
+     */
+    public void removeVertex(Vertex v);
+}
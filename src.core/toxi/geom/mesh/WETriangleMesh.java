@@ -44,6 +44,7 @@ import toxi.geom.Vec2D;
 import toxi.geom.Vec3D;
 import toxi.geom.mesh.subdiv.MidpointSubdivision;
 import toxi.geom.mesh.subdiv.SubdivisionStrategy;
+import toxi.util.RangeTask;
 
 /**
  * A class to dynamically build, manipulate & export triangle meshes. Meshes are
@@ -152,10 +153,14 @@ public class WETriangleMesh extends TriangleMesh {
     }
 
     private final WEVertex checkVertex(Vec3D v) {
-        WEVertex vertex = (WEVertex) vertices.get(v);
+        WEVertex vertex = (WEVertex) (weldStrategy != null ? weldStrategy
+                .getVertexFor(v) : vertices.get(v));
         if (vertex == null) {
             vertex = createVertex(v, uniqueVertexID++);
             vertices.put(vertex, vertex);
+            if (weldStrategy != null) {
+                weldStrategy.addVertex(vertex);
+            }
             numVertices++;
         }
         return vertex;
@@ -170,6 +175,120 @@ public class WETriangleMesh extends TriangleMesh {
         return this;
     }
 
+    /**
+     * Computes the sub-faces of the given face resulting from splitting all of
+     * its edges listed in the rank table. Edges are split in rank order and
+     * each split replaces the (sub)face containing the full edge with a fan of
+     * triangles, keeping the orientation of the parent face. This method does
+     * not modify the mesh and is safe to be called concurrently.
+     * 
+     * @param f
+     *            face to split
+     * @param ranks
+     *            edge rank table
+     * @param splitVerts
+     *            vertex sequences (from edge start via split points to edge
+     *            end) for each ranked edge
+     * @return flat array of sub-face vertices or null, if none of the face's
+     *         edges is split
+     */
+    private static WEVertex[] computeSubFaces(WEFace f, int[] ranks,
+            WEVertex[][] splitVerts) {
+        int[] order = new int[3];
+        int numSplit = 0;
+        int maxFaces = 1;
+        for (WingedEdge e : f.edges) {
+            int r = getEdgeRank(ranks, e.id);
+            if (r != -1) {
+                int j = numSplit++;
+                for (; j > 0 && order[j - 1] > r; j--) {
+                    order[j] = order[j - 1];
+                }
+                order[j] = r;
+                maxFaces += splitVerts[r].length - 2;
+            }
+        }
+        if (numSplit == 0) {
+            return null;
+        }
+        WEVertex[] tris = new WEVertex[maxFaces * 3];
+        float[] normals = new float[maxFaces * 3];
+        tris[0] = (WEVertex) f.a;
+        tris[1] = (WEVertex) f.b;
+        tris[2] = (WEVertex) f.c;
+        normals[0] = f.normal.x;
+        normals[1] = f.normal.y;
+        normals[2] = f.normal.z;
+        int num = 1;
+        for (int k = 0; k < numSplit; k++) {
+            WEVertex[] seq = splitVerts[order[k]];
+            WEVertex ea = seq[0];
+            WEVertex eb = seq[seq.length - 1];
+            int parent = -1;
+            WEVertex p = null;
+            for (int i = 0, idx = 0; i < num; i++, idx += 3) {
+                WEVertex a = tris[idx], b = tris[idx + 1], c = tris[idx + 2];
+                boolean ha = a == ea || a == eb;
+                boolean hb = b == ea || b == eb;
+                boolean hc = c == ea || c == eb;
+                if ((ha ? 1 : 0) + (hb ? 1 : 0) + (hc ? 1 : 0) == 2) {
+                    p = !ha ? a : (!hb ? b : c);
+                    parent = idx;
+                    break;
+                }
+            }
+            if (parent == -1) {
+                continue;
+            }
+            float nx = normals[parent];
+            float ny = normals[parent + 1];
+            float nz = normals[parent + 2];
+            boolean isReplaced = false;
+            for (int i = 1; i < seq.length; i++) {
+                WEVertex va = p;
+                WEVertex vb = seq[i - 1];
+                WEVertex vc = seq[i];
+                if (va.id == vb.id || va.id == vc.id || vb.id == vc.id) {
+                    continue;
+                }
+                float ax = va.x - vc.x, ay = va.y - vc.y, az = va.z - vc.z;
+                float bx = va.x - vb.x, by = va.y - vb.y, bz = va.z - vb.z;
+                float cx = ay * bz - by * az;
+                float cy = az * bx - bz * ax;
+                float cz = ax * by - bx * ay;
+                if (nx * cx + ny * cy + nz * cz < 0) {
+                    va = vb;
+                    vb = p;
+                    cx = -cx;
+                    cy = -cy;
+                    cz = -cz;
+                }
+                int idx;
+                if (!isReplaced) {
+                    idx = parent;
+                    isReplaced = true;
+                } else {
+                    idx = num++ * 3;
+                }
+                tris[idx] = va;
+                tris[idx + 1] = vb;
+                tris[idx + 2] = vc;
+                normals[idx] = cx;
+                normals[idx + 1] = cy;
+                normals[idx + 2] = cz;
+            }
+            if (!isReplaced) {
+                // all sub-faces were degenerate, only remove parent
+                int last = --num * 3;
+                System.arraycopy(tris, last, tris, parent, 3);
+                System.arraycopy(normals, last, normals, parent, 3);
+            }
+        }
+        WEVertex[] result = new WEVertex[num * 3];
+        System.arraycopy(tris, 0, result, 0, result.length);
+        return result;
+    }
+
     /**
      * Creates a deep clone of the mesh. The new mesh name will have "-copy" as
      * suffix.
@@ -213,6 +332,38 @@ public class WETriangleMesh extends TriangleMesh {
         return edges.values();
     }
 
+    private static int getEdgeRank(int[] table, int id) {
+        int mask = table.length - 2;
+        int key = id + 1;
+        for (int i = hashEdgeID(id) & mask;; i = (i + 2) & mask) {
+            int k = table[i];
+            if (k == key) {
+                return table[i + 1];
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private static int getEdgeTableSize(int numEdges) {
+        int size = 4;
+        while (size < numEdges * 4) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of edge IDs handed out so far. Since any topology
+     * change creates new edges, this can be used to detect such changes.
+     * 
+     * @return edge ID counter
+     */
+    int getNumEdgeIDs() {
+        return uniqueEdgeID;
+    }
+
     public int getNumEdges() {
         return edges.size();
     }
@@ -253,6 +404,11 @@ public class WETriangleMesh extends TriangleMesh {
         return (WEVertex) super.getVertexForID(id);
     }
 
+    private static int hashEdgeID(int id) {
+        int h = id * 0x9e3779b9;
+        return (h ^ (h >>> 16)) << 1;
+    }
+
     public WETriangleMesh init(String name, int numV, int numF) {
         super.init(name, numV, numF);
         edges = new LinkedHashMap<Line3D, WingedEdge>(numV, 1.5f, false);
@@ -290,6 +446,16 @@ public class WETriangleMesh extends TriangleMesh {
                 true);
     }
 
+    private static void putEdgeRank(int[] table, int id, int rank) {
+        int mask = table.length - 2;
+        int i = hashEdgeID(id) & mask;
+        while (table[i] != 0) {
+            i = (i + 2) & mask;
+        }
+        table[i] = id + 1;
+        table[i + 1] = rank;
+    }
+
     public void rebuildIndex() {
         LinkedHashMap<Vec3D, Vertex> newV = new LinkedHashMap<Vec3D, Vertex>(
                 vertices.size());
@@ -297,6 +463,7 @@ public class WETriangleMesh extends TriangleMesh {
             newV.put(v, v);
         }
         vertices = newV;
+        updateWeldIndex();
         LinkedHashMap<Line3D, WingedEdge> newE = new LinkedHashMap<Line3D, WingedEdge>(
                 edges.size());
         for (WingedEdge e : edges.values()) {
@@ -309,11 +476,11 @@ public class WETriangleMesh extends TriangleMesh {
         e.remove();
         WEVertex v = (WEVertex) e.a;
         if (v.edges.size() == 0) {
-            vertices.remove(v);
+            removeVertexFromIndex(v);
         }
         v = (WEVertex) e.b;
         if (v.edges.size() == 0) {
-            vertices.remove(v);
+            removeVertexFromIndex(v);
         }
         for (WEFace f : e.faces) {
             removeFace(f);
@@ -349,10 +516,20 @@ public class WETriangleMesh extends TriangleMesh {
             if (!isUsed) {
                 logger.info("removing vertex: " + v);
                 i.remove();
+                if (weldStrategy != null) {
+                    weldStrategy.removeVertex(v);
+                }
             }
         }
     }
 
+    private void removeVertexFromIndex(Vertex v) {
+        vertices.remove(v);
+        if (weldStrategy != null) {
+            weldStrategy.removeVertex(v);
+        }
+    }
+
     public void removeVertices(Collection<Vertex> selection) {
         for (Vertex v : selection) {
             WEVertex wv = (WEVertex) v;
@@ -451,15 +628,104 @@ public class WETriangleMesh extends TriangleMesh {
                 minLength);
     }
 
+    /**
+     * Splits all given edges (which are at least minLength long) using the
+     * given strategy. All edges are processed as a single bulk pass: Split
+     * points and the resulting sub-faces are computed up front (in parallel if
+     * an executor has been set) and only affected faces & edges are then
+     * replaced in the mesh. Each face is split in the order defined by
+     * {@link SubdivisionStrategy#getEdgeOrdering()}.
+     * 
+     * @param origEdges
+     *            edges to split
+     * @param subDiv
+     *            subdivision strategy
+     * @param minLength
+     *            min edge length
+     */
     protected void subdivideEdges(List<WingedEdge> origEdges,
-            SubdivisionStrategy subDiv, float minLength) {
+            final SubdivisionStrategy subDiv, float minLength) {
         Collections.sort(origEdges, subDiv.getEdgeOrdering());
         minLength *= minLength;
+        final List<WingedEdge> split = new ArrayList<WingedEdge>(
+                origEdges.size());
+        final int[] ranks = new int[getEdgeTableSize(origEdges.size())];
         for (WingedEdge e : origEdges) {
-            if (edges.containsKey(e)) {
-                if (e.getLengthSquared() >= minLength) {
-                    splitEdge(e, subDiv);
+            if (e.getLengthSquared() >= minLength && edges.get(e) == e
+                    && getEdgeRank(ranks, e.id) == -1) {
+                putEdgeRank(ranks, e.id, split.size());
+                split.add(e);
+            }
+        }
+        final int numSplit = split.size();
+        if (numSplit == 0) {
+            return;
+        }
+        final Vec3D[][] points = new Vec3D[numSplit][];
+        run(numSplit, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    List<Vec3D> p = subDiv.computeSplitPoints(split.get(i));
+                    points[i] = p.toArray(new Vec3D[p.size()]);
+                }
+            }
+        });
+        // vertices are created in edge order to keep IDs deterministic
+        final WEVertex[][] splitVerts = new WEVertex[numSplit][];
+        for (int i = 0; i < numSplit; i++) {
+            WingedEdge e = split.get(i);
+            Vec3D[] p = points[i];
+            WEVertex[] seq = new WEVertex[p.length + 2];
+            seq[0] = (WEVertex) e.a;
+            for (int j = 0; j < p.length; j++) {
+                seq[j + 1] = checkVertex(p[j]);
+            }
+            seq[seq.length - 1] = (WEVertex) e.b;
+            splitVerts[i] = seq;
+            points[i] = null;
+        }
+        final int numF = faces.size();
+        final WEVertex[][] subFaces = new WEVertex[numF][];
+        run(numF, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    subFaces[i] = computeSubFaces((WEFace) faces.get(i),
+                            ranks, splitVerts);
+                }
+            }
+        });
+        for (WingedEdge e : split) {
+            e.remove();
+            edges.remove(e);
+        }
+        ArrayList<Face> newFaces = new ArrayList<Face>(numF + numSplit * 2);
+        for (int i = 0; i < numF; i++) {
+            WEFace f = (WEFace) faces.get(i);
+            if (subFaces[i] == null) {
+                newFaces.add(f);
+            } else {
+                for (WingedEdge e : f.edges) {
+                    e.faces.remove(f);
+                }
+                f.edges.clear();
+            }
+        }
+        faces = newFaces;
+        numFaces = newFaces.size();
+        for (int i = 0; i < numF; i++) {
+            WEVertex[] sub = subFaces[i];
+            if (sub != null) {
+                for (int j = 0; j < sub.length; j += 3) {
+                    WEFace f = new WEFace(sub[j], sub[j + 1], sub[j + 2]);
+                    faces.add(f);
+                    numFaces++;
+                    updateEdge(sub[j], sub[j + 1], f);
+                    updateEdge(sub[j + 1], sub[j + 2], f);
+                    updateEdge(sub[j + 2], sub[j], f);
                 }
+                subFaces[i] = null;
             }
         }
     }
@@ -504,9 +770,7 @@ public class WETriangleMesh extends TriangleMesh {
      * @return itself
      */
     public WETriangleMesh transform(Matrix4x4 mat, boolean updateNormals) {
-        for (Vertex v : vertices.values()) {
-            mat.applyToSelf(v);
-        }
+        transformVertices(mat);
         rebuildIndex();
         if (updateNormals) {
             computeFaceNormals();
@@ -38,6 +38,6 @@ import toxi.geom.mesh.WingedEdge;
 public class EdgeLengthComparator implements Comparator<WingedEdge> {
 
     public int compare(WingedEdge e1, WingedEdge e2) {
-        return (int) (e2.getLengthSquared() - e1.getLengthSquared());
+        return Float.compare(e2.getLengthSquared(), e1.getLengthSquared());
     }
 }
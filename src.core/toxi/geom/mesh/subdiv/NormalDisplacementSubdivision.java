@@ -57,7 +57,7 @@ public class NormalDisplacementSubdivision extends DisplacementSubdivision {
     @Override
     public List<Vec3D> computeSplitPoints(WingedEdge edge) {
         Vec3D mid = edge.getMidPoint();
-        Vec3D n = edge.faces.get(0).normal;
+        Vec3D n = edge.faces.get(0).normal.copy();
         if (edge.faces.size() > 1) {
             n.addSelf(edge.faces.get(1).normal);
         }
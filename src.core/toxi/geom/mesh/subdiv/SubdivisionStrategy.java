@@ -47,7 +47,9 @@ public abstract class SubdivisionStrategy {
 
     /**
      * Computes a number of points on (or near) the given edge which are used
-     * for splitting the edge in smaller segments.
+     * for splitting the edge in smaller segments. Implementations must not
+     * modify the edge or its faces, since this method might be called
+     * concurrently for several edges of a mesh.
      * 
      * @param edge
      *            edge to split
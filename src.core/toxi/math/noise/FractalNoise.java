@@ -0,0 +1,455 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package toxi.math.noise;
+
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * Fractal noise generator summing multiple octaves of a base noise function
+ * ({@link SimplexNoise} by default, optionally a seeded {@link PerlinNoise}
+ * instance). Apart from single sample queries, the class provides bulk methods
+ * to fill entire 2D/3D grids or evaluate arbitrary coordinate buffers in one
+ * call. If an executor is set, these bulk operations are split into bands of
+ * rows and computed in parallel. Since each sample is computed independently,
+ * results are identical regardless of the number of threads used.
+ * 
+ * The memory layout of the grids is compatible with
+ * {@link toxi.geom.mesh.Terrain#setElevation(float[])} (2D, x + z * width) and
+ * the data array of a <code>VolumetricSpaceArray</code> (3D, x + y * resX + z *
+ * resX * resY), so results can be used directly without further copying.
+ */
+public class FractalNoise {
+
+    public enum Type {
+        /**
+         * Fractional brownian motion: plain sum of octaves, result in the
+         * interval -1 .. +1
+         */
+        FBM,
+        /**
+         * Ridged noise: sum of inverted & squared absolute octave values,
+         * result in the interval 0 .. 1
+         */
+        RIDGED;
+    }
+
+    public static final int DEFAULT_OCTAVES = 4;
+
+    protected Type type = Type.FBM;
+    protected int octaves = DEFAULT_OCTAVES;
+    protected float frequency = 1;
+    protected float lacunarity = 2;
+    protected float gain = 0.5f;
+    protected float amplitude = 1;
+
+    protected PerlinNoise perlin;
+
+    protected ParallelExecutor executor;
+
+    public FractalNoise() {
+    }
+
+    public FractalNoise(Type type, int octaves) {
+        setType(type);
+        setOctaves(octaves);
+    }
+
+    /**
+     * Evaluates the base noise function at the given point and normalizes its
+     * result to the interval -1 .. +1.
+     * 
+     * @param perlinScale
+     *            normalization factor for PerlinNoise values, see
+     *            {@link #getPerlinScale()}
+     */
+    protected final float baseNoise(float x, float y, float perlinScale) {
+        if (perlin != null) {
+            return perlin.noise(x, y) * perlinScale - 1;
+        }
+        return (float) SimplexNoise.noise(x, y);
+    }
+
+    protected final float baseNoise(float x, float y, float z,
+            float perlinScale) {
+        if (perlin != null) {
+            return perlin.noise(x, y, z) * perlinScale - 1;
+        }
+        return (float) SimplexNoise.noise(x, y, z);
+    }
+
+    /**
+     * Computes noise values for a buffer of arbitrary 2D or 3D points.
+     * 
+     * @param coords
+     *            packed point coordinates (x,y or x,y,z tuples)
+     * @param dim
+     *            number of components per point (2 or 3)
+     * @param dest
+     *            result array, needs to have a length of at least
+     *            coords.length / dim. If null, a new array is created.
+     * @return result array
+     */
+    public float[] evaluate(final float[] coords, final int dim, float[] dest) {
+        if (dim < 2 || dim > 3) {
+            throw new IllegalArgumentException(
+                    "only 2D or 3D coordinates supported");
+        }
+        final int num = coords.length / dim;
+        if (dest == null) {
+            dest = new float[num];
+        } else if (dest.length < num) {
+            throw new IllegalArgumentException("result array too small: "
+                    + dest.length + " < " + num);
+        }
+        final float[] result = dest;
+        final float perlinScale = getPerlinScale();
+        run(0, num, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from, j = from * dim; i < to; i++, j += dim) {
+                    if (dim == 2) {
+                        result[i] = noise2D(coords[j], coords[j + 1],
+                                perlinScale);
+                    } else {
+                        result[i] = noise3D(coords[j], coords[j + 1],
+                                coords[j + 2], perlinScale);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fills a 2D grid of noise values, with x being the fastest changing
+     * index. Samples are taken at (x0 + x * step, y0 + y * step).
+     * 
+     * @param dest
+     *            result array (length at least nx * ny) or null
+     * @param nx
+     *            grid width
+     * @param ny
+     *            grid height
+     * @param x0
+     * @param y0
+     * @param step
+     *            distance between grid points in noise space (before
+     *            frequency is applied)
+     * @return result array
+     */
+    public float[] fillGrid(float[] dest, final int nx, int ny, final float x0,
+            final float y0, final float step) {
+        dest = ensureSize(dest, nx * ny);
+        final float[] result = dest;
+        final float perlinScale = getPerlinScale();
+        run(0, ny, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    final float yy = y0 + y * step;
+                    for (int x = 0, idx = y * nx; x < nx; x++, idx++) {
+                        result[idx] = noise2D(x0 + x * step, yy, perlinScale);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Fills a 3D grid of noise values, using the index layout x + y * nx + z *
+     * nx * ny. Samples are taken at (x0 + x * step, y0 + y * step, z0 + z *
+     * step).
+     * 
+     * @param dest
+     *            result array (length at least nx * ny * nz) or null
+     * @param nx
+     * @param ny
+     * @param nz
+     * @param x0
+     * @param y0
+     * @param z0
+     * @param step
+     *            distance between grid points in noise space (before
+     *            frequency is applied)
+     * @return result array
+     */
+    public float[] fillGrid(float[] dest, final int nx, final int ny, int nz,
+            final float x0, final float y0, final float z0, final float step) {
+        dest = ensureSize(dest, nx * ny * nz);
+        final float[] result = dest;
+        final float perlinScale = getPerlinScale();
+        // parallelize over all rows of all slices
+        run(0, ny * nz, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    final float yy = y0 + (row % ny) * step;
+                    final float zz = z0 + (row / ny) * step;
+                    for (int x = 0, idx = row * nx; x < nx; x++, idx++) {
+                        result[idx] = noise3D(x0 + x * step, yy, zz,
+                                perlinScale);
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    private float[] ensureSize(float[] dest, int num) {
+        if (dest == null) {
+            return new float[num];
+        }
+        if (dest.length < num) {
+            throw new IllegalArgumentException("result array too small: "
+                    + dest.length + " < " + num);
+        }
+        return dest;
+    }
+
+    public float getAmplitude() {
+        return amplitude;
+    }
+
+    /**
+     * @return the executor used for the parallel mode (or null, if disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    public float getFrequency() {
+        return frequency;
+    }
+
+    public float getGain() {
+        return gain;
+    }
+
+    public float getLacunarity() {
+        return lacunarity;
+    }
+
+    public int getOctaves() {
+        return octaves;
+    }
+
+    public PerlinNoise getPerlinNoise() {
+        return perlin;
+    }
+
+    /**
+     * @return factor to map PerlinNoise values from 0 .. max amplitude to 0 ..
+     *         2
+     */
+    protected final float getPerlinScale() {
+        return perlin != null ? 2 / perlin.getMaxAmplitude() : 0;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Computes the fractal noise value at the given 2D point.
+     * 
+     * @param x
+     * @param y
+     * @return noise value scaled by the current amplitude
+     */
+    public float noise(float x, float y) {
+        return noise2D(x, y, getPerlinScale());
+    }
+
+    /**
+     * Computes the fractal noise value at the given 3D point.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return noise value scaled by the current amplitude
+     */
+    public float noise(float x, float y, float z) {
+        return noise3D(x, y, z, getPerlinScale());
+    }
+
+    /**
+     * 2D noise implementation, using the given (precomputed) value of
+     * {@link #getPerlinScale()}.
+     */
+    private float noise2D(float x, float y, float perlinScale) {
+        x *= frequency;
+        y *= frequency;
+        float sum = 0;
+        float norm = 0;
+        float amp = 1;
+        final boolean isRidged = (type == Type.RIDGED);
+        for (int i = 0; i < octaves; i++) {
+            float n = baseNoise(x, y, perlinScale);
+            if (isRidged) {
+                n = 1 - (n < 0 ? -n : n);
+                n *= n;
+            }
+            sum += n * amp;
+            norm += amp;
+            amp *= gain;
+            x *= lacunarity;
+            y *= lacunarity;
+        }
+        return sum / norm * amplitude;
+    }
+
+    /**
+     * 3D noise implementation, using the given (precomputed) value of
+     * {@link #getPerlinScale()}.
+     */
+    private float noise3D(float x, float y, float z, float perlinScale) {
+        x *= frequency;
+        y *= frequency;
+        z *= frequency;
+        float sum = 0;
+        float norm = 0;
+        float amp = 1;
+        final boolean isRidged = (type == Type.RIDGED);
+        for (int i = 0; i < octaves; i++) {
+            float n = baseNoise(x, y, z, perlinScale);
+            if (isRidged) {
+                n = 1 - (n < 0 ? -n : n);
+                n *= n;
+            }
+            sum += n * amp;
+            norm += amp;
+            amp *= gain;
+            x *= lacunarity;
+            y *= lacunarity;
+            z *= lacunarity;
+        }
+        return sum / norm * amplitude;
+    }
+
+    /**
+     * Processes the given row range, either directly or in parallel if an
+     * executor is set.
+     */
+    protected final void run(int min, int max, RangeTask task) {
+        if (executor != null) {
+            executor.forRange(min, max, task);
+        } else {
+            task.process(min, max);
+        }
+    }
+
+    /**
+     * Sets the scale factor applied to all final noise values (e.g. the max
+     * elevation of a terrain).
+     * 
+     * @param amplitude
+     * @return itself
+     */
+    public FractalNoise setAmplitude(float amplitude) {
+        this.amplitude = amplitude;
+        return this;
+    }
+
+    /**
+     * Sets the executor to use for the bulk methods. The executor can be
+     * shared with other engines/tasks and is NOT shut down by this class.
+     * 
+     * @param executor
+     *            executor instance or null to compute single threaded
+     * @return itself
+     */
+    public FractalNoise setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the base frequency (scale factor applied to input coordinates) of
+     * the first octave.
+     * 
+     * @param frequency
+     * @return itself
+     */
+    public FractalNoise setFrequency(float frequency) {
+        this.frequency = frequency;
+        return this;
+    }
+
+    /**
+     * Sets the amplitude falloff factor between successive octaves.
+     * 
+     * @param gain
+     * @return itself
+     */
+    public FractalNoise setGain(float gain) {
+        this.gain = gain;
+        return this;
+    }
+
+    /**
+     * Sets the frequency multiplier between successive octaves.
+     * 
+     * @param lacunarity
+     * @return itself
+     */
+    public FractalNoise setLacunarity(float lacunarity) {
+        this.lacunarity = lacunarity;
+        return this;
+    }
+
+    public FractalNoise setOctaves(int octaves) {
+        if (octaves < 1) {
+            throw new IllegalArgumentException("octaves must be >= 1");
+        }
+        this.octaves = octaves;
+        return this;
+    }
+
+    /**
+     * Sets a {@link PerlinNoise} instance to be used as base noise function
+     * instead of the default {@link SimplexNoise}. Since PerlinNoise already
+     * sums up multiple octaves itself, its detail level should usually be set
+     * to a single octave via {@link PerlinNoise#noiseDetail(int)}. A seeded
+     * instance can safely be shared by multiple threads.
+     * 
+     * @param perlin
+     *            noise instance or null to use simplex noise
+     * @return itself
+     */
+    public FractalNoise setPerlinNoise(PerlinNoise perlin) {
+        this.perlin = perlin;
+        return this;
+    }
+
+    public FractalNoise setType(Type type) {
+        this.type = type;
+        return this;
+    }
+}
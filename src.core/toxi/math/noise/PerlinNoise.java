@@ -68,6 +68,16 @@ public class PerlinNoise {
         noiseSeed(System.nanoTime());
     }
 
+    /**
+     * Creates a new instance using the given seed. Instances created with the
+     * same seed produce identical noise fields.
+     * 
+     * @param seed
+     */
+    public PerlinNoise(long seed) {
+        noiseSeed(seed);
+    }
+
     /**
      * Computes the Perlin noise function value at point x.
      */
@@ -88,20 +98,7 @@ public class PerlinNoise {
      */
     public float noise(float x, float y, float z) {
         if (perlin == null) {
-            if (perlinRandom == null) {
-                perlinRandom = new Random();
-            }
-            perlin = new float[PERLIN_SIZE + 1];
-            for (int i = 0; i < PERLIN_SIZE + 1; i++) {
-                perlin[i] = perlinRandom.nextFloat(); // (float)Math.random();
-            }
-            // [toxi 031112]
-            // noise broke due to recent change of cos table in PGraphics
-            // this will take care of it
-            perlin_cosTable = SinCosLUT.getDefaultInstance().getSinLUT();
-            perlin_TWOPI = perlin_PI = SinCosLUT.getDefaultInstance()
-                    .getPeriod();
-            perlin_PI >>= 1;
+            initTables();
         }
 
         if (x < 0) {
@@ -177,6 +174,48 @@ public class PerlinNoise {
         return r;
     }
 
+    /**
+     * Computes the theoretical maximum value returned by the noise function
+     * for the current detail settings (the sum of all octave amplitudes).
+     * 
+     * @return max noise value
+     */
+    public float getMaxAmplitude() {
+        float sum = 0;
+        float ampl = 0.5f;
+        for (int i = 0; i < perlin_octaves; i++) {
+            sum += ampl;
+            ampl *= perlin_amp_falloff;
+            if (ampl < PERLIN_MIN_AMPLITUDE) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Builds the random lookup table from the current state of the random
+     * generator. Called eagerly by {@link #noiseSeed(long)}, so that
+     * {@link #noise(float, float, float)} itself only reads shared state and
+     * can safely be called from multiple threads at once.
+     */
+    protected synchronized void initTables() {
+        if (perlinRandom == null) {
+            perlinRandom = new Random();
+        }
+        float[] table = new float[PERLIN_SIZE + 1];
+        for (int i = 0; i < PERLIN_SIZE + 1; i++) {
+            table[i] = perlinRandom.nextFloat(); // (float)Math.random();
+        }
+        // [toxi 031112]
+        // noise broke due to recent change of cos table in PGraphics
+        // this will take care of it
+        perlin_cosTable = SinCosLUT.getDefaultInstance().getSinLUT();
+        perlin_TWOPI = perlin_PI = SinCosLUT.getDefaultInstance().getPeriod();
+        perlin_PI >>= 1;
+        perlin = table;
+    }
+
     // [toxi 031112]
     // now adjusts to the size of the cosLUT used via
     // the new variables, defined above
@@ -212,5 +251,6 @@ public class PerlinNoise {
         }
         perlinRandom.setSeed(what);
         perlin = null;
+        initTables();
     }
 }
@@ -109,6 +109,12 @@ public class SimplexNoise {
      * length
      */
     private static int[] perm = new int[0x200];
+
+    /**
+     * Permutation table with the gradient index (modulo 12) for 2D & 3D
+     * already applied, avoiding the integer division in the inner loops
+     */
+    private static int[] permMod12 = new int[0x200];
     /**
      * A lookup table to traverse the simplex around a given point in 4D.
      * Details can be found where this table is used, in the 4D noise method.
@@ -134,6 +140,7 @@ public class SimplexNoise {
     static {
         for (int i = 0; i < 0x200; i++) {
             perm[i] = p[i & 0xff];
+            permMod12[i] = perm[i] % 12;
         }
     }
 
@@ -234,20 +241,20 @@ public class SimplexNoise {
         double t0 = 0.5 - x0 * x0 - y0 * y0;
         if (t0 > 0) {
             t0 *= t0;
-            int gi0 = perm[ii + perm[jj]] % 12;
+            int gi0 = permMod12[ii + perm[jj]];
             n0 = t0 * t0 * dot(grad3[gi0], x0, y0); // (x,y) of grad3 used for
             // 2D gradient
         }
         double t1 = 0.5 - x1 * x1 - y1 * y1;
         if (t1 > 0) {
             t1 *= t1;
-            int gi1 = perm[ii + i1 + perm[jj + j1]] % 12;
+            int gi1 = permMod12[ii + i1 + perm[jj + j1]];
             n1 = t1 * t1 * dot(grad3[gi1], x1, y1);
         }
         double t2 = 0.5 - x2 * x2 - y2 * y2;
         if (t2 > 0) {
             t2 *= t2;
-            int gi2 = perm[ii + 1 + perm[jj + 1]] % 12;
+            int gi2 = permMod12[ii + 1 + perm[jj + 1]];
             n2 = t2 * t2 * dot(grad3[gi2], x2, y2);
         }
         // Add contributions from each corner to get the final noise value.
@@ -366,25 +373,25 @@ public class SimplexNoise {
         double t0 = 0.6 - x0 * x0 - y0 * y0 - z0 * z0;
         if (t0 > 0) {
             t0 *= t0;
-            int gi0 = perm[ii + perm[jj + perm[kk]]] % 12;
+            int gi0 = permMod12[ii + perm[jj + perm[kk]]];
             n0 = t0 * t0 * dot(grad3[gi0], x0, y0, z0);
         }
         double t1 = 0.6 - x1 * x1 - y1 * y1 - z1 * z1;
         if (t1 > 0) {
             t1 *= t1;
-            int gi1 = perm[ii + i1 + perm[jj + j1 + perm[kk + k1]]] % 12;
+            int gi1 = permMod12[ii + i1 + perm[jj + j1 + perm[kk + k1]]];
             n1 = t1 * t1 * dot(grad3[gi1], x1, y1, z1);
         }
         double t2 = 0.6 - x2 * x2 - y2 * y2 - z2 * z2;
         if (t2 > 0) {
             t2 *= t2;
-            int gi2 = perm[ii + i2 + perm[jj + j2 + perm[kk + k2]]] % 12;
+            int gi2 = permMod12[ii + i2 + perm[jj + j2 + perm[kk + k2]]];
             n2 = t2 * t2 * dot(grad3[gi2], x2, y2, z2);
         }
         double t3 = 0.6 - x3 * x3 - y3 * y3 - z3 * z3;
         if (t3 > 0) {
             t3 *= t3;
-            int gi3 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1]]] % 12;
+            int gi3 = permMod12[ii + 1 + perm[jj + 1 + perm[kk + 1]]];
             n3 = t3 * t3 * dot(grad3[gi3], x3, y3, z3);
         }
         // Add contributions from each corner to get the final noise value.
@@ -506,34 +513,34 @@ public class SimplexNoise {
         double t0 = 0.6 - x0 * x0 - y0 * y0 - z0 * z0 - w0 * w0;
         if (t0 > 0) {
             t0 *= t0;
-            int gi0 = perm[ii + perm[jj + perm[kk + perm[ll]]]] % 32;
+            int gi0 = perm[ii + perm[jj + perm[kk + perm[ll]]]] & 31;
             n0 = t0 * t0 * dot(grad4[gi0], x0, y0, z0, w0);
         }
         double t1 = 0.6 - x1 * x1 - y1 * y1 - z1 * z1 - w1 * w1;
         if (t1 > 0) {
             t1 *= t1;
             int gi1 = perm[ii + i1
-                    + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]] % 32;
+                    + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]] & 31;
             n1 = t1 * t1 * dot(grad4[gi1], x1, y1, z1, w1);
         }
         double t2 = 0.6 - x2 * x2 - y2 * y2 - z2 * z2 - w2 * w2;
         if (t2 > 0) {
             t2 *= t2;
             int gi2 = perm[ii + i2
-                    + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]] % 32;
+                    + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]] & 31;
             n2 = t2 * t2 * dot(grad4[gi2], x2, y2, z2, w2);
         }
         double t3 = 0.6 - x3 * x3 - y3 * y3 - z3 * z3 - w3 * w3;
         if (t3 > 0) {
             t3 *= t3;
             int gi3 = perm[ii + i3
-                    + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]] % 32;
+                    + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]] & 31;
             n3 = t3 * t3 * dot(grad4[gi3], x3, y3, z3, w3);
         }
         double t4 = 0.6 - x4 * x4 - y4 * y4 - z4 * z4 - w4 * w4;
         if (t4 > 0) {
             t4 *= t4;
-            int gi4 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]] % 32;
+            int gi4 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]] & 31;
             n4 = t4 * t4 * dot(grad4[gi4], x4, y4, z4, w4);
         }
         // Sum up and scale the result to cover the range [-1,1]
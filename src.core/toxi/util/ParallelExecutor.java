@@ -0,0 +1,209 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A simple fixed size thread pool wrapper to execute index based loops in
+ * parallel. Index ranges are always split into the same number of equally
+ * sized chunks (independent of scheduling), so as long as each
+ * {@link RangeTask} only modifies data belonging to its own range the results
+ * are deterministic.
+ * 
+ * Worker threads are created as daemon threads and therefore won't prevent
+ * the application from exiting, however {@link #shutdown()} should be called
+ * once the executor isn't needed anymore.
+ */
+public class ParallelExecutor {
+
+    /**
+     * Default minimum number of items per chunk. Ranges smaller than this are
+     * processed directly on the calling thread.
+     */
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 64;
+
+    protected final ExecutorService pool;
+    protected final int numThreads;
+    protected int minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+
+    /**
+     * Creates a new executor using as many threads as there are processors
+     * available.
+     */
+    public ParallelExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new executor using the given number of worker threads.
+     * 
+     * @param numThreads
+     */
+    public ParallelExecutor(int numThreads) {
+        this.numThreads = Math.max(numThreads, 1);
+        this.pool = Executors.newFixedThreadPool(this.numThreads,
+                new ThreadFactory() {
+
+                    private int count;
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "toxi-worker-" + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Executes the given task for the index range min (inclusive) ... max
+     * (exclusive). The range is split into one chunk per thread and the method
+     * only returns once all chunks have been processed. Runtime exceptions
+     * thrown by the task are re-thrown on the calling thread.
+     * 
+     * @param min
+     *            start index
+     * @param max
+     *            end index
+     * @param task
+     */
+    public void forRange(int min, int max, RangeTask task) {
+        forRange(min, max, numThreads, task);
+    }
+
+    /**
+     * Executes the given task for the index range min (inclusive) ... max
+     * (exclusive), split into the given number of chunks. The actual number of
+     * chunks might be less if the range is smaller than
+     * numChunks*minChunkSize. The method only returns once all chunks have
+     * been processed. Runtime exceptions thrown by the task are re-thrown on
+     * the calling thread.
+     * 
+     * @param min
+     *            start index
+     * @param max
+     *            end index
+     * @param numChunks
+     *            number of work units
+     * @param task
+     */
+    public void forRange(int min, int max, int numChunks, final RangeTask task) {
+        int num = max - min;
+        if (num <= 0) {
+            return;
+        }
+        numChunks = Math.min(numChunks, num / minChunkSize);
+        if (numChunks <= 1 || numThreads == 1) {
+            task.process(min, max);
+            return;
+        }
+        List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(
+                numChunks);
+        for (int i = 0; i < numChunks; i++) {
+            final int from = min + (int) ((long) num * i / numChunks);
+            final int to = min + (int) ((long) num * (i + 1) / numChunks);
+            jobs.add(new Callable<Object>() {
+
+                public Object call() {
+                    task.process(from, to);
+                    return null;
+                }
+            });
+        }
+        invokeAll(jobs);
+    }
+
+    /**
+     * @return the minimum number of items per chunk
+     */
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Executes all given tasks and waits for their completion.
+     * 
+     * @param jobs
+     * @throws RuntimeException
+     *             if any of the tasks failed or the calling thread got
+     *             interrupted
+     */
+    public void invokeAll(List<? extends Callable<Object>> jobs) {
+        try {
+            for (Future<Object> f : pool.invokeAll(jobs)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Sets the minimum number of items per chunk. Ranges with fewer items
+     * will be processed directly on the calling thread.
+     * 
+     * @param minChunkSize
+     * @return itself
+     */
+    public ParallelExecutor setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = Math.max(minChunkSize, 1);
+        return this;
+    }
+
+    /**
+     * Shuts down the worker threads. The executor can't be used anymore
+     * afterwards.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
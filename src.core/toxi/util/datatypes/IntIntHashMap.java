@@ -0,0 +1,217 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.util.datatypes;
+
+import java.util.Arrays;
+
+/**
+ * A primitive int to int hash map using open addressing with linear probing.
+ * Unlike a <code>HashMap&lt;Integer, Integer&gt;</code> no objects are created
+ * per entry and {@link #clear()} keeps the allocated storage, so an instance
+ * can be reused without producing any garbage.
+ * 
+ * {@link Integer#MIN_VALUE} is reserved to mark empty slots and can't be used
+ * as key.
+ */
+public class IntIntHashMap {
+
+    protected static final int EMPTY = Integer.MIN_VALUE;
+
+    protected static final float LOAD_FACTOR = 0.5f;
+
+    protected int[] keys;
+    protected int[] values;
+    protected int mask;
+    protected int size;
+    protected int threshold;
+
+    protected final int noEntryValue;
+
+    /**
+     * Creates a new map with a default capacity of 16 entries and -1 as
+     * {@link #getNoEntryValue()}.
+     */
+    public IntIntHashMap() {
+        this(16, -1);
+    }
+
+    /**
+     * Creates a new map able to hold the given number of entries without
+     * having to grow.
+     * 
+     * @param capacity
+     *            expected number of entries
+     * @param noEntryValue
+     *            value returned for missing keys
+     */
+    public IntIntHashMap(int capacity, int noEntryValue) {
+        this.noEntryValue = noEntryValue;
+        int size = 16;
+        while (size * LOAD_FACTOR < capacity) {
+            size <<= 1;
+        }
+        allocate(size);
+    }
+
+    protected void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Removes all entries, but keeps the allocated storage.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return keys[indexOf(key)] != EMPTY;
+    }
+
+    /**
+     * @param key
+     * @return value for key or {@link #getNoEntryValue()}, if not found
+     */
+    public int get(int key) {
+        int i = indexOf(key);
+        return keys[i] != EMPTY ? values[i] : noEntryValue;
+    }
+
+    /**
+     * @return the value returned for missing keys
+     */
+    public int getNoEntryValue() {
+        return noEntryValue;
+    }
+
+    protected final int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Finds the slot for the given key, either the one containing the key or
+     * the empty one it would be stored in.
+     */
+    protected final int indexOf(int key) {
+        int i = hash(key);
+        int k;
+        while ((k = keys[i]) != EMPTY && k != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Associates the given key with the value.
+     * 
+     * @param key
+     * @param value
+     * @return previous value or {@link #getNoEntryValue()}, if key wasn't
+     *         present before
+     */
+    public int put(int key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("invalid key: " + key);
+        }
+        int i = indexOf(key);
+        if (keys[i] != EMPTY) {
+            int prev = values[i];
+            values[i] = value;
+            return prev;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            rehash(keys.length << 1);
+        }
+        return noEntryValue;
+    }
+
+    protected void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != EMPTY) {
+                int j = indexOf(k);
+                keys[j] = k;
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for the given key.
+     * 
+     * @param key
+     * @return removed value or {@link #getNoEntryValue()}, if not found
+     */
+    public int remove(int key) {
+        int i = indexOf(key);
+        if (keys[i] == EMPTY) {
+            return noEntryValue;
+        }
+        int prev = values[i];
+        // backward shift deletion to keep probe sequences intact
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int k = keys[j];
+            if (k == EMPTY) {
+                break;
+            }
+            int h = hash(k);
+            // move entry if its home slot is not within (i, j]
+            if ((i <= j) ? (i >= h || h > j) : (i >= h && h > j)) {
+                keys[i] = k;
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        size--;
+        return prev;
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return size;
+    }
+}
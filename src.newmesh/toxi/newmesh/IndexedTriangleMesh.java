@@ -64,6 +64,24 @@ public class IndexedTriangleMesh {
         return addFace(a, b, c, attribs);
     }
 
+    /**
+     * Adds all faces given as packed vertex coordinates (9 floats per face),
+     * e.g. as returned by {@link toxi.geom.mesh.OBJReader#loadFaces} or
+     * {@link toxi.geom.mesh.PLYReader#loadFaces}.
+     * 
+     * @param coords
+     * @return itself
+     */
+    public IndexedTriangleMesh addFaces(float[] coords) {
+        for (int i = 0; i < coords.length; i += 9) {
+            addFace(new Vec3D(coords[i], coords[i + 1], coords[i + 2]),
+                    new Vec3D(coords[i + 3], coords[i + 4], coords[i + 5]),
+                    new Vec3D(coords[i + 6], coords[i + 7], coords[i + 8]),
+                    null);
+        }
+        return this;
+    }
+
     public HashMap<String, int[]> addFaceAttribute(AttributedFace f,
             String attrib, Object attA, Object attB, Object attC) {
         if (f != null && attrib != null && attA != null && attB != null
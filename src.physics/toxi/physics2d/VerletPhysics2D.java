@@ -28,6 +28,8 @@
 package toxi.physics2d;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -37,12 +39,28 @@ import toxi.geom.Vec2D;
 import toxi.physics2d.behaviors.GravityBehavior2D;
 import toxi.physics2d.behaviors.ParticleBehavior2D;
 import toxi.physics2d.constraints.ParticleConstraint2D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 
 /**
  * 3D particle physics engine using Verlet integration based on:
  * http://en.wikipedia.org/wiki/Verlet_integration
  * http://www.teknikus.dk/tj/gdc2001.htm
  * 
+ * <p>
+ * If a {@link ParallelExecutor} is assigned via
+ * {@link #setExecutor(ParallelExecutor)}, the engine switches to a parallel
+ * solver mode: Particle integration and constraints are processed in chunks
+ * across all worker threads and springs are relaxed in batches of springs
+ * which don't share any particles (computed via greedy graph coloring). All
+ * behaviors & constraints used in this mode must be thread safe. Since each
+ * batch only contains independent springs, the result does not depend on
+ * thread scheduling, however the relaxation order differs from the
+ * sequential solver. If behaviors rely on the shared
+ * {@link toxi.math.MathUtils#RND} generator (e.g. jitter), use
+ * {@link #setDeterministic(boolean)} to evaluate behaviors on the calling
+ * thread only and so keep runs reproducible.
+ * </p>
  */
 public class VerletPhysics2D {
 
@@ -95,6 +113,22 @@ public class VerletPhysics2D {
 
     protected SpatialIndex<Vec2D> index;
 
+    /**
+     * Optional executor to enable the parallel solver mode
+     */
+    protected ParallelExecutor executor;
+
+    /**
+     * Flag, if behaviors are always applied sequentially in parallel mode
+     */
+    protected boolean isDeterministic;
+
+    /**
+     * Spring batches used in parallel mode, each containing only springs
+     * without any shared particles
+     */
+    protected VerletSpring2D[][] springBatches;
+
     /**
      * Initializes a Verlet engine instance using the default values.
      */
@@ -155,6 +189,7 @@ public class VerletPhysics2D {
     public VerletPhysics2D addSpring(VerletSpring2D s) {
         if (getSpring(s.a, s.b) == null) {
             springs.add(s);
+            springBatches = null;
         }
         return this;
     }
@@ -164,8 +199,31 @@ public class VerletPhysics2D {
      * the world bounding rect set.
      */
     protected void applyConstaints() {
+        if (executor != null) {
+            executor.forRange(0, particles.size(), new RangeTask() {
+
+                public void process(int from, int to) {
+                    applyConstraints(from, to);
+                }
+            });
+        } else {
+            applyConstraints(0, particles.size());
+        }
+    }
+
+    /**
+     * Applies all global constraints and the world bounding box to the given
+     * index range of particles.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     */
+    protected void applyConstraints(int from, int to) {
         boolean hasGlobalConstraints = constraints.size() > 0;
-        for (VerletParticle2D p : particles) {
+        for (int i = from; i < to; i++) {
+            VerletParticle2D p = particles.get(i);
             if (hasGlobalConstraints) {
                 for (ParticleConstraint2D c : constraints) {
                     c.apply(p);
@@ -185,9 +243,48 @@ public class VerletPhysics2D {
         constraints.clear();
         particles.clear();
         springs.clear();
+        springBatches = null;
         return this;
     }
 
+    /**
+     * Partitions all springs into batches of springs not sharing any
+     * particles, using a greedy graph coloring approach. Springs within a
+     * single batch can be safely updated in parallel.
+     * 
+     * @return spring batches
+     */
+    protected VerletSpring2D[][] computeSpringBatches() {
+        IdentityHashMap<VerletParticle2D, BitSet> colors = new IdentityHashMap<VerletParticle2D, BitSet>();
+        List<List<VerletSpring2D>> batches = new ArrayList<List<VerletSpring2D>>();
+        for (VerletSpring2D s : springs) {
+            BitSet ca = colors.get(s.a);
+            if (ca == null) {
+                colors.put(s.a, ca = new BitSet());
+            }
+            BitSet cb = colors.get(s.b);
+            if (cb == null) {
+                colors.put(s.b, cb = new BitSet());
+            }
+            int c = 0;
+            while (ca.get(c) || cb.get(c)) {
+                c++;
+            }
+            ca.set(c);
+            cb.set(c);
+            if (c == batches.size()) {
+                batches.add(new ArrayList<VerletSpring2D>());
+            }
+            batches.get(c).add(s);
+        }
+        VerletSpring2D[][] result = new VerletSpring2D[batches.size()][];
+        for (int i = 0; i < result.length; i++) {
+            List<VerletSpring2D> b = batches.get(i);
+            result[i] = b.toArray(new VerletSpring2D[b.size()]);
+        }
+        return result;
+    }
+
     public Rect getCurrentBounds() {
         Vec2D min = new Vec2D(Float.MAX_VALUE, Float.MAX_VALUE);
         Vec2D max = new Vec2D(Float.MIN_VALUE, Float.MIN_VALUE);
@@ -203,6 +300,14 @@ public class VerletPhysics2D {
         return 1f - drag;
     }
 
+    /**
+     * @return the executor used for the parallel solver mode (or null, if
+     *         disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
     /**
      * @return the index
      */
@@ -217,6 +322,13 @@ public class VerletPhysics2D {
         return numIterations;
     }
 
+    /**
+     * @return true, if behaviors are always applied on the calling thread
+     */
+    public boolean isDeterministic() {
+        return isDeterministic;
+    }
+
     /**
      * Attempts to find the spring element between the 2 particles supplied
      * 
@@ -276,6 +388,7 @@ public class VerletPhysics2D {
      * @return true, if the spring has been removed
      */
     public boolean removeSpring(VerletSpring2D s) {
+        springBatches = null;
         return springs.remove(s);
     }
 
@@ -294,10 +407,37 @@ public class VerletPhysics2D {
         return false;
     }
 
+    /**
+     * Enables/disables the deterministic parallel mode. If enabled, all
+     * particle behaviors are applied sequentially on the calling thread, so
+     * behaviors using shared random number generators produce reproducible
+     * results. Has no effect if no executor is used.
+     * 
+     * @param state
+     * @return itself
+     */
+    public VerletPhysics2D setDeterministic(boolean state) {
+        isDeterministic = state;
+        return this;
+    }
+
     public void setDrag(float drag) {
         this.drag = 1f - drag;
     }
 
+    /**
+     * Sets the executor to use for the parallel solver mode. The executor can
+     * be shared with other engines/tasks and is NOT shut down by this class.
+     * 
+     * @param executor
+     *            executor instance or null to use the sequential solver
+     * @return itself
+     */
+    public VerletPhysics2D setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     /**
      * @param index
      *            the index to set
@@ -363,6 +503,10 @@ public class VerletPhysics2D {
      * Updates all particle positions
      */
     protected void updateParticles() {
+        if (executor != null) {
+            updateParticlesParallel();
+            return;
+        }
         for (ParticleBehavior2D b : behaviors) {
             if (index != null && b.supportsSpatialIndex()) {
                 b.applyWithIndex(index);
@@ -378,10 +522,65 @@ public class VerletPhysics2D {
         }
     }
 
+    /**
+     * Parallel version of {@link #updateParticles()}. First accumulates the
+     * forces of all behaviors (incl. particle specific ones) for all particles,
+     * then integrates all particles. Both phases are processed in chunks of
+     * particles.
+     */
+    protected void updateParticlesParallel() {
+        final List<ParticleBehavior2D> localBehaviors = new ArrayList<ParticleBehavior2D>(
+                behaviors.size());
+        for (ParticleBehavior2D b : behaviors) {
+            if (index != null && b.supportsSpatialIndex()) {
+                b.applyWithIndex(index);
+            } else {
+                localBehaviors.add(b);
+            }
+        }
+        final int numParticles = particles.size();
+        RangeTask applyBehaviors = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    VerletParticle2D p = particles.get(i);
+                    for (ParticleBehavior2D b : localBehaviors) {
+                        b.apply(p);
+                    }
+                    if (!p.isLocked) {
+                        p.applyBehaviors();
+                    }
+                }
+            }
+        };
+        if (isDeterministic) {
+            applyBehaviors.process(0, numParticles);
+        } else {
+            executor.forRange(0, numParticles, applyBehaviors);
+        }
+        executor.forRange(0, numParticles, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    VerletParticle2D p = particles.get(i);
+                    p.scaleVelocity(drag);
+                    if (!p.isLocked) {
+                        p.applyForce();
+                        p.applyConstraints();
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Updates all spring connections based on new particle positions
      */
     protected void updateSprings() {
+        if (executor != null) {
+            updateSpringsParallel();
+            return;
+        }
         if (springs.size() > 0) {
             for (int i = numIterations; i > 0; i--) {
                 for (VerletSpring2D s : springs) {
@@ -390,4 +589,35 @@ public class VerletPhysics2D {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Parallel version of {@link #updateSprings()}, relaxing independent
+     * spring batches concurrently.
+     */
+    protected void updateSpringsParallel() {
+        if (springs.size() > 0) {
+            int numBatched = 0;
+            if (springBatches != null) {
+                for (VerletSpring2D[] batch : springBatches) {
+                    numBatched += batch.length;
+                }
+            }
+            if (numBatched != springs.size()) {
+                springBatches = computeSpringBatches();
+            }
+            for (int i = numIterations; i > 0; i--) {
+                final boolean applyConstraints = (i == 1);
+                for (final VerletSpring2D[] batch : springBatches) {
+                    executor.forRange(0, batch.length, new RangeTask() {
+
+                        public void process(int from, int to) {
+                            for (int j = from; j < to; j++) {
+                                batch[j].update(applyConstraints);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,643 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.physics3d;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import toxi.geom.AABB;
+import toxi.geom.ReadonlyVec3D;
+import toxi.geom.Vec3D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
+/**
+ * <p>
+ * A compact alternative particle storage & solver for large, homogenous
+ * particle systems. Unlike {@link VerletPhysics3D}, which operates on
+ * individual {@link VerletParticle3D} and {@link VerletSpring3D} objects, this
+ * class keeps all particle state (current & previous positions, accumulated
+ * forces, weights and lock flags) as well as all spring definitions in flat
+ * primitive arrays, indexed by particle ID. This reduces memory usage per
+ * particle several-fold and avoids pointer chasing during the integration &
+ * relaxation loops.
+ * </p>
+ * 
+ * <p>
+ * The integration scheme and spring behaviour is identical to the one of the
+ * standard engine (with gravity, drag and optional world bounds), however
+ * particle specific behaviors & constraints are not supported. Existing
+ * particle based code (e.g. for rendering) can be kept working by using
+ * {@link #readFrom(VerletPhysics3D)} to import an engine's state and
+ * {@link #writeTo(List)} to copy the updated positions back into the original
+ * particle instances.
+ * </p>
+ */
+public class VerletParticleBuffer3D {
+
+    protected static final float EPS = 1e-6f;
+
+    /**
+     * Particle positions
+     */
+    protected float[] x, y, z;
+
+    /**
+     * Previous particle positions
+     */
+    protected float[] prevX, prevY, prevZ;
+
+    /**
+     * Accumulated forces
+     */
+    protected float[] forceX, forceY, forceZ;
+
+    protected float[] weight, invWeight;
+
+    protected boolean[] isLocked;
+
+    protected int numParticles;
+
+    /**
+     * Spring end point particle IDs
+     */
+    protected int[] springA, springB;
+
+    protected float[] restLength, strength;
+
+    protected int numSprings;
+
+    protected int numIterations;
+
+    protected float timeStep;
+
+    protected float drag;
+
+    protected Vec3D gravity;
+    protected Vec3D scaledGravity = new Vec3D();
+
+    protected AABB worldBounds;
+
+    protected ParallelExecutor executor;
+
+    /**
+     * Creates a new buffer with the default engine configuration (no gravity,
+     * 50 iterations, no drag, time step = 1).
+     */
+    public VerletParticleBuffer3D() {
+        this(null, 50, 0, 1);
+    }
+
+    /**
+     * Creates a new buffer with the given configuration.
+     * 
+     * @param gravity
+     *            3D gravity vector (or null)
+     * @param numIterations
+     *            iterations per time step for the spring solver
+     * @param drag
+     *            drag value 0...1
+     * @param timeStep
+     *            time step for calculating forces
+     */
+    public VerletParticleBuffer3D(Vec3D gravity, int numIterations,
+            float drag, float timeStep) {
+        this.numIterations = numIterations;
+        setDrag(drag);
+        setTimeStep(timeStep);
+        setGravity(gravity);
+        allocateParticles(64);
+        allocateSprings(64);
+    }
+
+    /**
+     * Adds a new particle with weight = 1 at the given position.
+     * 
+     * @param p
+     *            position
+     * @return particle ID
+     */
+    public int addParticle(ReadonlyVec3D p) {
+        return addParticle(p.x(), p.y(), p.z(), 1);
+    }
+
+    /**
+     * Adds a new particle at the given position.
+     * 
+     * @param px
+     * @param py
+     * @param pz
+     * @param w
+     *            particle weight
+     * @return particle ID
+     */
+    public int addParticle(float px, float py, float pz, float w) {
+        if (numParticles == x.length) {
+            allocateParticles(numParticles * 2);
+        }
+        int id = numParticles++;
+        x[id] = prevX[id] = px;
+        y[id] = prevY[id] = py;
+        z[id] = prevZ[id] = pz;
+        forceX[id] = forceY[id] = forceZ[id] = 0;
+        setWeight(id, w);
+        isLocked[id] = false;
+        return id;
+    }
+
+    /**
+     * Adds a force to the given particle, which will be applied during the
+     * next update.
+     * 
+     * @param id
+     *            particle ID
+     * @param f
+     *            force vector
+     */
+    public void addForce(int id, ReadonlyVec3D f) {
+        forceX[id] += f.x();
+        forceY[id] += f.y();
+        forceZ[id] += f.z();
+    }
+
+    /**
+     * Adds a spring between the two given particles.
+     * 
+     * @param a
+     *            1st particle ID
+     * @param b
+     *            2nd particle ID
+     * @param len
+     *            rest length
+     * @param str
+     *            spring strength
+     * @return spring ID
+     */
+    public int addSpring(int a, int b, float len, float str) {
+        if (numSprings == springA.length) {
+            allocateSprings(numSprings * 2);
+        }
+        int id = numSprings++;
+        springA[id] = a;
+        springB[id] = b;
+        restLength[id] = len;
+        strength[id] = str;
+        return id;
+    }
+
+    protected void allocateParticles(int size) {
+        x = resize(x, size);
+        y = resize(y, size);
+        z = resize(z, size);
+        prevX = resize(prevX, size);
+        prevY = resize(prevY, size);
+        prevZ = resize(prevZ, size);
+        forceX = resize(forceX, size);
+        forceY = resize(forceY, size);
+        forceZ = resize(forceZ, size);
+        weight = resize(weight, size);
+        invWeight = resize(invWeight, size);
+        boolean[] locks = new boolean[size];
+        if (isLocked != null) {
+            System.arraycopy(isLocked, 0, locks, 0, numParticles);
+        }
+        isLocked = locks;
+    }
+
+    protected void allocateSprings(int size) {
+        int[] sa = new int[size];
+        int[] sb = new int[size];
+        if (springA != null) {
+            System.arraycopy(springA, 0, sa, 0, numSprings);
+            System.arraycopy(springB, 0, sb, 0, numSprings);
+        }
+        springA = sa;
+        springB = sb;
+        restLength = resize(restLength, size);
+        strength = resize(strength, size);
+    }
+
+    /**
+     * Applies the world bounds (if any) to the given range of particles.
+     * 
+     * @param from
+     * @param to
+     */
+    protected void applyConstraints(int from, int to) {
+        if (worldBounds != null) {
+            Vec3D min = worldBounds.getMin();
+            Vec3D max = worldBounds.getMax();
+            for (int i = from; i < to; i++) {
+                x[i] = x[i] < min.x ? min.x : (x[i] > max.x ? max.x : x[i]);
+                y[i] = y[i] < min.y ? min.y : (y[i] > max.y ? max.y : y[i]);
+                z[i] = z[i] < min.z ? min.z : (z[i] > max.z ? max.z : z[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes all particles & springs.
+     * 
+     * @return itself
+     */
+    public VerletParticleBuffer3D clear() {
+        numParticles = 0;
+        numSprings = 0;
+        return this;
+    }
+
+    public float getDrag() {
+        return 1f - drag;
+    }
+
+    /**
+     * @return the executor used to integrate particles (or null)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the gravity vector (or null)
+     */
+    public Vec3D getGravity() {
+        return gravity;
+    }
+
+    /**
+     * @return the numIterations
+     */
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    /**
+     * @return number of particles
+     */
+    public int getNumParticles() {
+        return numParticles;
+    }
+
+    /**
+     * @return number of springs
+     */
+    public int getNumSprings() {
+        return numSprings;
+    }
+
+    /**
+     * Copies the position of the given particle into the result vector.
+     * 
+     * @param id
+     *            particle ID
+     * @param result
+     *            result vector (or null to create a new one)
+     * @return result vector
+     */
+    public Vec3D getPosition(int id, Vec3D result) {
+        if (result == null) {
+            result = new Vec3D();
+        }
+        return result.set(x[id], y[id], z[id]);
+    }
+
+    /**
+     * @return the timeStep
+     */
+    public float getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * @param id
+     *            particle ID
+     * @return particle weight
+     */
+    public float getWeight(int id) {
+        return weight[id];
+    }
+
+    /**
+     * @return the worldBounds
+     */
+    public AABB getWorldBounds() {
+        return worldBounds;
+    }
+
+    /**
+     * @param id
+     *            particle ID
+     * @return true, if particle is locked
+     */
+    public boolean isLocked(int id) {
+        return isLocked[id];
+    }
+
+    /**
+     * Locks/unlocks the given particle in space. Unlocking also clears the
+     * particle's velocity.
+     * 
+     * @param id
+     *            particle ID
+     * @param state
+     *            lock state
+     */
+    public void lock(int id, boolean state) {
+        if (!state) {
+            prevX[id] = x[id];
+            prevY[id] = y[id];
+            prevZ[id] = z[id];
+        }
+        isLocked[id] = state;
+    }
+
+    /**
+     * Replaces the current contents of this buffer with all particles &
+     * springs of the given engine, incl. the engine's configuration (time
+     * step, drag, iterations & world bounds). Particle IDs will match the
+     * order of the engine's particle list. Springs attached to particles not
+     * managed by the engine are ignored. Global behaviors, constraints and
+     * specialized spring types are not taken into account.
+     * 
+     * @param physics
+     *            engine to import
+     * @return itself
+     */
+    public VerletParticleBuffer3D readFrom(VerletPhysics3D physics) {
+        clear();
+        numIterations = physics.getNumIterations();
+        setDrag(physics.getDrag());
+        setTimeStep(physics.getTimeStep());
+        setWorldBounds(physics.getWorldBounds());
+        int num = physics.particles.size();
+        if (num > x.length) {
+            allocateParticles(num);
+        }
+        IdentityHashMap<VerletParticle3D, Integer> ids = new IdentityHashMap<VerletParticle3D, Integer>();
+        for (VerletParticle3D p : physics.particles) {
+            int id = addParticle(p.x, p.y, p.z, p.getWeight());
+            Vec3D prev = p.getPreviousPosition();
+            prevX[id] = prev.x;
+            prevY[id] = prev.y;
+            prevZ[id] = prev.z;
+            isLocked[id] = p.isLocked();
+            ids.put(p, id);
+        }
+        if (physics.springs.size() > springA.length) {
+            allocateSprings(physics.springs.size());
+        }
+        for (VerletSpring3D s : physics.springs) {
+            Integer a = ids.get(s.a);
+            Integer b = ids.get(s.b);
+            if (a != null && b != null) {
+                addSpring(a, b, s.getRestLength(), s.getStrength());
+            }
+        }
+        return this;
+    }
+
+    protected float[] resize(float[] buf, int size) {
+        float[] result = new float[size];
+        if (buf != null) {
+            System.arraycopy(buf, 0, result, 0, Math.min(buf.length, size));
+        }
+        return result;
+    }
+
+    public void setDrag(float drag) {
+        this.drag = 1f - drag;
+    }
+
+    /**
+     * Sets the executor used to integrate particles in parallel. Springs are
+     * always relaxed sequentially.
+     * 
+     * @param executor
+     *            executor or null, to disable
+     * @return itself
+     */
+    public VerletParticleBuffer3D setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the gravity vector applied to all particles. Like
+     * {@link toxi.physics3d.behaviors.GravityBehavior3D}, the force is scaled
+     * by the squared time step.
+     * 
+     * @param gravity
+     *            gravity vector or null
+     * @return itself
+     */
+    public VerletParticleBuffer3D setGravity(Vec3D gravity) {
+        this.gravity = gravity;
+        if (gravity != null) {
+            scaledGravity = gravity.scale(timeStep * timeStep);
+        } else {
+            scaledGravity.clear();
+        }
+        return this;
+    }
+
+    /**
+     * @param numIterations
+     *            the numIterations to set
+     */
+    public void setNumIterations(int numIterations) {
+        this.numIterations = numIterations;
+    }
+
+    /**
+     * Moves the given particle to a new position, without changing its
+     * velocity.
+     * 
+     * @param id
+     *            particle ID
+     * @param p
+     *            new position
+     */
+    public void setPosition(int id, ReadonlyVec3D p) {
+        prevX[id] += p.x() - x[id];
+        prevY[id] += p.y() - y[id];
+        prevZ[id] += p.z() - z[id];
+        x[id] = p.x();
+        y[id] = p.y();
+        z[id] = p.z();
+    }
+
+    /**
+     * @param timeStep
+     *            the timeStep to set
+     */
+    public void setTimeStep(float timeStep) {
+        this.timeStep = timeStep;
+        setGravity(gravity);
+    }
+
+    /**
+     * Sets the weight of the given particle.
+     * 
+     * @param id
+     *            particle ID
+     * @param w
+     *            new weight
+     */
+    public void setWeight(int id, float w) {
+        weight[id] = w;
+        invWeight[id] = 1f / w;
+    }
+
+    /**
+     * @param world
+     *            bounding box or null
+     * @return itself
+     */
+    public VerletParticleBuffer3D setWorldBounds(AABB world) {
+        worldBounds = world;
+        return this;
+    }
+
+    /**
+     * Progresses the simulation by 1 time step.
+     * 
+     * @return itself
+     */
+    public VerletParticleBuffer3D update() {
+        if (executor != null) {
+            executor.forRange(0, numParticles, new RangeTask() {
+
+                public void process(int from, int to) {
+                    updateParticles(from, to);
+                }
+            });
+        } else {
+            updateParticles(0, numParticles);
+        }
+        updateSprings();
+        if (executor != null) {
+            executor.forRange(0, numParticles, new RangeTask() {
+
+                public void process(int from, int to) {
+                    applyConstraints(from, to);
+                }
+            });
+        } else {
+            applyConstraints(0, numParticles);
+        }
+        return this;
+    }
+
+    /**
+     * Applies gravity & drag and integrates the given range of particles.
+     * 
+     * @param from
+     * @param to
+     */
+    protected void updateParticles(int from, int to) {
+        final float gx = scaledGravity.x;
+        final float gy = scaledGravity.y;
+        final float gz = scaledGravity.z;
+        final float damp = 1f - drag;
+        for (int i = from; i < to; i++) {
+            float px = x[i], py = y[i], pz = z[i];
+            float ox = prevX[i], oy = prevY[i], oz = prevZ[i];
+            ox += (px - ox) * damp;
+            oy += (py - oy) * damp;
+            oz += (pz - oz) * damp;
+            if (!isLocked[i]) {
+                float w = weight[i];
+                x[i] = px + (px - ox) + (forceX[i] + gx) * w;
+                y[i] = py + (py - oy) + (forceY[i] + gy) * w;
+                z[i] = pz + (pz - oz) + (forceZ[i] + gz) * w;
+                prevX[i] = px;
+                prevY[i] = py;
+                prevZ[i] = pz;
+                forceX[i] = forceY[i] = forceZ[i] = 0;
+            } else {
+                prevX[i] = ox;
+                prevY[i] = oy;
+                prevZ[i] = oz;
+            }
+        }
+    }
+
+    /**
+     * Relaxes all springs using the configured number of iterations.
+     */
+    protected void updateSprings() {
+        for (int k = numIterations; k > 0; k--) {
+            for (int i = 0; i < numSprings; i++) {
+                int a = springA[i];
+                int b = springB[i];
+                float dx = x[b] - x[a];
+                float dy = y[b] - y[a];
+                float dz = z[b] - z[a];
+                float dist = (float) Math.sqrt(dx * dx + dy * dy + dz * dz)
+                        + EPS;
+                float iwa = invWeight[a];
+                float iwb = invWeight[b];
+                float normDistStrength = (dist - restLength[i])
+                        / (dist * (iwa + iwb)) * strength[i];
+                if (!isLocked[a]) {
+                    float s = normDistStrength * iwa;
+                    x[a] += dx * s;
+                    y[a] += dy * s;
+                    z[a] += dz * s;
+                }
+                if (!isLocked[b]) {
+                    float s = -normDistStrength * iwb;
+                    x[b] += dx * s;
+                    y[b] += dy * s;
+                    z[b] += dz * s;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the current & previous positions of all particles back into the
+     * given list of particles, e.g. the particle list of the engine used with
+     * {@link #readFrom(VerletPhysics3D)}. The list is expected to be in the
+     * same order as the particle IDs.
+     * 
+     * @param particles
+     *            target particles
+     * @return itself
+     */
+    public VerletParticleBuffer3D writeTo(List<VerletParticle3D> particles) {
+        int num = Math.min(numParticles, particles.size());
+        for (int i = 0; i < num; i++) {
+            VerletParticle3D p = particles.get(i);
+            p.set(x[i], y[i], z[i]);
+            p.prev.set(prevX[i], prevY[i], prevZ[i]);
+        }
+        return this;
+    }
+}
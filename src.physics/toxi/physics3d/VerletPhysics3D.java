@@ -28,20 +28,40 @@
 package toxi.physics3d;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 
 import toxi.geom.AABB;
+import toxi.geom.SpatialIndex;
 import toxi.geom.Vec3D;
 import toxi.physics3d.behaviors.GravityBehavior3D;
 import toxi.physics3d.behaviors.ParticleBehavior3D;
 import toxi.physics3d.constraints.ParticleConstraint3D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 
 /**
  * 3D particle physics engine using Verlet integration based on:
  * http://en.wikipedia.org/wiki/Verlet_integration
  * http://www.teknikus.dk/tj/gdc2001.htm
  * 
+ * <p>
+ * If a {@link ParallelExecutor} is assigned via
+ * {@link #setExecutor(ParallelExecutor)}, the engine switches to a parallel
+ * solver mode: Particle integration and constraints are processed in chunks
+ * across all worker threads and springs are relaxed in batches of springs
+ * which don't share any particles (computed via greedy graph coloring). All
+ * behaviors & constraints used in this mode must be thread safe. Since each
+ * batch only contains independent springs, the result does not depend on
+ * thread scheduling, however the relaxation order differs from the
+ * sequential solver. If behaviors rely on the shared
+ * {@link toxi.math.MathUtils#RND} generator (e.g. jitter), use
+ * {@link #setDeterministic(boolean)} to evaluate behaviors on the calling
+ * thread only and so keep runs reproducible.
+ * </p>
  */
 public class VerletPhysics3D {
 
@@ -91,6 +111,41 @@ public class VerletPhysics3D {
 
     protected float drag;
 
+    /**
+     * Optional spatial index used by behaviors with a limited radius of effect
+     * to only process particles in their vicinity. The index is rebuilt at the
+     * end of each {@link #update()}.
+     */
+    protected SpatialIndex<Vec3D> index;
+
+    /**
+     * Optional executor to enable the parallel solver mode
+     */
+    protected ParallelExecutor executor;
+
+    /**
+     * Flag, if behaviors are always applied sequentially in parallel mode
+     */
+    protected boolean isDeterministic;
+
+    /**
+     * Spring batches used in parallel mode, each containing only springs
+     * without any shared particles
+     */
+    protected VerletSpring3D[][] springBatches;
+
+    /**
+     * Maps particles to their attached springs for fast spring lookups &
+     * duplicate checks. Particles are compared by identity.
+     */
+    protected final IdentityHashMap<VerletParticle3D, List<VerletSpring3D>> springIndex = new IdentityHashMap<VerletParticle3D, List<VerletSpring3D>>();
+
+    /**
+     * Number of springs currently stored in the index. Used to detect springs
+     * added/removed directly via the public {@link #springs} list.
+     */
+    protected int numIndexedSprings;
+
     /**
      * Initializes a Verlet engine instance using the default values.
      */
@@ -151,17 +206,63 @@ public class VerletPhysics3D {
     public VerletPhysics3D addSpring(VerletSpring3D s) {
         if (getSpring(s.a, s.b) == null) {
             springs.add(s);
+            indexSpring(s);
+            springBatches = null;
         }
         return this;
     }
 
+    /**
+     * Adds all springs of the given collection without checking for already
+     * existing springs between the same particles. Only use this method if the
+     * caller can guarantee that all springs are unique.
+     * 
+     * @param coll
+     *            springs to add
+     * @return itself
+     */
+    public VerletPhysics3D addSprings(Collection<? extends VerletSpring3D> coll) {
+        if (numIndexedSprings != springs.size()) {
+            rebuildSpringIndex();
+        }
+        springs.addAll(coll);
+        for (VerletSpring3D s : coll) {
+            indexSpring(s);
+        }
+        springBatches = null;
+        return this;
+    }
+
     /**
      * Applies all global constraints and constrains all particle positions to
      * the world bounding box set
      */
     protected void applyConstaints() {
+        if (executor != null) {
+            executor.forRange(0, particles.size(), new RangeTask() {
+
+                public void process(int from, int to) {
+                    applyConstraints(from, to);
+                }
+            });
+        } else {
+            applyConstraints(0, particles.size());
+        }
+    }
+
+    /**
+     * Applies all global constraints and the world bounding box to the given
+     * index range of particles.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     */
+    protected void applyConstraints(int from, int to) {
         boolean hasGlobalConstraints = constraints.size() > 0;
-        for (VerletParticle3D p : particles) {
+        for (int i = from; i < to; i++) {
+            VerletParticle3D p = particles.get(i);
             if (hasGlobalConstraints) {
                 for (ParticleConstraint3D c : constraints) {
                     c.apply(p);
@@ -181,9 +282,50 @@ public class VerletPhysics3D {
         constraints.clear();
         particles.clear();
         springs.clear();
+        springBatches = null;
+        springIndex.clear();
+        numIndexedSprings = 0;
         return this;
     }
 
+    /**
+     * Partitions all springs into batches of springs not sharing any
+     * particles, using a greedy graph coloring approach. Springs within a
+     * single batch can be safely updated in parallel.
+     * 
+     * @return spring batches
+     */
+    protected VerletSpring3D[][] computeSpringBatches() {
+        IdentityHashMap<VerletParticle3D, BitSet> colors = new IdentityHashMap<VerletParticle3D, BitSet>();
+        List<List<VerletSpring3D>> batches = new ArrayList<List<VerletSpring3D>>();
+        for (VerletSpring3D s : springs) {
+            BitSet ca = colors.get(s.a);
+            if (ca == null) {
+                colors.put(s.a, ca = new BitSet());
+            }
+            BitSet cb = colors.get(s.b);
+            if (cb == null) {
+                colors.put(s.b, cb = new BitSet());
+            }
+            int c = 0;
+            while (ca.get(c) || cb.get(c)) {
+                c++;
+            }
+            ca.set(c);
+            cb.set(c);
+            if (c == batches.size()) {
+                batches.add(new ArrayList<VerletSpring3D>());
+            }
+            batches.get(c).add(s);
+        }
+        VerletSpring3D[][] result = new VerletSpring3D[batches.size()][];
+        for (int i = 0; i < result.length; i++) {
+            List<VerletSpring3D> b = batches.get(i);
+            result[i] = b.toArray(new VerletSpring3D[b.size()]);
+        }
+        return result;
+    }
+
     public AABB getCurrentBounds() {
         Vec3D min = new Vec3D(Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE);
         Vec3D max = new Vec3D(Float.MIN_VALUE, Float.MIN_VALUE, Float.MIN_VALUE);
@@ -199,6 +341,21 @@ public class VerletPhysics3D {
         return 1f - drag;
     }
 
+    /**
+     * @return the executor used for the parallel solver mode (or null, if
+     *         disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the index
+     */
+    public SpatialIndex<Vec3D> getIndex() {
+        return index;
+    }
+
     /**
      * @return the numIterations
      */
@@ -206,6 +363,30 @@ public class VerletPhysics3D {
         return numIterations;
     }
 
+    protected void indexSpring(VerletSpring3D s) {
+        indexSpringFor(s.a, s);
+        if (s.b != s.a) {
+            indexSpringFor(s.b, s);
+        }
+        numIndexedSprings++;
+    }
+
+    private void indexSpringFor(VerletParticle3D p, VerletSpring3D s) {
+        List<VerletSpring3D> attached = springIndex.get(p);
+        if (attached == null) {
+            attached = new ArrayList<VerletSpring3D>(4);
+            springIndex.put(p, attached);
+        }
+        attached.add(s);
+    }
+
+    /**
+     * @return true, if behaviors are always applied on the calling thread
+     */
+    public boolean isDeterministic() {
+        return isDeterministic;
+    }
+
     /**
      * Attempts to find the spring element between the 2 particles supplied
      * 
@@ -216,9 +397,15 @@ public class VerletPhysics3D {
      * @return spring instance, or null if not found
      */
     public VerletSpring3D getSpring(Vec3D a, Vec3D b) {
-        for (VerletSpring3D s : springs) {
-            if ((s.a == a && s.b == b) || (s.a == b && s.b == a)) {
-                return s;
+        if (numIndexedSprings != springs.size()) {
+            rebuildSpringIndex();
+        }
+        List<VerletSpring3D> attached = springIndex.get(a);
+        if (attached != null) {
+            for (VerletSpring3D s : attached) {
+                if ((s.a == a && s.b == b) || (s.a == b && s.b == a)) {
+                    return s;
+                }
             }
         }
         return null;
@@ -238,6 +425,18 @@ public class VerletPhysics3D {
         return worldBounds;
     }
 
+    /**
+     * Rebuilds the particle/spring index from scratch. Only needed if the
+     * {@link #springs} list has been modified directly.
+     */
+    protected void rebuildSpringIndex() {
+        springIndex.clear();
+        numIndexedSprings = 0;
+        for (VerletSpring3D s : springs) {
+            indexSpring(s);
+        }
+    }
+
     public boolean removeBehavior(ParticleBehavior3D b) {
         return behaviors.remove(b);
     }
@@ -265,7 +464,12 @@ public class VerletPhysics3D {
      * @return true, if the spring has been removed
      */
     public boolean removeSpring(VerletSpring3D s) {
-        return springs.remove(s);
+        if (springs.remove(s)) {
+            springBatches = null;
+            unindexSpring(s);
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -283,10 +487,50 @@ public class VerletPhysics3D {
         return false;
     }
 
+    /**
+     * Enables/disables the deterministic parallel mode. If enabled, all
+     * particle behaviors are applied sequentially on the calling thread, so
+     * behaviors using shared random number generators produce reproducible
+     * results. Has no effect if no executor is used.
+     * 
+     * @param state
+     * @return itself
+     */
+    public VerletPhysics3D setDeterministic(boolean state) {
+        isDeterministic = state;
+        return this;
+    }
+
     public void setDrag(float drag) {
         this.drag = 1f - drag;
     }
 
+    /**
+     * Sets the executor to use for the parallel solver mode. The executor can
+     * be shared with other engines/tasks and is NOT shut down by this class.
+     * 
+     * @param executor
+     *            executor instance or null to use the sequential solver
+     * @return itself
+     */
+    public VerletPhysics3D setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Sets the spatial index to use for behaviors supporting it, e.g. a
+     * {@link toxi.geom.SpatialGrid3D} covering the simulation space. The index
+     * is populated with all current particles immediately.
+     * 
+     * @param index
+     *            the index to set (or null to disable)
+     */
+    public void setIndex(SpatialIndex<Vec3D> index) {
+        this.index = index;
+        updateIndex();
+    }
+
     /**
      * @param numIterations
      *            the numIterations to set
@@ -317,6 +561,24 @@ public class VerletPhysics3D {
         return this;
     }
 
+    protected void unindexSpring(VerletSpring3D s) {
+        unindexSpringFor(s.a, s);
+        if (s.b != s.a) {
+            unindexSpringFor(s.b, s);
+        }
+        numIndexedSprings--;
+    }
+
+    private void unindexSpringFor(VerletParticle3D p, VerletSpring3D s) {
+        List<VerletSpring3D> attached = springIndex.get(p);
+        if (attached != null) {
+            attached.remove(s);
+            if (attached.size() == 0) {
+                springIndex.remove(p);
+            }
+        }
+    }
+
     /**
      * Progresses the physics simulation by 1 time step and updates all forces
      * and particle positions accordingly
@@ -327,16 +589,37 @@ public class VerletPhysics3D {
         updateParticles();
         updateSprings();
         applyConstaints();
+        updateIndex();
         return this;
     }
 
+    /**
+     * Rebuilds the spatial index (if any) with the current particle positions.
+     */
+    protected void updateIndex() {
+        if (index != null) {
+            index.clear();
+            for (VerletParticle3D p : particles) {
+                index.index(p);
+            }
+        }
+    }
+
     /**
      * Updates all particle positions
      */
     protected void updateParticles() {
+        if (executor != null) {
+            updateParticlesParallel();
+            return;
+        }
         for (ParticleBehavior3D b : behaviors) {
-            for (VerletParticle3D p : particles) {
-                b.apply(p);
+            if (index != null && b.supportsSpatialIndex()) {
+                b.applyWithIndex(index);
+            } else {
+                for (VerletParticle3D p : particles) {
+                    b.apply(p);
+                }
             }
         }
         for (VerletParticle3D p : particles) {
@@ -345,10 +628,65 @@ public class VerletPhysics3D {
         }
     }
 
+    /**
+     * Parallel version of {@link #updateParticles()}. First accumulates the
+     * forces of all behaviors (incl. particle specific ones) for all particles,
+     * then integrates all particles. Both phases are processed in chunks of
+     * particles.
+     */
+    protected void updateParticlesParallel() {
+        final List<ParticleBehavior3D> localBehaviors = new ArrayList<ParticleBehavior3D>(
+                behaviors.size());
+        for (ParticleBehavior3D b : behaviors) {
+            if (index != null && b.supportsSpatialIndex()) {
+                b.applyWithIndex(index);
+            } else {
+                localBehaviors.add(b);
+            }
+        }
+        final int numParticles = particles.size();
+        RangeTask applyBehaviors = new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    VerletParticle3D p = particles.get(i);
+                    for (ParticleBehavior3D b : localBehaviors) {
+                        b.apply(p);
+                    }
+                    if (!p.isLocked) {
+                        p.applyBehaviors();
+                    }
+                }
+            }
+        };
+        if (isDeterministic) {
+            applyBehaviors.process(0, numParticles);
+        } else {
+            executor.forRange(0, numParticles, applyBehaviors);
+        }
+        executor.forRange(0, numParticles, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    VerletParticle3D p = particles.get(i);
+                    p.scaleVelocity(drag);
+                    if (!p.isLocked) {
+                        p.applyForce();
+                        p.applyConstraints();
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Updates all spring connections based on new particle positions
      */
     protected void updateSprings() {
+        if (executor != null) {
+            updateSpringsParallel();
+            return;
+        }
         if (springs.size() > 0) {
             for (int i = numIterations; i > 0; i--) {
                 for (VerletSpring3D s : springs) {
@@ -357,4 +695,35 @@ public class VerletPhysics3D {
             }
         }
     }
+
+    /**
+     * Parallel version of {@link #updateSprings()}, relaxing independent
+     * spring batches concurrently.
+     */
+    protected void updateSpringsParallel() {
+        if (springs.size() > 0) {
+            int numBatched = 0;
+            if (springBatches != null) {
+                for (VerletSpring3D[] batch : springBatches) {
+                    numBatched += batch.length;
+                }
+            }
+            if (numBatched != springs.size()) {
+                springBatches = computeSpringBatches();
+            }
+            for (int i = numIterations; i > 0; i--) {
+                final boolean applyConstraints = (i == 1);
+                for (final VerletSpring3D[] batch : springBatches) {
+                    executor.forRange(0, batch.length, new RangeTask() {
+
+                        public void process(int from, int to) {
+                            for (int j = from; j < to; j++) {
+                                batch[j].update(applyConstraints);
+                            }
+                        }
+                    });
+                }
+            }
+        }
+    }
 }
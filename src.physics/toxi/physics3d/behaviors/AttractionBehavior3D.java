@@ -27,6 +27,9 @@
 
 package toxi.physics3d.behaviors;
 
+import java.util.List;
+
+import toxi.geom.SpatialIndex;
 import toxi.geom.Vec3D;
 import toxi.physics3d.VerletParticle3D;
 
@@ -62,6 +65,16 @@ public class AttractionBehavior3D implements ParticleBehavior3D {
         }
     }
 
+    public void applyWithIndex(SpatialIndex<Vec3D> index) {
+        List<Vec3D> selection = index.itemsWithinRadius(attractor, radius,
+                null);
+        if (selection != null) {
+            for (Vec3D p : selection) {
+                apply((VerletParticle3D) p);
+            }
+        }
+    }
+
     public void configure(float timeStep) {
         this.timeStep = timeStep;
         setStrength(strength);
@@ -124,4 +137,8 @@ public class AttractionBehavior3D implements ParticleBehavior3D {
         this.strength = strength;
         this.attrStrength = strength * timeStep;
     }
+
+    public boolean supportsSpatialIndex() {
+        return true;
+    }
 }
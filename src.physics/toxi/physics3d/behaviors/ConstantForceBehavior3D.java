@@ -27,6 +27,7 @@
 
 package toxi.physics3d.behaviors;
 
+import toxi.geom.SpatialIndex;
 import toxi.geom.Vec3D;
 import toxi.physics3d.VerletParticle3D;
 
@@ -44,6 +45,10 @@ public class ConstantForceBehavior3D implements ParticleBehavior3D {
         p.addForce(scaledForce);
     }
 
+    public void applyWithIndex(SpatialIndex<Vec3D> index) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
     public void configure(float timeStep) {
         this.timeStep = timeStep;
         setForce(force);
@@ -64,4 +69,8 @@ public class ConstantForceBehavior3D implements ParticleBehavior3D {
         this.force = force;
         scaledForce = force.scale(timeStep);
     }
+
+    public boolean supportsSpatialIndex() {
+        return false;
+    }
 }
@@ -27,6 +27,8 @@
 
 package toxi.physics3d.behaviors;
 
+import toxi.geom.SpatialIndex;
+import toxi.geom.Vec3D;
 import toxi.physics3d.VerletParticle3D;
 
 public interface ParticleBehavior3D {
@@ -40,5 +42,21 @@ public interface ParticleBehavior3D {
      */
     public void apply(VerletParticle3D p);
 
+    /**
+     * Applies the behavior only to the particles selected via the given
+     * spatial index. Only called if {@link #supportsSpatialIndex()} returns
+     * true.
+     * 
+     * @param index
+     *            particle index
+     */
+    public void applyWithIndex(SpatialIndex<Vec3D> index);
+
     public void configure(float timeStep);
+
+    /**
+     * @return true, if the behavior has a limited area of effect and can make
+     *         use of a spatial index to preselect affected particles
+     */
+    public boolean supportsSpatialIndex();
 }
@@ -31,8 +31,17 @@ import java.util.ArrayList;
 import java.util.List;
 
 import toxi.math.MathUtils;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 import toxi.util.datatypes.ArrayUtil;
 
+/**
+ * Life-like 2D automata rule using birth & survival rules for a 3x3
+ * neighbourhood (Moore neighbourhood). If an executor is set, matrices are
+ * evolved in parallel using stripes of rows. Binary rules (state count = 2)
+ * evolve {@link PackedCAMatrix} instances using bit-sliced neighbour counting
+ * of 64 cells at once.
+ */
 public class CARule2D implements CARule {
 
     public static final byte[] booleanToByteArray(boolean[] kernel) {
@@ -61,6 +70,8 @@ public class CARule2D implements CARule {
     protected boolean isTiling;
     protected boolean isAutoExpire;
 
+    protected ParallelExecutor executor;
+
     public CARule2D(byte[] brules, byte[] srules, int st, boolean tiled) {
         birthRules = new boolean[9];
         setBirthRules(brules);
@@ -71,12 +82,15 @@ public class CARule2D implements CARule {
     }
 
     public void evolve(EvolvableMatrix m) {
-        int width = m.getWidth();
-        int height = m.getHeight();
-        int[] matrix = m.getMatrix();
-        int[] temp = m.getSwapBuffer();
-        int maxState = stateCount - 1;
-        int x1, x2, y1, y2;
+        if (m instanceof PackedCAMatrix && stateCount == 2) {
+            evolvePacked((PackedCAMatrix) m);
+            return;
+        }
+        final int width = m.getWidth();
+        final int height = m.getHeight();
+        final int[] matrix = m.getMatrix();
+        final int[] temp = m.getSwapBuffer();
+        final int x1, x2, y1, y2;
         if (isTiling) {
             x1 = 0;
             x2 = width;
@@ -88,6 +102,153 @@ public class CARule2D implements CARule {
             y1 = 1;
             y2 = height - 1;
         }
+        run(y1, y2, new RangeTask() {
+
+            public void process(int from, int to) {
+                evolveRows(matrix, temp, width, height, x1, x2, from, to);
+            }
+        });
+    }
+
+    /**
+     * Evolves a binary matrix in its packed form. Each row is processed in
+     * words of 64 cells, with the 8 neighbour states of all cells summed up
+     * in parallel using a bit-sliced adder network (resulting in 4 bit planes
+     * of neighbour counts).
+     * 
+     * @param m
+     *            packed matrix
+     */
+    public void evolvePacked(final PackedCAMatrix m) {
+        final int height = m.getHeight();
+        final long[] bits = m.getBits();
+        final long[] next = m.getSwapBits();
+        // lookup tables: next state of alive & dead cells for each count
+        final boolean[] alive = new boolean[9];
+        final boolean[] born = new boolean[9];
+        for (int i = 0; i < 9; i++) {
+            alive[i] = survivalRules[i] && !isAutoExpire;
+            born[i] = birthRules[i];
+        }
+        int y1 = 0, y2 = height;
+        if (!isTiling) {
+            // border cells remain unchanged
+            int stride = m.getStride();
+            y1 = 1;
+            y2 = height - 1;
+            System.arraycopy(bits, 0, next, 0, stride);
+            if (height > 1) {
+                System.arraycopy(bits, (height - 1) * stride, next,
+                        (height - 1) * stride, stride);
+            }
+        }
+        run(y1, y2, new RangeTask() {
+
+            public void process(int from, int to) {
+                evolvePackedRows(bits, next, m, alive, born, from, to);
+            }
+        });
+    }
+
+    private void evolvePackedRows(long[] bits, long[] next, PackedCAMatrix m,
+            boolean[] alive, boolean[] born, int from, int to) {
+        final int width = m.getWidth();
+        final int height = m.getHeight();
+        final int stride = m.getStride();
+        final int last = stride - 1;
+        final int lastBit = (width - 1) & 63;
+        final long lastMask = m.getLastWordMask();
+        for (int y = from; y < to; y++) {
+            int up = (y > 0 ? y - 1 : height - 1) * stride;
+            int centre = y * stride;
+            int down = (y < height - 1 ? y + 1 : 0) * stride;
+            // wrapped cells for the left/right neighbours of the row edges
+            long wrapUp = 0, wrapCentre = 0, wrapDown = 0;
+            long firstUp = 0, firstCentre = 0, firstDown = 0;
+            if (isTiling) {
+                wrapUp = (bits[up + last] >>> lastBit) & 1;
+                wrapCentre = (bits[centre + last] >>> lastBit) & 1;
+                wrapDown = (bits[down + last] >>> lastBit) & 1;
+                firstUp = bits[up] & 1;
+                firstCentre = bits[centre] & 1;
+                firstDown = bits[down] & 1;
+            }
+            for (int w = 0; w < stride; w++) {
+                long a = bits[up + w];
+                long b = bits[centre + w];
+                long c = bits[down + w];
+                long aL, bL, cL, aR, bR, cR;
+                // left neighbours: cell x-1 moved to bit of x
+                if (w > 0) {
+                    aL = (a << 1) | (bits[up + w - 1] >>> 63);
+                    bL = (b << 1) | (bits[centre + w - 1] >>> 63);
+                    cL = (c << 1) | (bits[down + w - 1] >>> 63);
+                } else {
+                    aL = (a << 1) | wrapUp;
+                    bL = (b << 1) | wrapCentre;
+                    cL = (c << 1) | wrapDown;
+                }
+                // right neighbours: cell x+1 moved to bit of x
+                if (w < last) {
+                    aR = (a >>> 1) | (bits[up + w + 1] << 63);
+                    bR = (b >>> 1) | (bits[centre + w + 1] << 63);
+                    cR = (c >>> 1) | (bits[down + w + 1] << 63);
+                } else {
+                    aR = (a >>> 1) | (firstUp << lastBit);
+                    bR = (b >>> 1) | (firstCentre << lastBit);
+                    cR = (c >>> 1) | (firstDown << lastBit);
+                }
+                // bit-sliced sum of all 8 neighbours
+                long x = aL ^ a;
+                long s1 = x ^ aR;
+                long c1 = (aL & a) | (aR & x);
+                x = cL ^ c;
+                long s2 = x ^ cR;
+                long c2 = (cL & c) | (cR & x);
+                long s3 = bL ^ bR;
+                long c3 = bL & bR;
+                x = s1 ^ s2;
+                long bit0 = x ^ s3;
+                long k1 = (s1 & s2) | (s3 & x);
+                x = c1 ^ c2;
+                long t = x ^ c3;
+                long k2 = (c1 & c2) | (c3 & x);
+                long bit1 = t ^ k1;
+                long k3 = t & k1;
+                long bit2 = k2 ^ k3;
+                long bit3 = k2 & k3;
+                long result = 0;
+                for (int n = 0; n < 9; n++) {
+                    if (alive[n] || born[n]) {
+                        long eq = ((n & 1) != 0 ? bit0 : ~bit0)
+                                & ((n & 2) != 0 ? bit1 : ~bit1)
+                                & ((n & 4) != 0 ? bit2 : ~bit2)
+                                & ((n & 8) != 0 ? bit3 : ~bit3);
+                        if (alive[n]) {
+                            result |= eq & b;
+                        }
+                        if (born[n]) {
+                            result |= eq & ~b;
+                        }
+                    }
+                }
+                if (w == last) {
+                    result &= lastMask;
+                }
+                if (!isTiling) {
+                    // keep left & right border cells
+                    long border = (w == 0 ? 1L : 0)
+                            | (w == last ? 1L << lastBit : 0);
+                    result = (result & ~border) | (b & border);
+                }
+                next[centre + w] = result;
+            }
+        }
+    }
+
+    private void evolveRows(int[] matrix, int[] temp, int width, int height,
+            int x1, int x2, int y1, int y2) {
+        int maxState = stateCount - 1;
         for (int y = y1; y < y2; y++) {
             // determine up and down cell indices
             int up = (y > 0 ? y - 1 : height - 1) * width;
@@ -150,6 +311,13 @@ public class CARule2D implements CARule {
         return booleanToByteArray(birthRules);
     }
 
+    /**
+     * @return the executor used for the parallel mode (or null, if disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
     public int getStateCount() {
         return stateCount;
     }
@@ -184,6 +352,18 @@ public class CARule2D implements CARule {
         setRuleArray(randomArray(randomSurvivalChance), survivalRules);
     }
 
+    /**
+     * Processes the given row range, either directly or in parallel if an
+     * executor is set.
+     */
+    protected final void run(int min, int max, RangeTask task) {
+        if (executor != null) {
+            executor.forRange(min, max, task);
+        } else {
+            task.process(min, max);
+        }
+    }
+
     public void setAutoExpire(boolean state) {
         this.isAutoExpire = state;
     }
@@ -192,6 +372,18 @@ public class CARule2D implements CARule {
         setRuleArray(b, birthRules);
     }
 
+    /**
+     * Sets the executor to use for evolving matrices in parallel. The
+     * executor can be shared with other engines/tasks and is NOT shut down by
+     * this class.
+     * 
+     * @param executor
+     *            executor instance or null to evolve single threaded
+     */
+    public void setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
+
     public void setRandomProbabilities(float birth, float survival) {
         randomBirthChance = birth;
         randomSurvivalChance = survival;
@@ -0,0 +1,371 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.sim.automata;
+
+import toxi.math.MathUtils;
+
+/**
+ * A memory efficient, binary 2D cellular automata matrix, storing 64 cells per
+ * <code>long</code>. Each row starts at a new word and unused bits of the last
+ * word of a row are always zero. Binary {@link CARule2D} instances evolve this
+ * matrix directly in its packed form (see
+ * {@link CARule2D#evolvePacked(PackedCAMatrix)}), all other
+ * {@link MatrixEvolver}s are supported via unpacked <code>int[]</code> copies
+ * of the matrix, which are only allocated when needed. Cells with any state
+ * &gt; 0 are considered alive.
+ */
+public class PackedCAMatrix implements EvolvableMatrix {
+
+    protected int width, height;
+    protected int stride;
+    protected long lastWordMask;
+
+    protected long[] bits, swapBits;
+
+    protected int[] matrix, swap;
+    protected boolean isUnpacked;
+
+    protected CARule rule;
+
+    protected int generation;
+
+    /**
+     * Creates a new instance of the given width & height.
+     * 
+     * @param w
+     * @param h
+     */
+    public PackedCAMatrix(int w, int h) {
+        width = w;
+        height = h;
+        stride = (w + 63) >>> 6;
+        int lastBits = w & 63;
+        lastWordMask = lastBits == 0 ? -1L : (1L << lastBits) - 1;
+        bits = new long[stride * h];
+        swapBits = new long[stride * h];
+    }
+
+    /**
+     * Adds noise to the matrix. Cells are set alive with the given
+     * probability.
+     * 
+     * @param probability
+     * @return itself
+     */
+    public PackedCAMatrix addNoise(float probability) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (MathUtils.randomChance(probability)) {
+                    setBit(x, y, true);
+                }
+            }
+        }
+        isUnpacked = false;
+        return this;
+    }
+
+    /**
+     * Sets all matrix cells in a square around the given x,y coordinates to the
+     * requested state.
+     * 
+     * @param x
+     *            box center x
+     * @param y
+     *            box center y
+     * @param w
+     *            box width
+     * @param state
+     *            target state
+     * @return itself
+     */
+    public PackedCAMatrix drawBoxAt(int x, int y, int w, int state) {
+        for (int i = y - w / 2; i < y + w / 2; i++) {
+            for (int j = x - w / 2; j < x + w / 2; j++) {
+                if (j >= 0 && j < width && i >= 0 && i < height) {
+                    setBit(j, i, state > 0);
+                }
+            }
+        }
+        isUnpacked = false;
+        return this;
+    }
+
+    /**
+     * @return the packed cell states of the current generation
+     */
+    public final long[] getBits() {
+        return bits;
+    }
+
+    public final int getGeneration() {
+        return generation;
+    }
+
+    public final int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return bit mask of the used bits in the last word of each row
+     */
+    public final long getLastWordMask() {
+        return lastWordMask;
+    }
+
+    /**
+     * Returns an unpacked copy of the matrix, using one int (0 or 1) per cell.
+     * The array is allocated on first use and only updated when the packed
+     * state has changed since the last call.
+     * 
+     * @return unpacked matrix
+     */
+    public int[] getMatrix() {
+        if (matrix == null) {
+            matrix = new int[width * height];
+        }
+        if (!isUnpacked) {
+            unpack(bits, matrix);
+            isUnpacked = true;
+        }
+        return matrix;
+    }
+
+    /**
+     * Counts the number of alive cells.
+     * 
+     * @return population size
+     */
+    public int getPopulation() {
+        int num = 0;
+        for (int i = 0; i < bits.length; i++) {
+            num += Long.bitCount(bits[i]);
+        }
+        return num;
+    }
+
+    /**
+     * @return the rule instance
+     */
+    public final MatrixEvolver getRule() {
+        return rule;
+    }
+
+    /**
+     * Returns the state of the cell at x,y (0 or 1).
+     * 
+     * @param x
+     * @param y
+     * @return cell state
+     */
+    public final int getStateAt(int x, int y) {
+        return (int) (bits[y * stride + (x >>> 6)] >>> (x & 63)) & 1;
+    }
+
+    /**
+     * Returns the unpacked buffer for the next generation, as used by
+     * generic {@link MatrixEvolver}s. The array is allocated on first use.
+     * 
+     * @return swap buffer
+     */
+    public int[] getSwapBuffer() {
+        if (swap == null) {
+            swap = new int[width * height];
+        }
+        return swap;
+    }
+
+    /**
+     * @return the packed buffer for the next generation
+     */
+    public final long[] getSwapBits() {
+        return swapBits;
+    }
+
+    /**
+     * @return the number of longs used per row
+     */
+    public final int getStride() {
+        return stride;
+    }
+
+    public final int getWidth() {
+        return width;
+    }
+
+    /**
+     * Packs the given unpacked cell states.
+     * 
+     * @param cells
+     *            source array (one int per cell)
+     * @param dest
+     *            packed target array
+     */
+    protected void pack(int[] cells, long[] dest) {
+        for (int y = 0, idx = 0; y < height; y++) {
+            int offset = y * stride;
+            for (int w = 0; w < stride; w++) {
+                long word = 0;
+                for (int i = 0, num = MathUtils.min(64, width - (w << 6)); i < num; i++) {
+                    if (cells[idx++] > 0) {
+                        word |= 1L << i;
+                    }
+                }
+                dest[offset + w] = word;
+            }
+        }
+    }
+
+    /**
+     * Clears the matrix and resets the generation counter.
+     * 
+     * @return itself
+     */
+    public PackedCAMatrix reset() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0;
+            swapBits[i] = 0;
+        }
+        isUnpacked = false;
+        generation = 0;
+        return this;
+    }
+
+    /**
+     * Uses the given ARGB pixel array as seed mask for the matrix. The image is
+     * placed centered and if bigger. Only the blue channel (lowest 8 bit of an
+     * int) is used to determine if a cell is set to be alive or dead.
+     * 
+     * @param pixels
+     * @param imgWidth
+     * @param imgHeight
+     * @return itself
+     */
+    public PackedCAMatrix seedImage(int[] pixels, int imgWidth, int imgHeight) {
+        final int xo = MathUtils.clip((width - imgWidth) / 2, 0, width - 1);
+        final int yo = MathUtils.clip((height - imgHeight) / 2, 0, height - 1);
+        imgWidth = MathUtils.min(imgWidth, width);
+        imgHeight = MathUtils.min(imgHeight, height);
+        for (int y = 0; y < imgHeight; y++) {
+            final int i = y * imgWidth;
+            for (int x = 0; x < imgWidth; x++) {
+                if (0 < (pixels[i + x] & 0xff)) {
+                    setBit(xo + x, yo + y, true);
+                }
+            }
+        }
+        isUnpacked = false;
+        return this;
+    }
+
+    private void setBit(int x, int y, boolean state) {
+        int idx = y * stride + (x >>> 6);
+        long mask = 1L << (x & 63);
+        if (state) {
+            bits[idx] |= mask;
+        } else {
+            bits[idx] &= ~mask;
+        }
+    }
+
+    /**
+     * Assigns the given rule as evaluator for this matrix.
+     * 
+     * @param r
+     *            rule implementation
+     * @return itself
+     */
+    public PackedCAMatrix setRule(CARule r) {
+        rule = r;
+        return this;
+    }
+
+    /**
+     * Sets the cell state at x,y. If the coordinates are outside the matrix an
+     * {@link ArrayIndexOutOfBoundsException} is thrown.
+     * 
+     * @param x
+     * @param y
+     * @param state
+     * @return itself
+     */
+    public PackedCAMatrix setStateAt(int x, int y, int state) {
+        if (x >= 0 && x < width && y >= 0 && y < height) {
+            setBit(x, y, state > 0);
+            isUnpacked = false;
+        } else {
+            throw new ArrayIndexOutOfBoundsException("given coordinates: " + x
+                    + ";" + y + " are out of bounds");
+        }
+        return this;
+    }
+
+    /**
+     * Unpacks the given bits into one int (0 or 1) per cell.
+     * 
+     * @param src
+     *            packed source array
+     * @param cells
+     *            target array
+     */
+    protected void unpack(long[] src, int[] cells) {
+        for (int y = 0, idx = 0; y < height; y++) {
+            int offset = y * stride;
+            for (int x = 0; x < width; x++) {
+                cells[idx++] = (int) (src[offset + (x >>> 6)] >>> (x & 63)) & 1;
+            }
+        }
+    }
+
+    /**
+     * Evolves the matrix to the next generation by applying one iteration of
+     * the assigned {@link CARule} implementation. If no rule is assigned, the
+     * method does nothing.
+     * 
+     * @return itself
+     */
+    public PackedCAMatrix update() {
+        if (rule != null) {
+            if (rule instanceof CARule2D && rule.getStateCount() == 2) {
+                ((CARule2D) rule).evolvePacked(this);
+            } else {
+                int[] cells = getMatrix();
+                int[] next = getSwapBuffer();
+                System.arraycopy(cells, 0, next, 0, cells.length);
+                rule.evolve(this);
+                pack(next, swapBits);
+            }
+            long[] tmp = bits;
+            bits = swapBits;
+            swapBits = tmp;
+            isUnpacked = false;
+            generation++;
+        }
+        return this;
+    }
+}
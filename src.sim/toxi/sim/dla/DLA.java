@@ -34,16 +34,121 @@ import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
+import toxi.geom.OctreePointVisitor;
 import toxi.geom.PointOctree;
 import toxi.geom.Vec3D;
 import toxi.math.MathUtils;
-
+import toxi.util.ParallelExecutor;
+
+/**
+ * Diffusion limited aggregation along a set of guide lines. By default a
+ * single particle random walk is simulated at a time. If an executor is set,
+ * the DLA runs in parallel mode: Each {@link #update()} then advances a whole
+ * batch of walkers concurrently for a fixed number of steps, checking them
+ * against the particles existing at the beginning of the batch. Walkers which
+ * got stuck during the batch are then committed sequentially, ordered by the
+ * step they stuck at (and their walker index), and are re-aligned to their
+ * nearest neighbour at that time. Listener callbacks are always fired on the
+ * calling thread in commit order. If a seed has been set via
+ * {@link #setSeed(long)}, results are reproducible regardless of the number of
+ * threads used.
+ */
 public class DLA {
 
+    /**
+     * State of a single walker in parallel mode.
+     */
+    private final class Walker implements OctreePointVisitor,
+            Comparable<Walker> {
+
+        final int id;
+        DLAParticle particle;
+        Random rnd;
+
+        int stickStep;
+        boolean isGuideHit;
+
+        Vec3D nearest;
+        float minDist;
+        int numGuides;
+        boolean isCounting;
+
+        Walker(int id) {
+            this.id = id;
+        }
+
+        boolean check(Vec3D target) {
+            findNearest(octree);
+            if (nearest != null && minDist < config.getSnapDistanceSquared()
+                    && rnd.nextDouble() < config.getStickiness()) {
+                isGuideHit = false;
+                return true;
+            }
+            if (particle.distanceToSquared(target) < config
+                    .getCurveAttachDistanceSquared()) {
+                numGuides = 0;
+                isCounting = true;
+                octreeGuides.visitPointsWithinSphere(particle,
+                        config.getCurveAttachDistance(), this);
+                isCounting = false;
+                for (int i = numGuides; i > 0; i--) {
+                    if (rnd.nextDouble() < config.getStickiness()) {
+                        isGuideHit = true;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        public int compareTo(Walker w) {
+            if (stickStep != w.stickStep) {
+                return stickStep < w.stickStep ? -1 : 1;
+            }
+            return id - w.id;
+        }
+
+        void findNearest(PointOctree tree) {
+            nearest = null;
+            minDist = Integer.MAX_VALUE;
+            tree.visitPointsWithinSphere(particle, config.snapDistance, this);
+        }
+
+        public void visitPoint(Vec3D p) {
+            if (isCounting) {
+                numGuides++;
+            } else {
+                float d = p.distanceToSquared(particle);
+                if (d < minDist) {
+                    minDist = d;
+                    nearest = p;
+                }
+            }
+        }
+
+        void walk(Vec3D target, int numSteps) {
+            stickStep = -1;
+            for (int i = 0; i < numSteps; i++) {
+                particle.update(target);
+                if (check(target)) {
+                    stickStep = i;
+                    return;
+                }
+            }
+        }
+    }
+
+    public static final int DEFAULT_NUM_WALKERS = 256;
+
+    public static final int DEFAULT_WALKER_STEPS = 32;
+
     protected static final Logger logger = Logger
             .getLogger(DLA.class.getName());
 
@@ -64,6 +169,17 @@ public class DLA {
 
     protected DLAConfiguration config;
 
+    protected ParallelExecutor executor;
+    protected int numWalkers = DEFAULT_NUM_WALKERS;
+    protected int walkerSteps = DEFAULT_WALKER_STEPS;
+    private Walker[] walkers;
+
+    /**
+     * Optional seeded random generator, if null the shared default generators
+     * are used.
+     */
+    protected Random rnd;
+
     public DLA(float size) {
         octree = createOctree(new Vec3D(-0.5f, -0.5f, -0.5f).scale(size), size);
         octreeGuides = createOctree(new Vec3D(-0.5f, -0.5f, -0.5f).scale(size),
@@ -132,7 +248,7 @@ public class DLA {
                 }
             }
             if (minDist < config.getSnapDistanceSquared()
-                    && Math.random() < stickiness) {
+                    && random() < stickiness) {
                 alignAttachedParticle(p, found);
                 addParticle(p);
                 return true;
@@ -144,7 +260,7 @@ public class DLA {
                     config.getCurveAttachDistance());
             if (parts != null) {
                 for (int i = parts.size(); i > 0; i--) {
-                    if (Math.random() < stickiness) {
+                    if (random() < stickiness) {
                         addParticle(p);
                         return true;
                     }
@@ -157,6 +273,7 @@ public class DLA {
     public void clear() {
         octree.empty();
         octreeGuides.empty();
+        walkers = null;
         reset();
     }
 
@@ -185,6 +302,13 @@ public class DLA {
         return currParticle;
     }
 
+    /**
+     * @return the executor used for the parallel mode (or null, if disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
     /**
      * @return the guidelines
      */
@@ -213,6 +337,13 @@ public class DLA {
         return numParticles;
     }
 
+    /**
+     * @return the number of concurrent walkers in parallel mode
+     */
+    public int getNumWalkers() {
+        return numWalkers;
+    }
+
     public PointOctree getParticleOctree() {
         return octree;
     }
@@ -224,6 +355,14 @@ public class DLA {
         return octree.getPoints();
     }
 
+    /**
+     * @return the number of steps each walker advances per batch in parallel
+     *         mode
+     */
+    public int getWalkerSteps() {
+        return walkerSteps;
+    }
+
     protected void parseGuidelines() {
         guidelines.reset();
         octreeGuides.empty();
@@ -236,6 +375,10 @@ public class DLA {
         guidelines.reset();
     }
 
+    protected double random() {
+        return rnd != null ? rnd.nextDouble() : Math.random();
+    }
+
     public DLA removeListener(DLAEventListener l) {
         listeners.remove(l);
         logger.info("removing listener: " + l);
@@ -315,6 +458,23 @@ public class DLA {
      */
     public void setConfig(DLAConfiguration config) {
         this.config = config;
+        if (rnd != null) {
+            config.growthBiasRange.setRandom(rnd);
+        }
+    }
+
+    /**
+     * Sets the executor to use for the parallel mode. The executor can be
+     * shared with other engines/tasks and is NOT shut down by this class.
+     * 
+     * @param executor
+     *            executor instance or null to simulate a single walker at a
+     *            time
+     * @return itself
+     */
+    public DLA setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
     }
 
     /**
@@ -327,13 +487,69 @@ public class DLA {
         updateCurvePoint();
     }
 
+    /**
+     * Sets the number of concurrent walkers used in parallel mode.
+     * 
+     * @param numWalkers
+     * @return itself
+     */
+    public DLA setNumWalkers(int numWalkers) {
+        this.numWalkers = MathUtils.max(numWalkers, 1);
+        return this;
+    }
+
+    /**
+     * Seeds all random decisions of the simulation (incl. the continuous
+     * growth bias of the current configuration) in order to make results
+     * reproducible.
+     * 
+     * @param seed
+     * @return itself
+     */
+    public DLA setSeed(long seed) {
+        rnd = new Random(seed);
+        walkers = null;
+        if (config != null) {
+            config.growthBiasRange.setRandom(rnd);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the number of steps each walker advances per batch in parallel
+     * mode. Larger values reduce synchronization overhead, but walkers will
+     * be checked against older states of the structure.
+     * 
+     * @param walkerSteps
+     * @return itself
+     */
+    public DLA setWalkerSteps(int walkerSteps) {
+        this.walkerSteps = MathUtils.max(walkerSteps, 1);
+        return this;
+    }
+
+    private DLAParticle spawnParticle(Random particleRnd) {
+        Vec3D spawnPos;
+        float r;
+        if (rnd != null) {
+            spawnPos = Vec3D.randomVector(rnd);
+            r = MathUtils.random(rnd, config.getSpawnRadius());
+        } else {
+            spawnPos = Vec3D.randomVector();
+            r = MathUtils.random(config.getSpawnRadius());
+        }
+        spawnPos = currCurvePoint.add(spawnPos.scale(r));
+        return new DLAParticle(spawnPos, config.getEscapeRadius(),
+                config.getParticleSpeed(), config.getSearchSpeed(), particleRnd);
+    }
+
     public void update() {
+        if (executor != null) {
+            updateWalkers();
+            return;
+        }
         if (currParticle == null) {
-            Vec3D spawnPos = Vec3D.randomVector();
-            spawnPos = currCurvePoint.add(spawnPos.scale(MathUtils
-                    .random(config.getSpawnRadius())));
-            currParticle = new DLAParticle(spawnPos, config.getEscapeRadius(),
-                    config.getParticleSpeed(), config.getSearchSpeed());
+            currParticle = spawnParticle(rnd);
         }
         currParticle.update(currCurvePoint);
         if (checkParticle(currParticle)) {
@@ -349,11 +565,12 @@ public class DLA {
     }
 
     protected void updateCurvePoint() {
-        if (Math.random() < config.getContinuousGrowthRatio()
+        if (random() < config.getContinuousGrowthRatio()
                 && numActiveSegments > 0) {
             DLASegment segment = activeSegments.get((int) (config
                     .getContinuousGrowthCoeff() * (numActiveSegments - 1)));
-            float currT = MathUtils.random(1f);
+            float currT = rnd != null ? rnd.nextFloat() : MathUtils
+                    .random(1f);
             dirCurvePoint = segment.getDirectionAt(currT);
             currCurvePoint = segment.a.add(dirCurvePoint.scale(segment
                     .getLength() * currT));
@@ -380,4 +597,68 @@ public class DLA {
             }
         }
     }
+
+    /**
+     * Runs a single batch of the parallel mode: spawns new walkers for all
+     * free slots, advances all walkers concurrently and commits the stuck
+     * ones.
+     */
+    protected void updateWalkers() {
+        if (walkers == null || walkers.length != numWalkers) {
+            walkers = new Walker[numWalkers];
+            for (int i = 0; i < numWalkers; i++) {
+                walkers[i] = new Walker(i);
+            }
+        }
+        Random master = rnd != null ? rnd : MathUtils.RND;
+        for (Walker w : walkers) {
+            if (w.particle == null) {
+                w.rnd = new Random(master.nextLong());
+                w.particle = spawnParticle(w.rnd);
+            }
+        }
+        final Vec3D target = currCurvePoint.copy();
+        final int numSteps = walkerSteps;
+        int numJobs = MathUtils.min(executor.getNumThreads(), numWalkers);
+        if (numJobs > 1) {
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(
+                    numJobs);
+            for (int i = 0; i < numJobs; i++) {
+                final int from = numWalkers * i / numJobs;
+                final int to = numWalkers * (i + 1) / numJobs;
+                jobs.add(new Callable<Object>() {
+
+                    public Object call() {
+                        for (int j = from; j < to; j++) {
+                            walkers[j].walk(target, numSteps);
+                        }
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(jobs);
+        } else {
+            for (Walker w : walkers) {
+                w.walk(target, numSteps);
+            }
+        }
+        List<Walker> stuck = new ArrayList<Walker>();
+        for (Walker w : walkers) {
+            if (w.stickStep != -1) {
+                stuck.add(w);
+            }
+        }
+        Collections.sort(stuck);
+        for (Walker w : stuck) {
+            DLAParticle p = w.particle;
+            if (!w.isGuideHit) {
+                // resolve conflicts with particles committed in this batch
+                w.findNearest(octree);
+                alignAttachedParticle(p, w.nearest);
+            }
+            addParticle(p);
+            w.particle = null;
+            updateCurvePoint();
+        }
+    }
 }
\ No newline at end of file
@@ -27,6 +27,8 @@
 
 package toxi.sim.dla;
 
+import java.util.Random;
+
 import toxi.geom.Vec3D;
 
 public class DLAParticle extends Vec3D {
@@ -36,19 +38,36 @@ public class DLAParticle extends Vec3D {
     protected float escapeRadius;
     protected float particleSpeed;
     protected float searchSpeed;
+    protected Random rnd;
 
     public DLAParticle(Vec3D p, float escapeRadius, float particleSpeed,
             float searchSpeed) {
+        this(p, escapeRadius, particleSpeed, searchSpeed, null);
+    }
+
+    /**
+     * @param p
+     *            start position
+     * @param escapeRadius
+     * @param particleSpeed
+     * @param searchSpeed
+     * @param rnd
+     *            random generator used for orientations (or null to use the
+     *            shared default generator)
+     */
+    public DLAParticle(Vec3D p, float escapeRadius, float particleSpeed,
+            float searchSpeed, Random rnd) {
         super(p);
         this.escapeRadius = escapeRadius;
         this.particleSpeed = particleSpeed;
         this.searchSpeed = searchSpeed;
+        this.rnd = rnd;
         opos = p.copy();
         reorientate();
     }
 
     public void reorientate() {
-        dir = Vec3D.randomVector();
+        dir = rnd != null ? Vec3D.randomVector(rnd) : Vec3D.randomVector();
     }
 
     public void update(Vec3D target) {
@@ -27,6 +27,9 @@
 
 package toxi.sim.fluids;
 
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
+
 /**
  * Optimized Jos Stam style fluid solver with vorticity confinement and buoyancy
  * force.
@@ -43,9 +46,21 @@ package toxi.sim.fluids;
  *         <li>renamed variables for better legibility</li>
  *         </ul>
  *         </p>
+ * 
+ *         <p>
+ *         If an executor is set, advection, projection and the linear solves
+ *         are processed in parallel using bands of rows. Since Gauss-Seidel
+ *         relaxation is inherently sequential, linear solves will then use
+ *         red-black ordering (see {@link LinearSolverMode}).
+ *         </p>
  **/
 public class FluidSolver2D {
 
+    /**
+     * Squared residual reduction at which the conjugate gradient solver stops
+     */
+    private static final double CG_TOLERANCE = 1e-10;
+
     protected int numIterations = 10;
 
     protected int width, totalWidth, height, totalHeight;
@@ -63,6 +78,12 @@ public class FluidSolver2D {
     protected float[] v, vOld;
     protected float[] curl;
 
+    protected ParallelExecutor executor;
+    protected LinearSolverMode solverMode = LinearSolverMode.GAUSS_SEIDEL;
+
+    private float[] cgResidual, cgDirection, cgProduct;
+    private double[] cgRowSums;
+
     /**
      * Creates a new instance of the given dimension uses the specified time
      * step.
@@ -116,7 +137,19 @@ public class FluidSolver2D {
      *            The y component of the velocity field.
      **/
 
-    protected void advect(int b, float[] d, float[] d0, float[] du, float[] dv) {
+    protected void advect(int b, final float[] d, final float[] d0,
+            final float[] du, final float[] dv) {
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                advectRows(from, to, d, d0, du, dv);
+            }
+        });
+        setBoundary(b, d);
+    }
+
+    private void advectRows(int from, int to, float[] d, float[] d0,
+            float[] du, float[] dv) {
         int i0, j0;
         float x, y, s0, t0, s1, t1, scaledTime;
         float wmax = width + 0.5f;
@@ -124,49 +157,42 @@ public class FluidSolver2D {
 
         scaledTime = timeStep * width;
 
-        for (int i = 1, j = 1, idx = i + totalWidth; j <= height;) {
-            // go backwards through velocity field
-            x = i - scaledTime * du[idx];
-            y = j - scaledTime * dv[idx];
-
-            // interpolate results
-            if (x > wmax) {
-                x = wmax;
-            }
-            if (x < 0.5f) {
-                x = 0.5f;
-            }
+        for (int j = from; j < to; j++) {
+            for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                // go backwards through velocity field
+                x = i - scaledTime * du[idx];
+                y = j - scaledTime * dv[idx];
 
-            i0 = (int) x;
+                // interpolate results
+                if (x > wmax) {
+                    x = wmax;
+                }
+                if (x < 0.5f) {
+                    x = 0.5f;
+                }
 
-            if (y > hmax) {
-                y = hmax;
-            }
-            if (y < 0.5f) {
-                y = 0.5f;
-            }
+                i0 = (int) x;
 
-            j0 = (int) y;
+                if (y > hmax) {
+                    y = hmax;
+                }
+                if (y < 0.5f) {
+                    y = 0.5f;
+                }
 
-            s1 = x - i0;
-            s0 = 1 - s1;
-            t1 = y - j0;
-            t0 = 1 - t1;
+                j0 = (int) y;
 
-            int idx0 = i0 + j0 * totalWidth;
-            d[idx] = s0 * (t0 * d0[idx0] + t1 * d0[idx0 + totalWidth]) + s1
-                    * (t0 * d0[idx0 + 1] + t1 * d0[idx0 + totalWidth + 1]);
+                s1 = x - i0;
+                s0 = 1 - s1;
+                t1 = y - j0;
+                t0 = 1 - t1;
 
-            if (i < width) {
-                i++;
-                idx++;
-            } else {
-                i = 1;
-                j++;
-                idx += 3;
+                int idx0 = i0 + j0 * totalWidth;
+                d[idx] = s0 * (t0 * d0[idx0] + t1 * d0[idx0 + totalWidth])
+                        + s1
+                        * (t0 * d0[idx0 + 1] + t1 * d0[idx0 + totalWidth + 1]);
             }
         }
-        setBoundary(b, d);
     }
 
     /**
@@ -220,6 +246,109 @@ public class FluidSolver2D {
         }
     }
 
+    /**
+     * Solves the linear system used by {@link #linearSolver} with the
+     * conjugate gradient method. The boundary handling of
+     * {@link #setBoundary(int, float[])} is treated as part of the (symmetric)
+     * system matrix.
+     */
+    protected void conjugateGradient(final int b, final float[] x,
+            final float[] x0, final float a, final float c) {
+        if (cgResidual == null) {
+            cgResidual = new float[size];
+            cgDirection = new float[size];
+            cgProduct = new float[size];
+            cgRowSums = new double[totalHeight];
+        }
+        final float[] r = cgResidual;
+        final float[] dir = cgDirection;
+        final float[] q = cgProduct;
+        final double[] sums = cgRowSums;
+        setBoundary(b, x);
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int j = from; j < to; j++) {
+                    double sum = 0;
+                    for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                        float ri = x0[idx]
+                                - (c * x[idx] - a
+                                        * (x[idx - 1] + x[idx + 1]
+                                                + x[idx - totalWidth] + x[idx
+                                                + totalWidth]));
+                        r[idx] = ri;
+                        dir[idx] = ri;
+                        sum += ri * ri;
+                    }
+                    sums[j] = sum;
+                }
+            }
+        });
+        double rr = sumRows(sums);
+        if (b == 0 && c == 4 * a) {
+            // pure Neumann problem (pressure): the system is singular and
+            // only solvable if the residual has zero mean
+            rr = removeMean(r, dir, sums);
+        }
+        final double eps = rr * CG_TOLERANCE;
+        for (int k = 0; k < numIterations && rr > eps; k++) {
+            setBoundary(b, dir);
+            run(1, height + 1, new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int j = from; j < to; j++) {
+                        double sum = 0;
+                        for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                            float qi = c
+                                    * dir[idx]
+                                    - a
+                                    * (dir[idx - 1] + dir[idx + 1]
+                                            + dir[idx - totalWidth] + dir[idx
+                                            + totalWidth]);
+                            q[idx] = qi;
+                            sum += dir[idx] * qi;
+                        }
+                        sums[j] = sum;
+                    }
+                }
+            });
+            double dq = sumRows(sums);
+            if (dq <= 0) {
+                break;
+            }
+            final float alpha = (float) (rr / dq);
+            run(1, height + 1, new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int j = from; j < to; j++) {
+                        double sum = 0;
+                        for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                            x[idx] += alpha * dir[idx];
+                            float ri = r[idx] - alpha * q[idx];
+                            r[idx] = ri;
+                            sum += ri * ri;
+                        }
+                        sums[j] = sum;
+                    }
+                }
+            });
+            double rrNew = sumRows(sums);
+            final float beta = (float) (rrNew / rr);
+            rr = rrNew;
+            run(1, height + 1, new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int j = from; j < to; j++) {
+                        for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                            dir[idx] = r[idx] + beta * dir[idx];
+                        }
+                    }
+                }
+            });
+        }
+        setBoundary(b, x);
+    }
+
     /**
      * Calculate the curl at position (i, j) in the fluid grid. Physically this
      * represents the vortex strength at the cell. Computed as follows: width =
@@ -321,6 +450,14 @@ public class FluidSolver2D {
         return diffusion;
     }
 
+    /**
+     * @return the executor used for the parallel solver mode (or null, if
+     *         disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
     /**
      * @return the numIterations
      */
@@ -328,6 +465,13 @@ public class FluidSolver2D {
         return numIterations;
     }
 
+    /**
+     * @return the linear solver mode
+     */
+    public LinearSolverMode getSolverMode() {
+        return solverMode;
+    }
+
     /**
      * @return the timeStep
      */
@@ -372,11 +516,20 @@ public class FluidSolver2D {
 
     /**
      * Iterative linear system solver using the Gauss-Seidel relaxation
-     * technique. Room for much improvement here...
+     * technique (or one of the other methods selected via
+     * {@link #setSolverMode(LinearSolverMode)}).
      * 
      **/
 
     protected void linearSolver(int b, float[] x, float[] x0, float a, float c) {
+        if (solverMode == LinearSolverMode.CONJUGATE_GRADIENT) {
+            conjugateGradient(b, x, x0, a, c);
+            return;
+        }
+        if (solverMode == LinearSolverMode.RED_BLACK || executor != null) {
+            redBlackSolver(b, x, x0, a, c);
+            return;
+        }
         c = 1f / c;
         for (int k = 0; k < numIterations; k++) {
             for (int i = 1, idx = 1 + totalWidth, j = 1; j <= height;) {
@@ -419,46 +572,76 @@ public class FluidSolver2D {
      * 
      **/
 
-    protected void project(float[] x, float[] y, float[] p, float[] div) {
-        float fact = -0.5f / width;
-        for (int i = 1, idx = 1 + totalWidth, j = 1; j <= height;) {
-            div[idx] = (x[idx + 1] - x[idx - 1] + y[idx + totalWidth] - y[idx
-                    - totalWidth])
-                    * fact;
-            p[idx] = 0;
-            if (i < width) {
-                i++;
-                idx++;
-            } else {
-                i = 1;
-                j++;
-                idx += 3;
+    protected void project(final float[] x, final float[] y, final float[] p,
+            final float[] div) {
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                float fact = -0.5f / width;
+                for (int j = from; j < to; j++) {
+                    for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                        div[idx] = (x[idx + 1] - x[idx - 1] + y[idx
+                                + totalWidth] - y[idx - totalWidth])
+                                * fact;
+                        p[idx] = 0;
+                    }
+                }
             }
-        }
+        });
 
         setBoundary(0, div);
         setBoundary(0, p);
 
         linearSolver(0, p, div, 1, 4);
 
-        fact = -0.5f * width;
-        for (int i = 1, idx = 1 + totalWidth, j = 1; j <= height;) {
-            x[idx] += fact * (p[idx + 1] - p[idx - 1]);
-            y[idx] += fact * (p[idx + totalWidth] - p[idx - totalWidth]);
-            if (i < width) {
-                i++;
-                idx++;
-            } else {
-                i = 1;
-                idx += 3;
-                j++;
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                float fact = -0.5f * width;
+                for (int j = from; j < to; j++) {
+                    for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                        x[idx] += fact * (p[idx + 1] - p[idx - 1]);
+                        y[idx] += fact
+                                * (p[idx + totalWidth] - p[idx - totalWidth]);
+                    }
+                }
             }
-        }
+        });
 
         setBoundary(1, x);
         setBoundary(2, y);
     }
 
+    /**
+     * Gauss-Seidel relaxation using red-black ordering. Each half sweep only
+     * updates cells of the same color, which don't depend on each other.
+     */
+    protected void redBlackSolver(final int b, final float[] x,
+            final float[] x0, final float a, float c) {
+        final float cRecip = 1f / c;
+        for (int k = 0; k < numIterations; k++) {
+            for (int color = 0; color < 2; color++) {
+                final int col = color;
+                run(1, height + 1, new RangeTask() {
+
+                    public void process(int from, int to) {
+                        for (int j = from; j < to; j++) {
+                            int i = 1 + ((1 + j + col) & 1);
+                            for (int idx = j * totalWidth + i; i <= width; i += 2, idx += 2) {
+                                x[idx] = (a
+                                        * (x[idx - 1] + x[idx + 1]
+                                                + x[idx - totalWidth] + x[idx
+                                                + totalWidth]) + x0[idx])
+                                        * cRecip;
+                            }
+                        }
+                    }
+                });
+            }
+            setBoundary(b, x);
+        }
+    }
+
     /**
      * Reset the datastructures. We use 1d arrays for speed.
      **/
@@ -469,6 +652,18 @@ public class FluidSolver2D {
         }
     }
 
+    /**
+     * Processes the given row range, either directly or in parallel if an
+     * executor is set.
+     */
+    protected final void run(int min, int max, RangeTask task) {
+        if (executor != null) {
+            executor.forRange(min, max, task);
+        } else {
+            task.process(min, max);
+        }
+    }
+
     /**
      * specifies simple boundary conditions.
      * 
@@ -523,6 +718,19 @@ public class FluidSolver2D {
         this.diffusion = diffusion;
     }
 
+    /**
+     * Sets the executor to use for the parallel solver mode. The executor can
+     * be shared with other engines/tasks and is NOT shut down by this class.
+     * Since work is split into bands of rows, the executor's min. chunk size
+     * should be set accordingly (e.g. to 8).
+     * 
+     * @param executor
+     *            executor instance or null to use the sequential solver
+     */
+    public void setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
+
     /**
      * @param numIterations
      *            the numIterations to set
@@ -531,6 +739,19 @@ public class FluidSolver2D {
         this.numIterations = numIterations;
     }
 
+    /**
+     * Sets the method used for the linear solves of the diffusion and
+     * pressure projection steps. If an executor is set,
+     * {@link LinearSolverMode#GAUSS_SEIDEL} is replaced by
+     * {@link LinearSolverMode#RED_BLACK}.
+     * 
+     * @param solverMode
+     *            the solver mode to set
+     */
+    public void setSolverMode(LinearSolverMode solverMode) {
+        this.solverMode = solverMode;
+    }
+
     /**
      * @param timeStep
      *            the timeStep to set
@@ -547,6 +768,47 @@ public class FluidSolver2D {
         this.viscosity = viscosity;
     }
 
+    private double removeMean(final float[] r, final float[] dir,
+            final double[] sums) {
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int j = from; j < to; j++) {
+                    double sum = 0;
+                    for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                        sum += r[idx];
+                    }
+                    sums[j] = sum;
+                }
+            }
+        });
+        final float mean = (float) (sumRows(sums) / (width * height));
+        run(1, height + 1, new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int j = from; j < to; j++) {
+                    double sum = 0;
+                    for (int i = 1, idx = j * totalWidth + 1; i <= width; i++, idx++) {
+                        float ri = r[idx] - mean;
+                        r[idx] = ri;
+                        dir[idx] = ri;
+                        sum += ri * ri;
+                    }
+                    sums[j] = sum;
+                }
+            }
+        });
+        return sumRows(sums);
+    }
+
+    private double sumRows(double[] sums) {
+        double sum = 0;
+        for (int j = 1; j <= height; j++) {
+            sum += sums[j];
+        }
+        return sum;
+    }
+
     /**
      * util array swapping method
      * 
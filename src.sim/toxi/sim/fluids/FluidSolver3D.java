@@ -2,9 +2,13 @@ package toxi.sim.fluids;
 
 import toxi.geom.ReadonlyVec3D;
 import toxi.geom.Vec3D;
+import toxi.util.ParallelExecutor;
+import toxi.util.RangeTask;
 
 public class FluidSolver3D {
 
+    private static final double CG_TOLERANCE = 1e-10;
+
     private final int size, size2, size3, sm1, sm2;
     private final float dt;
     public float diff;
@@ -17,6 +21,12 @@ public class FluidSolver3D {
     private final float[] velX0, velY0, velZ0;
     private int numIterations = 10;
 
+    private ParallelExecutor executor;
+    private LinearSolverMode solverMode = LinearSolverMode.GAUSS_SEIDEL;
+
+    private float[] cgResidual, cgDirection, cgProduct;
+    private double[] cgRowSums;
+
     public FluidSolver3D(int size, float diffusion, float viscosity, float dt) {
         this.size = size;
         this.size2 = size * size;
@@ -49,6 +59,17 @@ public class FluidSolver3D {
 
     private void advect(final int b, final float[] d, final float[] d0,
             final float[] velocX, final float[] velocY, final float[] velocZ) {
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                advectRows(from, to, d, d0, velocX, velocY, velocZ);
+            }
+        });
+        set_bnd(b, d);
+    }
+
+    private void advectRows(int from, int to, float[] d, float[] d0,
+            float[] velocX, float[] velocY, float[] velocZ) {
         int i0, j0, k0;
 
         final float scaledTime = dt * sm2;
@@ -57,61 +78,54 @@ public class FluidSolver3D {
         float x, y, z;
 
         float maxSize = sm2 + 0.5f;
-        float ifloat, jfloat, kfloat;
-        int i, j, k;
-
-        for (k = 1, kfloat = 1; k < sm1; k++, kfloat++) {
-            for (j = 1, jfloat = 1; j < sm1; j++, jfloat++) {
-                for (i = 1, ifloat = 1; i < sm1; i++, ifloat++) {
-                    final int idx = IX(i, j, k);
-                    x = i - scaledTime * velocX[idx];
-                    y = j - scaledTime * velocY[idx];
-                    z = k - scaledTime * velocZ[idx];
-
-                    if (x < 0.5f) {
-                        x = 0.5f;
-                    }
-                    if (x > maxSize) {
-                        x = maxSize;
-                    }
-                    i0 = (int) x;
-                    if (y < 0.5f) {
-                        y = 0.5f;
-                    }
-                    if (y > maxSize) {
-                        y = maxSize;
-                    }
-                    j0 = (int) y;
-                    if (z < 0.5f) {
-                        z = 0.5f;
-                    }
-                    if (z > maxSize) {
-                        z = maxSize;
-                    }
-                    k0 = (int) z;
-
-                    s1 = x - i0;
-                    s0 = 1.0f - s1;
-                    t1 = y - j0;
-                    t0 = 1.0f - t1;
-                    u1 = z - k0;
-                    u0 = 1.0f - u1;
-
-                    final int ix = IX(i0, j0, k0);
-                    d[idx] =
-
-                    s0
-                            * (t0 * (u0 * d0[ix] + u1 * d0[ix + size2]) + (t1 * (u0
-                                    * d0[ix + size] + u1
-                                    * d0[ix + size + size2])))
-                            + s1
-                            * (t0 * (u0 * d0[ix + 1] + u1 * d0[ix + 1 + size2]) + (t1 * (u0
-                                    * d0[ix + 1 + size] + u1
-                                    * d0[ix + 1 + size + size2])));
+
+        for (int r = from; r < to; r++) {
+            int k = 1 + r / sm2;
+            int j = 1 + r % sm2;
+            for (int i = 1, idx = IX(1, j, k); i < sm1; i++, idx++) {
+                x = i - scaledTime * velocX[idx];
+                y = j - scaledTime * velocY[idx];
+                z = k - scaledTime * velocZ[idx];
+
+                if (x < 0.5f) {
+                    x = 0.5f;
+                }
+                if (x > maxSize) {
+                    x = maxSize;
+                }
+                i0 = (int) x;
+                if (y < 0.5f) {
+                    y = 0.5f;
+                }
+                if (y > maxSize) {
+                    y = maxSize;
                 }
+                j0 = (int) y;
+                if (z < 0.5f) {
+                    z = 0.5f;
+                }
+                if (z > maxSize) {
+                    z = maxSize;
+                }
+                k0 = (int) z;
+
+                s1 = x - i0;
+                s0 = 1.0f - s1;
+                t1 = y - j0;
+                t0 = 1.0f - t1;
+                u1 = z - k0;
+                u0 = 1.0f - u1;
+
+                final int ix = IX(i0, j0, k0);
+                d[idx] = s0
+                        * (t0 * (u0 * d0[ix] + u1 * d0[ix + size2]) + (t1 * (u0
+                                * d0[ix + size] + u1 * d0[ix + size + size2])))
+                        + s1
+                        * (t0 * (u0 * d0[ix + 1] + u1 * d0[ix + 1 + size2]) + (t1 * (u0
+                                * d0[ix + 1 + size] + u1
+                                * d0[ix + 1 + size + size2])));
             }
         }
-        set_bnd(b, d);
     }
 
     public void clearAt(int x, int y, int z) {
@@ -122,6 +136,105 @@ public class FluidSolver3D {
         }
     }
 
+    private void conjugateGradient(final int b, final float[] x,
+            final float[] x0, final float a, final float c) {
+        if (cgResidual == null) {
+            cgResidual = new float[size3];
+            cgDirection = new float[size3];
+            cgProduct = new float[size3];
+            cgRowSums = new double[sm2 * sm2];
+        }
+        final float[] r = cgResidual;
+        final float[] dir = cgDirection;
+        final float[] q = cgProduct;
+        final double[] sums = cgRowSums;
+        set_bnd(b, x);
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    double sum = 0;
+                    for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                        float ri = x0[idx]
+                                - (c * x[idx] - a
+                                        * (x[idx + 1] + x[idx - 1]
+                                                + x[idx + size] + x[idx - size]
+                                                + x[idx + size2] + x[idx
+                                                - size2]));
+                        r[idx] = ri;
+                        dir[idx] = ri;
+                        sum += ri * ri;
+                    }
+                    sums[row] = sum;
+                }
+            }
+        });
+        double rr = sumRows(sums);
+        if (b == 0 && c == 6 * a) {
+            // pure Neumann problem (pressure): the system is singular and
+            // only solvable if the residual has zero mean
+            rr = removeMean(r, dir, sums);
+        }
+        final double eps = rr * CG_TOLERANCE;
+        for (int k = 0; k < numIterations && rr > eps; k++) {
+            set_bnd(b, dir);
+            run(new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int row = from; row < to; row++) {
+                        double sum = 0;
+                        for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                            float qi = c
+                                    * dir[idx]
+                                    - a
+                                    * (dir[idx + 1] + dir[idx - 1]
+                                            + dir[idx + size] + dir[idx - size]
+                                            + dir[idx + size2] + dir[idx
+                                            - size2]);
+                            q[idx] = qi;
+                            sum += dir[idx] * qi;
+                        }
+                        sums[row] = sum;
+                    }
+                }
+            });
+            double dq = sumRows(sums);
+            if (dq <= 0) {
+                break;
+            }
+            final float alpha = (float) (rr / dq);
+            run(new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int row = from; row < to; row++) {
+                        double sum = 0;
+                        for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                            x[idx] += alpha * dir[idx];
+                            float ri = r[idx] - alpha * q[idx];
+                            r[idx] = ri;
+                            sum += ri * ri;
+                        }
+                        sums[row] = sum;
+                    }
+                }
+            });
+            double rrNew = sumRows(sums);
+            final float beta = (float) (rrNew / rr);
+            rr = rrNew;
+            run(new RangeTask() {
+
+                public void process(int from, int to) {
+                    for (int row = from; row < to; row++) {
+                        for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                            dir[idx] = r[idx] + beta * dir[idx];
+                        }
+                    }
+                }
+            });
+        }
+        set_bnd(b, x);
+    }
+
     public final void decay(float decay) {
         for (int i = 0; i < density.length; i++) {
             density[i] *= decay;
@@ -141,16 +254,46 @@ public class FluidSolver3D {
         return density;
     }
 
+    /**
+     * @return the executor used for the parallel solver mode (or null, if
+     *         disabled)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the number of solver iterations
+     */
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    /**
+     * @return the linear solver mode
+     */
+    public LinearSolverMode getSolverMode() {
+        return solverMode;
+    }
+
     private final int IX(int x, int y, int z) {
         return x + y * size + z * size2;
     }
 
     void lin_solve(final int b, final float[] x, final float[] x0,
             final float a, final float c) {
+        if (solverMode == LinearSolverMode.CONJUGATE_GRADIENT) {
+            conjugateGradient(b, x, x0, a, c);
+            return;
+        }
+        if (solverMode == LinearSolverMode.RED_BLACK || executor != null) {
+            redBlackSolver(b, x, x0, a, c);
+            return;
+        }
         float cRecip = 1.0f / c;
         for (int k = 0; k < numIterations; k++) {
             for (int m = 1; m < sm1; m++) {
-                for (int j = 1, idx = m * size2 + size + 1; j < sm1; j++) {
+                for (int j = 1, idx = m * size2 + size + 1; j < sm1; j++, idx += 2) {
                     for (int i = 1; i < sm1; i++) {
                         x[idx] = (x0[idx] + a
                                 * (x[idx + 1] + x[idx - 1] + x[idx + size]
@@ -167,39 +310,92 @@ public class FluidSolver3D {
 
     private void project(final float[] velocX, final float[] velocY,
             final float[] velocZ, final float[] p, final float[] div) {
-        final float invSize = -0.5f * 1f / size;
-        for (int k = 1; k < sm1; k++) {
-            for (int j = 1; j < sm1; j++) {
-                for (int i = 1; i < sm1; i++) {
-                    final int idx = IX(i, j, k);
-                    div[idx] = (velocX[idx + 1] - velocX[idx - 1]
-                            + velocY[idx + size] - velocY[idx - size]
-                            + velocZ[idx + size2] - velocZ[idx - size2])
-                            * invSize;
-                    p[idx] = 0;
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                final float invSize = -0.5f * 1f / size;
+                for (int row = from; row < to; row++) {
+                    for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                        div[idx] = (velocX[idx + 1] - velocX[idx - 1]
+                                + velocY[idx + size] - velocY[idx - size]
+                                + velocZ[idx + size2] - velocZ[idx - size2])
+                                * invSize;
+                        p[idx] = 0;
+                    }
                 }
             }
-        }
+        });
         set_bnd(0, div);
         set_bnd(0, p);
         lin_solve(0, p, div, 1, 6);
 
-        float hs = 0.5f * size;
-        for (int k = 1; k < sm1; k++) {
-            for (int j = 1; j < sm1; j++) {
-                for (int i = 1; i < sm1; i++) {
-                    final int idx = IX(i, j, k);
-                    velocX[idx] -= hs * (p[idx + 1] - p[idx - 1]);
-                    velocY[idx] -= hs * (p[idx + size] - p[idx - size]);
-                    velocZ[idx] -= hs * (p[idx + size2] - p[idx - size2]);
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                float hs = 0.5f * size;
+                for (int row = from; row < to; row++) {
+                    for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                        velocX[idx] -= hs * (p[idx + 1] - p[idx - 1]);
+                        velocY[idx] -= hs * (p[idx + size] - p[idx - size]);
+                        velocZ[idx] -= hs * (p[idx + size2] - p[idx - size2]);
+                    }
                 }
             }
-        }
+        });
         set_bnd(1, velocX);
         set_bnd(2, velocY);
         set_bnd(3, velocZ);
     }
 
+    private void redBlackSolver(final int b, final float[] x,
+            final float[] x0, final float a, final float c) {
+        final float cRecip = 1.0f / c;
+        for (int k = 0; k < numIterations; k++) {
+            for (int color = 0; color < 2; color++) {
+                final int col = color;
+                run(new RangeTask() {
+
+                    public void process(int from, int to) {
+                        for (int row = from; row < to; row++) {
+                            int m = 1 + row / sm2;
+                            int j = 1 + row % sm2;
+                            int i = 1 + ((1 + j + m + col) & 1);
+                            for (int idx = IX(i, j, m); i < sm1; i += 2, idx += 2) {
+                                x[idx] = (x0[idx] + a
+                                        * (x[idx + 1] + x[idx - 1]
+                                                + x[idx + size] + x[idx - size]
+                                                + x[idx + size2] + x[idx
+                                                - size2]))
+                                        * cRecip;
+                            }
+                        }
+                    }
+                });
+            }
+            set_bnd(b, x);
+        }
+    }
+
+    /**
+     * @return index of the first interior cell of the given row (rows are
+     *         numbered slice by slice, excluding boundary cells)
+     */
+    private final int rowIndex(int row) {
+        return IX(1, 1 + row % sm2, 1 + row / sm2);
+    }
+
+    /**
+     * Processes all interior rows, either directly or in parallel if an
+     * executor is set.
+     */
+    private void run(RangeTask task) {
+        if (executor != null) {
+            executor.forRange(0, sm2 * sm2, task);
+        } else {
+            task.process(0, sm2 * sm2);
+        }
+    }
+
     private void set_bnd(int b, float[] x) {
         for (int j = 1; j < sm1; j++) {
             for (int i = 1; i < sm1; i++) {
@@ -252,6 +448,84 @@ public class FluidSolver3D {
         }
     }
 
+    /**
+     * Sets the executor to use for the parallel solver mode. The executor can
+     * be shared with other engines/tasks and is NOT shut down by this class.
+     * 
+     * @param executor
+     *            executor instance or null to use the sequential solver
+     * @return itself
+     */
+    public FluidSolver3D setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param numIterations
+     *            the number of solver iterations to set
+     * @return itself
+     */
+    public FluidSolver3D setNumIterations(int numIterations) {
+        this.numIterations = numIterations;
+        return this;
+    }
+
+    /**
+     * Sets the method used for the linear solves of the diffusion and
+     * pressure projection steps. If an executor is set,
+     * {@link LinearSolverMode#GAUSS_SEIDEL} is replaced by
+     * {@link LinearSolverMode#RED_BLACK}.
+     * 
+     * @param solverMode
+     * @return itself
+     */
+    public FluidSolver3D setSolverMode(LinearSolverMode solverMode) {
+        this.solverMode = solverMode;
+        return this;
+    }
+
+    private double removeMean(final float[] r, final float[] dir,
+            final double[] sums) {
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    double sum = 0;
+                    for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                        sum += r[idx];
+                    }
+                    sums[row] = sum;
+                }
+            }
+        });
+        final float mean = (float) (sumRows(sums) / (sm2 * sm2 * sm2));
+        run(new RangeTask() {
+
+            public void process(int from, int to) {
+                for (int row = from; row < to; row++) {
+                    double sum = 0;
+                    for (int i = 1, idx = rowIndex(row); i < sm1; i++, idx++) {
+                        float ri = r[idx] - mean;
+                        r[idx] = ri;
+                        dir[idx] = ri;
+                        sum += ri * ri;
+                    }
+                    sums[row] = sum;
+                }
+            }
+        });
+        return sumRows(sums);
+    }
+
+    private double sumRows(double[] sums) {
+        double sum = 0;
+        for (int i = 0; i < sums.length; i++) {
+            sum += sums[i];
+        }
+        return sum;
+    }
+
     public void update() {
         diffuse(1, velX0, velX, visc);
         diffuse(2, velY0, velY, visc);
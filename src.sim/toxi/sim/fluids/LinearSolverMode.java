@@ -0,0 +1,59 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.sim.fluids;
+
+/**
+ * Methods available to the fluid solvers for the implicit diffusion and
+ * pressure projection steps.
+ */
+public enum LinearSolverMode {
+
+    /**
+     * Classic in-place Gauss-Seidel relaxation. Since each cell update depends
+     * on the previous one, this mode can't be parallelized and solvers with
+     * an executor will use {@link #RED_BLACK} instead.
+     */
+    GAUSS_SEIDEL,
+
+    /**
+     * Gauss-Seidel relaxation using checkerboard ordering: All cells of one
+     * color only depend on cells of the other, so each half sweep can be
+     * processed in parallel. Converges at the same rate as
+     * {@link #GAUSS_SEIDEL}, but results differ slightly.
+     */
+    RED_BLACK,
+
+    /**
+     * Conjugate gradient method. Converges much faster than relaxation for
+     * large grids (especially for the pressure projection), at the cost of
+     * more work per iteration. The solver's number of iterations is used as
+     * maximum.
+     */
+    CONJUGATE_GRADIENT;
+}
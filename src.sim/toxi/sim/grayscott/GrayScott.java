@@ -27,8 +27,13 @@
 
 package toxi.sim.grayscott;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import toxi.geom.Rect;
 import toxi.math.MathUtils;
+import toxi.util.ParallelExecutor;
 
 /**
  * Implementation of the Gray-Scott reaction diffusion model described in detail
@@ -41,6 +46,11 @@ import toxi.math.MathUtils;
  */
 public class GrayScott {
 
+    /**
+     * Min. number of rows per band in parallel mode
+     */
+    public static final int MIN_BAND_HEIGHT = 16;
+
     public float[] u, v;
     protected float[] uu, vv;
 
@@ -51,6 +61,24 @@ public class GrayScott {
 
     protected boolean isTiling;
 
+    /**
+     * Optional executor to enable the parallel update mode
+     */
+    protected ParallelExecutor executor;
+
+    /**
+     * Number of steps computed per band before synchronizing
+     */
+    protected int blockSteps = 1;
+
+    private float[][] blockBuffers;
+
+    /**
+     * True, if F & K coefficients are constant (i.e. not overridden by
+     * subclasses)
+     */
+    private final boolean isUniform;
+
     public GrayScott(int width, int height, boolean wrap) {
         this.width = width;
         this.height = height;
@@ -59,11 +87,40 @@ public class GrayScott {
         this.uu = new float[u.length];
         this.vv = new float[u.length];
         this.isTiling = wrap;
+        this.isUniform = !isOverridden("getFCoeffAt")
+                && !isOverridden("getKCoeffAt");
         reset();
         // default config
         setCoefficients(0.023f, 0.077f, 0.16f, 0.08f);
     }
 
+    private float[][] getBlockBuffers(int band, int size) {
+        int n = (band + 1) * 4;
+        if (blockBuffers == null || blockBuffers.length < n) {
+            float[][] buf = new float[n][];
+            if (blockBuffers != null) {
+                System.arraycopy(blockBuffers, 0, buf, 0, blockBuffers.length);
+            }
+            blockBuffers = buf;
+        }
+        float[][] result = new float[4][];
+        for (int i = 0; i < 4; i++) {
+            float[] b = blockBuffers[band * 4 + i];
+            if (b == null || b.length < size) {
+                b = blockBuffers[band * 4 + i] = new float[size];
+            }
+            result[i] = b;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of steps computed per band before synchronizing
+     */
+    public int getBlockSteps() {
+        return blockSteps;
+    }
+
     /**
      * Convenience method to access U array using 2D coordinates.
      * 
@@ -106,6 +163,14 @@ public class GrayScott {
         return dV;
     }
 
+    /**
+     * @return the executor used for the parallel update mode (or null, if
+     *         running single threaded)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
     /**
      * @return the F coefficient
      */
@@ -118,7 +183,8 @@ public class GrayScott {
      * reaction diffusion, based on spatial (or other) parameters. This method
      * is called for every cell/pixel of the simulation space from the main
      * {@link #update(float)} cycle and can be used to create parameter
-     * gradients, animations and other spatial or temporal modulations.
+     * gradients, animations and other spatial or temporal modulations. In
+     * tiling mode, the wrapped border cells always use the global F value.
      * 
      * @param x
      * @param y
@@ -140,7 +206,8 @@ public class GrayScott {
      * reaction diffusion, based on spatial (or other) parameters. This method
      * is called for every cell/pixel of the simulation space and can be used to
      * create parameter gradients, animations and other spatial or temporal
-     * modulations.
+     * modulations. In tiling mode, the wrapped border cells always use the
+     * global K value.
      * 
      * @param x
      * @param y
@@ -150,6 +217,34 @@ public class GrayScott {
         return k;
     }
 
+    private int getNumBands() {
+        if (executor == null) {
+            return 1;
+        }
+        int num = MathUtils.min(executor.getNumThreads(), height
+                / MIN_BAND_HEIGHT);
+        return MathUtils.max(num, 1);
+    }
+
+    private int getRow(int y) {
+        if (isTiling) {
+            y %= height;
+            if (y < 0) {
+                y += height;
+            }
+        }
+        return y;
+    }
+
+    private boolean isOverridden(String method) {
+        try {
+            return getClass().getMethod(method, int.class, int.class)
+                    .getDeclaringClass() != GrayScott.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
     /**
      * @return the isTiling
      */
@@ -184,6 +279,21 @@ public class GrayScott {
         }
     }
 
+    /**
+     * Sets the number of simulation steps each band of the grid computes
+     * before synchronizing with the other bands in parallel mode. Values > 1
+     * reduce the number of synchronization points per
+     * {@link #update(float, int)} batch, at the cost of redundantly computing
+     * (blockSteps - 1) extra rows on both sides of each band.
+     * 
+     * @param blockSteps
+     * @return itself
+     */
+    public GrayScott setBlockSteps(int blockSteps) {
+        this.blockSteps = MathUtils.max(blockSteps, 1);
+        return this;
+    }
+
     public void setCoefficients(float f, float k, float dU, float dV) {
         this.f = f;
         this.k = k;
@@ -207,6 +317,20 @@ public class GrayScott {
         this.dV = dV;
     }
 
+    /**
+     * Sets the executor to use for the parallel update mode. If F & K
+     * coefficients are modulated by overriding {@link #getFCoeffAt(int, int)}
+     * or {@link #getKCoeffAt(int, int)}, these methods must be thread safe.
+     * 
+     * @param executor
+     *            executor instance or null to update single threaded
+     * @return itself
+     */
+    public GrayScott setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     /**
      * @param f
      *            the F coefficient to set
@@ -223,6 +347,28 @@ public class GrayScott {
         this.k = k;
     }
 
+    /**
+     * Copies the fixed border cells of the current state into the previous
+     * state buffers, as required when the buffers are alternated between
+     * steps in non-tiling mode. Called after the first step of a batch, since
+     * that one still reads the (possibly seeded) borders of the previous
+     * state.
+     */
+    private void syncBorders() {
+        int h1 = height - 1;
+        int w1 = width - 1;
+        System.arraycopy(u, 0, uu, 0, width);
+        System.arraycopy(v, 0, vv, 0, width);
+        System.arraycopy(u, h1 * width, uu, h1 * width, width);
+        System.arraycopy(v, h1 * width, vv, h1 * width, width);
+        for (int y = 1, idx = width; y < h1; y++, idx += width) {
+            uu[idx] = u[idx];
+            vv[idx] = v[idx];
+            uu[idx + w1] = u[idx + w1];
+            vv[idx + w1] = v[idx + w1];
+        }
+    }
+
     /**
      * @param x
      * @param y
@@ -255,140 +401,201 @@ public class GrayScott {
         this.isTiling = isTiling;
     }
 
+    /**
+     * Performs a single simulation step.
+     * 
+     * @param t
+     *            time step (0.0 .. 1.0)
+     */
     public void update(float t) {
-        t = MathUtils.clip(t, 0, 1f);
-        int w1 = width - 1;
-        int h1 = height - 1;
-        for (int y = 1; y < h1; y++) {
-            for (int x = 1; x < w1; x++) {
-                int idx = y * width + x;
-                int top = idx - width;
-                int bottom = idx + width;
-                int left = idx - 1;
-                int right = idx + 1;
-                float currF = getFCoeffAt(x, y);
-                float currK = getKCoeffAt(x, y);
-                float currU = uu[idx];
-                float currV = vv[idx];
-                float d2 = currU * currV * currV;
-                u[idx] = MathUtils
-                        .max(0,
-                                currU
-                                        + t
-                                        * ((dU
-                                                * ((uu[right] + uu[left]
-                                                        + uu[bottom] + uu[top]) - 4 * currU) - d2) + currF
-                                                * (1.0f - currU)));
-                v[idx] = MathUtils
-                        .max(0,
-                                currV
-                                        + t
-                                        * ((dV
-                                                * ((vv[right] + vv[left]
-                                                        + vv[bottom] + vv[top]) - 4 * currV) + d2) - currK
-                                                * currV));
+        update(t, 1);
+    }
+
+    /**
+     * Performs the given number of simulation steps in one batch. Steps are
+     * computed alternating between the current and previous state buffers and
+     * both are only synchronized once at the end of the batch. If an executor
+     * is set, the grid is split into horizontal bands which are updated
+     * concurrently and, if the number of block steps is greater than 1, each
+     * band computes that many steps before waiting for the others (see
+     * {@link #setBlockSteps(int)}).
+     * 
+     * @param t
+     *            time step (0.0 .. 1.0)
+     * @param numSteps
+     *            number of steps
+     */
+    public void update(float t, int numSteps) {
+        if (numSteps < 1) {
+            return;
+        }
+        final float dt = MathUtils.clip(t, 0, 1f);
+        float[] su = uu;
+        float[] sv = vv;
+        float[] du = u;
+        float[] dv = v;
+        int numBands = getNumBands();
+        boolean isFirst = true;
+        while (numSteps > 0) {
+            final int steps = numBands > 1 && (isTiling || !isFirst) ? MathUtils
+                    .min(numSteps, blockSteps) : 1;
+            if (numBands > 1) {
+                final float[] srcU = su, srcV = sv, destU = du, destV = dv;
+                List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(
+                        numBands);
+                for (int i = 0; i < numBands; i++) {
+                    final int y0 = (int) ((long) height * i / numBands);
+                    final int y1 = (int) ((long) height * (i + 1) / numBands);
+                    final float[][] buf = steps > 1 ? getBlockBuffers(i,
+                            (y1 - y0 + 2 * (steps - 1)) * width) : null;
+                    jobs.add(new Callable<Object>() {
+
+                        public Object call() {
+                            updateBand(dt, y0, y1, steps, srcU, srcV, destU,
+                                    destV, buf);
+                            return null;
+                        }
+                    });
+                }
+                executor.invokeAll(jobs);
+            } else {
+                updateBand(dt, 0, height, 1, su, sv, du, dv, null);
+            }
+            numSteps -= steps;
+            if (isFirst && !isTiling && numSteps > 0) {
+                syncBorders();
             }
+            isFirst = false;
+            float[] tmp = su;
+            su = du;
+            du = tmp;
+            tmp = sv;
+            sv = dv;
+            dv = tmp;
         }
+        // su/sv contain latest state
+        if (su == u) {
+            System.arraycopy(u, 0, uu, 0, u.length);
+            System.arraycopy(v, 0, vv, 0, v.length);
+        } else {
+            System.arraycopy(uu, 0, u, 0, u.length);
+            System.arraycopy(vv, 0, v, 0, v.length);
+        }
+    }
 
-        if (isTiling) {
-            int w2 = w1 - 1;
-            int idxH1 = h1 * width;
-            int idxH2 = (h1 - 1) * width;
-            for (int x = 0; x < width; x++) {
-                int left = (x == 0 ? w1 : x - 1);
-                int right = (x == w1 ? 0 : x + 1);
-                int idx = idxH1 + x;
-                float cu = uu[x];
-                float cv = vv[x];
-                float cui = uu[idx];
-                float cvi = vv[idx];
-                float d = cu * cv * cv;
-                u[x] = MathUtils
-                        .max(0,
-                                cu
-                                        + t
-                                        * ((dU
-                                                * ((uu[right] + uu[left]
-                                                        + uu[width + x] + cui) - 4 * cu) - d) + f
-                                                * (1.0f - cu)));
-                v[x] = MathUtils
-                        .max(0,
-                                cv
-                                        + t
-                                        * ((dV
-                                                * ((vv[right] + vv[left]
-                                                        + vv[width + x] + cvi) - 4 * cv) + d) - k
-                                                * cv));
-                d = cui * cvi * cvi;
-                u[idx] = MathUtils
-                        .max(0,
-                                cui
-                                        + t
-                                        * ((dU
-                                                * ((uu[idxH1 + right]
-                                                        + uu[idxH1 + left] + cu + uu[idxH2
-                                                        + x]) - 4 * cui) - d) + f
-                                                * (1.0f - cui)));
-                v[idx] = MathUtils
-                        .max(0,
-                                cvi
-                                        + t
-                                        * ((dU
-                                                * ((vv[idxH1 + right]
-                                                        + vv[idxH1 + left] + cv + vv[idxH2
-                                                        + x]) - 4 * cvi) + d) - k
-                                                * cvi));
+    /**
+     * Computes the given number of steps for all rows of the band y0 ... y1
+     * (exclusive), reading from the src and writing the final state into the
+     * dest buffers. For multiple steps, the band is extended by a halo of
+     * (numSteps - 1) rows on each side, which is redundantly computed in the
+     * given local buffers and shrinks by one row on each side per step.
+     */
+    protected void updateBand(float t, int y0, int y1, int numSteps,
+            float[] su, float[] sv, float[] du, float[] dv, float[][] buf) {
+        int h1 = height - 1;
+        int base = y0 - (numSteps - 1);
+        float[] srcU = su;
+        float[] srcV = sv;
+        boolean isSrcLocal = false;
+        for (int j = 1; j <= numSteps; j++) {
+            boolean isLast = j == numSteps;
+            float[] destU = isLast ? du : buf[(j & 1) * 2];
+            float[] destV = isLast ? dv : buf[(j & 1) * 2 + 1];
+            for (int r = y0 - (numSteps - j), r1 = y1 + (numSteps - j); r < r1; r++) {
+                int y = getRow(r);
+                int idx = isSrcLocal ? (r - base) * width : y * width;
+                int out = isLast ? y * width : (r - base) * width;
+                if (!isTiling && (r < 1 || r >= h1)) {
+                    // fixed border rows are only needed in local buffers
+                    if (!isLast && r >= 0 && r < height) {
+                        System.arraycopy(srcU, idx, destU, out, width);
+                        System.arraycopy(srcV, idx, destV, out, width);
+                    }
+                    continue;
+                }
+                int up = isSrcLocal ? idx - width : getRow(r - 1) * width;
+                int down = isSrcLocal ? idx + width : getRow(r + 1) * width;
+                updateRow(t, y, srcU, srcV, up, idx, down, destU, destV, out);
+                if (!isTiling && !isLast) {
+                    int w1 = width - 1;
+                    destU[out] = srcU[idx];
+                    destV[out] = srcV[idx];
+                    destU[out + w1] = srcU[idx + w1];
+                    destV[out + w1] = srcV[idx + w1];
+                }
             }
+            srcU = destU;
+            srcV = destV;
+            isSrcLocal = true;
+        }
+    }
+
+    /**
+     * Updates a single wrapped border cell in tiling mode.
+     */
+    private void updateCell(float t, float[] su, float[] sv, int idx,
+            int left, int right, int top, int bottom, float[] du, float[] dv,
+            int out) {
+        // wrapped border cells always use the global coefficients
+        float currF = f;
+        float currK = k;
+        float currU = su[idx];
+        float currV = sv[idx];
+        float d2 = currU * currV * currV;
+        float nu = currU
+                + t
+                * ((dU * ((su[right] + su[left] + su[bottom] + su[top]) - 4 * currU) - d2) + currF
+                        * (1.0f - currU));
+        float nv = currV
+                + t
+                * ((dV * ((sv[right] + sv[left] + sv[bottom] + sv[top]) - 4 * currV) + d2) - currK
+                        * currV);
+        du[out] = nu < 0 ? 0 : nu;
+        dv[out] = nv < 0 ? 0 : nv;
+    }
 
-            for (int y = 0; y < height; y++) {
-                int idx = y * width;
-                int idxW1 = idx + w1;
-                int idxW2 = idx + w2;
-                float cu = uu[idx];
-                float cv = vv[idx];
-                float cui = uu[idxW1];
-                float cvi = vv[idxW1];
-                float d = cu * cv * cv;
-                int up = (y == 0 ? h1 : y - 1) * width;
-                int down = (y == h1 ? 0 : y + 1) * width;
-                u[idx] = MathUtils
-                        .max(0,
-                                cu
-                                        + t
-                                        * ((dU
-                                                * ((uu[idx + 1] + cui
-                                                        + uu[down] + uu[up]) - 4 * cu) - d) + f
-                                                * (1.0f - cu)));
-                v[idx] = MathUtils
-                        .max(0,
-                                cv
-                                        + t
-                                        * ((dV
-                                                * ((vv[idx + 1] + cvi
-                                                        + vv[down] + vv[up]) - 4 * cv) + d) - k
-                                                * cv));
-                d = cui * cvi * cvi;
-                u[idxW1] = MathUtils
-                        .max(0,
-                                cui
-                                        + t
-                                        * ((dU
-                                                * ((cu + uu[idxW2]
-                                                        + uu[down + w1] + uu[up
-                                                        + w1]) - 4 * cui) - d) + f
-                                                * (1.0f - cui)));
-                v[idxW1] = MathUtils
-                        .max(0,
-                                cvi
-                                        + t
-                                        * ((dV
-                                                * ((cv + vv[idxW2]
-                                                        + vv[down + w1] + vv[up
-                                                        + w1]) - 4 * cvi) + d) - k
-                                                * cvi));
+    /**
+     * Updates a single row of the simulation grid. The row's own and its
+     * neighbour rows are given as start indices into the source buffers.
+     */
+    private void updateRow(float t, int y, float[] su, float[] sv, int up,
+            int idx, int down, float[] du, float[] dv, int out) {
+        int w1 = width - 1;
+        if (isTiling) {
+            updateCell(t, su, sv, idx, idx + w1, idx + 1, up, down, du, dv,
+                    out);
+            updateCell(t, su, sv, idx + w1, idx + w1 - 1, idx, up + w1,
+                    down + w1, du, dv, out + w1);
+        }
+        float currF = f;
+        float currK = k;
+        // wrapped top & bottom rows (only updated in tiling mode) always use
+        // the global coefficients
+        boolean isModulated = !isUniform && y > 0 && y < height - 1;
+        for (int x = 1; x < w1; x++) {
+            int i = idx + x;
+            int o = out + x;
+            if (isModulated) {
+                currF = getFCoeffAt(x, y);
+                currK = getKCoeffAt(x, y);
             }
+            float currU = su[i];
+            float currV = sv[i];
+            float d2 = currU * currV * currV;
+            float nu = currU
+                    + t
+                    * ((dU
+                            * ((su[i + 1] + su[i - 1] + su[down + x] + su[up
+                                    + x]) - 4 * currU) - d2) + currF
+                            * (1.0f - currU));
+            float nv = currV
+                    + t
+                    * ((dV
+                            * ((sv[i + 1] + sv[i - 1] + sv[down + x] + sv[up
+                                    + x]) - 4 * currV) + d2) - currK
+                            * currV);
+            du[o] = nu < 0 ? 0 : nu;
+            dv[o] = nv < 0 ? 0 : nv;
         }
-        System.arraycopy(u, 0, uu, 0, u.length);
-        System.arraycopy(v, 0, vv, 0, v.length);
     }
 }
@@ -13,12 +13,14 @@ public class AllGeomTests {
         suite.addTestSuite(Line2DTest.class);
         suite.addTestSuite(Line3DTest.class);
         suite.addTestSuite(MatrixTest.class);
+        suite.addTestSuite(MeshReaderTest.class);
         suite.addTestSuite(Origin3DTest.class);
         suite.addTestSuite(PlaneTest.class);
         suite.addTestSuite(PolygonTest.class);
         suite.addTestSuite(QuaternionTest.class);
         suite.addTestSuite(RectTest.class);
         suite.addTestSuite(SphereTest.class);
+        suite.addTestSuite(StreamingMeshWriterTest.class);
         suite.addTestSuite(TreeTest.class);
         suite.addTestSuite(Triangle2DTest.class);
         suite.addTestSuite(TriangleMeshTest.class);
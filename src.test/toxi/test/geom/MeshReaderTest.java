@@ -0,0 +1,126 @@
+package toxi.test.geom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import toxi.geom.Sphere;
+import toxi.geom.Vec3D;
+import toxi.geom.mesh.Face;
+import toxi.geom.mesh.OBJReader;
+import toxi.geom.mesh.PLYReader;
+import toxi.geom.mesh.PLYWriter;
+import toxi.geom.mesh.TriangleMesh;
+import toxi.util.ParallelExecutor;
+
+public class MeshReaderTest extends TestCase {
+
+    TriangleMesh mesh;
+
+    ParallelExecutor executor;
+
+    private void assertSameFaces(TriangleMesh expected, TriangleMesh m) {
+        assertEquals(expected.getNumVertices(), m.getNumVertices());
+        assertEquals(expected.getNumFaces(), m.getNumFaces());
+        for (int i = 0; i < expected.faces.size(); i++) {
+            Face f = expected.faces.get(i);
+            Face g = m.faces.get(i);
+            assertEquals(f.a, g.a);
+            assertEquals(f.b, g.b);
+            assertEquals(f.c, g.c);
+        }
+    }
+
+    private File writeTempFile(String suffix, String content)
+            throws IOException {
+        File file = File.createTempFile("meshreadertest", suffix);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mesh = new TriangleMesh();
+        mesh.addMesh(new Sphere(100).toMesh(null, 40));
+        executor = new ParallelExecutor(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        super.tearDown();
+    }
+
+    public void testOBJParser() throws IOException {
+        // CRLF line endings, exponents, relative indices, v/vt/vn & quads
+        File file = writeTempFile(".obj", "# test\r\n" + "v 0 0 0\r\n"
+                + "v 1e2 0.0 0\r\n" + "v 100 1.0E+2 0\r\n"
+                + "v 0 10000e-2 0\r\n" + "vt 0 0\r\n" + "vn 0 0 1\r\n"
+                + "f -4/1/1 -3/1/1 -2/1/1 -1/1/1\r\n"
+                + "v 0 0 -100\r\n" + "f 1//1 5//1 2//1\r\n"
+                + "f 1/1 4/1 5/1\r\n");
+        try {
+            TriangleMesh m = (TriangleMesh) new OBJReader().load(file,
+                    TriangleMesh.class, null);
+            assertEquals(5, m.getNumVertices());
+            assertEquals(4, m.getNumFaces());
+            // first two vertices are swapped, quads are split into fans
+            Face f = m.faces.get(0);
+            assertEquals(new Vec3D(100, 0, 0), f.a);
+            assertEquals(new Vec3D(0, 0, 0), f.b);
+            assertEquals(new Vec3D(100, 100, 0), f.c);
+            f = m.faces.get(1);
+            assertEquals(new Vec3D(100, 100, 0), f.a);
+            assertEquals(new Vec3D(0, 0, 0), f.b);
+            assertEquals(new Vec3D(0, 100, 0), f.c);
+            f = m.faces.get(2);
+            assertEquals(new Vec3D(0, 0, -100), f.a);
+            assertEquals(new Vec3D(0, 0, 0), f.b);
+            assertEquals(new Vec3D(100, 0, 0), f.c);
+            f = m.faces.get(3);
+            assertEquals(new Vec3D(0, 100, 0), f.a);
+            assertEquals(new Vec3D(0, 0, 0), f.b);
+            assertEquals(new Vec3D(0, 0, -100), f.c);
+            assertSameFaces(m, (TriangleMesh) new OBJReader().load(file,
+                    TriangleMesh.class, executor));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testOBJRoundtrip() throws IOException {
+        File file = File.createTempFile("meshreadertest", ".obj");
+        try {
+            mesh.saveAsOBJ(file.getPath());
+            OBJReader reader = new OBJReader();
+            assertSameFaces(mesh, (TriangleMesh) reader.load(file,
+                    TriangleMesh.class, null));
+            assertSameFaces(mesh, (TriangleMesh) reader.load(file,
+                    TriangleMesh.class, executor));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testPLYRoundtrip() throws IOException {
+        File file = File.createTempFile("meshreadertest", ".ply");
+        try {
+            new PLYWriter().saveMesh(mesh, file.getPath());
+            PLYReader reader = new PLYReader();
+            reader.setSwapYZ(true);
+            assertSameFaces(mesh, (TriangleMesh) reader.load(file,
+                    TriangleMesh.class, null));
+            assertSameFaces(mesh, (TriangleMesh) reader.load(file,
+                    TriangleMesh.class, executor));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package toxi.test.geom;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import toxi.geom.Sphere;
+import toxi.geom.mesh.Face;
+import toxi.geom.mesh.OBJReader;
+import toxi.geom.mesh.PLYReader;
+import toxi.geom.mesh.StreamingMeshWriter;
+import toxi.geom.mesh.StreamingOBJWriter;
+import toxi.geom.mesh.StreamingPLYWriter;
+import toxi.geom.mesh.StreamingSTLWriter;
+import toxi.geom.mesh.TriangleMesh;
+
+public class StreamingMeshWriterTest extends TestCase {
+
+    TriangleMesh mesh;
+
+    private void assertSameFaces(TriangleMesh m, float tolerance) {
+        assertEquals(mesh.getNumVertices(), m.getNumVertices());
+        assertEquals(mesh.getNumFaces(), m.getNumFaces());
+        for (int i = 0; i < mesh.faces.size(); i++) {
+            Face f = mesh.faces.get(i);
+            Face g = m.faces.get(i);
+            assertTrue(f.a.equalsWithTolerance(g.a, tolerance));
+            assertTrue(f.b.equalsWithTolerance(g.b, tolerance));
+            assertTrue(f.c.equalsWithTolerance(g.c, tolerance));
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File save(StreamingMeshWriter writer, String suffix)
+            throws IOException {
+        File file = File.createTempFile("streamingwritertest", suffix);
+        writer.beginSave(file);
+        writer.addMesh(mesh);
+        writer.endSave();
+        assertEquals(mesh.getNumFaces(), writer.getNumFaces());
+        return file;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mesh = new TriangleMesh();
+        mesh.addMesh(new Sphere(100).toMesh(null, 40));
+    }
+
+    public void testOBJ() throws IOException {
+        File file = save(new StreamingOBJWriter(), ".obj");
+        try {
+            assertSameFaces((TriangleMesh) new OBJReader().load(file,
+                    TriangleMesh.class, null), 1e-5f);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testPLY() throws IOException {
+        File file = save(new StreamingPLYWriter(), ".ply");
+        try {
+            PLYReader reader = new PLYReader();
+            reader.setSwapYZ(true);
+            assertSameFaces((TriangleMesh) reader.load(file,
+                    TriangleMesh.class, null), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testSTL() throws IOException {
+        File file = save(new StreamingSTLWriter(), ".stl");
+        File expected = File.createTempFile("streamingwritertest", ".stl");
+        try {
+            mesh.saveAsSTL(expected.getPath());
+            assertTrue(Arrays.equals(readFile(expected), readFile(file)));
+        } finally {
+            file.delete();
+            expected.delete();
+        }
+    }
+}
@@ -4,15 +4,35 @@ import java.util.List;
 
 import junit.framework.TestCase;
 import toxi.geom.AABB;
+import toxi.geom.LinearPointOctree;
 import toxi.geom.PointOctree;
 import toxi.geom.PointQuadtree;
 import toxi.geom.Rect;
+import toxi.geom.SpatialGrid3D;
 import toxi.geom.Sphere;
 import toxi.geom.Vec2D;
 import toxi.geom.Vec3D;
 
 public class TreeTest extends TestCase {
 
+    public void testLinearOctree() {
+        float[] xyz = new float[] {
+                0, 0, 0, 1, 0, 0, 0, 100, 0, 50, 50, 50
+        };
+        LinearPointOctree t = new LinearPointOctree(xyz, 4, null);
+        assertEquals(4, t.getNumPoints());
+        assertEquals(1, t.getNearest(new Vec3D(2, 0, 0)));
+        assertEquals(3, t.getNearest(new Vec3D(60, 40, 50)));
+        List<Vec3D> points = t.getPointsWithinSphere(new Vec3D(50, 0, 0), 50);
+        assertEquals(2, points.size());
+        points = t.getPointsWithinBox(new AABB(new Vec3D(50, 50, 50),
+                new Vec3D(50, 50, 50)));
+        assertEquals(4, points.size());
+        points = t.getKNearest(new Vec3D(0, 90, 0), 2);
+        assertEquals(new Vec3D(0, 100, 0), points.get(0));
+        assertEquals(new Vec3D(50, 50, 50), points.get(1));
+    }
+
     public void testOctree() {
         PointOctree t = new PointOctree(new Vec3D(), 100);
         t.setMinNodeSize(0.5f);
@@ -29,6 +49,10 @@ public class TreeTest extends TestCase {
         points = t.getPointsWithinBox(new AABB(new Vec3D(50, 50, 50),
                 new Vec3D(50, 50, 50)));
         assertEquals(points.size() == 3, true);
+        points = t.getKNearest(new Vec3D(2, 0, 0), 2);
+        assertEquals(2, points.size());
+        assertEquals(new Vec3D(1, 0, 0), points.get(0));
+        assertEquals(new Vec3D(0, 0, 0), points.get(1));
     }
 
     public void testQuadtree() {
@@ -43,4 +67,21 @@ public class TreeTest extends TestCase {
         assertEquals(2, points.size());
     }
 
+    public void testSpatialGrid() {
+        SpatialGrid3D g = new SpatialGrid3D(new AABB(new Vec3D(50, 50, 50),
+                new Vec3D(50, 50, 50)), 10);
+        Vec3D a = new Vec3D(5, 5, 5);
+        assertTrue(g.index(a));
+        assertTrue(g.index(new Vec3D(12, 5, 5)));
+        assertTrue(g.index(new Vec3D(90, 90, 90)));
+        assertEquals(3, g.size());
+        List<Vec3D> points = g.itemsWithinRadius(new Vec3D(8, 5, 5), 5, null);
+        assertEquals(2, points.size());
+        assertTrue(g.reindex(a, new Vec3D(80, 80, 80)));
+        points = g.itemsWithinRadius(new Vec3D(8, 5, 5), 5, null);
+        assertEquals(1, points.size());
+        g.clear();
+        assertEquals(0, g.size());
+        assertNull(g.itemsWithinRadius(new Vec3D(8, 5, 5), 5, null));
+    }
 }
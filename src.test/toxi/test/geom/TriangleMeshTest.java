@@ -1,10 +1,15 @@
 package toxi.test.geom;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
+import toxi.geom.Sphere;
+import toxi.geom.Vec2D;
 import toxi.geom.Vec3D;
 import toxi.geom.mesh.Face;
+import toxi.geom.mesh.MeshDecimator;
+import toxi.geom.mesh.PackedTriangleMesh;
 import toxi.geom.mesh.STLReader;
 import toxi.geom.mesh.TriangleMesh;
 import toxi.geom.mesh.Vertex;
@@ -13,6 +18,48 @@ public class TriangleMeshTest extends TestCase {
 
     TriangleMesh mesh;
 
+    /**
+     * Adds a tetrahedron with UVs and two inwards facing triangles to both
+     * meshes.
+     */
+    private void addTetrahedron(TriangleMesh m, PackedTriangleMesh pm) {
+        Vec3D[] v = new Vec3D[] {
+                new Vec3D(0, 0, 0), new Vec3D(100, 0, 0),
+                new Vec3D(0, 100, 0), new Vec3D(0, 0, 100)
+        };
+        int[][] tris = new int[][] {
+                { 0, 2, 1 }, { 0, 1, 3 }, { 0, 2, 3 }, { 1, 3, 2 }
+        };
+        for (int i = 0; i < tris.length; i++) {
+            int[] t = tris[i];
+            Vec2D uvA = new Vec2D(i, 0);
+            Vec2D uvB = new Vec2D(i, 1);
+            Vec2D uvC = new Vec2D(i + 1, 1);
+            m.addFace(v[t[0]], v[t[1]], v[t[2]], uvA, uvB, uvC);
+            pm.addFace(v[t[0]], v[t[1]], v[t[2]], uvA, uvB, uvC);
+        }
+    }
+
+    private void assertSameMesh(TriangleMesh m, PackedTriangleMesh pm) {
+        assertEquals(m.getNumVertices(), pm.getNumVertices());
+        assertEquals(m.getNumFaces(), pm.getNumFaces());
+        List<Face> packed = pm.getFaces();
+        for (int i = 0; i < m.faces.size(); i++) {
+            Face f = m.faces.get(i);
+            Face pf = packed.get(i);
+            assertEquals(f.a.id, pf.a.id);
+            assertEquals(f.b.id, pf.b.id);
+            assertEquals(f.c.id, pf.c.id);
+            assertEquals(f.a, pf.a);
+            assertEquals(f.b, pf.b);
+            assertEquals(f.c, pf.c);
+            assertTrue(f.normal.equalsWithTolerance(pf.normal, 0.0001f));
+            assertEquals(f.uvA, pf.uvA);
+            assertEquals(f.uvB, pf.uvB);
+            assertEquals(f.uvC, pf.uvC);
+        }
+    }
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
@@ -24,12 +71,68 @@ public class TriangleMeshTest extends TestCase {
                 new Vec3D(0, 0, -100));
     }
 
+    public void testDecimate() {
+        mesh = new TriangleMesh();
+        mesh.addMesh(new Sphere(100).toMesh(null, 40));
+        int numFaces = mesh.getNumFaces();
+        new MeshDecimator(numFaces / 4).decimate(mesh);
+        assertTrue(mesh.getNumFaces() <= numFaces / 4);
+        assertEquals(mesh.getNumVertices() * 2 - 4, mesh.getNumFaces());
+        for (Vertex v : mesh.vertices.values()) {
+            assertEquals(100, v.magnitude(), 1);
+        }
+    }
+
     public void testFaceNormals() {
         assertEquals(new Vec3D(0, 0, 1), mesh.faces.get(0).normal);
         assertEquals(new Vec3D(1, 0, 0), mesh.faces.get(1).normal);
         assertEquals(new Vec3D(0, 0, -1), mesh.faces.get(2).normal);
     }
 
+    public void testPackedFaceOutwards() {
+        TriangleMesh m = new TriangleMesh();
+        PackedTriangleMesh pm = new PackedTriangleMesh();
+        addTetrahedron(m, pm);
+        assertSameMesh(m, pm);
+        m.faceOutwards();
+        pm.faceOutwards();
+        assertSameMesh(m, pm);
+    }
+
+    public void testPackedFlipVertexOrder() {
+        TriangleMesh m = new TriangleMesh();
+        PackedTriangleMesh pm = new PackedTriangleMesh();
+        addTetrahedron(m, pm);
+        m.flipVertexOrder();
+        pm.flipVertexOrder();
+        assertSameMesh(m, pm);
+        assertEquals(new Vec2D(0, 1), pm.getFaces().get(0).uvA);
+        assertEquals(new Vec2D(0, 0), pm.getFaces().get(0).uvB);
+    }
+
+    public void testPackedFlipYAxis() {
+        TriangleMesh m = new TriangleMesh();
+        PackedTriangleMesh pm = new PackedTriangleMesh();
+        addTetrahedron(m, pm);
+        m.flipYAxis();
+        pm.flipYAxis();
+        assertSameMesh(m, pm);
+    }
+
+    public void testPackedPartialUV() {
+        PackedTriangleMesh pm = new PackedTriangleMesh();
+        pm.addFace(new Vec3D(), new Vec3D(100, 0, 0), new Vec3D(0, 100, 0),
+                new Vec2D(0, 0), null, null);
+        pm.addFace(new Vec3D(), new Vec3D(0, 100, 0), new Vec3D(0, 0, 100),
+                new Vec2D(0, 0), new Vec2D(1, 0), new Vec2D(1, 1));
+        assertEquals(2, pm.getNumFaces());
+        assertFalse(pm.hasUV(0));
+        assertTrue(pm.hasUV(1));
+        pm.flipVertexOrder();
+        assertFalse(pm.hasUV(0));
+        assertEquals(new Vec2D(1, 0), pm.getFaces().get(1).uvA);
+    }
+
     public void testSTLImport() {
         double total = 0;
         int numIter = 100;
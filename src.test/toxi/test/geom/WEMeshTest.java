@@ -4,11 +4,16 @@ import junit.framework.TestCase;
 import toxi.geom.Triangle3D;
 import toxi.geom.Vec3D;
 import toxi.geom.mesh.Face;
+import toxi.geom.mesh.SmoothFilter;
+import toxi.geom.mesh.TaubinSmooth;
+import toxi.geom.mesh.Vertex;
+import toxi.geom.mesh.VertexAdjacency;
 import toxi.geom.mesh.WEFace;
 import toxi.geom.mesh.WETriangleMesh;
 import toxi.geom.mesh.WEVertex;
 import toxi.geom.mesh.WingedEdge;
 import toxi.geom.mesh.subdiv.MidpointSubdivision;
+import toxi.util.ParallelExecutor;
 
 public class WEMeshTest extends TestCase {
 
@@ -64,6 +69,22 @@ public class WEMeshTest extends TestCase {
         assertEquals(3, m.vertices.size());
     }
 
+    public void testSmooth() {
+        m.subdivide();
+        SmoothFilter filter = new TaubinSmooth();
+        filter.filter(m, 2);
+        for (Vertex v : m.vertices.values()) {
+            assertEquals(0, v.z, 0.0001f);
+        }
+        // incremental smoothing with re-used adjacency
+        VertexAdjacency adj = new VertexAdjacency(m, m.getVertices());
+        filter.filter(adj, 2);
+        assertTrue(adj.isValidFor(m, m.getVertices()));
+        for (Vertex v : m.vertices.values()) {
+            assertEquals(0, v.z, 0.0001f);
+        }
+    }
+
     public void testSplitEdge() {
         WingedEdge e = ((WEVertex) m.vertices.get(new Vec3D())).edges.get(1);
         m.splitEdge(e, new MidpointSubdivision());
@@ -82,5 +103,17 @@ public class WEMeshTest extends TestCase {
     public void testSubdivide() {
         m.subdivide();
         assertEquals(8, m.faces.size());
+        assertEquals(9, m.vertices.size());
+        assertEquals(16, m.edges.size());
+        m.setExecutor(new ParallelExecutor(2));
+        m.subdivide();
+        m.getExecutor().shutdown();
+        assertEquals(32, m.getNumFaces());
+        assertEquals(32, m.faces.size());
+        assertEquals(56, m.edges.size());
+        for (Face f : m.faces) {
+            assertEquals(3, ((WEFace) f).edges.size());
+            assertTrue(f.normal.z < 0);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,123 @@
+package toxi.test.sim;
+
+import junit.framework.TestCase;
+import toxi.sim.grayscott.GrayScott;
+import toxi.util.ParallelExecutor;
+
+public class GrayScottTest extends TestCase {
+
+    static final int WIDTH = 64;
+    static final int HEIGHT = 128;
+    static final int NUM_STEPS = 50;
+
+    static class ModulatedGrayScott extends GrayScott {
+
+        public ModulatedGrayScott(int width, int height, boolean wrap) {
+            super(width, height, wrap);
+        }
+
+        @Override
+        public float getFCoeffAt(int x, int y) {
+            return f + x * 0.0001f;
+        }
+
+        @Override
+        public float getKCoeffAt(int x, int y) {
+            return k - y * 0.00005f;
+        }
+    }
+
+    ParallelExecutor executor;
+
+    private void assertSameState(GrayScott expected, GrayScott gs) {
+        for (int i = 0; i < expected.u.length; i++) {
+            assertEquals(expected.u[i], gs.u[i], 0);
+            assertEquals(expected.v[i], gs.v[i], 0);
+        }
+    }
+
+    /**
+     * Compares batched, blocked & parallel updates with the same number of
+     * single steps.
+     */
+    private void checkUpdateModes(boolean isModulated, boolean isTiling) {
+        GrayScott expected = createSeeded(isModulated, isTiling);
+        for (int i = 0; i < NUM_STEPS; i++) {
+            expected.update(1);
+        }
+        GrayScott gs = createSeeded(isModulated, isTiling);
+        gs.update(1, NUM_STEPS);
+        assertSameState(expected, gs);
+        gs = createSeeded(isModulated, isTiling).setExecutor(executor);
+        gs.update(1, NUM_STEPS);
+        assertSameState(expected, gs);
+        for (int blockSteps = 2; blockSteps <= 8; blockSteps *= 2) {
+            gs = createSeeded(isModulated, isTiling).setExecutor(executor)
+                    .setBlockSteps(blockSteps);
+            // split into 2 batches to also continue from a previous state
+            gs.update(1, NUM_STEPS / 2 - 1);
+            gs.update(1, NUM_STEPS - NUM_STEPS / 2 + 1);
+            assertSameState(expected, gs);
+        }
+    }
+
+    private GrayScott createSeeded(boolean isModulated, boolean isTiling) {
+        GrayScott gs = isModulated ? new ModulatedGrayScott(WIDTH, HEIGHT,
+                isTiling) : new GrayScott(WIDTH, HEIGHT, isTiling);
+        gs.setRect(WIDTH / 2, HEIGHT / 2, 20, 20);
+        gs.setRect(10, 10, 10, 10);
+        gs.setRect(0, HEIGHT - 1, 10, 10);
+        return gs;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor = new ParallelExecutor(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+        super.tearDown();
+    }
+
+    public void testModulated() {
+        checkUpdateModes(true, false);
+        checkUpdateModes(true, true);
+    }
+
+    public void testNonTiling() {
+        checkUpdateModes(false, false);
+    }
+
+    public void testTiling() {
+        checkUpdateModes(false, true);
+    }
+
+    /**
+     * In tiling mode, the simulation is translation invariant, so a pattern
+     * wrapping around the bottom right corner must evolve the same as the
+     * one in the center.
+     */
+    public void testTilingWrap() {
+        GrayScott center = new GrayScott(WIDTH, HEIGHT, true);
+        center.setRect(WIDTH / 2, HEIGHT / 2, 8, 8);
+        GrayScott corner = new GrayScott(WIDTH, HEIGHT, true);
+        corner.setRect(WIDTH - 4, HEIGHT - 4, 8, 8);
+        int dx = WIDTH / 2 - 4;
+        int dy = HEIGHT / 2 - 4;
+        for (int i = 0; i < NUM_STEPS; i++) {
+            center.update(1);
+            corner.update(1);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int j = ((y + dy) % HEIGHT) * WIDTH + (x + dx) % WIDTH;
+                assertEquals(center.u[i], corner.u[j], 0);
+                assertEquals(center.v[i], corner.v[j], 0);
+            }
+        }
+    }
+}
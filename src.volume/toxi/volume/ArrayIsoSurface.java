@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 import toxi.geom.Vec3D;
 import toxi.geom.mesh.Mesh3D;
 import toxi.geom.mesh.TriangleMesh;
+import toxi.util.ParallelExecutor;
 
 /**
  * IsoSurface class based on C version by Paul Bourke and Lingo version by
@@ -56,6 +57,11 @@ public class ArrayIsoSurface implements IsoSurface {
 
     protected Vec3D[] edgeVertices;
 
+    /**
+     * Optional executor used to polygonize the volume in parallel slabs
+     */
+    protected ParallelExecutor executor;
+
     public ArrayIsoSurface(VolumetricSpace volume) {
         this.volume = volume;
         cellSize = new Vec3D(volume.scale.x / volume.resX1, volume.scale.y
@@ -86,6 +92,10 @@ public class ArrayIsoSurface implements IsoSurface {
             mesh.clear();
         }
         isoValue = iso;
+        if (executor != null) {
+            return new SlabPolygonizer(volume, cellSize, centreOffset, iso)
+                    .polygonize(mesh, executor, executor.getNumThreads() * 2);
+        }
         float offsetZ = centreOffset.z;
         for (int z = 0; z < resZ1; z++) {
             int sliceOffset = sliceRes * z;
@@ -222,4 +232,24 @@ public class ArrayIsoSurface implements IsoSurface {
             edgeVertices[i] = null;
         }
     }
+
+    /**
+     * @return the executor used for parallel polygonization (or null)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Enables the parallel polygonization mode. If an executor is given, the
+     * volume is split into slabs along the Z axis which are processed
+     * concurrently. The resulting mesh is identical to the one produced by
+     * the sequential version.
+     * 
+     * @param executor
+     *            executor to use or null, to disable parallel mode
+     */
+    public void setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
 }
@@ -53,6 +53,7 @@ public class BoxBrush extends VolumetricBrush {
                 }
             }
         }
+        notifyRegionChanged(minX, minY, minZ, maxX - 1, maxY - 1, maxZ - 1);
     }
 
     @Override
@@ -0,0 +1,386 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import toxi.geom.Vec3D;
+import toxi.geom.mesh.Mesh3D;
+import toxi.geom.mesh.TriangleMesh;
+import toxi.math.MathUtils;
+import toxi.util.ParallelExecutor;
+
+/**
+ * IsoSurface implementation for interactive editing of volumes. The volume is
+ * divided into chunks of cells, each of which is polygonized into its own
+ * {@link TriangleMesh}. Modified voxel regions are marked dirty (either
+ * manually via {@link #markDirty(int, int, int, int, int, int)} or by
+ * registering this instance as listener with a {@link VolumetricBrush}) and
+ * only the affected chunks are re-extracted by {@link #updateDirtyChunks()}.
+ * 
+ * Renderers can use the individual chunk meshes directly and only need to
+ * refresh those returned by {@link #updateDirtyChunks()}. Alternatively,
+ * {@link #computeSurfaceMesh(Mesh3D, float)} combines all chunks into a single
+ * mesh. Edge vertices are computed independently of chunk boundaries, so
+ * vertices on shared chunk faces are identical and will be welded.
+ */
+public class ChunkedIsoSurface implements IsoSurface, DirtyRegionListener {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    protected VolumetricSpace volume;
+
+    protected Vec3D cellSize;
+    protected Vec3D centreOffset;
+
+    protected float isoValue;
+
+    protected final int chunkSize;
+    protected final int numChunksX, numChunksY, numChunksZ;
+
+    protected TriangleMesh[] chunks;
+    protected boolean[] isDirty;
+    protected int numDirty;
+
+    /**
+     * Optional executor used to polygonize dirty chunks in parallel
+     */
+    protected ParallelExecutor executor;
+
+    public ChunkedIsoSurface(VolumetricSpace volume) {
+        this(volume, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param volume
+     * @param chunkSize
+     *            number of cells per chunk along each axis
+     */
+    public ChunkedIsoSurface(VolumetricSpace volume, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be >= 1");
+        }
+        this.volume = volume;
+        this.chunkSize = chunkSize;
+        cellSize = new Vec3D(volume.scale.x / volume.resX1, volume.scale.y
+                / volume.resY1, volume.scale.z / volume.resZ1);
+        centreOffset = volume.halfScale.getInverted();
+        numChunksX = (volume.resX1 + chunkSize - 1) / chunkSize;
+        numChunksY = (volume.resY1 + chunkSize - 1) / chunkSize;
+        numChunksZ = (volume.resZ1 + chunkSize - 1) / chunkSize;
+        chunks = new TriangleMesh[numChunksX * numChunksY * numChunksZ];
+        isDirty = new boolean[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new TriangleMesh("chunk-" + i, 64, 128);
+        }
+        markAllDirty();
+    }
+
+    /**
+     * Updates all dirty chunks and then combines all chunk meshes into the
+     * given mesh. Changing the iso value marks all chunks as dirty.
+     */
+    public Mesh3D computeSurfaceMesh(Mesh3D mesh, final float iso) {
+        if (mesh == null) {
+            mesh = new TriangleMesh("isosurface-" + iso);
+        } else {
+            mesh.clear();
+        }
+        setIsoValue(iso);
+        updateDirtyChunks();
+        for (TriangleMesh chunk : chunks) {
+            mesh.addMesh(chunk);
+        }
+        return mesh;
+    }
+
+    private void computeEdgeVertex(int x, int y, int z, int edgeIndex,
+            Vec3D result) {
+        int[] edgeOffsetInfo = MarchingCubesIndex.edgeOffsets[edgeIndex];
+        x += edgeOffsetInfo[0];
+        y += edgeOffsetInfo[1];
+        z += edgeOffsetInfo[2];
+        float v0 = volume.getVoxelAt(x, y, z);
+        result.set(x * cellSize.x + centreOffset.x, y * cellSize.y
+                + centreOffset.y, z * cellSize.z + centreOffset.z);
+        switch (edgeOffsetInfo[3]) {
+            case 0:
+                result.x += (isoValue - v0)
+                        / (volume.getVoxelAt(x + 1, y, z) - v0) * cellSize.x;
+                break;
+            case 1:
+                result.y += (isoValue - v0)
+                        / (volume.getVoxelAt(x, y + 1, z) - v0) * cellSize.y;
+                break;
+            default:
+                result.z += (isoValue - v0)
+                        / (volume.getVoxelAt(x, y, z + 1) - v0) * cellSize.z;
+        }
+    }
+
+    protected final int getCellIndex(int x, int y, int z) {
+        int cellIndex = 0;
+        if (volume.getVoxelAt(x, y, z) < isoValue) {
+            cellIndex |= 0x01;
+        }
+        if (volume.getVoxelAt(x, y, z + 1) < isoValue) {
+            cellIndex |= 0x08;
+        }
+        if (volume.getVoxelAt(x, y + 1, z) < isoValue) {
+            cellIndex |= 0x10;
+        }
+        if (volume.getVoxelAt(x, y + 1, z + 1) < isoValue) {
+            cellIndex |= 0x80;
+        }
+        x++;
+        if (volume.getVoxelAt(x, y, z) < isoValue) {
+            cellIndex |= 0x02;
+        }
+        if (volume.getVoxelAt(x, y, z + 1) < isoValue) {
+            cellIndex |= 0x04;
+        }
+        if (volume.getVoxelAt(x, y + 1, z) < isoValue) {
+            cellIndex |= 0x20;
+        }
+        if (volume.getVoxelAt(x, y + 1, z + 1) < isoValue) {
+            cellIndex |= 0x40;
+        }
+        return cellIndex;
+    }
+
+    /**
+     * @param id
+     *            chunk ID
+     * @return mesh of the given chunk
+     */
+    public TriangleMesh getChunkMesh(int id) {
+        return chunks[id];
+    }
+
+    /**
+     * @return number of cells per chunk along each axis
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the executor
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the isoValue
+     */
+    public float getIsoValue() {
+        return isoValue;
+    }
+
+    public int getNumChunks() {
+        return chunks.length;
+    }
+
+    /**
+     * @return number of chunks currently marked dirty
+     */
+    public int getNumDirtyChunks() {
+        return numDirty;
+    }
+
+    public boolean isChunkDirty(int id) {
+        return isDirty[id];
+    }
+
+    public void markAllDirty() {
+        for (int i = 0; i < isDirty.length; i++) {
+            isDirty[i] = true;
+        }
+        numDirty = isDirty.length;
+    }
+
+    /**
+     * Marks all chunks containing cells affected by changes to voxels in the
+     * given region as dirty. All coordinates are inclusive voxel grid
+     * positions.
+     * 
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     */
+    public void markDirty(int minX, int minY, int minZ, int maxX, int maxY,
+            int maxZ) {
+        // a voxel is a corner of the cells at its own & the previous position
+        int cx1 = MathUtils.clip((minX - 1) / chunkSize, 0, numChunksX - 1);
+        int cy1 = MathUtils.clip((minY - 1) / chunkSize, 0, numChunksY - 1);
+        int cz1 = MathUtils.clip((minZ - 1) / chunkSize, 0, numChunksZ - 1);
+        int cx2 = MathUtils.clip(maxX / chunkSize, 0, numChunksX - 1);
+        int cy2 = MathUtils.clip(maxY / chunkSize, 0, numChunksY - 1);
+        int cz2 = MathUtils.clip(maxZ / chunkSize, 0, numChunksZ - 1);
+        for (int cz = cz1; cz <= cz2; cz++) {
+            for (int cy = cy1; cy <= cy2; cy++) {
+                int id = (cz * numChunksY + cy) * numChunksX + cx1;
+                for (int cx = cx1; cx <= cx2; cx++, id++) {
+                    if (!isDirty[id]) {
+                        isDirty[id] = true;
+                        numDirty++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-extracts the surface of a single chunk.
+     * 
+     * @param id
+     *            chunk ID
+     */
+    protected void polygonizeChunk(int id) {
+        int cx = id % numChunksX;
+        int cy = (id / numChunksX) % numChunksY;
+        int cz = id / (numChunksX * numChunksY);
+        int minX = cx * chunkSize;
+        int minY = cy * chunkSize;
+        int minZ = cz * chunkSize;
+        int maxX = Math.min(minX + chunkSize, volume.resX1);
+        int maxY = Math.min(minY + chunkSize, volume.resY1);
+        int maxZ = Math.min(minZ + chunkSize, volume.resZ1);
+        TriangleMesh mesh = chunks[id];
+        mesh.clear();
+        Vec3D a = new Vec3D();
+        Vec3D b = new Vec3D();
+        Vec3D c = new Vec3D();
+        for (int z = minZ; z < maxZ; z++) {
+            for (int y = minY; y < maxY; y++) {
+                for (int x = minX; x < maxX; x++) {
+                    final int cellIndex = getCellIndex(x, y, z);
+                    if (cellIndex > 0 && cellIndex < 255) {
+                        int[] cellTriangles = MarchingCubesIndex.cellTriangles[cellIndex];
+                        for (int i = 0; cellTriangles[i] != -1; i += 3) {
+                            computeEdgeVertex(x, y, z, cellTriangles[i + 1], a);
+                            computeEdgeVertex(x, y, z, cellTriangles[i + 2], b);
+                            computeEdgeVertex(x, y, z, cellTriangles[i], c);
+                            mesh.addFace(a, b, c);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void regionChanged(int minX, int minY, int minZ, int maxX,
+            int maxY, int maxZ) {
+        markDirty(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    /**
+     * Clears all chunk meshes and marks them as dirty.
+     */
+    public void reset() {
+        for (TriangleMesh chunk : chunks) {
+            chunk.clear();
+        }
+        markAllDirty();
+    }
+
+    /**
+     * Sets an optional executor used to re-extract dirty chunks in parallel.
+     * 
+     * @param executor
+     *            the executor to set (or null for single threaded updates)
+     */
+    public void setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the iso value used for future updates. If the value changed, all
+     * chunks are marked dirty.
+     * 
+     * @param iso
+     */
+    public void setIsoValue(float iso) {
+        if (iso != isoValue) {
+            isoValue = iso;
+            markAllDirty();
+        }
+    }
+
+    /**
+     * Re-extracts the surface for all dirty chunks.
+     * 
+     * @return list of updated chunk meshes
+     */
+    public List<TriangleMesh> updateDirtyChunks() {
+        List<TriangleMesh> updated = new ArrayList<TriangleMesh>(numDirty);
+        if (numDirty == 0) {
+            return updated;
+        }
+        final int[] ids = new int[numDirty];
+        for (int i = 0, n = 0; i < isDirty.length; i++) {
+            if (isDirty[i]) {
+                ids[n++] = i;
+                isDirty[i] = false;
+                updated.add(chunks[i]);
+            }
+        }
+        numDirty = 0;
+        if (executor != null && ids.length > 1) {
+            int numJobs = Math.min(executor.getNumThreads() * 4, ids.length);
+            List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(
+                    numJobs);
+            for (int j = 0; j < numJobs; j++) {
+                final int from = j * ids.length / numJobs;
+                final int to = (j + 1) * ids.length / numJobs;
+                jobs.add(new Callable<Object>() {
+
+                    public Object call() {
+                        for (int i = from; i < to; i++) {
+                            polygonizeChunk(ids[i]);
+                        }
+                        return null;
+                    }
+                });
+            }
+            executor.invokeAll(jobs);
+        } else {
+            for (int id : ids) {
+                polygonizeChunk(id);
+            }
+        }
+        return updated;
+    }
+}
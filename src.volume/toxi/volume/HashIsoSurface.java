@@ -27,23 +27,35 @@
 
 package toxi.volume;
 
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import toxi.geom.Vec3D;
 import toxi.geom.mesh.Mesh3D;
 import toxi.geom.mesh.TriangleMesh;
+import toxi.util.ParallelExecutor;
+import toxi.util.datatypes.IntIntHashMap;
 
 /**
- * HashMap based implementation of the IsoSurface interface. More memory
+ * Hash table based implementation of the IsoSurface interface. More memory
  * efficient than {@link ArrayIsoSurface} and so better suited for very
  * high-resolution volumes.
+ * 
+ * Only the edge vertices of the two slices currently processed are kept in
+ * memory, each slice using a primitive {@link IntIntHashMap} mapping edge IDs
+ * to vertex positions in a packed float buffer. These tables & buffers are
+ * reused for successive calls to {@link #computeSurfaceMesh(Mesh3D, float)}
+ * and no vertex objects are created during polygonization. Since the mesh
+ * receives temporary vectors, it needs to copy vertex positions (as done by
+ * {@link TriangleMesh}).
+ * 
+ * For {@link VolumetricBrickMap} volumes, blocks of cells without any
+ * allocated bricks are skipped entirely.
  */
 public class HashIsoSurface implements IsoSurface {
 
+    private static final int BLOCK_MASK = VolumetricBrickMap.BRICK_MASK;
+
     protected static final Logger logger = Logger
             .getLogger(HashIsoSurface.class.getName());
 
@@ -59,11 +71,36 @@ public class HashIsoSurface implements IsoSurface {
     protected int sliceRes;
     protected int nextXY;
 
-    protected HashMap<Integer, Vec3D> edgeVertices;
+    /**
+     * Edge ID to vertex index maps for the current & next slice (indexed by
+     * slice parity)
+     */
+    protected IntIntHashMap[] edgeVertices;
+
+    /**
+     * Packed XYZ edge vertex coordinates for the current & next slice
+     */
+    protected float[][] edgeVertexCoords;
+    protected int[] numEdgeVertices;
+
     protected float density;
 
     protected short[] cellIndexCache, prevCellIndexCache;
 
+    /**
+     * Masks of non-empty cell blocks for the current & previous slice, only
+     * used for {@link VolumetricBrickMap} volumes.
+     * 
+     * @see VolumetricBrickMap#getActiveCellBlocks(int, boolean[])
+     */
+    protected boolean[] activeBlocks, prevActiveBlocks;
+    protected int numBlocksX;
+
+    /**
+     * Optional executor used to polygonize the volume in parallel slabs
+     */
+    protected ParallelExecutor executor;
+
     /**
      * Creates a new instance using the expected default vertex density of 50%.
      * 
@@ -102,7 +139,38 @@ public class HashIsoSurface implements IsoSurface {
         prevCellIndexCache = new short[sliceRes];
 
         centreOffset = volume.halfScale.getInverted();
-        reset();
+        numBlocksX = (resX + BLOCK_MASK) >> VolumetricBrickMap.BRICK_BITS;
+
+        int capacity = (int) Math.max(density * sliceRes, 16);
+        edgeVertices = new IntIntHashMap[] {
+                new IntIntHashMap(capacity, -1),
+                new IntIntHashMap(capacity, -1)
+        };
+        edgeVertexCoords = new float[][] {
+                new float[capacity * 3], new float[capacity * 3]
+        };
+        numEdgeVertices = new int[2];
+    }
+
+    private final void addEdgeVertex(int layer, int edgeID, float x, float y,
+            float z) {
+        int id = numEdgeVertices[layer]++;
+        float[] coords = edgeVertexCoords[layer];
+        int idx = id * 3;
+        if (idx == coords.length) {
+            float[] tmp = new float[coords.length * 2];
+            System.arraycopy(coords, 0, tmp, 0, coords.length);
+            coords = edgeVertexCoords[layer] = tmp;
+        }
+        coords[idx] = x;
+        coords[idx + 1] = y;
+        coords[idx + 2] = z;
+        edgeVertices[layer].put(edgeID, id);
+    }
+
+    private final void clearLayer(int layer) {
+        edgeVertices[layer].clear();
+        numEdgeVertices[layer] = 0;
     }
 
     public Mesh3D computeSurfaceMesh(Mesh3D mesh, final float iso) {
@@ -112,53 +180,78 @@ public class HashIsoSurface implements IsoSurface {
             mesh.clear();
         }
         isoValue = iso;
+        if (executor != null) {
+            return new SlabPolygonizer(volume, cellSize, centreOffset, iso)
+                    .polygonize(mesh, executor, executor.getNumThreads() * 2);
+        }
+        reset();
+        VolumetricBrickMap brickMap = null;
+        if (volume instanceof VolumetricBrickMap) {
+            brickMap = (VolumetricBrickMap) volume;
+        } else {
+            activeBlocks = prevActiveBlocks = null;
+        }
         float offsetZ = centreOffset.z;
         for (int z = 0; z < resZ1; z++) {
-            int sliceOffset = sliceRes * z;
+            final int layer = z & 1;
+            if (brickMap != null) {
+                activeBlocks = brickMap.getActiveCellBlocks(z, activeBlocks);
+            }
             float offsetY = centreOffset.y;
             for (int y = 0; y < resY1; y++) {
+                if (activeBlocks != null && !isBlockRowActive(activeBlocks, y)) {
+                    offsetY += cellSize.y;
+                    continue;
+                }
                 float offsetX = centreOffset.x;
                 int sliceIndex = resX * y;
-                int offset = sliceIndex + sliceOffset;
                 for (int x = 0; x < resX1; x++) {
+                    if (activeBlocks != null
+                            && !activeBlocks[getBlockIndex(x, y)]) {
+                        // skip to next block, but keep offset accumulation
+                        // identical to the dense case
+                        int blockEnd = Math.min((x | BLOCK_MASK) + 1, resX1);
+                        for (; x < blockEnd; x++) {
+                            offsetX += cellSize.x;
+                        }
+                        x--;
+                        continue;
+                    }
                     final int cellIndex = getCellIndex(x, y, z);
                     cellIndexCache[sliceIndex + x] = (short) cellIndex;
                     if (cellIndex > 0 && cellIndex < 255) {
                         final int edgeFlags = MarchingCubesIndex.edgesToCompute[cellIndex];
                         if (edgeFlags > 0 && edgeFlags < 255) {
-                            int edgeOffsetIndex = offset * 3;
-                            float offsetData = volume.getVoxelAt(offset);
+                            int edgeOffsetIndex = (sliceIndex + x) * 3;
+                            float offsetData = volume.getVoxelAt(x, y, z);
                             float isoDiff = isoValue - offsetData;
                             if ((edgeFlags & 1) > 0) {
                                 float t = isoDiff
-                                        / (volume.getVoxelAt(offset + 1) - offsetData);
-                                edgeVertices.put(edgeOffsetIndex, new Vec3D(
-                                        offsetX + t * cellSize.x, y
-                                                * cellSize.y + centreOffset.y,
-                                        z * cellSize.z + centreOffset.z));
+                                        / (volume.getVoxelAt(x + 1, y, z) - offsetData);
+                                addEdgeVertex(layer, edgeOffsetIndex, offsetX
+                                        + t * cellSize.x, y * cellSize.y
+                                        + centreOffset.y, z * cellSize.z
+                                        + centreOffset.z);
                             }
                             if ((edgeFlags & 2) > 0) {
                                 float t = isoDiff
-                                        / (volume.getVoxelAt(offset + resX) - offsetData);
-                                edgeVertices.put(edgeOffsetIndex + 1,
-                                        new Vec3D(x * cellSize.x
-                                                + centreOffset.x, offsetY + t
-                                                * cellSize.y, z * cellSize.z
-                                                + centreOffset.z));
+                                        / (volume.getVoxelAt(x, y + 1, z) - offsetData);
+                                addEdgeVertex(layer, edgeOffsetIndex + 1, x
+                                        * cellSize.x + centreOffset.x, offsetY
+                                        + t * cellSize.y, z * cellSize.z
+                                        + centreOffset.z);
                             }
                             if ((edgeFlags & 4) > 0) {
                                 float t = isoDiff
-                                        / (volume.getVoxelAt(offset + sliceRes) - offsetData);
-                                edgeVertices.put(edgeOffsetIndex + 2,
-                                        new Vec3D(x * cellSize.x
-                                                + centreOffset.x, y
-                                                * cellSize.y + centreOffset.y,
-                                                offsetZ + t * cellSize.z));
+                                        / (volume.getVoxelAt(x, y, z + 1) - offsetData);
+                                addEdgeVertex(layer, edgeOffsetIndex + 2, x
+                                        * cellSize.x + centreOffset.x, y
+                                        * cellSize.y + centreOffset.y, offsetZ
+                                        + t * cellSize.z);
                             }
                         }
                     }
                     offsetX += cellSize.x;
-                    offset++;
                 }
                 offsetY += cellSize.y;
             }
@@ -168,6 +261,9 @@ public class HashIsoSurface implements IsoSurface {
             short[] tmp = prevCellIndexCache;
             prevCellIndexCache = cellIndexCache;
             cellIndexCache = tmp;
+            boolean[] tmpBlocks = prevActiveBlocks;
+            prevActiveBlocks = activeBlocks;
+            activeBlocks = tmpBlocks;
             offsetZ += cellSize.z;
         }
         createFacesForSlice(mesh, resZ1 - 1);
@@ -178,11 +274,24 @@ public class HashIsoSurface implements IsoSurface {
         if (logger.isLoggable(Level.FINE)) {
             logger.fine("creating polygons for slice: " + z);
         }
-        int[] face = new int[16];
-        int sliceOffset = sliceRes * z;
+        final int[] face = new int[16];
+        final int[] faceLayer = new int[16];
+        final Vec3D[] verts = new Vec3D[] {
+                new Vec3D(), new Vec3D(), new Vec3D()
+        };
+        final boolean[] blocks = prevActiveBlocks;
         for (int y = 0; y < resY1; y++) {
+            if (blocks != null && !isBlockRowActive(blocks, y)) {
+                continue;
+            }
             int offset = resX * y;
-            for (int x = 0; x < resX1; x++) {
+            for (int x = 0; x < resX1; x++, offset++) {
+                if (blocks != null && !blocks[getBlockIndex(x, y)]) {
+                    int skip = Math.min(x | BLOCK_MASK, resX1 - 1) - x;
+                    x += skip;
+                    offset += skip;
+                    continue;
+                }
                 final int cellIndex = prevCellIndexCache[offset];
                 if (cellIndex > 0 && cellIndex < 255) {
                     int n = 0;
@@ -191,78 +300,119 @@ public class HashIsoSurface implements IsoSurface {
                     while ((edgeIndex = cellTriangles[n]) != -1) {
                         int[] edgeOffsetInfo = MarchingCubesIndex.edgeOffsets[edgeIndex];
                         face[n] = ((x + edgeOffsetInfo[0]) + resX
-                                * (y + edgeOffsetInfo[1]) + sliceRes
-                                * (z + edgeOffsetInfo[2]))
+                                * (y + edgeOffsetInfo[1]))
                                 * 3 + edgeOffsetInfo[3];
+                        faceLayer[n] = (z + edgeOffsetInfo[2]) & 1;
                         n++;
                     }
                     for (int i = 0; i < n; i += 3) {
-                        final Vec3D va = edgeVertices.get(face[i + 1]);
-                        if (va != null) {
-                            final Vec3D vb = edgeVertices.get(face[i + 2]);
-                            if (vb != null) {
-                                final Vec3D vc = edgeVertices.get(face[i]);
-                                if (vc != null) {
-                                    mesh.addFace(va, vb, vc);
-                                }
-                            }
+                        if (getEdgeVertex(faceLayer[i + 1], face[i + 1],
+                                verts[0])
+                                && getEdgeVertex(faceLayer[i + 2], face[i + 2],
+                                        verts[1])
+                                && getEdgeVertex(faceLayer[i], face[i],
+                                        verts[2])) {
+                            mesh.addFace(verts[0], verts[1], verts[2]);
                         }
                     }
                 }
-                offset++;
-            }
-        }
-        int minIndex = sliceOffset * 3;
-        for (Iterator<Entry<Integer, Vec3D>> i = edgeVertices.entrySet()
-                .iterator(); i.hasNext();) {
-            if (i.next().getKey() < minIndex) {
-                i.remove();
             }
         }
+        // slice edges aren't needed anymore, reuse for slice z + 2
+        clearLayer(z & 1);
+    }
+
+    private final int getBlockIndex(int x, int y) {
+        return (x >> VolumetricBrickMap.BRICK_BITS)
+                + (y >> VolumetricBrickMap.BRICK_BITS) * numBlocksX;
     }
 
     protected final int getCellIndex(int x, int y, int z) {
         int cellIndex = 0;
-        int idx = x + y * resX + z * sliceRes;
-        if (volume.getVoxelAt(idx) < isoValue) {
+        if (volume.getVoxelAt(x, y, z) < isoValue) {
             cellIndex |= 0x01;
         }
-        if (volume.getVoxelAt(idx + sliceRes) < isoValue) {
+        if (volume.getVoxelAt(x, y, z + 1) < isoValue) {
             cellIndex |= 0x08;
         }
-        if (volume.getVoxelAt(idx + resX) < isoValue) {
+        if (volume.getVoxelAt(x, y + 1, z) < isoValue) {
             cellIndex |= 0x10;
         }
-        if (volume.getVoxelAt(idx + resX + sliceRes) < isoValue) {
+        if (volume.getVoxelAt(x, y + 1, z + 1) < isoValue) {
             cellIndex |= 0x80;
         }
-        idx++;
-        if (volume.getVoxelAt(idx) < isoValue) {
+        x++;
+        if (volume.getVoxelAt(x, y, z) < isoValue) {
             cellIndex |= 0x02;
         }
-        if (volume.getVoxelAt(idx + sliceRes) < isoValue) {
+        if (volume.getVoxelAt(x, y, z + 1) < isoValue) {
             cellIndex |= 0x04;
         }
-        if (volume.getVoxelAt(idx + resX) < isoValue) {
+        if (volume.getVoxelAt(x, y + 1, z) < isoValue) {
             cellIndex |= 0x20;
         }
-        if (volume.getVoxelAt(idx + resX + sliceRes) < isoValue) {
+        if (volume.getVoxelAt(x, y + 1, z + 1) < isoValue) {
             cellIndex |= 0x40;
         }
         return cellIndex;
     }
 
     /**
-     * Resets mesh vertices to default positions and clears face index. Needs to
-     * be called inbetween successive calls to
-     * {@link #computeSurfaceMesh(Mesh3D, float)}.
+     * Looks up the edge vertex with the given ID in the given slice table.
+     * 
+     * @return true, if the vertex exists (and was copied into the result)
+     */
+    private final boolean getEdgeVertex(int layer, int edgeID, Vec3D result) {
+        int id = edgeVertices[layer].get(edgeID);
+        if (id != -1) {
+            float[] coords = edgeVertexCoords[layer];
+            id *= 3;
+            result.set(coords[id], coords[id + 1], coords[id + 2]);
+            return true;
+        }
+        return false;
+    }
+
+    private final boolean isBlockRowActive(boolean[] blocks, int y) {
+        int i = (y >> VolumetricBrickMap.BRICK_BITS) * numBlocksX;
+        for (int end = i + numBlocksX; i < end; i++) {
+            if (blocks[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears the edge vertex tables. The allocated storage is kept and reused.
+     * Called automatically by {@link #computeSurfaceMesh(Mesh3D, float)}.
      */
     public void reset() {
-        edgeVertices = new HashMap<Integer, Vec3D>(
-                (int) (density * volume.numCells));
+        clearLayer(0);
+        clearLayer(1);
     }
 
     public void setExpectedDensity(float density) {
         this.density = density;
     }
+
+    /**
+     * @return the executor used for parallel polygonization (or null)
+     */
+    public ParallelExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Enables the parallel polygonization mode. If an executor is given, the
+     * volume is split into slabs along the Z axis which are processed
+     * concurrently. The resulting mesh is identical to the one produced by
+     * the sequential version.
+     * 
+     * @param executor
+     *            executor to use or null, to disable parallel mode
+     */
+    public void setExecutor(ParallelExecutor executor) {
+        this.executor = executor;
+    }
 }
@@ -95,7 +95,7 @@ public class MeshLatticeBuilder {
         this.voxRangeX = new IntegerRange(1, resX - 2);
         this.voxRangeY = new IntegerRange(1, resY - 2);
         this.voxRangeZ = new IntegerRange(1, resZ - 2);
-        volume = new VolumetricHashMap(scale, resX, resY, resZ, 0.1f);
+        volume = new VolumetricBrickMap(scale, resX, resY, resZ);
     }
 
     public WETriangleMesh buildLattice(WETriangleMesh mesh, Mesh3D targetMesh,
@@ -72,6 +72,7 @@ public class RoundBrush extends VolumetricBrush {
                 }
             }
         }
+        notifyRegionChanged(minX, minY, minZ, maxX - 1, maxY - 1, maxZ - 1);
     }
 
     @Override
@@ -0,0 +1,345 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.volume;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import toxi.geom.Vec3D;
+import toxi.geom.mesh.Mesh3D;
+import toxi.util.ParallelExecutor;
+
+/**
+ * Parallel marching cubes implementation shared by {@link ArrayIsoSurface} and
+ * {@link HashIsoSurface}. The volume is split into slabs of cell layers along
+ * the Z axis, which are polygonized concurrently, each only keeping two layers
+ * of edge vertices in memory. Edge vertices on the shared boundary planes
+ * between slabs are computed by both neighbouring slabs using identical
+ * operations and are therefore bit-identical. Once all slabs are finished,
+ * their faces are added to the mesh in slab order, which welds these shared
+ * vertices and produces exactly the same mesh as the sequential version.
+ * 
+ * Voxels are accessed via their grid coordinates only, so volumes with more
+ * than {@link VolumetricSpace#numCells} voxels are supported. For
+ * {@link VolumetricBrickMap} volumes, blocks of cells without any allocated
+ * bricks are skipped, just like in {@link HashIsoSurface}.
+ */
+final class SlabPolygonizer {
+
+    private static final int BLOCK_MASK = VolumetricBrickMap.BRICK_MASK;
+
+    private final VolumetricSpace volume;
+    private final VolumetricBrickMap brickMap;
+    private final float iso;
+    private final Vec3D cellSize;
+    private final Vec3D centreOffset;
+
+    private final int resX, resX1, resY1, resZ1, sliceRes;
+    private final int numBlocksX;
+
+    SlabPolygonizer(VolumetricSpace volume, Vec3D cellSize, Vec3D centreOffset,
+            float iso) {
+        this.volume = volume;
+        this.brickMap = volume instanceof VolumetricBrickMap ? (VolumetricBrickMap) volume
+                : null;
+        this.cellSize = cellSize;
+        this.centreOffset = centreOffset;
+        this.iso = iso;
+        this.resX = volume.resX;
+        this.resX1 = volume.resX1;
+        this.resY1 = volume.resY1;
+        this.resZ1 = volume.resZ1;
+        this.sliceRes = volume.sliceRes;
+        this.numBlocksX = (resX + BLOCK_MASK) >> VolumetricBrickMap.BRICK_BITS;
+    }
+
+    /**
+     * Computes the edge vertices and cell indices for a single layer of cells.
+     * Cells in inactive blocks (if a block mask is given) are skipped and
+     * their entries in the edge & cell buffers are left untouched.
+     */
+    private void computeLayer(int z, float offsetZ, Vec3D[] edges,
+            short[] cells, boolean[] blocks) {
+        float offsetY = centreOffset.y;
+        for (int y = 0; y < resY1; y++) {
+            if (blocks != null && !isBlockRowActive(blocks, y)) {
+                offsetY += cellSize.y;
+                continue;
+            }
+            float offsetX = centreOffset.x;
+            int sliceIndex = resX * y;
+            for (int x = 0; x < resX1; x++) {
+                if (blocks != null && !blocks[getBlockIndex(x, y)]) {
+                    // skip to next block, but keep offset accumulation
+                    // identical to the dense case
+                    int blockEnd = Math.min((x | BLOCK_MASK) + 1, resX1);
+                    for (; x < blockEnd; x++) {
+                        offsetX += cellSize.x;
+                    }
+                    x--;
+                    continue;
+                }
+                final int cellIndex = getCellIndex(x, y, z);
+                final int edgeIndex = (sliceIndex + x) * 3;
+                cells[sliceIndex + x] = (short) cellIndex;
+                edges[edgeIndex] = null;
+                edges[edgeIndex + 1] = null;
+                edges[edgeIndex + 2] = null;
+                if (cellIndex > 0 && cellIndex < 255) {
+                    final int edgeFlags = MarchingCubesIndex.edgesToCompute[cellIndex];
+                    if (edgeFlags > 0 && edgeFlags < 255) {
+                        float offsetData = volume.getVoxelAt(x, y, z);
+                        float isoDiff = iso - offsetData;
+                        if ((edgeFlags & 1) > 0) {
+                            float t = isoDiff
+                                    / (volume.getVoxelAt(x + 1, y, z) - offsetData);
+                            edges[edgeIndex] = new Vec3D(offsetX + t
+                                    * cellSize.x, y * cellSize.y
+                                    + centreOffset.y, z * cellSize.z
+                                    + centreOffset.z);
+                        }
+                        if ((edgeFlags & 2) > 0) {
+                            float t = isoDiff
+                                    / (volume.getVoxelAt(x, y + 1, z) - offsetData);
+                            edges[edgeIndex + 1] = new Vec3D(x * cellSize.x
+                                    + centreOffset.x, offsetY + t * cellSize.y,
+                                    z * cellSize.z + centreOffset.z);
+                        }
+                        if ((edgeFlags & 4) > 0) {
+                            float t = isoDiff
+                                    / (volume.getVoxelAt(x, y, z + 1) - offsetData);
+                            edges[edgeIndex + 2] = new Vec3D(x * cellSize.x
+                                    + centreOffset.x, y * cellSize.y
+                                    + centreOffset.y, offsetZ + t * cellSize.z);
+                        }
+                    }
+                }
+                offsetX += cellSize.x;
+            }
+            offsetY += cellSize.y;
+        }
+    }
+
+    /**
+     * Creates the triangles for a single layer of cells, using the edge
+     * vertices of the layer itself and of the next one. If block masks are
+     * given, inactive cells are skipped and edges belonging to inactive
+     * blocks (whose buffer entries might be stale) are treated as missing.
+     */
+    private void createFacesForLayer(short[] cells, Vec3D[] edges,
+            Vec3D[] nextEdges, boolean[] blocks, boolean[] nextBlocks,
+            List<Vec3D> triangles) {
+        final int[] face = new int[16];
+        final Vec3D[][] layers = new Vec3D[][] {
+                edges, nextEdges
+        };
+        final boolean[][] layerBlocks = new boolean[][] {
+                blocks, nextBlocks
+        };
+        final Vec3D[][] faceLayers = new Vec3D[16][];
+        final boolean[] isValid = new boolean[16];
+        for (int y = 0; y < resY1; y++) {
+            if (blocks != null && !isBlockRowActive(blocks, y)) {
+                continue;
+            }
+            int offset = resX * y;
+            for (int x = 0; x < resX1; x++, offset++) {
+                if (blocks != null && !blocks[getBlockIndex(x, y)]) {
+                    int skip = Math.min(x | BLOCK_MASK, resX1 - 1) - x;
+                    x += skip;
+                    offset += skip;
+                    continue;
+                }
+                final int cellIndex = cells[offset];
+                if (cellIndex > 0 && cellIndex < 255) {
+                    int n = 0;
+                    int edgeIndex;
+                    final int[] cellTriangles = MarchingCubesIndex.cellTriangles[cellIndex];
+                    while ((edgeIndex = cellTriangles[n]) != -1) {
+                        int[] edgeOffsetInfo = MarchingCubesIndex.edgeOffsets[edgeIndex];
+                        int ex = x + edgeOffsetInfo[0];
+                        int ey = y + edgeOffsetInfo[1];
+                        face[n] = (ex + resX * ey) * 3 + edgeOffsetInfo[3];
+                        faceLayers[n] = layers[edgeOffsetInfo[2]];
+                        boolean[] mask = layerBlocks[edgeOffsetInfo[2]];
+                        isValid[n] = mask == null
+                                || mask[getBlockIndex(ex, ey)];
+                        n++;
+                    }
+                    for (int i = 0; i < n; i += 3) {
+                        if (!(isValid[i] && isValid[i + 1] && isValid[i + 2])) {
+                            continue;
+                        }
+                        final Vec3D va = faceLayers[i + 1][face[i + 1]];
+                        final Vec3D vb = faceLayers[i + 2][face[i + 2]];
+                        final Vec3D vc = faceLayers[i][face[i]];
+                        if (va != null && vb != null && vc != null) {
+                            triangles.add(va);
+                            triangles.add(vb);
+                            triangles.add(vc);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private int getBlockIndex(int x, int y) {
+        return (x >> VolumetricBrickMap.BRICK_BITS)
+                + (y >> VolumetricBrickMap.BRICK_BITS) * numBlocksX;
+    }
+
+    private int getCellIndex(int x, int y, int z) {
+        int cellIndex = 0;
+        if (volume.getVoxelAt(x, y, z) < iso) {
+            cellIndex |= 0x01;
+        }
+        if (volume.getVoxelAt(x, y, z + 1) < iso) {
+            cellIndex |= 0x08;
+        }
+        if (volume.getVoxelAt(x, y + 1, z) < iso) {
+            cellIndex |= 0x10;
+        }
+        if (volume.getVoxelAt(x, y + 1, z + 1) < iso) {
+            cellIndex |= 0x80;
+        }
+        x++;
+        if (volume.getVoxelAt(x, y, z) < iso) {
+            cellIndex |= 0x02;
+        }
+        if (volume.getVoxelAt(x, y, z + 1) < iso) {
+            cellIndex |= 0x04;
+        }
+        if (volume.getVoxelAt(x, y + 1, z) < iso) {
+            cellIndex |= 0x20;
+        }
+        if (volume.getVoxelAt(x, y + 1, z + 1) < iso) {
+            cellIndex |= 0x40;
+        }
+        return cellIndex;
+    }
+
+    private boolean isBlockRowActive(boolean[] blocks, int y) {
+        int i = (y >> VolumetricBrickMap.BRICK_BITS) * numBlocksX;
+        for (int end = i + numBlocksX; i < end; i++) {
+            if (blocks[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Polygonizes the volume and adds all resulting faces to the given mesh.
+     * 
+     * @param mesh
+     *            target mesh
+     * @param executor
+     *            executor to use
+     * @param numSlabs
+     *            number of slabs to split the volume into
+     * @return mesh
+     */
+    Mesh3D polygonize(Mesh3D mesh, ParallelExecutor executor, int numSlabs) {
+        numSlabs = Math.max(1, Math.min(numSlabs, resZ1));
+        final List<List<Vec3D>> results = new ArrayList<List<Vec3D>>(numSlabs);
+        List<Callable<Object>> jobs = new ArrayList<Callable<Object>>(numSlabs);
+        for (int i = 0; i < numSlabs; i++) {
+            final int z1 = (int) ((long) resZ1 * i / numSlabs);
+            final int z2 = (int) ((long) resZ1 * (i + 1) / numSlabs);
+            final List<Vec3D> triangles = new ArrayList<Vec3D>();
+            results.add(triangles);
+            jobs.add(new Callable<Object>() {
+
+                public Object call() {
+                    polygonizeSlab(z1, z2, triangles);
+                    return null;
+                }
+            });
+        }
+        executor.invokeAll(jobs);
+        for (List<Vec3D> triangles : results) {
+            for (int i = 0, num = triangles.size(); i < num; i += 3) {
+                mesh.addFace(triangles.get(i), triangles.get(i + 1),
+                        triangles.get(i + 2));
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * Polygonizes all cell layers in the interval z1 (inclusive) ... z2
+     * (exclusive).
+     */
+    private void polygonizeSlab(int z1, int z2, List<Vec3D> triangles) {
+        Vec3D[] edges = new Vec3D[3 * sliceRes];
+        Vec3D[] nextEdges = new Vec3D[3 * sliceRes];
+        short[] cells = new short[sliceRes];
+        short[] nextCells = new short[sliceRes];
+        boolean[] blocks = null, nextBlocks = null;
+        // accumulate offset the same way as the sequential version
+        float offsetZ = centreOffset.z;
+        for (int z = 0; z < z1; z++) {
+            offsetZ += cellSize.z;
+        }
+        if (brickMap != null) {
+            blocks = brickMap.getActiveCellBlocks(z1, null);
+        }
+        computeLayer(z1, offsetZ, edges, cells, blocks);
+        for (int z = z1; z < z2; z++) {
+            offsetZ += cellSize.z;
+            if (z + 1 < resZ1) {
+                if (brickMap != null) {
+                    nextBlocks = brickMap.getActiveCellBlocks(z + 1,
+                            nextBlocks);
+                }
+                computeLayer(z + 1, offsetZ, nextEdges, nextCells, nextBlocks);
+            } else {
+                // edges of the top boundary layer are never computed
+                Arrays.fill(nextEdges, null);
+                if (nextBlocks != null) {
+                    Arrays.fill(nextBlocks, true);
+                }
+            }
+            createFacesForLayer(cells, edges, nextEdges, blocks, nextBlocks,
+                    triangles);
+            Vec3D[] tmp = edges;
+            edges = nextEdges;
+            nextEdges = tmp;
+            short[] tmpCells = cells;
+            cells = nextCells;
+            nextCells = tmpCells;
+            boolean[] tmpBlocks = blocks;
+            blocks = nextBlocks;
+            nextBlocks = tmpBlocks;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *   __               .__       .__  ._____.           
+ * _/  |_  _______  __|__| ____ |  | |__\_ |__   ______
+ * \   __\/  _ \  \/  /  |/ ___\|  | |  || __ \ /  ___/
+ *  |  | (  <_> >    <|  \  \___|  |_|  || \_\ \\___ \ 
+ *  |__|  \____/__/\_ \__|\___  >____/__||___  /____  >
+ *                   \/       \/             \/     \/ 
+ *
+ * Copyright (c) 2006-2011 Karsten Schmidt
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * 
+ * http://creativecommons.org/licenses/LGPL/2.1/
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+
+package toxi.volume;
+
+import toxi.geom.Vec3D;
+
+/**
+ * Sparse {@link VolumetricSpace} implementation storing voxels in fixed size
+ * bricks of 8x8x8 floats, which are only allocated once a non-zero value is
+ * written into them. Unallocated bricks read as zero. Compared to
+ * {@link VolumetricHashMap} this requires no boxing and only ~4 bytes per
+ * voxel in populated regions, plus a single reference per (possibly empty)
+ * brick.
+ * 
+ * Brick data can be accessed directly via {@link #getBrick(int, int, int)},
+ * allowing iso surface extraction & other processes to skip empty regions
+ * entirely (see {@link #getActiveCellBlocks(int, boolean[])}).
+ * 
+ * The coordinate based voxel accessors support volumes with more than 2^31
+ * cells. The index based ones (inherited from {@link VolumetricSpace}) are
+ * limited to the first {@link #numCells} voxels.
+ */
+public class VolumetricBrickMap extends VolumetricSpace {
+
+    public static final int BRICK_BITS = 3;
+    public static final int BRICK_SIZE = 1 << BRICK_BITS;
+    public static final int BRICK_MASK = BRICK_SIZE - 1;
+    public static final int BRICK_VOLUME = BRICK_SIZE * BRICK_SIZE
+            * BRICK_SIZE;
+
+    public final int bricksX, bricksY, bricksZ;
+
+    protected final int brickSliceRes;
+
+    protected float[][] bricks;
+    protected int numBricks;
+
+    public VolumetricBrickMap(Vec3D scale, int resX, int resY, int resZ) {
+        super(scale, resX, resY, resZ);
+        bricksX = (resX + BRICK_MASK) >> BRICK_BITS;
+        bricksY = (resY + BRICK_MASK) >> BRICK_BITS;
+        bricksZ = (resZ + BRICK_MASK) >> BRICK_BITS;
+        brickSliceRes = bricksX * bricksY;
+        bricks = new float[brickSliceRes * bricksZ][];
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < bricks.length; i++) {
+            bricks[i] = null;
+        }
+        numBricks = 0;
+    }
+
+    @Override
+    public void closeSides() {
+        setVolumeSidesTo(0);
+    }
+
+    /**
+     * Computes which blocks of marching cubes cells in the given cell slice
+     * (between voxel layers z and z+1) might contain non-zero voxels. Each
+     * block covers {@link #BRICK_SIZE}x{@link #BRICK_SIZE} cells and the
+     * result is indexed by <code>bx + by * bricksX</code>. Cells in inactive
+     * blocks have all their corner voxels set to zero.
+     * 
+     * @param z
+     *            cell slice
+     * @param mask
+     *            result array to reuse (or null)
+     * @return activity mask
+     */
+    public boolean[] getActiveCellBlocks(int z, boolean[] mask) {
+        if (mask == null || mask.length < brickSliceRes) {
+            mask = new boolean[brickSliceRes];
+        }
+        int bz1 = z >> BRICK_BITS;
+        int bz2 = Math.min((z + 1) >> BRICK_BITS, bricksZ - 1);
+        for (int by = 0, i = 0; by < bricksY; by++) {
+            int by2 = Math.min(by + 1, bricksY - 1);
+            for (int bx = 0; bx < bricksX; bx++, i++) {
+                int bx2 = Math.min(bx + 1, bricksX - 1);
+                boolean isActive = false;
+                for (int bz = bz1; bz <= bz2 && !isActive; bz++) {
+                    int slice = bz * brickSliceRes;
+                    isActive = bricks[slice + by * bricksX + bx] != null
+                            || bricks[slice + by * bricksX + bx2] != null
+                            || bricks[slice + by2 * bricksX + bx] != null
+                            || bricks[slice + by2 * bricksX + bx2] != null;
+                }
+                mask[i] = isActive;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the voxel data of the given brick. Voxels are stored in XYZ
+     * order, i.e. at index <code>x + y * BRICK_SIZE + z * BRICK_SIZE^2</code>
+     * (coordinates relative to the brick origin).
+     * 
+     * @param bx
+     * @param by
+     * @param bz
+     * @return brick data or null, if the brick is empty
+     */
+    public float[] getBrick(int bx, int by, int bz) {
+        return bricks[bx + by * bricksX + bz * brickSliceRes];
+    }
+
+    public float getDensity() {
+        return (float) numBricks / bricks.length;
+    }
+
+    /**
+     * @return number of allocated bricks
+     */
+    public int getNumBricks() {
+        return numBricks;
+    }
+
+    @Override
+    public final float getVoxelAt(int index) {
+        int z = index / sliceRes;
+        index -= z * sliceRes;
+        int y = index / resX;
+        return getVoxelAt(index - y * resX, y, z);
+    }
+
+    @Override
+    public final float getVoxelAt(int x, int y, int z) {
+        float[] brick = bricks[(x >> BRICK_BITS) + (y >> BRICK_BITS) * bricksX
+                + (z >> BRICK_BITS) * brickSliceRes];
+        if (brick != null) {
+            return brick[(x & BRICK_MASK)
+                    + (((y & BRICK_MASK) + ((z & BRICK_MASK) << BRICK_BITS)) << BRICK_BITS)];
+        }
+        return 0;
+    }
+
+    public void setVolumeSidesTo(float density) {
+        for (int z = 0; z < resZ; z++) {
+            for (int x = 0; x < resX; x++) {
+                setVoxelAt(x, 0, z, density);
+                setVoxelAt(x, resY1, z, density);
+            }
+            for (int y = 1; y < resY1; y++) {
+                setVoxelAt(0, y, z, density);
+                setVoxelAt(resX1, y, z, density);
+            }
+        }
+        for (int y = 0; y < resY; y++) {
+            for (int x = 0; x < resX; x++) {
+                setVoxelAt(x, y, 0, density);
+                setVoxelAt(x, y, resZ1, density);
+            }
+        }
+    }
+
+    @Override
+    public final void setVoxelAt(int index, float value) {
+        if (index >= 0 && index < numCells) {
+            int z = index / sliceRes;
+            index -= z * sliceRes;
+            int y = index / resX;
+            setVoxelAt(index - y * resX, y, z, value);
+        }
+    }
+
+    @Override
+    public final void setVoxelAt(int x, int y, int z, float value) {
+        if (x >= 0 && x < resX && y >= 0 && y < resY && z >= 0 && z < resZ) {
+            int id = (x >> BRICK_BITS) + (y >> BRICK_BITS) * bricksX
+                    + (z >> BRICK_BITS) * brickSliceRes;
+            float[] brick = bricks[id];
+            if (brick == null) {
+                // empty bricks implicitly contain zeroes only
+                if (value == 0) {
+                    return;
+                }
+                brick = bricks[id] = new float[BRICK_VOLUME];
+                numBricks++;
+            }
+            brick[(x & BRICK_MASK)
+                    + (((y & BRICK_MASK) + ((z & BRICK_MASK) << BRICK_BITS)) << BRICK_BITS)] = value;
+        }
+    }
+}
@@ -27,6 +27,8 @@
 
 package toxi.volume;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Logger;
 
 import toxi.geom.Vec3D;
@@ -48,10 +50,28 @@ public abstract class VolumetricBrush {
 
     protected BrushMode brushMode = MODE_ADDITIVE;
 
+    protected List<DirtyRegionListener> listeners;
+
     public VolumetricBrush(VolumetricSpace volume) {
         this.volume = volume;
     }
 
+    /**
+     * Adds a listener to be notified of the voxel region modified by each
+     * brush stroke.
+     * 
+     * @param l
+     *            listener
+     */
+    public void addDirtyRegionListener(DirtyRegionListener l) {
+        if (listeners == null) {
+            listeners = new ArrayList<DirtyRegionListener>(1);
+        }
+        if (!listeners.contains(l)) {
+            listeners.add(l);
+        }
+    }
+
     public void drawAtAbsolutePos(Vec3D pos, float density) {
         float cx = MathUtils.clip((pos.x + volume.halfScale.x) / volume.scale.x
                 * volume.resX1, 0, volume.resX1);
@@ -65,6 +85,25 @@ public abstract class VolumetricBrush {
     public abstract void drawAtGridPos(float cx, float cy, float cz,
             float density);
 
+    /**
+     * Notifies all listeners about a modified region. Coordinates are
+     * inclusive voxel positions.
+     */
+    protected void notifyRegionChanged(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) {
+        if (listeners != null && minX <= maxX && minY <= maxY && minZ <= maxZ) {
+            for (DirtyRegionListener l : listeners) {
+                l.regionChanged(minX, minY, minZ, maxX, maxY, maxZ);
+            }
+        }
+    }
+
+    public void removeDirtyRegionListener(DirtyRegionListener l) {
+        if (listeners != null) {
+            listeners.remove(l);
+        }
+    }
+
     public void setMode(BrushMode mode) {
         brushMode = mode;
     }
@@ -72,7 +111,10 @@ public abstract class VolumetricBrush {
     public abstract void setSize(float radius);
 
     protected final void updateVoxel(int x, int y, int z, float cellVal) {
-        int idx = volume.getIndexFor(x, y, z);
-        volume.setVoxelAt(idx, brushMode.apply(volume.getVoxelAt(idx), cellVal));
+        x = MathUtils.clip(x, 0, volume.resX1);
+        y = MathUtils.clip(y, 0, volume.resY1);
+        z = MathUtils.clip(z, 0, volume.resZ1);
+        volume.setVoxelAt(x, y, z,
+                brushMode.apply(volume.getVoxelAt(x, y, z), cellVal));
     }
 }
\ No newline at end of file
@@ -56,10 +56,12 @@ public abstract class VolumetricSpace {
         resY1 = resY - 1;
         resZ1 = resZ - 1;
         sliceRes = resX * resY;
-        numCells = sliceRes * resZ;
+        // clamp to int range for very large (sparse) volumes
+        long totalCells = (long) sliceRes * resZ;
+        numCells = (int) Math.min(totalCells, Integer.MAX_VALUE);
         setScale(scale);
         logger.info("new space of " + resX + "x" + resY + "x" + resZ
-                + " cells: " + numCells);
+                + " cells: " + totalCells);
     }
 
     public abstract void clear();
@@ -89,6 +91,21 @@ public abstract class VolumetricSpace {
 
     public abstract float getVoxelAt(int index);
 
+    /**
+     * Returns the value of the voxel at the given grid position. The default
+     * implementation delegates to {@link #getVoxelAt(int)}, but sparse
+     * implementations override this to support volumes with more than
+     * {@link #numCells} voxels.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @return voxel value
+     */
+    public float getVoxelAt(int x, int y, int z) {
+        return getVoxelAt(x + y * resX + z * sliceRes);
+    }
+
     /**
      * @param scale
      *            the scale to set
@@ -104,8 +121,18 @@ public abstract class VolumetricSpace {
                 "This VolumetricSpace implementation does not support setVoxelAt()");
     }
 
+    /**
+     * Sets the value of the voxel at the given grid position. The default
+     * implementation delegates to {@link #setVoxelAt(int, float)}, but sparse
+     * implementations override this to support volumes with more than
+     * {@link #numCells} voxels.
+     * 
+     * @param x
+     * @param y
+     * @param z
+     * @param value
+     */
     public void setVoxelAt(int x, int y, int z, float value) {
-        throw new UnsupportedOperationException(
-                "This VolumetricSpace implementation does not support setVoxelAt()");
+        setVoxelAt(x + y * resX + z * sliceRes, value);
     }
 }